@@ -25,6 +25,11 @@ android {
         }
     }
 
+    sourceSets {
+        // Exported Room schemas, for MigrationTestHelper.
+        getByName("androidTest").assets.srcDir("$projectDir/schemas")
+    }
+
     signingConfigs {
         create("release") {
             val storeFilePath = System.getenv("SIGNING_STORE_FILE")
@@ -73,6 +78,11 @@ android {
         buildConfig = true
     }
 
+    testOptions {
+        // Let JVM unit tests run code that logs through android.util.Log.
+        unitTests.isReturnDefaultValues = true
+    }
+
     packaging {
         resources {
             excludes += "/META-INF/{AL2.0,LGPL2.1}"
@@ -81,6 +91,10 @@ android {
     }
 }
 
+ksp {
+    arg("room.schemaLocation", "$projectDir/schemas")
+}
+
 dependencies {
     // AndroidX Core
     implementation(libs.androidx.core.ktx)
@@ -124,6 +138,7 @@ dependencies {
 
     // Serialization
     implementation(libs.kotlinx.serialization.json)
+    implementation(libs.kotlinx.serialization.cbor)
 
     // Coroutines
     implementation(libs.kotlinx.coroutines.android)
@@ -131,17 +146,16 @@ dependencies {
     // Nostr Crypto
     implementation(libs.secp256k1.kmp)
     implementation(libs.secp256k1.kmp.jni.android)
-    implementation(libs.lazysodium.android) {
-        exclude(group = "net.java.dev.jna", module = "jna")
-    }
-    implementation(libs.jna) { artifact { type = "aar" } }
 
     // Image Loading
     implementation(libs.coil.compose)
 
     // Testing
     testImplementation(libs.junit)
+    testImplementation(libs.secp256k1.kmp.jni.jvm)
     androidTestImplementation(libs.androidx.test.ext)
+    androidTestImplementation(libs.androidx.test.runner)
+    androidTestImplementation(libs.room.testing)
     androidTestImplementation(platform(libs.compose.bom))
     androidTestImplementation(libs.compose.ui.test)
 }
@@ -21,14 +21,6 @@
 # secp256k1
 -keep class fr.acinq.secp256k1.** { *; }
 
-# Lazysodium
--keep class com.goterl.lazysodium.** { *; }
-
-# JNA
--keep class com.sun.jna.** { *; }
--dontwarn com.sun.jna.**
--dontwarn java.awt.**
-
 # Room
 -keep class * extends androidx.room.RoomDatabase
 -dontwarn androidx.room.paging.**
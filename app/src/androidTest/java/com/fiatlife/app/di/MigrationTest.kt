@@ -0,0 +1,121 @@
+package com.fiatlife.app.di
+
+import androidx.room.testing.MigrationTestHelper
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import com.fiatlife.app.data.local.FiatLifeDatabase
+import com.fiatlife.app.data.local.LocalCodec
+import com.fiatlife.app.domain.model.Bill
+import com.fiatlife.app.domain.model.FinancialGoal
+import com.fiatlife.app.domain.model.SalaryConfig
+import kotlinx.serialization.SerializationException
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Builds a database as version 4 (the oldest release with an installed base) left it, runs
+ * every migration, and has [MigrationTestHelper] check the result against the exported
+ * schema of the current version.
+ */
+@RunWith(AndroidJUnit4::class)
+class MigrationTest {
+
+    @get:Rule
+    val helper = MigrationTestHelper(
+        InstrumentationRegistry.getInstrumentation(),
+        FiatLifeDatabase::class.java
+    )
+
+    private val name = "migration-test"
+
+    @Test
+    fun migratesVersion4ToLatest() {
+        createVersion4 { db ->
+            db.execSQL(
+                "INSERT INTO bills (id, jsonData, category, updatedAt) VALUES (?, ?, ?, ?)",
+                arrayOf<Any?>("b1", """{"id":"b1","name":"Rent","amount":1200.0,"notes":"landlord"}""", "HOUSING", 5L)
+            )
+            db.execSQL(
+                "INSERT INTO bills (id, jsonData, category, updatedAt) VALUES (?, ?, ?, ?)",
+                arrayOf<Any?>("b2", "{not json", "OTHER", 6L)
+            )
+            db.execSQL(
+                "INSERT INTO goals (id, jsonData, category, updatedAt) VALUES (?, ?, ?, ?)",
+                arrayOf<Any?>("g1", """{"id":"g1","name":"Holiday","targetAmount":900.0}""", "TRAVEL", 7L)
+            )
+            db.execSQL(
+                "INSERT INTO salary_configs (id, jsonData, updatedAt) VALUES (?, ?, ?)",
+                arrayOf<Any?>("s1", """{"id":"s1","hourlyRate":30.0}""", 8L)
+            )
+        }
+
+        val db = helper.runMigrationsAndValidate(name, LATEST_VERSION, true, *ALL_MIGRATIONS)
+
+        val bill = LocalCodec.decode(Bill.serializer(), blob(db, "SELECT data FROM bills WHERE id = 'b1'"))
+        assertEquals("Rent", bill.name)
+        assertEquals(1200.0, bill.amount, 0.0)
+        db.query("SELECT updatedAt, sourceEventId, monthlyNormalizedCents FROM bills WHERE id = 'b1'").use { c ->
+            assertTrue(c.moveToFirst())
+            assertEquals(5L, c.getLong(0))
+            assertEquals("", c.getString(1))
+            assertEquals(120_000L, c.getLong(2))
+        }
+
+        // Unreadable JSON survives the move to the binary column instead of being dropped.
+        val unreadable = blob(db, "SELECT data FROM bills WHERE id = 'b2'")
+        assertEquals("{not json", String(unreadable, 1, unreadable.size - 1, Charsets.UTF_8))
+        assertThrows(SerializationException::class.java) { LocalCodec.decode(Bill.serializer(), unreadable) }
+
+        assertEquals("Holiday", LocalCodec.decode(FinancialGoal.serializer(), blob(db, "SELECT data FROM goals")).name)
+        assertEquals(30.0, LocalCodec.decode(SalaryConfig.serializer(), blob(db, "SELECT data FROM salary_configs")).hourlyRate, 0.0)
+
+        // The search index is backfilled from the readable records only.
+        db.query("SELECT type, recordId FROM search_index WHERE search_index MATCH 'landlord'").use { c ->
+            assertTrue(c.moveToFirst())
+            assertEquals("BILL", c.getString(0))
+            assertEquals("b1", c.getString(1))
+        }
+        db.query("SELECT COUNT(*) FROM search_index").use { c ->
+            assertTrue(c.moveToFirst())
+            assertEquals(2, c.getInt(0))
+        }
+    }
+
+    private fun blob(db: SupportSQLiteDatabase, sql: String): ByteArray =
+        db.query(sql).use { c ->
+            assertTrue(c.moveToFirst())
+            c.getBlob(0)
+        }
+
+    /** Version 4 tables as Room created them, before any migration in [ALL_MIGRATIONS] that this test covers. */
+    private fun createVersion4(fill: (SupportSQLiteDatabase) -> Unit) {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        context.deleteDatabase(name)
+        val config = SupportSQLiteOpenHelper.Configuration.builder(context)
+            .name(name)
+            .callback(object : SupportSQLiteOpenHelper.Callback(4) {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `salary_configs` (`id` TEXT NOT NULL, `jsonData` TEXT NOT NULL, `updatedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `bills` (`id` TEXT NOT NULL, `jsonData` TEXT NOT NULL, `category` TEXT NOT NULL, `updatedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `goals` (`id` TEXT NOT NULL, `jsonData` TEXT NOT NULL, `category` TEXT NOT NULL, `updatedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `cypherlog_subscriptions` (`dTag` TEXT NOT NULL, `eventId` TEXT NOT NULL, `tagsJson` TEXT NOT NULL, `createdAt` INTEGER NOT NULL, `contentDecryptedJson` TEXT, PRIMARY KEY(`dTag`))")
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `credit_accounts` (`id` TEXT NOT NULL, `jsonData` TEXT NOT NULL, `type` TEXT NOT NULL, `updatedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))")
+                }
+
+                override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) = Unit
+            })
+            .build()
+        FrameworkSQLiteOpenHelperFactory().create(config).use { helper -> fill(helper.writableDatabase) }
+    }
+
+    private companion object {
+        const val LATEST_VERSION = 15
+    }
+}
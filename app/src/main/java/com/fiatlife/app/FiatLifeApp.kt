@@ -4,7 +4,13 @@ import android.app.Application
 import androidx.hilt.work.HiltWorkerFactory
 import androidx.work.Configuration
 import com.fiatlife.app.data.notification.BillNotificationManager
+import com.fiatlife.app.data.repository.BillRepository
+import com.fiatlife.app.data.repository.CreditAccountRepository
 import dagger.hilt.android.HiltAndroidApp
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 import javax.inject.Inject
 
 @HiltAndroidApp
@@ -12,6 +18,10 @@ class FiatLifeApp : Application(), Configuration.Provider {
 
     @Inject lateinit var workerFactory: HiltWorkerFactory
     @Inject lateinit var billNotificationManager: BillNotificationManager
+    @Inject lateinit var billRepository: BillRepository
+    @Inject lateinit var creditAccountRepository: CreditAccountRepository
+
+    private val appScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
 
     override val workManagerConfiguration: Configuration
         get() = Configuration.Builder()
@@ -21,5 +31,10 @@ class FiatLifeApp : Application(), Configuration.Provider {
     override fun onCreate() {
         super.onCreate()
         billNotificationManager.createChannel()
+        // Due dates that passed while the app was closed; queries read the stored column as is.
+        appScope.launch {
+            billRepository.rollDueDatesForward()
+            creditAccountRepository.rollDueDatesForward()
+        }
     }
 }
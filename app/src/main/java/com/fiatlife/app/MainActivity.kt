@@ -25,12 +25,9 @@ import androidx.datastore.preferences.core.stringPreferencesKey
 import androidx.lifecycle.lifecycleScope
 import com.fiatlife.app.data.blossom.BlossomClient
 import com.fiatlife.app.data.nostr.*
-import com.fiatlife.app.data.repository.BillRepository
-import com.fiatlife.app.data.repository.CreditAccountRepository
-import com.fiatlife.app.data.repository.CypherLogSubscriptionRepository
-import com.fiatlife.app.data.repository.GoalRepository
-import com.fiatlife.app.data.repository.SalaryRepository
+import com.fiatlife.app.data.security.DecryptCache
 import com.fiatlife.app.data.security.PinPrefs
+import com.fiatlife.app.data.sync.RelaySyncCoordinator
 import com.fiatlife.app.ui.navigation.FiatLifeNavGraph
 import com.fiatlife.app.ui.screens.login.LoginScreen
 import com.fiatlife.app.ui.screens.login.parseAmberResult
@@ -52,11 +49,8 @@ class MainActivity : ComponentActivity() {
     @Inject lateinit var nostrClient: NostrClient
     @Inject lateinit var blossomClient: BlossomClient
     @Inject lateinit var pinPrefs: PinPrefs
-    @Inject lateinit var salaryRepository: SalaryRepository
-    @Inject lateinit var billRepository: BillRepository
-    @Inject lateinit var goalRepository: GoalRepository
-    @Inject lateinit var creditAccountRepository: CreditAccountRepository
-    @Inject lateinit var cypherLogSubscriptionRepository: CypherLogSubscriptionRepository
+    @Inject lateinit var relaySyncCoordinator: RelaySyncCoordinator
+    @Inject lateinit var decryptCache: DecryptCache
 
     val amberSignerRef = AtomicReference<AmberSigner?>(null)
     lateinit var decryptLauncher: ActivityResultLauncher<Intent>
@@ -232,6 +226,12 @@ class MainActivity : ComponentActivity() {
         ensureRelayReconnect()
     }
 
+    override fun onDestroy() {
+        // Results for intents launched from this activity will not be delivered to its signer.
+        amberSignerRef.get()?.cancelPendingRequests()
+        super.onDestroy()
+    }
+
     /**
      * When returning to the app: reconnect to the relay if disconnected, then sync data.
      * Ensures the app is connected and up to date after being in background.
@@ -283,7 +283,7 @@ class MainActivity : ComponentActivity() {
     }
 
     private fun setupAmberSigner(pubkeyHex: String, signerPackage: String) {
-        val signer = AmberSigner(this, pubkeyHex, signerPackage).apply {
+        val signer = AmberSigner(this, pubkeyHex, signerPackage, decryptCache).apply {
             setLaunchDecrypt { decryptLauncher.launch(it) }
             setLaunchEncrypt { encryptLauncher.launch(it) }
             setLaunchSign { signLauncher.launch(it) }
@@ -319,20 +319,16 @@ class MainActivity : ComponentActivity() {
     }
 
     /**
-     * One-shot sync all app data from the relay.
-     * If auth is still pending the REQ messages will be queued and processed
-     * once the relay is fully ready, so this is safe to call immediately after
+     * One-shot sync all app data from the relay (one REQ, routed per repository).
+     * If auth is still pending the REQ will be queued and processed once the
+     * relay is fully ready, so this is safe to call immediately after
      * [NostrClient.connect].
      */
     fun syncFromRelay() {
         if (!nostrClient.hasSigner) return
         lifecycleScope.launch {
             Log.d(TAG, "Starting one-shot sync from relay")
-            launch { try { salaryRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Salary sync: ${e.message}") } }
-            launch { try { billRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Bill sync: ${e.message}") } }
-            launch { try { goalRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Goal sync: ${e.message}") } }
-            launch { try { creditAccountRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Credit account sync: ${e.message}") } }
-            launch { try { cypherLogSubscriptionRepository.syncFromRelay() } catch (e: Exception) { Log.w(TAG, "CypherLog sync: ${e.message}") } }
+            relaySyncCoordinator.syncAll()
         }
     }
 }
@@ -1,7 +1,7 @@
 package com.fiatlife.app.data.blossom
 
-import com.fiatlife.app.data.nostr.NostrEvent
 import com.fiatlife.app.data.nostr.NostrSigner
+import com.fiatlife.app.data.nostr.UnsignedEvent
 import com.fiatlife.app.data.nostr.toHex
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
@@ -179,16 +179,16 @@ class BlossomClient @Inject constructor(
             tags.add(listOf("x", sha256))
         }
 
-        val unsignedJson = NostrEvent.buildUnsignedJson(
-            pubkeyHex = signer.pubkeyHex,
-            kind = 24242,
-            content = "Authorize $action",
-            tags = tags
-        )
-
-        val signedJson = signer.signEvent(unsignedJson) ?: return null
+        val signed = signer.sign(
+            UnsignedEvent(
+                pubkey = signer.pubkeyHex,
+                kind = 24242,
+                content = "Authorize $action",
+                tags = tags
+            )
+        ) ?: return null
         return android.util.Base64.encodeToString(
-            signedJson.toByteArray(Charsets.UTF_8),
+            signed.json.toByteArray(Charsets.UTF_8),
             android.util.Base64.NO_WRAP
         )
     }
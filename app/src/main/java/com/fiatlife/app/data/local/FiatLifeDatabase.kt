@@ -3,15 +3,29 @@ package com.fiatlife.app.data.local
 import androidx.room.Database
 import androidx.room.RoomDatabase
 import com.fiatlife.app.data.local.dao.BillDao
+import com.fiatlife.app.data.local.dao.BillPaymentPeriodDao
+import com.fiatlife.app.data.local.dao.ChunkSetDao
 import com.fiatlife.app.data.local.dao.CreditAccountDao
 import com.fiatlife.app.data.local.dao.CypherLogSubscriptionDao
+import com.fiatlife.app.data.local.dao.DecryptCacheDao
+import com.fiatlife.app.data.local.dao.DeletedRecordDao
 import com.fiatlife.app.data.local.dao.GoalDao
+import com.fiatlife.app.data.local.dao.OutboxDao
+import com.fiatlife.app.data.local.dao.RelaySyncStateDao
 import com.fiatlife.app.data.local.dao.SalaryDao
+import com.fiatlife.app.data.local.dao.SearchDao
 import com.fiatlife.app.data.local.entity.BillEntity
+import com.fiatlife.app.data.local.entity.BillPaymentPeriodEntity
+import com.fiatlife.app.data.local.entity.ChunkSetEntity
 import com.fiatlife.app.data.local.entity.CreditAccountEntity
 import com.fiatlife.app.data.local.entity.CypherLogSubscriptionEntity
+import com.fiatlife.app.data.local.entity.DecryptCacheEntity
+import com.fiatlife.app.data.local.entity.DeletedRecordEntity
 import com.fiatlife.app.data.local.entity.GoalEntity
+import com.fiatlife.app.data.local.entity.OutboxEntity
+import com.fiatlife.app.data.local.entity.RelaySyncStateEntity
 import com.fiatlife.app.data.local.entity.SalaryEntity
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
 
 @Database(
     entities = [
@@ -19,10 +33,17 @@ import com.fiatlife.app.data.local.entity.SalaryEntity
         BillEntity::class,
         GoalEntity::class,
         CypherLogSubscriptionEntity::class,
-        CreditAccountEntity::class
+        CreditAccountEntity::class,
+        RelaySyncStateEntity::class,
+        OutboxEntity::class,
+        DecryptCacheEntity::class,
+        BillPaymentPeriodEntity::class,
+        SearchEntryEntity::class,
+        ChunkSetEntity::class,
+        DeletedRecordEntity::class
     ],
-    version = 4,
-    exportSchema = false
+    version = 15,
+    exportSchema = true
 )
 abstract class FiatLifeDatabase : RoomDatabase() {
     abstract fun salaryDao(): SalaryDao
@@ -30,6 +51,13 @@ abstract class FiatLifeDatabase : RoomDatabase() {
     abstract fun goalDao(): GoalDao
     abstract fun cypherLogSubscriptionDao(): CypherLogSubscriptionDao
     abstract fun creditAccountDao(): CreditAccountDao
+    abstract fun relaySyncStateDao(): RelaySyncStateDao
+    abstract fun outboxDao(): OutboxDao
+    abstract fun decryptCacheDao(): DecryptCacheDao
+    abstract fun billPaymentPeriodDao(): BillPaymentPeriodDao
+    abstract fun searchDao(): SearchDao
+    abstract fun chunkSetDao(): ChunkSetDao
+    abstract fun deletedRecordDao(): DeletedRecordDao
 
     companion object {
         const val DATABASE_NAME = "fiatlife_db"
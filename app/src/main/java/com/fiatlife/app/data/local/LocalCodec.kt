@@ -0,0 +1,73 @@
+package com.fiatlife.app.data.local
+
+import kotlinx.serialization.DeserializationStrategy
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.SerializationStrategy
+import kotlinx.serialization.cbor.Cbor
+import kotlinx.serialization.json.Json
+
+/**
+ * Encoding of domain objects in the Room `data` columns: one format version byte followed by
+ * CBOR with default-valued fields left out. The version byte of CBOR rows is itself a CBOR tag
+ * header, which the decoder skips, so a row decodes in place without copying its body. Only the local cache uses it; records published to
+ * relays stay JSON inside NIP-44.
+ *
+ * A bill takes half to four fifths of the bytes of its JSON (which writes every default) and
+ * decodes about twice as fast. Properties and enum values are keyed by name, as in JSON, so
+ * adding, removing or reordering model fields keeps existing rows readable.
+ *
+ * Rows whose JSON could not be read when the column was converted are kept as [wrapJson]
+ * (version byte 0 followed by the original text) rather than dropped. [decode] still reads them
+ * as JSON, so they come back once the model accepts them again.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+object LocalCodec {
+    private const val RAW_JSON: Byte = 0
+
+    /** CBOR tag 6 (major type 6, value 6); the tag itself carries no meaning here. */
+    private const val CBOR_V2: Byte = 0xC6.toByte()
+
+    /** Version byte of CBOR rows written before [CBOR_V2]; rewritten by the 14 to 15 migration. */
+    private const val CBOR_V1: Byte = 1
+
+    private val cbor = Cbor {
+        encodeDefaults = false
+        ignoreUnknownKeys = true
+    }
+
+    private val json = Json {
+        ignoreUnknownKeys = true
+        isLenient = true
+    }
+
+    fun <T> encode(serializer: SerializationStrategy<T>, value: T): ByteArray {
+        val body = cbor.encodeToByteArray(serializer, value)
+        val data = ByteArray(body.size + 1)
+        data[0] = CBOR_V2
+        body.copyInto(data, 1)
+        return data
+    }
+
+    /** Turn a [CBOR_V1] row into the current format in place; other rows are left alone. */
+    fun upgradeInPlace(data: ByteArray): Boolean {
+        if (data.firstOrNull() != CBOR_V1) return false
+        data[0] = CBOR_V2
+        return true
+    }
+
+    /** Keep [json] as it is, for a row whose JSON no longer decodes; see the class comment. */
+    fun wrapJson(json: String): ByteArray = byteArrayOf(RAW_JSON) + json.toByteArray(Charsets.UTF_8)
+
+    /** Throws [SerializationException] for an unknown version byte or corrupt data. */
+    fun <T> decode(deserializer: DeserializationStrategy<T>, data: ByteArray): T =
+        when (data.firstOrNull()) {
+            CBOR_V2 -> cbor.decodeFromByteArray(deserializer, data)
+            RAW_JSON -> try {
+                json.decodeFromString(deserializer, String(data, 1, data.size - 1, Charsets.UTF_8))
+            } catch (e: IllegalArgumentException) {
+                throw SerializationException("Unreadable JSON row: ${e.message}", e)
+            }
+            else -> throw SerializationException("Unknown local encoding version ${data.firstOrNull()}")
+        }
+}
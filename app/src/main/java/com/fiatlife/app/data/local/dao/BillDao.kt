@@ -1,7 +1,9 @@
 package com.fiatlife.app.data.local.dao
 
 import androidx.room.*
+import com.fiatlife.app.data.local.entity.BillCategoryTotal
 import com.fiatlife.app.data.local.entity.BillEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -15,18 +17,68 @@ interface BillDao {
     @Query("SELECT * FROM bills WHERE id = :id")
     suspend fun getById(id: String): BillEntity?
 
+    @Query("SELECT * FROM bills WHERE id IN (:ids)")
+    suspend fun getByIds(ids: List<String>): List<BillEntity>
+
     @Query("SELECT * FROM bills WHERE id = :id")
     fun getByIdAsFlow(id: String): Flow<BillEntity?>
 
+    /** Bills due on an epoch day in [from, to]; roll stale rows forward first (see [rollDueDatesForward]). */
+    @Query("SELECT * FROM bills WHERE nextDueEpochDay BETWEEN :from AND :to ORDER BY nextDueEpochDay")
+    suspend fun getDueBetween(from: Long, to: Long): List<BillEntity>
+
+    /** Rows whose stored next due date has passed and needs recomputing. */
+    @Query("SELECT * FROM bills WHERE nextDueEpochDay < :today")
+    suspend fun getDueBefore(today: Long): List<BillEntity>
+
+    @Query("UPDATE bills SET nextDueEpochDay = :nextDueEpochDay WHERE id = :id")
+    suspend fun setNextDue(id: String, nextDueEpochDay: Long)
+
+    /**
+     * Store [nextDue] of every row due before [today] in one transaction, so observers see one
+     * change however many bills roll over. Rows it returns null for are left as they are.
+     */
+    @Transaction
+    suspend fun rollDueDatesForward(today: Long, nextDue: (BillEntity) -> Long?) {
+        for (entity in getDueBefore(today)) {
+            nextDue(entity)?.let { setNextDue(entity.id, it) }
+        }
+    }
+
+    @Query("SELECT * FROM bills WHERE isPaid = 0 ORDER BY nextDueEpochDay LIMIT :limit")
+    fun getUpcomingUnpaid(limit: Int): Flow<List<BillEntity>>
+
+    @Query(
+        """SELECT generalCategory, COUNT(*) AS billCount, SUM(isPaid = 0) AS unpaidCount,
+           SUM(monthlyNormalizedCents) AS monthlyCents FROM bills GROUP BY generalCategory"""
+    )
+    fun getCategoryTotals(): Flow<List<BillCategoryTotal>>
+
+    @Query("SELECT id, sourceEventId, sourceCreatedAt FROM bills")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
     @Upsert
     suspend fun upsert(entity: BillEntity)
 
+    @Upsert
+    suspend fun upsertAll(entities: List<BillEntity>)
+
     @Delete
     suspend fun delete(entity: BillEntity)
 
     @Query("DELETE FROM bills WHERE id = :id")
     suspend fun deleteById(id: String)
 
+    @Query("DELETE FROM bills WHERE id IN (:ids)")
+    suspend fun deleteByIds(ids: List<String>)
+
+    /** Apply one sync batch in a single transaction, so observers see one change for it. */
+    @Transaction
+    suspend fun applySyncBatch(upserts: List<BillEntity>, deletedIds: List<String>) {
+        if (deletedIds.isNotEmpty()) deleteByIds(deletedIds)
+        if (upserts.isNotEmpty()) upsertAll(upserts)
+    }
+
     @Query("DELETE FROM bills")
     suspend fun deleteAll()
 }
@@ -0,0 +1,39 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.BillPaymentPeriodEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
+
+@Dao
+interface BillPaymentPeriodDao {
+    @Query("SELECT * FROM bill_payment_periods WHERE billId = :billId ORDER BY period")
+    suspend fun getForBill(billId: String): List<BillPaymentPeriodEntity>
+
+    @Query("SELECT * FROM bill_payment_periods WHERE billId IN (:billIds) ORDER BY billId, period")
+    suspend fun getForBills(billIds: List<String>): List<BillPaymentPeriodEntity>
+
+    @Query("SELECT billId || '/' || period AS id, sourceEventId, sourceCreatedAt FROM bill_payment_periods")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
+    @Upsert
+    suspend fun upsert(entity: BillPaymentPeriodEntity)
+
+    @Upsert
+    suspend fun upsertAll(entities: List<BillPaymentPeriodEntity>)
+
+    @Query("DELETE FROM bill_payment_periods WHERE billId = :billId AND period = :period")
+    suspend fun delete(billId: String, period: String)
+
+    @Query("DELETE FROM bill_payment_periods WHERE billId = :billId")
+    suspend fun deleteForBill(billId: String)
+
+    @Query("DELETE FROM bill_payment_periods WHERE billId IN (:billIds)")
+    suspend fun deleteForBills(billIds: List<String>)
+
+    /** Apply one sync batch in a single transaction; [deleted] holds (billId, period) keys. */
+    @Transaction
+    suspend fun applySyncBatch(upserts: List<BillPaymentPeriodEntity>, deleted: List<Pair<String, String>>) {
+        deleted.forEach { (billId, period) -> delete(billId, period) }
+        if (upserts.isNotEmpty()) upsertAll(upserts)
+    }
+}
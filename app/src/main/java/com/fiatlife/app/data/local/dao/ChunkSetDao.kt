@@ -0,0 +1,30 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.ChunkSetEntity
+
+@Dao
+interface ChunkSetDao {
+    @Query("SELECT count FROM chunk_sets WHERE pubkey = :pubkey AND dTag = :dTag")
+    suspend fun getCount(pubkey: String, dTag: String): Int?
+
+    @Upsert
+    suspend fun upsert(entity: ChunkSetEntity)
+
+    @Query("DELETE FROM chunk_sets WHERE pubkey = :pubkey AND dTag = :dTag")
+    suspend fun delete(pubkey: String, dTag: String)
+
+    /** Record that [dTag] now uses [count] chunks; zero removes the row. */
+    @Transaction
+    suspend fun setCount(pubkey: String, dTag: String, count: Int) {
+        if (count > 0) upsert(ChunkSetEntity(pubkey, dTag, count)) else delete(pubkey, dTag)
+    }
+
+    /** Raise the stored count of each `d` tag in [counts] to at least its value. */
+    @Transaction
+    suspend fun raiseCounts(pubkey: String, counts: Map<String, Int>) {
+        for ((dTag, count) in counts) {
+            if (count > (getCount(pubkey, dTag) ?: 0)) upsert(ChunkSetEntity(pubkey, dTag, count))
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.fiatlife.app.data.local.dao
 
 import androidx.room.*
 import com.fiatlife.app.data.local.entity.CreditAccountEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -15,15 +16,52 @@ interface CreditAccountDao {
     @Query("SELECT * FROM credit_accounts WHERE id = :id LIMIT 1")
     fun getByIdAsFlow(id: String): Flow<CreditAccountEntity?>
 
+    /** Accounts with no linked bill and a payment due on an epoch day in [from, to]. */
+    @Query(
+        """SELECT * FROM credit_accounts WHERE linkedBillId IS NULL AND monthlyNormalizedCents > 0
+           AND nextDueEpochDay BETWEEN :from AND :to ORDER BY nextDueEpochDay"""
+    )
+    suspend fun getUnlinkedDueBetween(from: Long, to: Long): List<CreditAccountEntity>
+
+    @Query("SELECT * FROM credit_accounts WHERE nextDueEpochDay < :today")
+    suspend fun getDueBefore(today: Long): List<CreditAccountEntity>
+
+    @Query("UPDATE credit_accounts SET nextDueEpochDay = :nextDueEpochDay WHERE id = :id")
+    suspend fun setNextDue(id: String, nextDueEpochDay: Long)
+
+    /** Store [nextDue] of every row due before [today] in one transaction; see [BillDao.rollDueDatesForward]. */
+    @Transaction
+    suspend fun rollDueDatesForward(today: Long, nextDue: (CreditAccountEntity) -> Long?) {
+        for (entity in getDueBefore(today)) {
+            nextDue(entity)?.let { setNextDue(entity.id, it) }
+        }
+    }
+
+    @Query("SELECT id, sourceEventId, sourceCreatedAt FROM credit_accounts")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
     @Upsert
     suspend fun upsert(entity: CreditAccountEntity)
 
+    @Upsert
+    suspend fun upsertAll(entities: List<CreditAccountEntity>)
+
     @Delete
     suspend fun delete(entity: CreditAccountEntity)
 
     @Query("DELETE FROM credit_accounts WHERE id = :id")
     suspend fun deleteById(id: String)
 
+    @Query("DELETE FROM credit_accounts WHERE id IN (:ids)")
+    suspend fun deleteByIds(ids: List<String>)
+
+    /** Apply one sync batch in a single transaction, so observers see one change for it. */
+    @Transaction
+    suspend fun applySyncBatch(upserts: List<CreditAccountEntity>, deletedIds: List<String>) {
+        if (deletedIds.isNotEmpty()) deleteByIds(deletedIds)
+        if (upserts.isNotEmpty()) upsertAll(upserts)
+    }
+
     @Query("DELETE FROM credit_accounts")
     suspend fun deleteAll()
 }
@@ -2,6 +2,7 @@ package com.fiatlife.app.data.local.dao
 
 import androidx.room.*
 import com.fiatlife.app.data.local.entity.CypherLogSubscriptionEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -15,9 +16,15 @@ interface CypherLogSubscriptionDao {
     @Query("SELECT * FROM cypherlog_subscriptions WHERE dTag = :dTag LIMIT 1")
     fun getByDTagAsFlow(dTag: String): Flow<CypherLogSubscriptionEntity?>
 
+    @Query("SELECT dTag AS id, eventId AS sourceEventId, createdAt AS sourceCreatedAt FROM cypherlog_subscriptions")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
     @Upsert
     suspend fun upsert(entity: CypherLogSubscriptionEntity)
 
+    @Upsert
+    suspend fun upsertAll(entities: List<CypherLogSubscriptionEntity>)
+
     @Delete
     suspend fun delete(entity: CypherLogSubscriptionEntity)
 
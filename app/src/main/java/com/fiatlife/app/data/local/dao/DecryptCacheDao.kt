@@ -0,0 +1,22 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.DecryptCacheEntity
+
+@Dao
+interface DecryptCacheDao {
+    @Query("SELECT * FROM decrypt_cache WHERE pubkey = :pubkey AND eventId IN (:eventIds)")
+    suspend fun get(pubkey: String, eventIds: List<String>): List<DecryptCacheEntity>
+
+    @Query("UPDATE decrypt_cache SET lastUsedAt = :now WHERE pubkey = :pubkey AND eventId IN (:eventIds)")
+    suspend fun touch(pubkey: String, eventIds: List<String>, now: Long)
+
+    @Upsert
+    suspend fun upsertAll(entities: List<DecryptCacheEntity>)
+
+    @Query("DELETE FROM decrypt_cache WHERE lastUsedAt < :cutoff")
+    suspend fun deleteUnusedSince(cutoff: Long)
+
+    @Query("DELETE FROM decrypt_cache")
+    suspend fun deleteAll()
+}
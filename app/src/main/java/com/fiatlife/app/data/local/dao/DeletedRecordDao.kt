@@ -0,0 +1,14 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.DeletedRecordEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
+
+@Dao
+interface DeletedRecordDao {
+    @Query("SELECT dTag AS id, sourceEventId, sourceCreatedAt FROM deleted_records")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
+    @Upsert
+    suspend fun upsertAll(entities: List<DeletedRecordEntity>)
+}
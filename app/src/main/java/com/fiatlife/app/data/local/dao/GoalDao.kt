@@ -2,6 +2,7 @@ package com.fiatlife.app.data.local.dao
 
 import androidx.room.*
 import com.fiatlife.app.data.local.entity.GoalEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -12,15 +13,31 @@ interface GoalDao {
     @Query("SELECT * FROM goals WHERE id = :id")
     suspend fun getById(id: String): GoalEntity?
 
+    @Query("SELECT id, sourceEventId, sourceCreatedAt FROM goals")
+    suspend fun getSourceVersions(): List<SourceVersion>
+
     @Upsert
     suspend fun upsert(entity: GoalEntity)
 
+    @Upsert
+    suspend fun upsertAll(entities: List<GoalEntity>)
+
     @Delete
     suspend fun delete(entity: GoalEntity)
 
     @Query("DELETE FROM goals WHERE id = :id")
     suspend fun deleteById(id: String)
 
+    @Query("DELETE FROM goals WHERE id IN (:ids)")
+    suspend fun deleteByIds(ids: List<String>)
+
+    /** Apply one sync batch in a single transaction, so observers see one change for it. */
+    @Transaction
+    suspend fun applySyncBatch(upserts: List<GoalEntity>, deletedIds: List<String>) {
+        if (deletedIds.isNotEmpty()) deleteByIds(deletedIds)
+        if (upserts.isNotEmpty()) upsertAll(upserts)
+    }
+
     @Query("DELETE FROM goals")
     suspend fun deleteAll()
 }
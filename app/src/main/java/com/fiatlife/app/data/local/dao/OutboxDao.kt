@@ -0,0 +1,75 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.OutboxDeletion
+import com.fiatlife.app.data.local.entity.OutboxEntity
+
+/**
+ * Updates and deletes match on `revision` so a drain pass never clobbers a newer
+ * version of the same record enqueued while it was publishing.
+ */
+@Dao
+interface OutboxDao {
+    @Query("SELECT * FROM outbox WHERE pubkey = :pubkey AND nextAttemptAt <= :now ORDER BY enqueuedAt LIMIT :limit")
+    suspend fun getDue(pubkey: String, now: Long, limit: Int): List<OutboxEntity>
+
+    @Query("SELECT MIN(nextAttemptAt) FROM outbox WHERE pubkey = :pubkey")
+    suspend fun nextAttemptAt(pubkey: String): Long?
+
+    /** Rows still waiting to delete a record: kind 5 deletions and [tombstoneJson] rows. */
+    @Query("""
+        SELECT kind, dTag, enqueuedAt FROM outbox
+        WHERE pubkey = :pubkey AND (kind = :deletionKind OR content = :tombstoneJson)
+    """)
+    suspend fun getDeletions(pubkey: String, deletionKind: Int, tombstoneJson: String): List<OutboxDeletion>
+
+    @Upsert
+    suspend fun upsert(entity: OutboxEntity)
+
+    @Query("""
+        UPDATE outbox SET signedEventJson = :signedEventJson, eventId = :eventId
+        WHERE pubkey = :pubkey AND kind = :kind AND dTag = :dTag AND revision = :revision
+    """)
+    suspend fun setSigned(
+        pubkey: String,
+        kind: Int,
+        dTag: String,
+        revision: String,
+        signedEventJson: String?,
+        eventId: String?
+    )
+
+    @Query("""
+        UPDATE outbox SET attempts = :attempts, nextAttemptAt = :nextAttemptAt, lastError = :lastError
+        WHERE pubkey = :pubkey AND kind = :kind AND dTag = :dTag AND revision = :revision
+    """)
+    suspend fun scheduleRetry(
+        pubkey: String,
+        kind: Int,
+        dTag: String,
+        revision: String,
+        attempts: Int,
+        nextAttemptAt: Long,
+        lastError: String?
+    )
+
+    @Query("SELECT COUNT(*) FROM outbox WHERE pubkey = :pubkey AND kind = :kind AND dTag = :dTag AND revision = :revision")
+    suspend fun countRevision(pubkey: String, kind: Int, dTag: String, revision: String): Int
+
+    /**
+     * Latest retry time of the rows under [chunkPrefix] queued with [revision], i.e. the
+     * chunks of one sealed record still waiting for their `OK`; null once none are left.
+     */
+    @Query("""
+        SELECT MAX(nextAttemptAt) FROM outbox
+        WHERE pubkey = :pubkey AND kind = :kind AND revision = :revision
+        AND substr(dTag, 1, length(:chunkPrefix)) = :chunkPrefix
+    """)
+    suspend fun pendingChunksRetryAt(pubkey: String, kind: Int, chunkPrefix: String, revision: String): Long?
+
+    @Query("DELETE FROM outbox WHERE pubkey = :pubkey AND kind = :kind AND dTag = :dTag AND revision = :revision")
+    suspend fun deleteRevision(pubkey: String, kind: Int, dTag: String, revision: String)
+
+    @Query("DELETE FROM outbox")
+    suspend fun deleteAll()
+}
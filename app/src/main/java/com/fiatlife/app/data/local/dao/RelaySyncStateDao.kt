@@ -0,0 +1,19 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.RelaySyncStateEntity
+
+@Dao
+interface RelaySyncStateDao {
+    @Query("SELECT * FROM relay_sync_state WHERE pubkey = :pubkey AND relayUrl = :relayUrl")
+    suspend fun getForRelay(pubkey: String, relayUrl: String): List<RelaySyncStateEntity>
+
+    @Upsert
+    suspend fun upsert(entity: RelaySyncStateEntity)
+
+    @Query("DELETE FROM relay_sync_state WHERE pubkey = :pubkey")
+    suspend fun deleteForPubkey(pubkey: String)
+
+    @Query("DELETE FROM relay_sync_state")
+    suspend fun deleteAll()
+}
@@ -2,6 +2,7 @@ package com.fiatlife.app.data.local.dao
 
 import androidx.room.*
 import com.fiatlife.app.data.local.entity.SalaryEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import kotlinx.coroutines.flow.Flow
 
 @Dao
@@ -12,9 +13,15 @@ interface SalaryDao {
     @Query("SELECT * FROM salary_configs WHERE id = :id")
     suspend fun getById(id: String): SalaryEntity?
 
+    @Query("SELECT id, sourceEventId, sourceCreatedAt FROM salary_configs ORDER BY sourceCreatedAt DESC LIMIT 1")
+    suspend fun getLatestSourceVersion(): SourceVersion?
+
     @Upsert
     suspend fun upsert(entity: SalaryEntity)
 
+    @Upsert
+    suspend fun upsertAll(entities: List<SalaryEntity>)
+
     @Delete
     suspend fun delete(entity: SalaryEntity)
 
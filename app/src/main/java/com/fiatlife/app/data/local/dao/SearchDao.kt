@@ -0,0 +1,34 @@
+package com.fiatlife.app.data.local.dao
+
+import androidx.room.*
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SearchMatch
+
+@Dao
+interface SearchDao {
+    /**
+     * Every row matching the FTS4 [query], in no particular order: ranking needs all of them,
+     * as FTS4 cannot order by relevance. Snippets mark matched terms with U+0002 and U+0003;
+     * -1 lets SQLite pick the best-matching column.
+     */
+    @Query(
+        """SELECT type, recordId, title,
+           snippet(search_index, char(2), char(3), '…', -1, 12) AS snippet,
+           matchinfo(search_index, 'pcnx') AS matchInfo
+           FROM search_index WHERE search_index MATCH :query"""
+    )
+    suspend fun match(query: String): List<SearchMatch>
+
+    @Insert
+    suspend fun insertAll(entries: List<SearchEntryEntity>)
+
+    @Query("DELETE FROM search_index WHERE type = :type AND recordId IN (:recordIds)")
+    suspend fun delete(type: String, recordIds: List<String>)
+
+    /** Replace the rows of every record in [entries] in one transaction. */
+    @Transaction
+    suspend fun replace(entries: List<SearchEntryEntity>) {
+        entries.groupBy { it.type }.forEach { (type, group) -> delete(type, group.map { it.recordId }) }
+        insertAll(entries)
+    }
+}
@@ -0,0 +1,9 @@
+package com.fiatlife.app.data.local.entity
+
+/** Per general category: bill count, unpaid count and summed monthly-normalized amount. */
+data class BillCategoryTotal(
+    val generalCategory: String,
+    val billCount: Int,
+    val unpaidCount: Int,
+    val monthlyCents: Long
+)
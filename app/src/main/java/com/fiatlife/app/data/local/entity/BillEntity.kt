@@ -1,13 +1,64 @@
 package com.fiatlife.app.data.local.entity
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.fiatlife.app.data.local.LocalCodec
+import com.fiatlife.app.domain.model.Bill
+import java.time.LocalDate
+import kotlin.math.roundToLong
 
-@Entity(tableName = "bills")
-data class BillEntity(
+/**
+ * A bill encoded with [LocalCodec] plus typed copies of the fields listing queries filter and
+ * sum on. The copies are derived in [of] on every write, so they never disagree with [data];
+ * [nextDueEpochDay] is the first due date on or after the write day and is rolled forward once
+ * it has passed. A plain class because [data] is a byte array, which generated equality would
+ * compare by reference; rows are compared by id and [updatedAt] instead.
+ */
+@Entity(
+    tableName = "bills",
+    indices = [
+        Index(value = ["isPaid", "nextDueEpochDay"]),
+        Index(value = ["nextDueEpochDay"]),
+        Index(value = ["generalCategory"]),
+        Index(value = ["linkedCreditAccountId"])
+    ]
+)
+class BillEntity(
     @PrimaryKey
     val id: String,
-    val jsonData: String,
+    val data: ByteArray,
     val category: String,
-    val updatedAt: Long = System.currentTimeMillis()
-)
+    val updatedAt: Long = System.currentTimeMillis(),
+    val sourceEventId: String = "",
+    val sourceCreatedAt: Long = 0L,
+    val isPaid: Boolean = false,
+    val nextDueEpochDay: Long = 0L,
+    val monthlyNormalizedCents: Long = 0L,
+    val frequency: String = "",
+    val generalCategory: String = "",
+    val linkedCreditAccountId: String? = null
+) {
+    companion object {
+        fun of(
+            bill: Bill,
+            sourceEventId: String = "",
+            sourceCreatedAt: Long = 0L,
+            today: LocalDate = LocalDate.now(),
+            updatedAt: Long = bill.updatedAt
+        ) = BillEntity(
+            id = bill.id,
+            data = LocalCodec.encode(Bill.serializer(), bill),
+            category = bill.effectiveSubcategory.name,
+            updatedAt = updatedAt,
+            sourceEventId = sourceEventId,
+            sourceCreatedAt = sourceCreatedAt,
+            isPaid = bill.isPaid,
+            nextDueEpochDay = bill.nextDueDate(today).toEpochDay(),
+            monthlyNormalizedCents = (bill.monthlyNormalizedAmount() * 100).roundToLong(),
+            frequency = bill.frequency.name,
+            generalCategory = bill.effectiveGeneralCategory.name,
+            linkedCreditAccountId = bill.linkedCreditAccountId
+        )
+    }
+}
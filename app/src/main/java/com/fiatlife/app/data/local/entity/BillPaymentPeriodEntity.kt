@@ -0,0 +1,21 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+
+/**
+ * One synced period of a bill's payment history ([com.fiatlife.app.domain.model.BillPaymentPeriod]
+ * encoded with [com.fiatlife.app.data.local.LocalCodec]). The bill row holds the merged history
+ * for display; these rows record which periods are published separately and from which event.
+ * Not a data class, since [data] is a byte array.
+ */
+@Entity(
+    tableName = "bill_payment_periods",
+    primaryKeys = ["billId", "period"]
+)
+class BillPaymentPeriodEntity(
+    val billId: String,
+    val period: String,
+    val data: ByteArray,
+    val sourceEventId: String = "",
+    val sourceCreatedAt: Long = 0L
+)
@@ -0,0 +1,18 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+
+/**
+ * How many chunk events (`fiatlife/chunk/<dTag>/<i>`) the last known version of the record
+ * [dTag] was split into, per author [pubkey]. Only chunked records have a row; the outbox
+ * uses it to tombstone chunks that a smaller version or a deletion no longer references.
+ */
+@Entity(
+    tableName = "chunk_sets",
+    primaryKeys = ["pubkey", "dTag"]
+)
+data class ChunkSetEntity(
+    val pubkey: String,
+    val dTag: String,
+    val count: Int
+)
@@ -1,13 +1,52 @@
 package com.fiatlife.app.data.local.entity
 
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
+import com.fiatlife.app.data.local.LocalCodec
+import com.fiatlife.app.domain.model.CreditAccount
+import java.time.LocalDate
+import kotlin.math.roundToLong
 
-@Entity(tableName = "credit_accounts")
-data class CreditAccountEntity(
+/**
+ * A credit/loan account encoded with [LocalCodec] plus typed copies of its queried fields.
+ * Like [BillEntity], a plain class so the [data] bytes never meet generated equality.
+ */
+@Entity(
+    tableName = "credit_accounts",
+    indices = [
+        Index(value = ["nextDueEpochDay"]),
+        Index(value = ["linkedBillId"])
+    ]
+)
+class CreditAccountEntity(
     @PrimaryKey
     val id: String,
-    val jsonData: String,
+    val data: ByteArray,
     val type: String,
-    val updatedAt: Long = System.currentTimeMillis()
-)
+    val updatedAt: Long = System.currentTimeMillis(),
+    val sourceEventId: String = "",
+    val sourceCreatedAt: Long = 0L,
+    val nextDueEpochDay: Long = 0L,
+    val monthlyNormalizedCents: Long = 0L,
+    val linkedBillId: String? = null
+) {
+    companion object {
+        fun of(
+            account: CreditAccount,
+            sourceEventId: String = "",
+            sourceCreatedAt: Long = 0L,
+            today: LocalDate = LocalDate.now()
+        ) = CreditAccountEntity(
+            id = account.id,
+            data = LocalCodec.encode(CreditAccount.serializer(), account),
+            type = account.type.name,
+            updatedAt = account.updatedAt,
+            sourceEventId = sourceEventId,
+            sourceCreatedAt = sourceCreatedAt,
+            nextDueEpochDay = account.nextDueDate(today).toEpochDay(),
+            monthlyNormalizedCents = (account.effectiveMonthlyPayment() * 100).roundToLong(),
+            linkedBillId = account.linkedBillId
+        )
+    }
+}
@@ -0,0 +1,20 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+
+/**
+ * Plaintext of an event decrypted by a remote signer, sealed with a Keystore key
+ * (see [com.fiatlife.app.data.security.DecryptCache]). [lastUsedAt] drives pruning.
+ * A plain class rather than a data class: rows are never compared, and generated equality
+ * would compare [sealed] by reference.
+ */
+@Entity(
+    tableName = "decrypt_cache",
+    primaryKeys = ["pubkey", "eventId"]
+)
+class DecryptCacheEntity(
+    val pubkey: String,
+    val eventId: String,
+    val sealed: ByteArray,
+    val lastUsedAt: Long = System.currentTimeMillis()
+)
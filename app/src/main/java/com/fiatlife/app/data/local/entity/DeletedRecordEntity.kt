@@ -0,0 +1,16 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * The tombstone event that deleted the app-data record [dTag] during sync. The record's own
+ * row is gone, so this keeps its [SourceVersion]: older copies of the record that a relay
+ * still serves are skipped instead of resurrecting it.
+ */
+@Entity(tableName = "deleted_records")
+data class DeletedRecordEntity(
+    @PrimaryKey val dTag: String,
+    val sourceEventId: String,
+    val sourceCreatedAt: Long
+)
@@ -3,11 +3,14 @@ package com.fiatlife.app.data.local.entity
 import androidx.room.Entity
 import androidx.room.PrimaryKey
 
+/** A goal encoded with [com.fiatlife.app.data.local.LocalCodec]; plain for the same reason as [BillEntity]. */
 @Entity(tableName = "goals")
-data class GoalEntity(
+class GoalEntity(
     @PrimaryKey
     val id: String,
-    val jsonData: String,
+    val data: ByteArray,
     val category: String,
-    val updatedAt: Long = System.currentTimeMillis()
+    val updatedAt: Long = System.currentTimeMillis(),
+    val sourceEventId: String = "",
+    val sourceCreatedAt: Long = 0L
 )
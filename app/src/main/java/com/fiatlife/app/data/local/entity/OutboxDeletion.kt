@@ -0,0 +1,11 @@
+package com.fiatlife.app.data.local.entity
+
+/**
+ * A pending outbox row that deletes a record: a kind 5 deletion ([dTag] is
+ * `<targetKind>:<d>`) or a kind 30078 tombstone. See [com.fiatlife.app.data.sync.NostrOutbox.pendingDeletions].
+ */
+data class OutboxDeletion(
+    val kind: Int,
+    val dTag: String,
+    val enqueuedAt: Long
+)
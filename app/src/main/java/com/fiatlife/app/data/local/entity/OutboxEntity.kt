@@ -0,0 +1,32 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+import java.util.UUID
+
+/**
+ * One event waiting to be published. Keyed by (author, kind, [dTag]) so a newer save
+ * of the same replaceable record replaces the pending one. For kind 5 deletions
+ * [dTag] is `<targetKind>:<d>` of the deleted event.
+ *
+ * [content] is plaintext; kind 30078 content is NIP-44 encrypted to self at publish time.
+ * Once signed, [signedEventJson] is resent unchanged until the relay acknowledges it, unless
+ * it grows stale and is signed again (see [com.fiatlife.app.data.sync.NostrOutbox]).
+ */
+@Entity(
+    tableName = "outbox",
+    primaryKeys = ["pubkey", "kind", "dTag"]
+)
+data class OutboxEntity(
+    val pubkey: String,
+    val kind: Int,
+    val dTag: String,
+    val content: String,
+    val tagsJson: String,
+    val revision: String = UUID.randomUUID().toString(),
+    val enqueuedAt: Long = System.currentTimeMillis(),
+    val signedEventJson: String? = null,
+    val eventId: String? = null,
+    val attempts: Int = 0,
+    val nextAttemptAt: Long = 0,
+    val lastError: String? = null
+)
@@ -0,0 +1,19 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.Entity
+
+/**
+ * High-water mark for incremental relay sync: the newest event `created_at` (seconds)
+ * fully applied from [relayUrl] for [kind], per author [pubkey].
+ */
+@Entity(
+    tableName = "relay_sync_state",
+    primaryKeys = ["pubkey", "relayUrl", "kind"]
+)
+data class RelaySyncStateEntity(
+    val pubkey: String,
+    val relayUrl: String,
+    val kind: Int,
+    val newestCreatedAt: Long,
+    val updatedAt: Long = System.currentTimeMillis()
+)
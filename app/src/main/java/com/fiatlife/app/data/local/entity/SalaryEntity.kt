@@ -3,10 +3,13 @@ package com.fiatlife.app.data.local.entity
 import androidx.room.Entity
 import androidx.room.PrimaryKey
 
+/** A salary config encoded with [com.fiatlife.app.data.local.LocalCodec]; a plain class, see [BillEntity]. */
 @Entity(tableName = "salary_configs")
-data class SalaryEntity(
+class SalaryEntity(
     @PrimaryKey
     val id: String,
-    val jsonData: String,
-    val updatedAt: Long = System.currentTimeMillis()
+    val data: ByteArray,
+    val updatedAt: Long = System.currentTimeMillis(),
+    val sourceEventId: String = "",
+    val sourceCreatedAt: Long = 0L
 )
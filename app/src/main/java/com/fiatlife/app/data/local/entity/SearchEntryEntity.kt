@@ -0,0 +1,60 @@
+package com.fiatlife.app.data.local.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.FtsOptions
+import androidx.room.PrimaryKey
+import com.fiatlife.app.domain.model.Bill
+import com.fiatlife.app.domain.model.CreditAccount
+import com.fiatlife.app.domain.model.FinancialGoal
+import com.fiatlife.app.domain.model.SearchResultType
+
+/**
+ * FTS4 row holding the searchable text of one bill, credit account, goal or CypherLog
+ * subscription, so search never decodes records. Repositories replace a record's row whenever
+ * they write the record and remove it on delete. [type] (a [SearchResultType] name) and
+ * [recordId] point back at the record and are not tokenized.
+ */
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61, notIndexed = ["type", "recordId"])
+@Entity(tableName = "search_index")
+data class SearchEntryEntity(
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "rowid")
+    val rowId: Int = 0,
+    val type: String,
+    val recordId: String,
+    val title: String,
+    val subtitle: String,
+    val body: String
+) {
+    companion object {
+        fun forBill(bill: Bill) = of(
+            SearchResultType.BILL, bill.id, bill.name, bill.accountName,
+            listOf(bill.notes) + bill.statementEntries.map { it.label }
+        )
+
+        /** A CypherLog subscription, already mapped to a [Bill]. */
+        fun forSubscription(bill: Bill) = of(
+            SearchResultType.SUBSCRIPTION, bill.id, bill.name, bill.accountName, listOf(bill.notes)
+        )
+
+        fun forCreditAccount(account: CreditAccount) = of(
+            SearchResultType.CREDIT_ACCOUNT, account.id, account.name, account.institution,
+            listOf(account.notes) + account.statementEntries.map { it.label }
+        )
+
+        fun forGoal(goal: FinancialGoal) = of(
+            SearchResultType.GOAL, goal.id, goal.name, "", listOf(goal.notes)
+        )
+
+        private fun of(type: SearchResultType, id: String, title: String, subtitle: String, body: List<String>) =
+            SearchEntryEntity(
+                type = type.name,
+                recordId = id,
+                title = title,
+                subtitle = subtitle,
+                body = body.filter { it.isNotBlank() }.joinToString("\n")
+            )
+    }
+}
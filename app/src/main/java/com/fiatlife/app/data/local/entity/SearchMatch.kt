@@ -0,0 +1,14 @@
+package com.fiatlife.app.data.local.entity
+
+/**
+ * One `search_index` row matching a query: its [snippet] with matched terms marked, and the
+ * FTS4 `matchinfo(…, 'pcnx')` statistics used to rank it. A plain class, as [matchInfo] is
+ * an array and would make generated equality compare it by identity.
+ */
+class SearchMatch(
+    val type: String,
+    val recordId: String,
+    val title: String,
+    val snippet: String,
+    val matchInfo: ByteArray
+)
@@ -0,0 +1,34 @@
+package com.fiatlife.app.data.local.entity
+
+/**
+ * Which version of a synced record is stored locally: the relay event it was last written
+ * from ([sourceEventId], [sourceCreatedAt] in seconds), or a local edit, which has an empty
+ * [sourceEventId] and the edit time. [id] is the row's key, or the `d` tag of a deleted record.
+ */
+data class SourceVersion(
+    val id: String,
+    val sourceEventId: String,
+    val sourceCreatedAt: Long
+) {
+    /**
+     * True if an event adds nothing to this version: it is the event already applied, or it
+     * loses to it under replaceable-event rules (older, or same second with a higher id).
+     * A local edit is only known to the second, so an event from that same second is applied.
+     */
+    fun covers(eventId: String, createdAt: Long): Boolean = when {
+        createdAt != sourceCreatedAt -> createdAt < sourceCreatedAt
+        sourceEventId.isEmpty() -> false
+        else -> eventId >= sourceEventId
+    }
+
+    companion object {
+        /**
+         * Version of a record deleted here at [deletedAtMillis] whose deletion the relays have
+         * not acknowledged yet. It covers every event up to and including the deletion's second,
+         * so a refetch of the deleted event cannot bring the record back; a same-second tie
+         * goes to the deletion.
+         */
+        fun deletedAt(id: String, deletedAtMillis: Long): SourceVersion =
+            SourceVersion(id, "", deletedAtMillis / 1000 + 1)
+    }
+}
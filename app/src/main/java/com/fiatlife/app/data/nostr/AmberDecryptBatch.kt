@@ -0,0 +1,53 @@
+package com.fiatlife.app.data.nostr
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Answers to one multi-intent decrypt request, matched to its intents by request id.
+ *
+ * Amber may answer the whole batch in one result or send one result per intent, so answers
+ * are gathered until every id has one (a rejection counts, as null). Once the first answer
+ * arrives the rest get a grace period (see [await]); ids still unanswered then come back null.
+ * Answers for ids outside the batch are dropped. If no answer comes at all, or the batch is
+ * [cancel]led because the activity that would receive it is gone, every id comes back null.
+ */
+internal class AmberDecryptBatch(val ids: List<String>) {
+
+    private val idSet = ids.toHashSet()
+    private val answers = HashMap<String, String?>()
+    private val firstAnswer = CompletableDeferred<Unit>()
+    private val allAnswered = CompletableDeferred<Unit>()
+
+    /** Record [answered] (request id to plaintext, null if rejected); returns how many were ours. */
+    fun offer(answered: Map<String, String?>): Int {
+        var accepted = 0
+        synchronized(answers) {
+            for ((id, plain) in answered) {
+                if (id !in idSet || answers[id] != null) continue
+                answers[id] = plain
+                accepted++
+            }
+            if (answers.size == ids.size) allAnswered.complete(Unit)
+        }
+        firstAnswer.complete(Unit)
+        return accepted
+    }
+
+    /** Stop waiting: [await] returns what has been answered so far. */
+    fun cancel() {
+        firstAnswer.complete(Unit)
+        allAnswered.complete(Unit)
+    }
+
+    /**
+     * Plaintexts in [ids] order, once all ids are answered, the stragglers time out, or no
+     * answer arrived within [answerTimeoutMs].
+     */
+    suspend fun await(stragglerTimeoutMs: Long, answerTimeoutMs: Long): List<String?> {
+        if (withTimeoutOrNull(answerTimeoutMs) { firstAnswer.await() } != null) {
+            withTimeoutOrNull(stragglerTimeoutMs) { allAnswered.await() }
+        }
+        return synchronized(answers) { ids.map { answers[it] } }
+    }
+}
@@ -5,26 +5,53 @@ import android.net.Uri
 import android.util.Log
 import androidx.activity.ComponentActivity
 import androidx.activity.result.ActivityResult
+import com.fiatlife.app.data.security.DecryptCache
 import kotlin.coroutines.Continuation
 import kotlin.coroutines.resume
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
 import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.atomic.AtomicReference
 
 private const val TAG = "AmberSigner"
 
+/** Content-resolver decrypts in flight at once during a batch. */
+private const val RESOLVER_CONCURRENCY = 4
+
+/** How long a batch waits for the rest of its answers after Amber sends the first one. */
+private const val BATCH_STRAGGLER_TIMEOUT_MS = 30_000L
+
+/**
+ * Upper bound on waiting for the user to answer a batch at all. Sync does not time out the
+ * batch itself, so this is what keeps a forgotten approval screen from stalling it for good.
+ */
+private const val BATCH_ANSWER_TIMEOUT_MS = 5 * 60_000L
+
 /**
  * NIP-55 signer that delegates signing and encryption to the Amber app.
  * Prefers the Content Resolver approach (silent, no UI) and falls back to
  * Intent-based approach (launches Amber activity) when the resolver returns null.
+ *
+ * Sync decrypts through [nip44DecryptBatch]: plaintexts already in [decryptCache] are reused,
+ * the rest go to the resolver a few at a time, and whatever the resolver cannot answer is
+ * sent to Amber as one multi-intent request the user approves on a single screen.
  */
 class AmberSigner(
     private val activity: ComponentActivity,
     override val pubkeyHex: String,
     private val signerPackage: String,
+    private val decryptCache: DecryptCache? = null,
 ) : NostrSigner {
 
     private val launchDecryptRef = AtomicReference<(Intent) -> Unit>({})
@@ -32,6 +59,9 @@ class AmberSigner(
     private val launchSignRef = AtomicReference<(Intent) -> Unit>({})
 
     private val pendingDecrypt = AtomicReference<Continuation<String?>?>(null)
+    private val pendingDecryptId = AtomicReference<String?>(null)
+    private val pendingDecryptBatch = AtomicReference<AmberDecryptBatch?>(null)
+    private val batchSeq = AtomicInteger()
     private val pendingEncrypt = AtomicReference<Continuation<String?>?>(null)
     private val pendingSign = AtomicReference<Continuation<String?>?>(null)
 
@@ -43,19 +73,51 @@ class AmberSigner(
     fun setLaunchEncrypt(launch: (Intent) -> Unit) { launchEncryptRef.set(launch) }
     fun setLaunchSign(launch: (Intent) -> Unit) { launchSignRef.set(launch) }
 
+    /**
+     * Results are matched by request id: a batch takes only its own ids, and a single decrypt
+     * only its id (or a result without one). Anything else, such as a late answer to an earlier
+     * batch, is dropped rather than resuming an unrelated request.
+     */
     fun onDecryptResult(result: ActivityResult) {
+        val answered = parseDecryptResults(result)
+        pendingDecryptBatch.get()?.let { batch ->
+            val accepted = batch.offer(answered)
+            Log.d(TAG, "onDecryptResult: batch took $accepted of ${answered.size} answers")
+            return
+        }
+        val expectedId = pendingDecryptId.get()
+        if (answered.isNotEmpty() && expectedId !in answered) {
+            Log.w(TAG, "onDecryptResult: dropping answer for unknown request ${answered.keys}")
+            return
+        }
         val cont = pendingDecrypt.getAndSet(null)
         if (cont == null) {
             Log.w(TAG, "onDecryptResult: no pending continuation")
             return
         }
-        val plain = if (result.resultCode == android.app.Activity.RESULT_OK) {
+        pendingDecryptId.set(null)
+        val plain = if (answered.isNotEmpty()) {
+            answered[expectedId]
+        } else if (result.resultCode == android.app.Activity.RESULT_OK) {
             result.data?.getStringExtra("result")?.takeIf { it.isNotBlank() }
         } else null
         Log.d(TAG, "onDecryptResult: got ${if (plain != null) "${plain.length} chars" else "null"}")
         (cont as Continuation<String?>).resume(plain)
     }
 
+    /**
+     * The activity holding the result launchers is going away, so no pending request will be
+     * answered: the batch returns what it has and single requests resume with null.
+     */
+    fun cancelPendingRequests() {
+        pendingDecryptBatch.getAndSet(null)?.cancel()
+        pendingDecryptId.set(null)
+        pendingDecrypt.getAndSet(null)?.resume(null)
+        pendingEncrypt.getAndSet(null)?.resume(null)
+        pendingSign.getAndSet(null)?.resume(null)
+        Log.d(TAG, "cancelPendingRequests: launcher activity destroyed")
+    }
+
     fun onEncryptResult(result: ActivityResult) {
         val cont = pendingEncrypt.getAndSet(null)
         if (cont == null) {
@@ -107,6 +169,44 @@ class AmberSigner(
         return decryptViaIntent(ciphertext, peerPubkeyHex)
     }
 
+    override val prefersBatchDecrypt: Boolean get() = true
+
+    override suspend fun nip44DecryptBatch(requests: List<DecryptRequest>): List<String?> {
+        if (requests.isEmpty()) return emptyList()
+        val results = arrayOfNulls<String>(requests.size)
+        val cached = decryptCache?.getAll(pubkeyHex, requests.map { it.eventId }).orEmpty()
+        val misses = requests.indices.filter { i ->
+            results[i] = cached[requests[i].eventId]
+            results[i] == null
+        }
+
+        val resolverSlots = Semaphore(RESOLVER_CONCURRENCY)
+        coroutineScope {
+            for (i in misses) {
+                launch(Dispatchers.IO) {
+                    resolverSlots.withPermit {
+                        results[i] = resolverDecrypt(requests[i].ciphertext, requests[i].peerPubkeyHex)
+                    }
+                }
+            }
+        }
+
+        val needApproval = misses.filter { results[it] == null }
+        if (needApproval.isNotEmpty()) {
+            Log.d(TAG, "nip44DecryptBatch: ${needApproval.size} of ${requests.size} need approval in the signer")
+            val approved = decryptBatchViaIntent(needApproval.map { requests[it] })
+            needApproval.forEachIndexed { j, i -> results[i] = approved[j] }
+        }
+
+        val fresh = misses.mapNotNull { i -> results[i]?.let { requests[i].eventId to it } }.toMap()
+        if (fresh.isNotEmpty()) decryptCache?.putAll(pubkeyHex, fresh)
+        Log.d(
+            TAG, "nip44DecryptBatch: ${requests.size} requests, ${cached.size} cached, " +
+                "${misses.size - needApproval.size} via resolver, ${results.count { it == null }} failed"
+        )
+        return results.toList()
+    }
+
     // ── Content Resolver approach (silent, no Amber UI) ──
 
     private fun resolverDecrypt(ciphertext: String, otherPubkeyHex: String): String? = try {
@@ -169,18 +269,72 @@ class AmberSigner(
         decryptMutex.withLock {
             withContext(Dispatchers.Main) {
                 suspendCancellableCoroutine { cont ->
+                    val id = "decrypt_${System.currentTimeMillis()}"
+                    pendingDecryptId.set(id)
                     pendingDecrypt.set(cont as Continuation<String?>)
-                    val intent = Intent(Intent.ACTION_VIEW, Uri.parse("nostrsigner:${Uri.encode(ciphertext)}"))
-                    intent.`package` = signerPackage
-                    intent.putExtra("type", "nip44_decrypt")
-                    intent.putExtra("current_user", pubkeyHex)
-                    intent.putExtra("pubkey", otherPubkeyHex)
-                    intent.putExtra("id", "decrypt_${System.currentTimeMillis()}")
-                    launchDecryptRef.get().invoke(intent)
+                    launchDecryptRef.get().invoke(decryptIntent(ciphertext, otherPubkeyHex, id))
+                }
+            }
+        }
+
+    /**
+     * NIP-55 multiple-intent request: every intent is launched with SINGLE_TOP | CLEAR_TOP,
+     * so Amber gathers them onto one approval screen and answers with a `results` JSON array
+     * of `{id, result}`, or one result per intent. [AmberDecryptBatch] matches the answers to
+     * the requests; those it did not answer come back null.
+     */
+    private suspend fun decryptBatchViaIntent(requests: List<DecryptRequest>): List<String?> =
+        decryptMutex.withLock {
+            val prefix = "decrypt_batch_${batchSeq.incrementAndGet()}_"
+            val batch = AmberDecryptBatch(requests.indices.map { "$prefix$it" })
+            pendingDecryptBatch.set(batch)
+            try {
+                withContext(Dispatchers.Main) {
+                    requests.forEachIndexed { i, request ->
+                        val intent = decryptIntent(request.ciphertext, request.peerPubkeyHex, batch.ids[i])
+                        intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP or Intent.FLAG_ACTIVITY_CLEAR_TOP)
+                        launchDecryptRef.get().invoke(intent)
+                    }
                 }
+                batch.await(BATCH_STRAGGLER_TIMEOUT_MS, BATCH_ANSWER_TIMEOUT_MS)
+            } finally {
+                pendingDecryptBatch.compareAndSet(batch, null)
             }
         }
 
+    private fun decryptIntent(ciphertext: String, otherPubkeyHex: String, id: String): Intent =
+        Intent(Intent.ACTION_VIEW, Uri.parse("nostrsigner:${Uri.encode(ciphertext)}")).apply {
+            `package` = signerPackage
+            putExtra("type", "nip44_decrypt")
+            putExtra("current_user", pubkeyHex)
+            putExtra("pubkey", otherPubkeyHex)
+            putExtra("id", id)
+        }
+
+    /**
+     * Request id to plaintext (null if rejected), from a batch's `results` array or a lone
+     * `id`/`result` pair. Empty when the result names no request.
+     */
+    private fun parseDecryptResults(result: ActivityResult): Map<String, String?> {
+        val data = result.data ?: return emptyMap()
+        val ok = result.resultCode == android.app.Activity.RESULT_OK
+        val results = data.getStringExtra("results")
+        if (!ok || results.isNullOrBlank()) {
+            val id = data.getStringExtra("id") ?: return emptyMap()
+            return mapOf(id to data.getStringExtra("result")?.takeIf { ok && it.isNotBlank() })
+        }
+        return try {
+            Json.parseToJsonElement(results).jsonArray.mapNotNull { item ->
+                val obj = item.jsonObject
+                val id = obj["id"]?.jsonPrimitive?.content ?: return@mapNotNull null
+                id to obj["result"]?.jsonPrimitive?.content?.takeIf { it.isNotBlank() }
+            }.toMap()
+        } catch (e: Exception) {
+            Log.w(TAG, "parseBatchResults: unreadable results (${e.message})")
+            emptyMap()
+        }
+    }
+
     private suspend fun encryptViaIntent(plaintext: String, otherPubkeyHex: String): String? =
         encryptMutex.withLock {
             withContext(Dispatchers.Main) {
@@ -0,0 +1,125 @@
+package com.fiatlife.app.data.nostr
+
+/**
+ * ChaCha20 stream cipher (RFC 8439, 96-bit nonce) and HChaCha20, working in place on
+ * caller-owned arrays so [Nip44Encryption] can encrypt and decrypt without copies.
+ */
+internal object ChaCha20 {
+
+    /**
+     * XOR [len] bytes of [buf] starting at [off] with the keystream for the 32-byte key at
+     * [key]`[keyOff]` and 12-byte nonce at [nonce]`[nonceOff]`, starting at block [counter].
+     * [state] and [block] are 16-word scratch arrays and are zeroed before returning.
+     */
+    fun xor(
+        key: ByteArray, keyOff: Int,
+        nonce: ByteArray, nonceOff: Int,
+        counter: Int,
+        buf: ByteArray, off: Int, len: Int,
+        state: IntArray = IntArray(16),
+        block: IntArray = IntArray(16)
+    ) {
+        state[0] = SIGMA0
+        state[1] = SIGMA1
+        state[2] = SIGMA2
+        state[3] = SIGMA3
+        for (i in 0 until 8) state[4 + i] = readIntLe(key, keyOff + 4 * i)
+        state[12] = counter
+        for (i in 0 until 3) state[13 + i] = readIntLe(nonce, nonceOff + 4 * i)
+
+        var pos = off
+        val end = off + len
+        while (pos < end) {
+            rounds(state, block)
+            for (i in 0 until 16) block[i] += state[i]
+            val n = minOf(64, end - pos)
+            var i = 0
+            while (i + 4 <= n) {
+                val w = block[i ushr 2]
+                buf[pos + i] = (buf[pos + i].toInt() xor w).toByte()
+                buf[pos + i + 1] = (buf[pos + i + 1].toInt() xor (w ushr 8)).toByte()
+                buf[pos + i + 2] = (buf[pos + i + 2].toInt() xor (w ushr 16)).toByte()
+                buf[pos + i + 3] = (buf[pos + i + 3].toInt() xor (w ushr 24)).toByte()
+                i += 4
+            }
+            while (i < n) {
+                buf[pos + i] = (buf[pos + i].toInt() xor (block[i ushr 2] ushr ((i and 3) shl 3))).toByte()
+                i++
+            }
+            state[12]++
+            pos += n
+        }
+        state.fill(0)
+        block.fill(0)
+    }
+
+    /**
+     * HChaCha20: derive a 32-byte subkey into [out] from the key at [key]`[keyOff]` and the
+     * 16-byte nonce at [nonce]`[nonceOff]` (the first step of XChaCha20).
+     */
+    fun hChaCha20(key: ByteArray, keyOff: Int, nonce: ByteArray, nonceOff: Int, out: ByteArray) {
+        val state = IntArray(16)
+        val block = IntArray(16)
+        state[0] = SIGMA0
+        state[1] = SIGMA1
+        state[2] = SIGMA2
+        state[3] = SIGMA3
+        for (i in 0 until 8) state[4 + i] = readIntLe(key, keyOff + 4 * i)
+        for (i in 0 until 4) state[12 + i] = readIntLe(nonce, nonceOff + 4 * i)
+        rounds(state, block)
+        for (i in 0 until 4) writeIntLe(block[i], out, 4 * i)
+        for (i in 0 until 4) writeIntLe(block[12 + i], out, 16 + 4 * i)
+        state.fill(0)
+        block.fill(0)
+    }
+
+    /** Copy [state] into [x] and run the 20 rounds on [x]. */
+    private fun rounds(state: IntArray, x: IntArray) {
+        var x0 = state[0]; var x1 = state[1]; var x2 = state[2]; var x3 = state[3]
+        var x4 = state[4]; var x5 = state[5]; var x6 = state[6]; var x7 = state[7]
+        var x8 = state[8]; var x9 = state[9]; var x10 = state[10]; var x11 = state[11]
+        var x12 = state[12]; var x13 = state[13]; var x14 = state[14]; var x15 = state[15]
+        repeat(10) {
+            // Column rounds
+            x0 += x4; x12 = (x12 xor x0).rotateLeft(16); x8 += x12; x4 = (x4 xor x8).rotateLeft(12)
+            x0 += x4; x12 = (x12 xor x0).rotateLeft(8); x8 += x12; x4 = (x4 xor x8).rotateLeft(7)
+            x1 += x5; x13 = (x13 xor x1).rotateLeft(16); x9 += x13; x5 = (x5 xor x9).rotateLeft(12)
+            x1 += x5; x13 = (x13 xor x1).rotateLeft(8); x9 += x13; x5 = (x5 xor x9).rotateLeft(7)
+            x2 += x6; x14 = (x14 xor x2).rotateLeft(16); x10 += x14; x6 = (x6 xor x10).rotateLeft(12)
+            x2 += x6; x14 = (x14 xor x2).rotateLeft(8); x10 += x14; x6 = (x6 xor x10).rotateLeft(7)
+            x3 += x7; x15 = (x15 xor x3).rotateLeft(16); x11 += x15; x7 = (x7 xor x11).rotateLeft(12)
+            x3 += x7; x15 = (x15 xor x3).rotateLeft(8); x11 += x15; x7 = (x7 xor x11).rotateLeft(7)
+            // Diagonal rounds
+            x0 += x5; x15 = (x15 xor x0).rotateLeft(16); x10 += x15; x5 = (x5 xor x10).rotateLeft(12)
+            x0 += x5; x15 = (x15 xor x0).rotateLeft(8); x10 += x15; x5 = (x5 xor x10).rotateLeft(7)
+            x1 += x6; x12 = (x12 xor x1).rotateLeft(16); x11 += x12; x6 = (x6 xor x11).rotateLeft(12)
+            x1 += x6; x12 = (x12 xor x1).rotateLeft(8); x11 += x12; x6 = (x6 xor x11).rotateLeft(7)
+            x2 += x7; x13 = (x13 xor x2).rotateLeft(16); x8 += x13; x7 = (x7 xor x8).rotateLeft(12)
+            x2 += x7; x13 = (x13 xor x2).rotateLeft(8); x8 += x13; x7 = (x7 xor x8).rotateLeft(7)
+            x3 += x4; x14 = (x14 xor x3).rotateLeft(16); x9 += x14; x4 = (x4 xor x9).rotateLeft(12)
+            x3 += x4; x14 = (x14 xor x3).rotateLeft(8); x9 += x14; x4 = (x4 xor x9).rotateLeft(7)
+        }
+        x[0] = x0; x[1] = x1; x[2] = x2; x[3] = x3
+        x[4] = x4; x[5] = x5; x[6] = x6; x[7] = x7
+        x[8] = x8; x[9] = x9; x[10] = x10; x[11] = x11
+        x[12] = x12; x[13] = x13; x[14] = x14; x[15] = x15
+    }
+
+    private const val SIGMA0 = 0x61707865
+    private const val SIGMA1 = 0x3320646e
+    private const val SIGMA2 = 0x79622d32
+    private const val SIGMA3 = 0x6b206574
+}
+
+internal fun readIntLe(b: ByteArray, off: Int): Int =
+    (b[off].toInt() and 0xff) or
+        ((b[off + 1].toInt() and 0xff) shl 8) or
+        ((b[off + 2].toInt() and 0xff) shl 16) or
+        ((b[off + 3].toInt() and 0xff) shl 24)
+
+internal fun writeIntLe(v: Int, b: ByteArray, off: Int) {
+    b[off] = v.toByte()
+    b[off + 1] = (v ushr 8).toByte()
+    b[off + 2] = (v ushr 16).toByte()
+    b[off + 3] = (v ushr 24).toByte()
+}
@@ -0,0 +1,60 @@
+package com.fiatlife.app.data.nostr
+
+import java.security.MessageDigest
+
+/**
+ * Bounded LRU of NIP-44 conversation keys, keyed by (private key fingerprint, peer pubkey).
+ *
+ * The private key itself is never stored: entries are keyed by a SHA-256 fingerprint of it.
+ * Cached keys are zeroed when evicted, replaced or cleared, and callers always receive a
+ * copy, so a key in use on one thread is never wiped by an eviction on another.
+ */
+internal class ConversationKeyCache(private val maxEntries: Int = DEFAULT_MAX_ENTRIES) {
+
+    private class Key(val fingerprint: ByteArray, val peer: ByteArray) {
+        override fun equals(other: Any?): Boolean =
+            other is Key && fingerprint.contentEquals(other.fingerprint) && peer.contentEquals(other.peer)
+
+        override fun hashCode(): Int = 31 * fingerprint.contentHashCode() + peer.contentHashCode()
+    }
+
+    private val entries = object : LinkedHashMap<Key, ByteArray>(maxEntries, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, ByteArray>): Boolean {
+            if (size <= maxEntries) return false
+            eldest.value.fill(0)
+            return true
+        }
+    }
+
+    /** Return a copy of the cached key for this pair, deriving and caching it on a miss. */
+    fun getOrPut(privateKey: ByteArray, peerPubKey: ByteArray, derive: () -> ByteArray): ByteArray {
+        val key = Key(fingerprint(privateKey), peerPubKey.copyOf())
+        synchronized(entries) {
+            entries[key]?.let { return it.copyOf() }
+        }
+        val derived = derive()
+        synchronized(entries) {
+            entries.put(key, derived.copyOf())?.fill(0)
+        }
+        return derived
+    }
+
+    /** Zero and drop every cached key, e.g. on logout. */
+    fun clear() {
+        synchronized(entries) {
+            entries.values.forEach { it.fill(0) }
+            entries.clear()
+        }
+    }
+
+    private fun fingerprint(privateKey: ByteArray): ByteArray =
+        MessageDigest.getInstance("SHA-256").run {
+            update(FINGERPRINT_DOMAIN)
+            digest(privateKey)
+        }
+
+    private companion object {
+        const val DEFAULT_MAX_ENTRIES = 16
+        val FINGERPRINT_DOMAIN = "fiatlife/nip44-key-cache".toByteArray(Charsets.UTF_8)
+    }
+}
@@ -0,0 +1,194 @@
+package com.fiatlife.app.data.nostr
+
+import java.security.MessageDigest
+
+/**
+ * Streaming NIP-01 serialization for [UnsignedEvent] and [SignedEvent].
+ *
+ * The id preimage `[0,pubkey,created_at,kind,tags,content]` is UTF-8 encoded through a small
+ * per-thread buffer straight into a reused SHA-256 digest, so hashing never materializes the
+ * preimage as a String or JSON tree. Event JSON is written in a single StringBuilder pass.
+ * String escaping matches kotlinx.serialization, so ids agree with events built elsewhere.
+ */
+internal object EventWriter {
+
+    private val digestSink = ThreadLocal.withInitial { DigestSink() }
+
+    /** SHA-256 of the canonical id preimage of [event]. */
+    fun id(event: UnsignedEvent): ByteArray {
+        val sink = digestSink.get()
+        sink.reset()
+        sink.writePreimage(event)
+        return sink.finish()
+    }
+
+    /** Event JSON with the given [id] and [sig]; pass empty strings for an unsigned event. */
+    fun json(id: String, event: UnsignedEvent, sig: String): String {
+        val sink = StringSink(StringBuilder(estimateLength(event)))
+        sink.writeEvent(id, event, sig)
+        return sink.sb.toString()
+    }
+
+    /** `["EVENT",<json>]` for an already-serialized signed event. */
+    fun eventFrame(json: String): String =
+        StringBuilder(json.length + 10).append("[\"EVENT\",").append(json).append(']').toString()
+
+    private fun estimateLength(event: UnsignedEvent): Int {
+        var n = 320 + event.content.length
+        for (tag in event.tags) for (value in tag) n += value.length + 3
+        return n
+    }
+
+    private abstract class Sink {
+        abstract fun put(c: Char)
+
+        /** Append [s]`[start, end)` as-is; it has already been escaped where needed. */
+        abstract fun putRaw(s: String, start: Int, end: Int)
+
+        fun putRaw(s: String) = putRaw(s, 0, s.length)
+
+        fun writePreimage(e: UnsignedEvent) {
+            putRaw("[0,")
+            putString(e.pubkey)
+            put(',')
+            putRaw(e.createdAt.toString())
+            put(',')
+            putRaw(e.kind.toString())
+            put(',')
+            putTags(e.tags)
+            put(',')
+            putString(e.content)
+            put(']')
+        }
+
+        fun writeEvent(id: String, e: UnsignedEvent, sig: String) {
+            putRaw("{\"id\":")
+            putString(id)
+            putRaw(",\"pubkey\":")
+            putString(e.pubkey)
+            putRaw(",\"created_at\":")
+            putRaw(e.createdAt.toString())
+            putRaw(",\"kind\":")
+            putRaw(e.kind.toString())
+            putRaw(",\"tags\":")
+            putTags(e.tags)
+            putRaw(",\"content\":")
+            putString(e.content)
+            putRaw(",\"sig\":")
+            putString(sig)
+            put('}')
+        }
+
+        private fun putTags(tags: List<List<String>>) {
+            put('[')
+            for (i in tags.indices) {
+                if (i > 0) put(',')
+                val tag = tags[i]
+                put('[')
+                for (j in tag.indices) {
+                    if (j > 0) put(',')
+                    putString(tag[j])
+                }
+                put(']')
+            }
+            put(']')
+        }
+
+        /** Quoted JSON string: `"`, `\` and control characters are escaped, nothing else. */
+        private fun putString(s: String) {
+            put('"')
+            var start = 0
+            for (i in s.indices) {
+                val c = s[i]
+                if (c >= ' ' && c != '"' && c != '\\') continue
+                putRaw(s, start, i)
+                put('\\')
+                when (c) {
+                    '"', '\\' -> put(c)
+                    '\n' -> put('n')
+                    '\r' -> put('r')
+                    '\t' -> put('t')
+                    '\b' -> put('b')
+                    '\u000C' -> put('f')
+                    else -> {
+                        putRaw("u00")
+                        put(HEX_DIGITS[c.code ushr 4])
+                        put(HEX_DIGITS[c.code and 0x0f])
+                    }
+                }
+                start = i + 1
+            }
+            putRaw(s, start, s.length)
+            put('"')
+        }
+    }
+
+    private class StringSink(val sb: StringBuilder) : Sink() {
+        override fun put(c: Char) {
+            sb.append(c)
+        }
+
+        override fun putRaw(s: String, start: Int, end: Int) {
+            sb.append(s, start, end)
+        }
+    }
+
+    /** UTF-8 encodes into [buf] and feeds the digest each time it fills. */
+    private class DigestSink : Sink() {
+        private val digest = MessageDigest.getInstance("SHA-256")
+        private val buf = ByteArray(1024)
+        private var pos = 0
+
+        override fun put(c: Char) {
+            if (pos == buf.size) flush()
+            buf[pos++] = c.code.toByte()
+        }
+
+        override fun putRaw(s: String, start: Int, end: Int) {
+            var i = start
+            while (i < end) {
+                if (pos > buf.size - 4) flush()
+                val c = s[i++]
+                val code = c.code
+                when {
+                    code < 0x80 -> buf[pos++] = code.toByte()
+                    code < 0x800 -> {
+                        buf[pos++] = (0xc0 or (code ushr 6)).toByte()
+                        buf[pos++] = (0x80 or (code and 0x3f)).toByte()
+                    }
+                    c.isHighSurrogate() && i < end && s[i].isLowSurrogate() -> {
+                        val cp = Character.toCodePoint(c, s[i++])
+                        buf[pos++] = (0xf0 or (cp ushr 18)).toByte()
+                        buf[pos++] = (0x80 or ((cp ushr 12) and 0x3f)).toByte()
+                        buf[pos++] = (0x80 or ((cp ushr 6) and 0x3f)).toByte()
+                        buf[pos++] = (0x80 or (cp and 0x3f)).toByte()
+                    }
+                    // Lone surrogate: same replacement as String.toByteArray(UTF_8).
+                    c.isSurrogate() -> buf[pos++] = '?'.code.toByte()
+                    else -> {
+                        buf[pos++] = (0xe0 or (code ushr 12)).toByte()
+                        buf[pos++] = (0x80 or ((code ushr 6) and 0x3f)).toByte()
+                        buf[pos++] = (0x80 or (code and 0x3f)).toByte()
+                    }
+                }
+            }
+        }
+
+        fun reset() {
+            digest.reset()
+            pos = 0
+        }
+
+        fun finish(): ByteArray {
+            flush()
+            return digest.digest()
+        }
+
+        private fun flush() {
+            digest.update(buf, 0, pos)
+            pos = 0
+        }
+    }
+
+    private val HEX_DIGITS = "0123456789abcdef".toCharArray()
+}
@@ -0,0 +1,46 @@
+package com.fiatlife.app.data.nostr
+
+/**
+ * Lowercase hex codec for event ids, signatures, pubkeys and hashes.
+ * Encoding fills one char array from a lookup table; decoding reads two table entries per
+ * byte and rejects odd lengths and non-hex characters (either case is accepted).
+ */
+object Hex {
+    private val DIGITS = "0123456789abcdef".toCharArray()
+
+    private val VALUES = IntArray(128) { -1 }.also { table ->
+        for (i in 0 until 10) table['0'.code + i] = i
+        for (i in 0 until 6) {
+            table['a'.code + i] = 10 + i
+            table['A'.code + i] = 10 + i
+        }
+    }
+
+    fun encode(bytes: ByteArray): String {
+        val out = CharArray(bytes.size * 2)
+        for (i in bytes.indices) {
+            val b = bytes[i].toInt()
+            out[2 * i] = DIGITS[(b ushr 4) and 0x0f]
+            out[2 * i + 1] = DIGITS[b and 0x0f]
+        }
+        return String(out)
+    }
+
+    /** Throws [IllegalArgumentException] if [hex] is not an even-length hex string. */
+    fun decode(hex: String): ByteArray =
+        decodeOrNull(hex) ?: throw IllegalArgumentException("Invalid hex string of length ${hex.length}")
+
+    fun decodeOrNull(hex: String): ByteArray? {
+        if (hex.length % 2 != 0) return null
+        val out = ByteArray(hex.length / 2)
+        for (i in out.indices) {
+            val hi = digit(hex[2 * i])
+            val lo = digit(hex[2 * i + 1])
+            if (hi < 0 || lo < 0) return null
+            out[i] = ((hi shl 4) or lo).toByte()
+        }
+        return out
+    }
+
+    private fun digit(c: Char): Int = if (c.code < 128) VALUES[c.code] else -1
+}
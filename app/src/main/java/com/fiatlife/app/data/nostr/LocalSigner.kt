@@ -2,7 +2,6 @@ package com.fiatlife.app.data.nostr
 
 import fr.acinq.secp256k1.Secp256k1
 import kotlinx.serialization.json.*
-import java.security.MessageDigest
 
 /**
  * [NostrSigner] backed by a local secp256k1 private key.
@@ -10,55 +9,59 @@ import java.security.MessageDigest
  */
 class LocalSigner(private val privateKey: ByteArray) : NostrSigner {
 
-    override val pubkeyHex: String = run {
+    /** x-only public key, derived once; self-encryption reuses it instead of parsing hex. */
+    private val pubkeyBytes: ByteArray = run {
         val secp256k1 = Secp256k1.get()
         secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(privateKey))
-            .drop(1).toByteArray().toHex()
+            .copyOfRange(1, 33)
     }
 
+    override val pubkeyHex: String = pubkeyBytes.toHex()
+
     override suspend fun signEvent(unsignedEventJson: String): String? = try {
         val json = Json.parseToJsonElement(unsignedEventJson).jsonObject
-        val pubkey = json["pubkey"]?.jsonPrimitive?.content ?: pubkeyHex
-        val createdAt = json["created_at"]?.jsonPrimitive?.long ?: (System.currentTimeMillis() / 1000)
-        val kind = json["kind"]?.jsonPrimitive?.int ?: return null
-        val tags = json["tags"]?.jsonArray ?: buildJsonArray {}
-        val content = json["content"]?.jsonPrimitive?.content ?: ""
-
-        val serializedForId = buildJsonArray {
-            add(0)
-            add(pubkey)
-            add(createdAt)
-            add(kind)
-            add(tags)
-            add(content)
-        }.toString()
-
-        val idBytes = MessageDigest.getInstance("SHA-256").digest(serializedForId.toByteArray())
-        val secp256k1 = Secp256k1.get()
-        val sig = secp256k1.signSchnorr(idBytes, privateKey, null).toHex()
+        val kind = json["kind"]?.jsonPrimitive?.int
+        if (kind == null) {
+            null
+        } else {
+            sign(
+                UnsignedEvent(
+                    pubkey = json["pubkey"]?.jsonPrimitive?.content ?: pubkeyHex,
+                    kind = kind,
+                    content = json["content"]?.jsonPrimitive?.content ?: "",
+                    tags = json["tags"]?.jsonArray?.map { tag ->
+                        tag.jsonArray.map { it.jsonPrimitive.content }
+                    } ?: emptyList(),
+                    createdAt = json["created_at"]?.jsonPrimitive?.long
+                        ?: (System.currentTimeMillis() / 1000)
+                )
+            )?.json
+        }
+    } catch (_: Exception) {
+        null
+    }
 
-        buildJsonObject {
-            put("id", idBytes.toHex())
-            put("pubkey", pubkey)
-            put("created_at", createdAt)
-            put("kind", kind)
-            put("tags", tags)
-            put("content", content)
-            put("sig", sig)
-        }.toString()
+    override suspend fun sign(event: UnsignedEvent): SignedEvent? = try {
+        val idBytes = EventWriter.id(event)
+        val sig = Secp256k1.get().signSchnorr(idBytes, privateKey, null).toHex()
+        val id = idBytes.toHex()
+        SignedEvent(id, EventWriter.json(id, event, sig))
     } catch (_: Exception) {
         null
     }
 
     override suspend fun nip44Encrypt(plaintext: String, peerPubkeyHex: String): String? = try {
-        Nip44Encryption.encrypt(plaintext, privateKey, peerPubkeyHex.hexToByteArray())
+        Nip44Encryption.encrypt(plaintext, privateKey, peerPubkeyBytes(peerPubkeyHex))
     } catch (_: Exception) {
         null
     }
 
     override suspend fun nip44Decrypt(ciphertext: String, peerPubkeyHex: String): String? = try {
-        Nip44Encryption.decrypt(ciphertext, privateKey, peerPubkeyHex.hexToByteArray())
+        Nip44Encryption.decrypt(ciphertext, privateKey, peerPubkeyBytes(peerPubkeyHex))
     } catch (_: Exception) {
         null
     }
+
+    private fun peerPubkeyBytes(peerPubkeyHex: String): ByteArray =
+        if (peerPubkeyHex == pubkeyHex) pubkeyBytes else peerPubkeyHex.hexToByteArray()
 }
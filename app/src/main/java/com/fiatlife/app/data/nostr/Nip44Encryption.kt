@@ -1,195 +1,325 @@
 package com.fiatlife.app.data.nostr
 
-import com.goterl.lazysodium.LazySodiumAndroid
-import com.goterl.lazysodium.SodiumAndroid
 import fr.acinq.secp256k1.Secp256k1
-import java.nio.ByteBuffer
 import java.security.SecureRandom
+import java.util.Base64
 import javax.crypto.Mac
 import javax.crypto.spec.SecretKeySpec
 
 /**
- * NIP-44 v2 encryption/decryption using XChaCha20-Poly1305 with
- * HKDF-SHA256 key derivation and secp256k1 ECDH shared secret.
+ * NIP-44 v2 encryption/decryption: secp256k1 ECDH, HKDF-SHA256, ChaCha20 and HMAC-SHA256.
+ *
+ * Each thread keeps its own HMAC instance and scratch buffers. Messages are padded and
+ * encrypted in place inside the final payload buffer, decrypted in place inside the decoded
+ * payload, and Base64 runs once over the whole buffer, so a message costs its input and
+ * output arrays plus the key spec objects.
+ *
+ * Conversation keys are cached per (private key, peer) in a small LRU, so repeated
+ * messages to the same peer (almost always ourselves) cost one ECDH per session.
+ *
+ * [decrypt] also accepts the XChaCha20-Poly1305 encoding FiatLife wrote before it followed
+ * the spec, so records published by older versions stay readable until they are re-saved.
+ * The migration is one-way: only the spec format is written, and those older versions cannot
+ * read it (see NIP.md).
  */
 object Nip44Encryption {
 
-    private val sodium = LazySodiumAndroid(SodiumAndroid())
     private val secp256k1 = Secp256k1.get()
     private val secureRandom = SecureRandom()
 
     private const val VERSION: Byte = 2
-    private const val NONCE_SIZE = 24
-    private const val POLY1305_TAG_SIZE = 16
+    private const val NONCE_SIZE = 32
+    private const val MAC_SIZE = 32
+    private const val MIN_PLAINTEXT_SIZE = 1
+    private const val MAX_PLAINTEXT_SIZE = 65535
+    private const val MIN_PAYLOAD_SIZE = 99
+    private const val MAX_PAYLOAD_SIZE = 65603
+
+    // Layout of the 96-byte HKDF-expand output (three SHA-256 blocks, 76 bytes used).
+    private const val CHACHA_KEY_OFFSET = 0
+    private const val CHACHA_NONCE_OFFSET = 32
+    private const val HMAC_KEY_OFFSET = 44
+    private const val HMAC_KEY_SIZE = 32
+
+    private const val LEGACY_NONCE_SIZE = 24
+    private const val LEGACY_CHACHA_NONCE_OFFSET = 32
+    private const val LEGACY_HMAC_KEY_OFFSET = 56
+    private const val LEGACY_HMAC_KEY_SIZE = 20
+    private const val LEGACY_TAG_SIZE = 16
+
+    private val SALT = SecretKeySpec("nip44-v2".toByteArray(Charsets.UTF_8), "HmacSHA256")
+
+    private val conversationKeys = ConversationKeyCache()
+    private val legacyConversationKeys = ConversationKeyCache()
+
+    /** Used as the peer for [encryptToSelf]/[decryptFromSelf] so they skip deriving our pubkey. */
+    private val SELF = ByteArray(0)
+
+    private class Scratch {
+        val mac: Mac = Mac.getInstance("HmacSHA256")
+        val keys = ByteArray(96)
+        val tag = ByteArray(MAC_SIZE)
+        val state = IntArray(16)
+        val block = IntArray(16)
+    }
+
+    private val scratch = ThreadLocal.withInitial { Scratch() }
 
     fun encrypt(
         plaintext: String,
         privateKey: ByteArray,
         recipientPubKey: ByteArray
     ): String {
-        val conversationKey = deriveConversationKey(privateKey, recipientPubKey)
-        val nonce = ByteArray(NONCE_SIZE).also { secureRandom.nextBytes(it) }
-        val (chachaKey, chachaNonce, hmacKey) = deriveMessageKeys(conversationKey, nonce)
-
-        val padded = padPlaintext(plaintext.toByteArray(Charsets.UTF_8))
-
-        val ciphertext = ByteArray(padded.size + POLY1305_TAG_SIZE)
-        val ciphertextLen = longArrayOf(0L)
-
-        val success = sodium.cryptoAeadXChaCha20Poly1305IetfEncrypt(
-            ciphertext, ciphertextLen,
-            padded, padded.size.toLong(),
-            null, 0L,
-            null,
-            chachaNonce,
-            chachaKey
-        )
-        check(success) { "Encryption failed" }
-
-        val encrypted = ciphertext.copyOf(ciphertextLen[0].toInt())
-
-        val payload = ByteBuffer.allocate(1 + NONCE_SIZE + encrypted.size)
-            .put(VERSION)
-            .put(nonce)
-            .put(encrypted)
-            .array()
-
-        val mac = hmacSha256(hmacKey, payload)
-
-        val result = ByteBuffer.allocate(payload.size + mac.size)
-            .put(payload)
-            .put(mac)
-            .array()
-
-        return android.util.Base64.encodeToString(result, android.util.Base64.NO_WRAP)
+        val conversationKey = conversationKeys.getOrPut(privateKey, recipientPubKey) {
+            getConversationKey(privateKey, recipientPubKey)
+        }
+        return try {
+            encryptWithKey(plaintext, conversationKey, randomNonce())
+        } finally {
+            conversationKey.fill(0)
+        }
     }
 
     fun decrypt(
         payload: String,
         privateKey: ByteArray,
         senderPubKey: ByteArray
-    ): String {
-        val data = android.util.Base64.decode(payload, android.util.Base64.NO_WRAP)
-
-        require(data[0] == VERSION) { "Unsupported NIP-44 version: ${data[0]}" }
-
-        val conversationKey = deriveConversationKey(privateKey, senderPubKey)
-        val nonce = data.sliceArray(1 until 1 + NONCE_SIZE)
-        val encrypted = data.sliceArray(1 + NONCE_SIZE until data.size - 32)
-        val receivedMac = data.sliceArray(data.size - 32 until data.size)
-
-        val (chachaKey, chachaNonce, hmacKey) = deriveMessageKeys(conversationKey, nonce)
-
-        val macPayload = data.sliceArray(0 until data.size - 32)
-        val computedMac = hmacSha256(hmacKey, macPayload)
-        require(computedMac.contentEquals(receivedMac)) { "MAC verification failed" }
-
-        val decrypted = ByteArray(encrypted.size)
-        val decryptedLen = longArrayOf(0L)
+    ): String = decryptPayload(
+        payload,
+        conversationKey = { conversationKeys.getOrPut(privateKey, senderPubKey) { getConversationKey(privateKey, senderPubKey) } },
+        legacyConversationKey = {
+            legacyConversationKeys.getOrPut(privateKey, senderPubKey) { legacyConversationKey(privateKey, senderPubKey) }
+        }
+    )
 
-        val result = sodium.cryptoAeadXChaCha20Poly1305IetfDecrypt(
-            decrypted, decryptedLen,
-            null,
-            encrypted, encrypted.size.toLong(),
-            null, 0L,
-            chachaNonce,
-            chachaKey
-        )
+    fun encryptToSelf(plaintext: String, privateKey: ByteArray): String {
+        val conversationKey = conversationKeys.getOrPut(privateKey, SELF) {
+            getConversationKey(privateKey, derivePubKey(privateKey))
+        }
+        return try {
+            encryptWithKey(plaintext, conversationKey, randomNonce())
+        } finally {
+            conversationKey.fill(0)
+        }
+    }
 
-        check(result) { "Decryption failed" }
+    fun decryptFromSelf(payload: String, privateKey: ByteArray): String = decryptPayload(
+        payload,
+        conversationKey = {
+            conversationKeys.getOrPut(privateKey, SELF) { getConversationKey(privateKey, derivePubKey(privateKey)) }
+        },
+        legacyConversationKey = {
+            legacyConversationKeys.getOrPut(privateKey, SELF) { legacyConversationKey(privateKey, derivePubKey(privateKey)) }
+        }
+    )
 
-        return unpadPlaintext(decrypted.copyOf(decryptedLen[0].toInt()))
+    /** Zero and forget every cached conversation key; call when the signer is cleared. */
+    fun clearConversationKeys() {
+        conversationKeys.clear()
+        legacyConversationKeys.clear()
     }
 
-    fun encryptToSelf(plaintext: String, privateKey: ByteArray): String {
-        val pubKey = derivePubKey(privateKey)
-        return encrypt(plaintext, privateKey, pubKey)
+    /** NIP-44 v2 conversation key: HKDF-extract(salt = "nip44-v2", shared x coordinate). Uncached. */
+    internal fun getConversationKey(privateKey: ByteArray, pubKey: ByteArray): ByteArray {
+        val sharedX = secp256k1.pubKeyTweakMul(compressed(pubKey), privateKey).copyOfRange(1, 33)
+        try {
+            val mac = scratch.get().mac
+            mac.init(SALT)
+            return mac.doFinal(sharedX)
+        } finally {
+            sharedX.fill(0)
+        }
     }
 
-    fun decryptFromSelf(payload: String, privateKey: ByteArray): String {
-        val pubKey = derivePubKey(privateKey)
-        return decrypt(payload, privateKey, pubKey)
+    /** Encrypt with an explicit conversation key and 32-byte nonce (test vectors, benchmarks). */
+    internal fun encryptWithKey(plaintext: String, conversationKey: ByteArray, nonce: ByteArray): String {
+        require(nonce.size == NONCE_SIZE) { "Nonce must be $NONCE_SIZE bytes" }
+        val plain = plaintext.toByteArray(Charsets.UTF_8)
+        require(plain.size in MIN_PLAINTEXT_SIZE..MAX_PLAINTEXT_SIZE) { "Invalid plaintext length: ${plain.size}" }
+        val paddedLen = calcPaddedLen(plain.size)
+
+        // version | nonce | u16 length | plaintext | zero padding | mac
+        val ctOffset = 1 + NONCE_SIZE
+        val ctLen = 2 + paddedLen
+        val out = ByteArray(ctOffset + ctLen + MAC_SIZE)
+        out[0] = VERSION
+        System.arraycopy(nonce, 0, out, 1, NONCE_SIZE)
+        out[ctOffset] = (plain.size ushr 8).toByte()
+        out[ctOffset + 1] = plain.size.toByte()
+        System.arraycopy(plain, 0, out, ctOffset + 2, plain.size)
+        plain.fill(0)
+
+        val s = scratch.get()
+        try {
+            expandMessageKeys(s, conversationKey, out, 1, NONCE_SIZE)
+            ChaCha20.xor(
+                s.keys, CHACHA_KEY_OFFSET, s.keys, CHACHA_NONCE_OFFSET, 0,
+                out, ctOffset, ctLen, s.state, s.block
+            )
+            s.mac.init(SecretKeySpec(s.keys, HMAC_KEY_OFFSET, HMAC_KEY_SIZE, "HmacSHA256"))
+            s.mac.update(out, 1, NONCE_SIZE + ctLen)
+            s.mac.doFinal(out, ctOffset + ctLen)
+        } finally {
+            s.keys.fill(0)
+        }
+        return Base64.getEncoder().encodeToString(out)
     }
 
-    private fun derivePubKey(privateKey: ByteArray): ByteArray {
-        val compressed = secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(privateKey))
-        return compressed.drop(1).toByteArray()
-    }
+    /** Decrypt with an explicit conversation key (test vectors, benchmarks). */
+    internal fun decryptWithKey(payload: String, conversationKey: ByteArray): String =
+        decryptPayload(payload, { conversationKey.copyOf() }, { null })
 
-    private fun deriveConversationKey(
-        privateKey: ByteArray,
-        pubKey: ByteArray
-    ): ByteArray {
-        val fullPubKey = byteArrayOf(0x02) + pubKey
-        val sharedPoint = secp256k1.ecdh(privateKey, fullPubKey)
-        return hkdfExtract(
-            salt = "nip44-v2".toByteArray(Charsets.UTF_8),
-            ikm = sharedPoint
-        )
-    }
+    /**
+     * The key providers return arrays owned by this call, which are zeroed after use.
+     * [legacyConversationKey] is only asked for when the spec MAC does not verify.
+     */
+    private fun decryptPayload(
+        payload: String,
+        conversationKey: () -> ByteArray,
+        legacyConversationKey: () -> ByteArray?
+    ): String {
+        require(payload.isNotEmpty() && payload[0] != '#') { "Unsupported NIP-44 encoding" }
+        val data = Base64.getDecoder().decode(payload)
+        require(data.size >= MIN_PAYLOAD_SIZE) { "Invalid payload length: ${data.size}" }
+        require(data[0] == VERSION) { "Unsupported NIP-44 version: ${data[0]}" }
 
-    private data class MessageKeys(
-        val chachaKey: ByteArray,
-        val chachaNonce: ByteArray,
-        val hmacKey: ByteArray
-    )
+        val s = scratch.get()
+        val key = conversationKey()
+        try {
+            if (data.size <= MAX_PAYLOAD_SIZE && decryptInPlace(s, key, data)) {
+                return unpad(data, 1 + NONCE_SIZE, data.size - 1 - NONCE_SIZE - MAC_SIZE, strict = true)
+            }
+        } finally {
+            key.fill(0)
+            s.keys.fill(0)
+        }
 
-    private fun deriveMessageKeys(conversationKey: ByteArray, nonce: ByteArray): MessageKeys {
-        val expanded = hkdfExpand(conversationKey, nonce, 76)
-        return MessageKeys(
-            chachaKey = expanded.sliceArray(0 until 32),
-            chachaNonce = expanded.sliceArray(32 until 56),
-            hmacKey = expanded.sliceArray(56 until 76)
-        )
+        val legacyKey = legacyConversationKey() ?: throw IllegalArgumentException("MAC verification failed")
+        try {
+            require(decryptLegacyInPlace(s, legacyKey, data)) { "MAC verification failed" }
+            return unpad(data, 1 + LEGACY_NONCE_SIZE, data.size - 1 - LEGACY_NONCE_SIZE - LEGACY_TAG_SIZE - MAC_SIZE, strict = false)
+        } finally {
+            legacyKey.fill(0)
+            s.keys.fill(0)
+        }
     }
 
-    private fun hkdfExtract(salt: ByteArray, ikm: ByteArray): ByteArray {
-        return hmacSha256(salt, ikm)
+    /** Verify the spec MAC over nonce and ciphertext, then decrypt the ciphertext in place. */
+    private fun decryptInPlace(s: Scratch, conversationKey: ByteArray, data: ByteArray): Boolean {
+        val ctOffset = 1 + NONCE_SIZE
+        val ctLen = data.size - ctOffset - MAC_SIZE
+        expandMessageKeys(s, conversationKey, data, 1, NONCE_SIZE)
+        s.mac.init(SecretKeySpec(s.keys, HMAC_KEY_OFFSET, HMAC_KEY_SIZE, "HmacSHA256"))
+        s.mac.update(data, 1, NONCE_SIZE + ctLen)
+        s.mac.doFinal(s.tag, 0)
+        if (!constantTimeEquals(s.tag, data, ctOffset + ctLen, MAC_SIZE)) return false
+        ChaCha20.xor(
+            s.keys, CHACHA_KEY_OFFSET, s.keys, CHACHA_NONCE_OFFSET, 0,
+            data, ctOffset, ctLen, s.state, s.block
+        )
+        return true
     }
 
-    private fun hkdfExpand(prk: ByteArray, info: ByteArray, length: Int): ByteArray {
-        val hashLen = 32
-        val n = (length + hashLen - 1) / hashLen
-        var t = ByteArray(0)
-        val okm = ByteBuffer.allocate(n * hashLen)
-
-        for (i in 1..n) {
-            val input = t + info + byteArrayOf(i.toByte())
-            t = hmacSha256(prk, input)
-            okm.put(t)
+    /**
+     * Pre-spec layout: version | 24-byte nonce | XChaCha20-Poly1305 ciphertext and tag | mac,
+     * with the HMAC over everything before it and a 20-byte HMAC key.
+     */
+    private fun decryptLegacyInPlace(s: Scratch, conversationKey: ByteArray, data: ByteArray): Boolean {
+        val ctOffset = 1 + LEGACY_NONCE_SIZE
+        val macOffset = data.size - MAC_SIZE
+        val ctLen = macOffset - LEGACY_TAG_SIZE - ctOffset
+        if (ctLen < 2) return false
+        expandMessageKeys(s, conversationKey, data, 1, LEGACY_NONCE_SIZE)
+        s.mac.init(SecretKeySpec(s.keys, LEGACY_HMAC_KEY_OFFSET, LEGACY_HMAC_KEY_SIZE, "HmacSHA256"))
+        s.mac.update(data, 0, macOffset)
+        s.mac.doFinal(s.tag, 0)
+        if (!constantTimeEquals(s.tag, data, macOffset, MAC_SIZE)) return false
+
+        // XChaCha20-Poly1305 (IETF): subkey from the first 16 nonce bytes, then ChaCha20 with
+        // 4 zero bytes + the last 8 nonce bytes; block 0 keys Poly1305, the payload starts at 1.
+        val subkey = ByteArray(32)
+        val nonce12 = ByteArray(12)
+        val polyKey = ByteArray(64)
+        try {
+            ChaCha20.hChaCha20(s.keys, CHACHA_KEY_OFFSET, s.keys, LEGACY_CHACHA_NONCE_OFFSET, subkey)
+            System.arraycopy(s.keys, LEGACY_CHACHA_NONCE_OFFSET + 16, nonce12, 4, 8)
+            ChaCha20.xor(subkey, 0, nonce12, 0, 0, polyKey, 0, 64, s.state, s.block)
+            val poly = Poly1305(polyKey)
+            poly.update(data, ctOffset, ctLen)
+            poly.padToBlock()
+            poly.updateLongLe(0)
+            poly.updateLongLe(ctLen.toLong())
+            poly.finish(s.tag, 0)
+            if (!constantTimeEquals(s.tag, data, ctOffset + ctLen, LEGACY_TAG_SIZE)) return false
+            ChaCha20.xor(subkey, 0, nonce12, 0, 1, data, ctOffset, ctLen, s.state, s.block)
+            return true
+        } finally {
+            subkey.fill(0)
+            polyKey.fill(0)
         }
-
-        return okm.array().copyOf(length)
     }
 
-    private fun hmacSha256(key: ByteArray, data: ByteArray): ByteArray {
-        val mac = Mac.getInstance("HmacSHA256")
-        mac.init(SecretKeySpec(key, "HmacSHA256"))
-        return mac.doFinal(data)
+    /** The conversation key FiatLife derived before following the spec (hashed ECDH output). */
+    private fun legacyConversationKey(privateKey: ByteArray, pubKey: ByteArray): ByteArray {
+        val shared = secp256k1.ecdh(privateKey, compressed(pubKey))
+        try {
+            val mac = scratch.get().mac
+            mac.init(SALT)
+            return mac.doFinal(shared)
+        } finally {
+            shared.fill(0)
+        }
     }
 
-    private fun padPlaintext(plaintext: ByteArray): ByteArray {
-        val unpaddedLen = plaintext.size
-        require(unpaddedLen in 1..65535) { "Plaintext too long" }
-
-        val paddedLen = calcPaddedLen(unpaddedLen)
-        val result = ByteBuffer.allocate(2 + paddedLen)
-        result.putShort(unpaddedLen.toShort())
-        result.put(plaintext)
-        result.put(ByteArray(paddedLen - unpaddedLen))
-        return result.array()
+    /**
+     * HKDF-expand(prk = [conversationKey], info = nonce, L = 76) into [Scratch.keys], feeding
+     * each round's input to the MAC piecewise instead of concatenating it.
+     */
+    private fun expandMessageKeys(s: Scratch, conversationKey: ByteArray, nonce: ByteArray, nonceOff: Int, nonceLen: Int) {
+        s.mac.init(SecretKeySpec(conversationKey, "HmacSHA256"))
+        for (round in 1..3) {
+            val outOff = (round - 1) * 32
+            if (round > 1) s.mac.update(s.keys, outOff - 32, 32)
+            s.mac.update(nonce, nonceOff, nonceLen)
+            s.mac.update(round.toByte())
+            s.mac.doFinal(s.keys, outOff)
+        }
     }
 
-    private fun unpadPlaintext(padded: ByteArray): String {
-        val len = ByteBuffer.wrap(padded, 0, 2).short.toInt() and 0xFFFF
-        require(len > 0 && len <= padded.size - 2) { "Invalid padding" }
-        return String(padded, 2, len, Charsets.UTF_8)
+    private fun unpad(data: ByteArray, off: Int, len: Int, strict: Boolean): String {
+        require(len >= 2) { "Invalid padding" }
+        val plainLen = ((data[off].toInt() and 0xff) shl 8) or (data[off + 1].toInt() and 0xff)
+        val valid = if (strict) {
+            plainLen >= MIN_PLAINTEXT_SIZE && len == 2 + calcPaddedLen(plainLen)
+        } else {
+            plainLen > 0 && plainLen <= len - 2
+        }
+        require(valid) { "Invalid padding" }
+        return String(data, off + 2, plainLen, Charsets.UTF_8)
     }
 
-    private fun calcPaddedLen(unpaddedLen: Int): Int {
+    /** Padded length from the spec: 32-byte chunks up to 256 bytes, then 1/8 of the next power of two. */
+    internal fun calcPaddedLen(unpaddedLen: Int): Int {
         if (unpaddedLen <= 32) return 32
-        val nextPower = Integer.highestOneBit(unpaddedLen - 1) shl 1
-        val chunk = nextPower / 8
-        return ((unpaddedLen + chunk - 1) / chunk) * chunk
+        val nextPower = 1 shl (32 - Integer.numberOfLeadingZeros(unpaddedLen - 1))
+        val chunk = if (nextPower <= 256) 32 else nextPower / 8
+        return chunk * ((unpaddedLen - 1) / chunk + 1)
     }
+
+    private fun constantTimeEquals(expected: ByteArray, data: ByteArray, off: Int, len: Int): Boolean {
+        var diff = 0
+        for (i in 0 until len) diff = diff or (expected[i].toInt() xor data[off + i].toInt())
+        return diff == 0
+    }
+
+    private fun randomNonce(): ByteArray = ByteArray(NONCE_SIZE).also { secureRandom.nextBytes(it) }
+
+    private fun compressed(xOnlyPubKey: ByteArray): ByteArray =
+        ByteArray(33).also {
+            it[0] = 0x02
+            System.arraycopy(xOnlyPubKey, 0, it, 1, 32)
+        }
+
+    private fun derivePubKey(privateKey: ByteArray): ByteArray =
+        secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(privateKey)).copyOfRange(1, 33)
 }
@@ -4,7 +4,6 @@ import android.util.Log
 import kotlinx.coroutines.*
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.*
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.*
 import okhttp3.*
 import javax.inject.Inject
@@ -12,457 +11,328 @@ import javax.inject.Singleton
 
 private const val TAG = "NostrClient"
 
-sealed class NostrMessage {
-    data class EventReceived(val subscriptionId: String, val event: NostrEvent) : NostrMessage()
-    data class Ok(val eventId: String, val success: Boolean, val message: String) : NostrMessage()
-    data class Eose(val subscriptionId: String) : NostrMessage()
-    data class Notice(val message: String) : NostrMessage()
-    data class AuthChallenge(val challenge: String) : NostrMessage()
-    data class Error(val error: Throwable) : NostrMessage()
-    data object Connected : NostrMessage()
-    data object Disconnected : NostrMessage()
+/**
+ * Lifecycle of a relay connection. Outgoing messages are sent only in [READY];
+ * in every other state they are queued and flushed on the transition to [READY].
+ * A disconnect drops queued REQ and CLOSE frames; queued EVENTs are deduplicated and capped.
+ */
+enum class RelayConnectionState {
+    DISCONNECTED,
+    CONNECTING,
+    AWAITING_AUTH,
+    READY,
+    CLOSING
 }
 
+/** One item of a pooled read; see [NostrClient.fetchUntilEose]. */
+sealed class PoolFetchItem {
+    /** [duplicate] is true when another relay already delivered this event id in the same fetch. */
+    data class Event(val relayUrl: String, val event: NostrEvent, val duplicate: Boolean) : PoolFetchItem()
+
+    /** [relayUrl] has sent every stored event matching its filters. */
+    data class Eose(val relayUrl: String) : PoolFetchItem()
+}
+
+/**
+ * Outcome of [NostrClient.publishBatch]. Each event id maps to a successful `OK` once the
+ * write quorum accepted it, to a rejection if every relay answered and too few accepted,
+ * or to null if too few relays answered in time.
+ */
+data class BatchPublishResult(val oks: Map<String, NostrMessage.Ok?>) {
+    val accepted: Int get() = oks.values.count { it?.success == true }
+    val rejected: Int get() = oks.values.count { it != null && !it.success }
+    val unanswered: Int get() = oks.values.count { it == null }
+}
+
+/**
+ * Per-event `OK` counts for one [NostrClient.publishBatch] over [poolSize] relays. A relay
+ * accepting an event or reporting it a duplicate counts towards [quorum].
+ */
+internal class QuorumTally(private val ids: List<String>, private val quorum: Int, private val poolSize: Int) {
+    private val accepted = HashMap<String, Int>()
+    private val answered = HashMap<String, Int>()
+    private val rejections = HashMap<String, NostrMessage.Ok>()
+
+    /** Count one relay's answers; null means that relay did not answer the event. */
+    fun add(oks: Map<String, NostrMessage.Ok?>) {
+        for ((id, ok) in oks) {
+            if (ok == null) continue
+            answered.merge(id, 1, Int::plus)
+            if (ok.success || ok.message.startsWith("duplicate:")) {
+                accepted.merge(id, 1, Int::plus)
+            } else {
+                rejections[id] = ok
+            }
+        }
+    }
+
+    /** True once every event has met the quorum or been answered by every relay. */
+    fun allSettled(): Boolean = ids.all { id ->
+        (accepted[id] ?: 0) >= quorum || (answered[id] ?: 0) == poolSize
+    }
+
+    fun result(): BatchPublishResult = BatchPublishResult(
+        ids.associateWith { id ->
+            when {
+                (accepted[id] ?: 0) >= quorum -> NostrMessage.Ok(id, true, "accepted by ${accepted[id]}/$poolSize")
+                (answered[id] ?: 0) == poolSize -> rejections[id]
+                else -> null
+            }
+        }
+    )
+}
+
+/**
+ * Relay pool. Holds one [RelayConnection] per configured relay, each with its own NIP-42 auth.
+ * Writes fan out to every relay in parallel and count as done once [writeQuorum] relays
+ * acknowledge them. Reads go to the best-ranked ready relays (see [RelayStats]) and end at
+ * the first complete EOSE plus [READ_GRACE_MS].
+ */
 @Singleton
 class NostrClient @Inject constructor(
     private val okHttpClient: OkHttpClient
 ) {
-    private var webSocket: WebSocket? = null
-    private var relayUrl: String = ""
-    private var signer: NostrSigner? = null
-    private var isAuthenticated = false
-    private var authInFlight = false
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    @Volatile private var signer: NostrSigner? = null
+    @Volatile private var relayUrls: List<String> = emptyList()
+
+    private val relays = MutableStateFlow<List<RelayConnection>>(emptyList())
+
+    /** Number of relay `OK`s that make a publish count as done; capped at the pool size. */
+    @Volatile var writeQuorum: Int = 1
 
     private val _messages = MutableSharedFlow<NostrMessage>(extraBufferCapacity = 64)
+
+    /** Connection-level traffic (OK, NOTICE, AUTH, connect/disconnect) from every relay. */
     val messages: SharedFlow<NostrMessage> = _messages.asSharedFlow()
 
-    private val _connectionState = MutableStateFlow(false)
-    val connectionState: StateFlow<Boolean> = _connectionState.asStateFlow()
+    /** The best state of any relay in the pool: READY as soon as one relay is ready. */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val state: StateFlow<RelayConnectionState> = relays
+        .flatMapLatest { pool ->
+            if (pool.isEmpty()) {
+                flowOf(RelayConnectionState.DISCONNECTED)
+            } else {
+                combine(pool.map { it.state }) { states -> states.maxBy { it.rank } }
+            }
+        }
+        .stateIn(scope, SharingStarted.Eagerly, RelayConnectionState.DISCONNECTED)
 
-    private val pendingQueue = Channel<String>(Channel.BUFFERED)
-    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    /** True while any relay socket is open, whether or not NIP-42 auth has completed. */
+    val connectionState: StateFlow<Boolean> = state
+        .map { it == RelayConnectionState.AWAITING_AUTH || it == RelayConnectionState.READY }
+        .stateIn(scope, SharingStarted.Eagerly, false)
 
     val hasSigner: Boolean get() = signer != null
     val currentSigner: NostrSigner? get() = signer
+    val currentRelayUrls: List<String> get() = relayUrls
 
     fun setSigner(signer: NostrSigner) {
         this.signer = signer
     }
 
-    fun connect(relayUrl: String) {
+    fun connect(relayUrls: String) {
         val s = signer ?: return
-        connect(relayUrl, s)
+        connect(relayUrls, s)
     }
 
-    fun connect(relayUrl: String, signer: NostrSigner) {
-        if (_connectionState.value && this.relayUrl == relayUrl) return
-
-        this.relayUrl = relayUrl
+    /**
+     * Connect to every relay in [relayUrls] (comma or whitespace separated). Relays already
+     * in the pool keep their connection; relays no longer listed are disconnected.
+     */
+    fun connect(relayUrls: String, signer: NostrSigner) {
         this.signer = signer
-        this.isAuthenticated = false
-        this.authInFlight = false
-
-        disconnect()
-
-        val request = Request.Builder()
-            .url(relayUrl)
-            .build()
-
-        webSocket = okHttpClient.newWebSocket(request, object : WebSocketListener() {
-            override fun onOpen(webSocket: WebSocket, response: Response) {
-                Log.d(TAG, "WebSocket open to $relayUrl")
-                _connectionState.value = true
-                _messages.tryEmit(NostrMessage.Connected)
-                // Don't drain the pending queue yet — wait for NIP-42 auth.
-                // If the relay doesn't send AUTH within 1.5s, assume no auth
-                // is required and drain then.
-                scope.launch {
-                    delay(1500)
-                    if (_connectionState.value && !isAuthenticated && !authInFlight) {
-                        Log.d(TAG, "No AUTH challenge received, assuming open relay")
-                        isAuthenticated = true
-                        drainPendingQueue()
-                    }
-                }
-            }
-
-            override fun onMessage(webSocket: WebSocket, text: String) {
-                handleMessage(text)
-            }
-
-            override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
-                webSocket.close(1000, null)
-                _connectionState.value = false
-                _messages.tryEmit(NostrMessage.Disconnected)
-            }
-
-            override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
-                Log.w(TAG, "WebSocket failure: ${t.message}")
-                _connectionState.value = false
-                _messages.tryEmit(NostrMessage.Error(t))
-            }
-        })
+        val urls = parseRelayUrls(relayUrls)
+        this.relayUrls = urls
+        val pool = synchronized(relays) {
+            val current = relays.value.associateBy { it.url }
+            current.values.filter { it.url !in urls }.forEach { it.disconnect() }
+            urls.map { url ->
+                current[url] ?: RelayConnection(url, okHttpClient, scope, { this.signer }, _messages)
+            }.also { relays.value = it }
+        }
+        pool.forEach { it.connect() }
     }
 
     /**
-     * Reconnect if needed and wait until ready (connected + authenticated).
-     * Returns true if the relay is ready to accept messages.
+     * Reconnect dropped relays and wait until at least one is ready.
+     * Returns true if a relay is ready to accept messages.
      */
     suspend fun ensureConnected(): Boolean {
-        if (_connectionState.value && isAuthenticated) return true
-        val s = signer ?: return false
-        if (relayUrl.isEmpty()) return false
-        if (!_connectionState.value) {
-            connect(relayUrl, s)
+        val pool = relays.value
+        if (pool.any { it.state.value == RelayConnectionState.READY }) return true
+        if (signer == null) return false
+        if (pool.isEmpty()) {
+            if (relayUrls.isEmpty()) return false
+            connect(relayUrls.joinToString(","))
+        } else {
+            pool.filter { it.state.value == RelayConnectionState.DISCONNECTED }.forEach { it.connect() }
         }
         return awaitReady()
     }
 
     /**
-     * Suspend until the relay WebSocket is connected AND NIP-42 auth is complete,
-     * or until timeout. Returns true if ready, false if timed out.
+     * Suspend until at least one relay reaches [RelayConnectionState.READY] or [timeoutMs]
+     * elapses. Returns true if ready.
      */
     suspend fun awaitReady(timeoutMs: Long = 5000): Boolean {
-        val deadline = System.currentTimeMillis() + timeoutMs
-        while (System.currentTimeMillis() < deadline) {
-            if (_connectionState.value && isAuthenticated) return true
-            delay(100)
-        }
-        Log.d(TAG, "awaitReady timed out — connected=${_connectionState.value}, authed=$isAuthenticated")
-        return _connectionState.value && isAuthenticated
+        val ready = withTimeoutOrNull(timeoutMs) {
+            state.first { it == RelayConnectionState.READY }
+        } != null
+        if (!ready) Log.d(TAG, "awaitReady timed out — state=${state.value}")
+        return ready
     }
 
     fun disconnect() {
-        webSocket?.close(1000, "Client closing")
-        webSocket = null
-        _connectionState.value = false
-        isAuthenticated = false
-        authInFlight = false
+        relays.value.forEach { it.disconnect() }
     }
 
     fun clearSigner() {
         disconnect()
         signer = null
+        Nip44Encryption.clearConversationKeys()
     }
 
-    suspend fun publishSignedEventJson(signedEventJson: String): Boolean {
-        val message = """["EVENT",$signedEventJson]"""
-        return sendOrQueue(message)
-    }
-
-    suspend fun publishEvent(event: NostrEvent): Boolean {
-        val message = buildJsonArray {
-            add("EVENT")
-            add(Json.encodeToJsonElement(event))
-        }.toString()
-
-        return sendOrQueue(message)
-    }
-
-    suspend fun subscribe(
-        filter: NostrFilter,
-        subscriptionId: String = java.util.UUID.randomUUID().toString().take(8)
-    ): String {
-        val message = buildJsonArray {
-            add("REQ")
-            add(subscriptionId)
-            filter.toJsonArray().forEach { add(it) }
-        }.toString()
-
-        sendOrQueue(message)
-        return subscriptionId
-    }
-
-    suspend fun closeSubscription(subscriptionId: String) {
-        val message = buildJsonArray {
-            add("CLOSE")
-            add(subscriptionId)
-        }.toString()
-
-        sendOrQueue(message)
-    }
-
-    suspend fun publishEncryptedAppData(
-        dTag: String,
-        jsonContent: String
-    ): Boolean {
-        val s = signer ?: return false
-
-        val ready = ensureConnected()
-        if (!ready) {
-            Log.w(TAG, "publishEncryptedAppData: relay not ready, event will be queued")
-        }
+    suspend fun publishSignedEvent(event: SignedEvent): Boolean = broadcast(event)
 
-        val encrypted = s.nip44Encrypt(jsonContent, s.pubkeyHex)
-        if (encrypted == null) {
-            Log.e(TAG, "publishEncryptedAppData: NIP-44 encryption failed for dTag=$dTag")
-            return false
-        }
-
-        val unsignedJson = NostrEvent.buildUnsignedJson(
-            pubkeyHex = s.pubkeyHex,
-            kind = NostrEvent.KIND_APP_SPECIFIC_DATA,
-            content = encrypted,
-            tags = listOf(listOf("d", dTag))
-        )
-        val signedJson = s.signEvent(unsignedJson)
-        if (signedJson == null) {
-            Log.e(TAG, "publishEncryptedAppData: event signing failed for dTag=$dTag")
-            return false
-        }
-
-        val sent = publishSignedEventJson(signedJson)
-        Log.d(TAG, "publishEncryptedAppData: dTag=$dTag, sent=$sent")
-        return sent
-    }
+    suspend fun publishEvent(event: NostrEvent): Boolean =
+        broadcast(SignedEvent(event.id, Json.encodeToString(NostrEvent.serializer(), event)))
 
     /**
-     * Publish a NIP-09 deletion event (kind 5) targeting a parameterized
-     * replaceable event identified by kind:pubkey:d-tag.
+     * Publish one signed event; see [publishBatch] for the quorum rules. Returns null if
+     * too few relays answered within [timeoutMs].
      */
-    suspend fun publishDeletion(targetKind: Int, dTag: String): Boolean {
-        val s = signer ?: return false
-
-        val ready = ensureConnected()
-        if (!ready) {
-            Log.w(TAG, "publishDeletion: relay not ready, event will be queued")
-        }
-
-        val aTag = "$targetKind:${s.pubkeyHex}:$dTag"
-        val unsignedJson = NostrEvent.buildUnsignedJson(
-            pubkeyHex = s.pubkeyHex,
-            kind = 5,
-            content = "",
-            tags = listOf(listOf("a", aTag))
-        )
-        val signedJson = s.signEvent(unsignedJson)
-        if (signedJson == null) {
-            Log.e(TAG, "publishDeletion: event signing failed for aTag=$aTag")
-            return false
-        }
-
-        val sent = publishSignedEventJson(signedJson)
-        Log.d(TAG, "publishDeletion: aTag=$aTag, sent=$sent")
-        return sent
-    }
+    suspend fun publishAndAwaitOk(
+        signedEventJson: String,
+        eventId: String,
+        timeoutMs: Long = OK_TIMEOUT_MS
+    ): NostrMessage.Ok? = publishBatch(listOf(SignedEvent(eventId, signedEventJson)), timeoutMs).oks[eventId]
 
     /**
-     * Subscribe to CypherLog subscription events (kind 37004). Collects events until
-     * the relay sends EOSE, then closes the subscription. Plaintext tags only.
+     * Publish many signed events at once. Readiness is checked once, then every relay gets
+     * all EVENT frames back to back and the `OK`s are collected per event: an event is
+     * accepted once [writeQuorum] relays accept it or report it a duplicate. Returns as
+     * soon as every event has met the quorum or been answered by every relay, or after
+     * [timeoutMs].
      */
-    fun subscribeToKind37004(): Flow<NostrEvent> = flow {
-        val s = signer ?: throw IllegalStateException("No signer configured")
-        val filter = NostrFilter(
-            authors = listOf(s.pubkeyHex),
-            kinds = listOf(NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION)
-        )
-        val subId = subscribe(filter)
-        Log.d(TAG, "Subscribed for kind 37004: subId=$subId")
-        try {
-            messages.collect { msg ->
-                when (msg) {
-                    is NostrMessage.Eose -> {
-                        if (msg.subscriptionId == subId) throw EoseSignal()
-                    }
-                    is NostrMessage.EventReceived -> {
-                        if (msg.subscriptionId == subId) emit(msg.event)
-                    }
-                    else -> {}
-                }
-            }
-        } catch (_: EoseSignal) {
-        } finally {
-            closeSubscription(subId)
+    suspend fun publishBatch(events: List<SignedEvent>, timeoutMs: Long = OK_TIMEOUT_MS): BatchPublishResult {
+        if (events.isEmpty()) return BatchPublishResult(emptyMap())
+        val pool = relays.value
+        if (pool.isEmpty() || !ensureConnected()) {
+            return BatchPublishResult(events.associate { it.id to null })
         }
-    }
+        val tally = QuorumTally(events.map { it.id }, writeQuorum.coerceIn(1, pool.size), pool.size)
 
-    /**
-     * Publish a replaceable CypherLog subscription event (kind 37004).
-     * Tags must include "d" (unique id). Content is empty (tags-only per CypherLog).
-     */
-    suspend fun publishReplaceable37004(dTag: String, tags: List<List<String>>): Boolean {
-        val s = signer ?: return false
-        val ready = ensureConnected()
-        if (!ready) Log.w(TAG, "publishReplaceable37004: relay not ready")
-        val tagsWithD = tags.toMutableList()
-        if (!tagsWithD.any { it.isNotEmpty() && it[0] == "d" }) {
-            tagsWithD.add(0, listOf("d", dTag))
+        coroutineScope {
+            val results = Channel<Map<String, NostrMessage.Ok?>>(pool.size)
+            val publishes = pool.map { relay ->
+                launch { results.send(relay.publishBatch(events, timeoutMs)) }
+            }
+            var pending = pool.size
+            while (pending-- > 0) {
+                tally.add(results.receive())
+                if (tally.allSettled()) break
+            }
+            publishes.forEach { it.cancel() }
         }
-        val unsignedJson = NostrEvent.buildUnsignedJson(
-            pubkeyHex = s.pubkeyHex,
-            kind = NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION,
-            content = "",
-            tags = tagsWithD
-        )
-        val signedJson = s.signEvent(unsignedJson) ?: run {
-            Log.e(TAG, "publishReplaceable37004: event signing failed for d=$dTag")
-            return false
+
+        return tally.result().also {
+            Log.d(TAG, "Batch of ${events.size}: ${it.accepted} accepted, ${it.rejected} rejected, ${it.unanswered} unanswered")
         }
-        val sent = publishSignedEventJson(signedJson)
-        Log.d(TAG, "publishReplaceable37004: d=$dTag sent=$sent")
-        return sent
     }
 
     /**
-     * Subscribe to app data events and decrypt them. Collects events until
-     * the relay sends EOSE (End of Stored Events), then closes the subscription
-     * and terminates the flow. Safe for one-shot sync operations.
+     * Pooled one-shot fetch. Sends one REQ to each of the best-ranked ready relays, with
+     * filters chosen per relay by [filtersFor] (so each relay can have its own `since`).
+     * Emits every event, flagging repeat ids as [PoolFetchItem.Event.duplicate], and a
+     * [PoolFetchItem.Eose] per relay that finished. The fetch ends when all relays finish,
+     * or [READ_GRACE_MS] after the first one does.
      */
-    fun subscribeToAppData(
-        dTag: String? = null,
-        dTagPrefix: String? = null
-    ): Flow<Pair<String, String>> = flow {
-        val s = signer ?: throw IllegalStateException("No signer configured")
-
-        val tagFilters = mutableMapOf<String, List<String>>()
-        if (dTag != null) tagFilters["d"] = listOf(dTag)
-
-        val filter = NostrFilter(
-            authors = listOf(s.pubkeyHex),
-            kinds = listOf(NostrEvent.KIND_APP_SPECIFIC_DATA),
-            tagFilters = tagFilters
-        )
-
-        val subId = subscribe(filter)
-        Log.d(TAG, "Subscribed for app data: subId=$subId, dTag=$dTag, dTagPrefix=$dTagPrefix")
-
-        try {
-            messages.collect { msg ->
-                when (msg) {
-                    is NostrMessage.Eose -> {
-                        if (msg.subscriptionId == subId) {
-                            Log.d(TAG, "EOSE received for $subId, closing subscription")
-                            throw EoseSignal()
-                        }
-                    }
-                    is NostrMessage.EventReceived -> {
-                        if (msg.subscriptionId == subId) {
-                            val eventDTag = msg.event.tags
-                                .firstOrNull { it.size >= 2 && it[0] == "d" }
-                                ?.getOrNull(1) ?: ""
-
-                            if (dTagPrefix != null && !eventDTag.startsWith(dTagPrefix)) {
-                                return@collect
-                            }
-
-                            try {
-                                val decrypted = s.nip44Decrypt(msg.event.content, s.pubkeyHex)
-                                if (decrypted != null) {
-                                    Log.d(TAG, "Decrypted event: dTag=$eventDTag")
-                                    emit(eventDTag to decrypted)
-                                }
-                            } catch (e: Exception) {
-                                Log.w(TAG, "Decryption failed for event ${msg.event.id}: ${e.message}")
-                            }
+    fun fetchUntilEose(filtersFor: (relayUrl: String) -> List<NostrFilter>): Flow<PoolFetchItem> {
+        val merged = channelFlow {
+            val readers = readRelays()
+            if (readers.isEmpty()) {
+                Log.w(TAG, "fetchUntilEose: no ready relay")
+                return@channelFlow
+            }
+            val firstEose = CompletableDeferred<Unit>()
+            val fetches = readers.map { relay ->
+                launch {
+                    try {
+                        relay.fetchUntilEose(filtersFor(relay.url)).collect { event ->
+                            send(PoolFetchItem.Event(relay.url, event, duplicate = false))
                         }
+                        send(PoolFetchItem.Eose(relay.url))
+                        firstEose.complete(Unit)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Fetch from ${relay.url} failed: ${e.message}")
                     }
-                    else -> {}
                 }
             }
-        } catch (_: EoseSignal) {
-            // Normal termination after EOSE
-        } finally {
-            closeSubscription(subId)
-        }
-    }
-
-    private class EoseSignal : Exception()
-
-    private fun handleMessage(text: String) {
-        try {
-            val array = Json.parseToJsonElement(text).jsonArray
-            val type = array[0].jsonPrimitive.content
-
-            when (type) {
-                "EVENT" -> {
-                    val subId = array[1].jsonPrimitive.content
-                    val event = Json.decodeFromJsonElement<NostrEvent>(array[2])
-                    _messages.tryEmit(NostrMessage.EventReceived(subId, event))
-                }
-                "OK" -> {
-                    val eventId = array[1].jsonPrimitive.content
-                    val success = array[2].jsonPrimitive.boolean
-                    val message = if (array.size > 3) array[3].jsonPrimitive.content else ""
-                    Log.d(TAG, "OK: eventId=${eventId.take(8)}… success=$success msg=$message")
-                    _messages.tryEmit(NostrMessage.Ok(eventId, success, message))
-                }
-                "EOSE" -> {
-                    val subId = array[1].jsonPrimitive.content
-                    Log.d(TAG, "EOSE from relay for sub: $subId")
-                    _messages.tryEmit(NostrMessage.Eose(subId))
-                }
-                "NOTICE" -> {
-                    val message = array[1].jsonPrimitive.content
-                    Log.d(TAG, "NOTICE: $message")
-                    _messages.tryEmit(NostrMessage.Notice(message))
-                }
-                "AUTH" -> {
-                    val challenge = array[1].jsonPrimitive.content
-                    Log.d(TAG, "AUTH challenge received")
-                    authInFlight = true
-                    _messages.tryEmit(NostrMessage.AuthChallenge(challenge))
-                    handleAuthChallenge(challenge)
-                }
+            val grace = launch {
+                firstEose.await()
+                delay(READ_GRACE_MS)
+                fetches.forEach { it.cancel() }
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "Error parsing message: ${e.message}")
-            _messages.tryEmit(NostrMessage.Error(e))
+            fetches.joinAll()
+            grace.cancel()
         }
-    }
-
-    private fun handleAuthChallenge(challenge: String) {
-        val s = signer ?: return
-        scope.launch {
-            try {
-                val unsignedJson = NostrEvent.buildUnsignedJson(
-                    pubkeyHex = s.pubkeyHex,
-                    kind = 22242,
-                    content = "",
-                    tags = listOf(
-                        listOf("relay", relayUrl),
-                        listOf("challenge", challenge)
-                    )
-                )
-                val signedJson = s.signEvent(unsignedJson)
-                if (signedJson != null) {
-                    webSocket?.send("""["AUTH",$signedJson]""")
-                    isAuthenticated = true
-                    authInFlight = false
-                    Log.d(TAG, "Auth complete, draining pending queue")
-                    drainPendingQueue()
+        // Flag duplicates after the merge so the first copy collected is the one applied.
+        return flow {
+            val seen = HashSet<String>()
+            merged.collect { item ->
+                if (item is PoolFetchItem.Event) {
+                    emit(item.copy(duplicate = !seen.add(item.event.id)))
                 } else {
-                    Log.w(TAG, "Auth signing failed/rejected")
-                    authInFlight = false
+                    emit(item)
                 }
-            } catch (e: Exception) {
-                Log.e(TAG, "Auth challenge handling failed: ${e.message}")
-                authInFlight = false
             }
         }
     }
 
-    private suspend fun sendOrQueue(message: String): Boolean {
-        return if (_connectionState.value && isAuthenticated) {
-            val sent = webSocket?.send(message) ?: false
-            if (!sent) Log.w(TAG, "WebSocket send returned false")
-            sent
-        } else {
-            Log.d(TAG, "Queueing message (connected=${_connectionState.value}, authed=$isAuthenticated)")
-            pendingQueue.send(message)
-            true
+    private suspend fun readRelays(): List<RelayConnection> {
+        if (!ensureConnected()) return emptyList()
+        return relays.value
+            .filter { it.state.value == RelayConnectionState.READY }
+            .sortedBy { it.stats.score }
+            .take(READ_FANOUT)
+            .also { pool -> Log.d(TAG, "Reading from ${pool.joinToString { "${it.url} (${it.stats})" }}") }
+    }
+
+    private suspend fun broadcast(event: SignedEvent): Boolean {
+        val pool = relays.value
+        if (pool.isEmpty()) return false
+        return coroutineScope {
+            pool.map { relay -> async { relay.sendEvents(listOf(event)) } }.awaitAll().any { it }
         }
     }
 
-    @OptIn(ExperimentalCoroutinesApi::class)
-    private suspend fun drainPendingQueue() {
-        var count = 0
-        while (!pendingQueue.isEmpty) {
-            val msg = pendingQueue.receive()
-            if (_connectionState.value) {
-                webSocket?.send(msg)
-                count++
-            }
+    private val RelayConnectionState.rank: Int
+        get() = when (this) {
+            RelayConnectionState.READY -> 4
+            RelayConnectionState.AWAITING_AUTH -> 3
+            RelayConnectionState.CONNECTING -> 2
+            RelayConnectionState.CLOSING -> 1
+            RelayConnectionState.DISCONNECTED -> 0
         }
-        if (count > 0) Log.d(TAG, "Drained $count messages from pending queue")
+
+    companion object {
+        private const val OK_TIMEOUT_MS = 10_000L
+
+        /** How long slower relays may keep streaming after the first relay reaches EOSE. */
+        private const val READ_GRACE_MS = 1_500L
+
+        /** Relays queried per read; the rest are only written to. */
+        private const val READ_FANOUT = 3
+
+        /** Split a settings value like `wss://a, wss://b` into distinct relay URLs. */
+        fun parseRelayUrls(raw: String): List<String> =
+            raw.split(',', ' ', '\n', '\t')
+                .map { it.trim() }
+                .filter { it.isNotEmpty() }
+                .distinct()
     }
 }
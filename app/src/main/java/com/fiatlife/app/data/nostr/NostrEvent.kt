@@ -3,7 +3,6 @@ package com.fiatlife.app.data.nostr
 import fr.acinq.secp256k1.Secp256k1
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.*
-import java.security.MessageDigest
 
 @Serializable
 data class NostrEvent(
@@ -15,7 +14,13 @@ data class NostrEvent(
     val content: String = "",
     val sig: String = ""
 ) {
+    /** Value of the first `d` tag, or null when the event has none. */
+    val dTag: String?
+        get() = tags.firstOrNull { it.size >= 2 && it[0] == "d" }?.getOrNull(1)
+
     companion object {
+        /** NIP-09 deletion request */
+        const val KIND_DELETION = 5
         const val KIND_APP_SPECIFIC_DATA = 30078
         /** CypherLog subscription (replaceable, tag-based); see CypherLog NIP.md */
         const val KIND_CYPHERLOG_SUBSCRIPTION = 37004
@@ -28,29 +33,15 @@ data class NostrEvent(
         ): NostrEvent {
             val secp256k1 = Secp256k1.get()
             val pubkey = secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(privateKey))
-                .drop(1).toByteArray().toHex()
-            val createdAt = System.currentTimeMillis() / 1000
-
-            val serializedForId = buildJsonArray {
-                add(0)
-                add(pubkey)
-                add(createdAt)
-                add(kind)
-                add(buildJsonArray {
-                    tags.forEach { tag ->
-                        add(buildJsonArray { tag.forEach { add(it) } })
-                    }
-                })
-                add(content)
-            }.toString()
-
-            val id = sha256(serializedForId.toByteArray())
+                .copyOfRange(1, 33).toHex()
+            val unsigned = UnsignedEvent(pubkey = pubkey, kind = kind, content = content, tags = tags)
+            val id = EventWriter.id(unsigned)
             val sig = secp256k1.signSchnorr(id, privateKey, null).toHex()
 
             return NostrEvent(
                 id = id.toHex(),
                 pubkey = pubkey,
-                created_at = createdAt,
+                created_at = unsigned.createdAt,
                 kind = kind,
                 tags = tags,
                 content = content,
@@ -58,32 +49,6 @@ data class NostrEvent(
             )
         }
 
-        /**
-         * Build an unsigned event JSON string suitable for passing to [NostrSigner.signEvent].
-         * The id and sig fields are empty placeholders.
-         */
-        fun buildUnsignedJson(
-            pubkeyHex: String,
-            kind: Int,
-            content: String,
-            tags: List<List<String>> = emptyList()
-        ): String {
-            val createdAt = System.currentTimeMillis() / 1000
-            return buildJsonObject {
-                put("id", "")
-                put("pubkey", pubkeyHex)
-                put("created_at", createdAt)
-                put("kind", kind)
-                put("tags", buildJsonArray {
-                    tags.forEach { tag ->
-                        add(buildJsonArray { tag.forEach { add(it) } })
-                    }
-                })
-                put("content", content)
-                put("sig", "")
-            }.toString()
-        }
-
         fun createAppData(
             privateKey: ByteArray,
             dTag: String,
@@ -96,19 +61,41 @@ data class NostrEvent(
                 tags = listOf(listOf("d", dTag))
             )
         }
+    }
+}
+
+/**
+ * An event ready for [NostrSigner.sign]: everything except `id` and `sig`.
+ * [createdAt] defaults to the current time in seconds.
+ */
+data class UnsignedEvent(
+    val pubkey: String,
+    val kind: Int,
+    val content: String,
+    val tags: List<List<String>> = emptyList(),
+    val createdAt: Long = System.currentTimeMillis() / 1000
+) {
+    /** JSON with empty `id` and `sig`, the form String-based signers such as Amber accept. */
+    fun toJson(): String = EventWriter.json("", this, "")
+}
+
+/** A signed event ready to publish: its [id] and full event [json]. */
+data class SignedEvent(val id: String, val json: String) {
+    /** The `["EVENT",…]` frame, built once however many relays it is sent to. */
+    val frame: String by lazy { EventWriter.eventFrame(json) }
 
-        private fun sha256(data: ByteArray): ByteArray {
-            return MessageDigest.getInstance("SHA-256").digest(data)
+    companion object {
+        /** Wrap signed event JSON from a String-based signer; null if it carries no id. */
+        fun fromJson(json: String): SignedEvent? {
+            val id = Json.parseToJsonElement(json).jsonObject["id"]?.jsonPrimitive?.content
+            return if (id.isNullOrEmpty()) null else SignedEvent(id, json)
         }
     }
 }
 
-fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+fun ByteArray.toHex(): String = Hex.encode(this)
 
-fun String.hexToByteArray(): ByteArray {
-    check(length % 2 == 0) { "Hex string must have even length" }
-    return chunked(2).map { it.toInt(16).toByte() }.toByteArray()
-}
+fun String.hexToByteArray(): ByteArray = Hex.decode(this)
 
 @Serializable
 data class NostrFilter(
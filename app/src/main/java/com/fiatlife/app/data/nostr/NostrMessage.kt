@@ -0,0 +1,13 @@
+package com.fiatlife.app.data.nostr
+
+sealed class NostrMessage {
+    data class EventReceived(val subscriptionId: String, val event: NostrEvent) : NostrMessage()
+    data class Ok(val eventId: String, val success: Boolean, val message: String) : NostrMessage()
+    data class Eose(val subscriptionId: String) : NostrMessage()
+    data class Closed(val subscriptionId: String, val message: String) : NostrMessage()
+    data class Notice(val message: String) : NostrMessage()
+    data class AuthChallenge(val challenge: String) : NostrMessage()
+    data class Error(val error: Throwable) : NostrMessage()
+    data object Connected : NostrMessage()
+    data object Disconnected : NostrMessage()
+}
@@ -14,6 +14,20 @@ interface NostrSigner {
      */
     suspend fun signEvent(unsignedEventJson: String): String?
 
+    /**
+     * Sign [event], returning its id and signed JSON, or null on failure/rejection.
+     * The default goes through [signEvent]; [LocalSigner] overrides it to hash and
+     * serialize without the JSON round trips.
+     */
+    suspend fun sign(event: UnsignedEvent): SignedEvent? {
+        val signedJson = signEvent(event.toJson()) ?: return null
+        return try {
+            SignedEvent.fromJson(signedJson)
+        } catch (_: Exception) {
+            null
+        }
+    }
+
     /**
      * NIP-44 encrypt plaintext for the given peer pubkey (hex, 64 chars, x-only).
      * For self-encryption, pass our own pubkey.
@@ -25,4 +39,20 @@ interface NostrSigner {
      * For self-decryption, pass our own pubkey.
      */
     suspend fun nip44Decrypt(ciphertext: String, peerPubkeyHex: String): String?
+
+    /**
+     * True when each decrypt call is expensive (an IPC or UI round trip), so a sync should
+     * collect all of its payloads and hand them to [nip44DecryptBatch] at once.
+     */
+    val prefersBatchDecrypt: Boolean get() = false
+
+    /**
+     * Decrypt many payloads. Results are in request order, null where decryption failed or
+     * was rejected. The default decrypts one request at a time.
+     */
+    suspend fun nip44DecryptBatch(requests: List<DecryptRequest>): List<String?> =
+        requests.map { nip44Decrypt(it.ciphertext, it.peerPubkeyHex) }
 }
+
+/** One NIP-44 payload to decrypt; [eventId] lets a signer cache the result across syncs. */
+data class DecryptRequest(val eventId: String, val ciphertext: String, val peerPubkeyHex: String)
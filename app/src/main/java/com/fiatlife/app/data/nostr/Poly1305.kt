@@ -0,0 +1,123 @@
+package com.fiatlife.app.data.nostr
+
+/**
+ * Poly1305 one-time authenticator (RFC 8439), 26-bit limb arithmetic.
+ * Only used to verify payloads written by FiatLife's pre-spec NIP-44 encoding.
+ */
+internal class Poly1305(key: ByteArray, keyOff: Int = 0) {
+    private val r0 = readIntLe(key, keyOff).toLong() and 0x3ffffff
+    private val r1 = (readIntLe(key, keyOff + 3).toLong() and 0xffffffffL ushr 2) and 0x3ffff03
+    private val r2 = (readIntLe(key, keyOff + 6).toLong() and 0xffffffffL ushr 4) and 0x3ffc0ff
+    private val r3 = (readIntLe(key, keyOff + 9).toLong() and 0xffffffffL ushr 6) and 0x3f03fff
+    private val r4 = (readIntLe(key, keyOff + 12).toLong() and 0xffffffffL ushr 8) and 0x00fffff
+    private val s1 = r1 * 5
+    private val s2 = r2 * 5
+    private val s3 = r3 * 5
+    private val s4 = r4 * 5
+    private val pad = LongArray(4) { readIntLe(key, keyOff + 16 + 4 * it).toLong() and 0xffffffffL }
+
+    private var h0 = 0L
+    private var h1 = 0L
+    private var h2 = 0L
+    private var h3 = 0L
+    private var h4 = 0L
+    private val buffer = ByteArray(BLOCK)
+    private var buffered = 0
+
+    fun update(m: ByteArray, off: Int, len: Int) {
+        var pos = off
+        val end = off + len
+        if (buffered > 0) {
+            val n = minOf(BLOCK - buffered, len)
+            System.arraycopy(m, pos, buffer, buffered, n)
+            buffered += n
+            pos += n
+            if (buffered < BLOCK) return
+            processBlock(buffer, 0, FULL_BLOCK_BIT)
+            buffered = 0
+        }
+        while (end - pos >= BLOCK) {
+            processBlock(m, pos, FULL_BLOCK_BIT)
+            pos += BLOCK
+        }
+        if (pos < end) {
+            System.arraycopy(m, pos, buffer, 0, end - pos)
+            buffered = end - pos
+        }
+    }
+
+    /** Zero-pad the input to a 16-byte boundary, as the AEAD construction requires. */
+    fun padToBlock() {
+        if (buffered == 0) return
+        buffer.fill(0, buffered, BLOCK)
+        processBlock(buffer, 0, FULL_BLOCK_BIT)
+        buffered = 0
+    }
+
+    fun updateLongLe(v: Long) {
+        val b = ByteArray(8) { (v ushr (8 * it)).toByte() }
+        update(b, 0, 8)
+    }
+
+    /** Write the 16-byte tag into [out] at [outOff]. */
+    fun finish(out: ByteArray, outOff: Int) {
+        if (buffered > 0) {
+            buffer[buffered] = 1
+            buffer.fill(0, buffered + 1, BLOCK)
+            processBlock(buffer, 0, 0)
+        }
+        var c: Long
+        c = h1 ushr 26; h1 = h1 and MASK; h2 += c
+        c = h2 ushr 26; h2 = h2 and MASK; h3 += c
+        c = h3 ushr 26; h3 = h3 and MASK; h4 += c
+        c = h4 ushr 26; h4 = h4 and MASK; h0 += c * 5
+        c = h0 ushr 26; h0 = h0 and MASK; h1 += c
+
+        var g0 = h0 + 5; c = g0 ushr 26; g0 = g0 and MASK
+        var g1 = h1 + c; c = g1 ushr 26; g1 = g1 and MASK
+        var g2 = h2 + c; c = g2 ushr 26; g2 = g2 and MASK
+        var g3 = h3 + c; c = g3 ushr 26; g3 = g3 and MASK
+        val g4 = h4 + c - (1L shl 26)
+        if (g4 >= 0) {
+            h0 = g0; h1 = g1; h2 = g2; h3 = g3; h4 = g4
+        }
+
+        val w0 = (h0 or (h1 shl 26)) and 0xffffffffL
+        val w1 = ((h1 ushr 6) or (h2 shl 20)) and 0xffffffffL
+        val w2 = ((h2 ushr 12) or (h3 shl 14)) and 0xffffffffL
+        val w3 = ((h3 ushr 18) or (h4 shl 8)) and 0xffffffffL
+
+        var f = w0 + pad[0]; writeIntLe(f.toInt(), out, outOff)
+        f = w1 + pad[1] + (f ushr 32); writeIntLe(f.toInt(), out, outOff + 4)
+        f = w2 + pad[2] + (f ushr 32); writeIntLe(f.toInt(), out, outOff + 8)
+        f = w3 + pad[3] + (f ushr 32); writeIntLe(f.toInt(), out, outOff + 12)
+    }
+
+    private fun processBlock(m: ByteArray, off: Int, hiBit: Long) {
+        h0 += readIntLe(m, off).toLong() and 0x3ffffff
+        h1 += (readIntLe(m, off + 3).toLong() and 0xffffffffL ushr 2) and 0x3ffffff
+        h2 += (readIntLe(m, off + 6).toLong() and 0xffffffffL ushr 4) and 0x3ffffff
+        h3 += (readIntLe(m, off + 9).toLong() and 0xffffffffL ushr 6) and 0x3ffffff
+        h4 += (readIntLe(m, off + 12).toLong() and 0xffffffffL ushr 8) or hiBit
+
+        val d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1
+        var d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2
+        var d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3
+        var d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4
+        var d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0
+
+        var c = d0 ushr 26; h0 = d0 and MASK
+        d1 += c; c = d1 ushr 26; h1 = d1 and MASK
+        d2 += c; c = d2 ushr 26; h2 = d2 and MASK
+        d3 += c; c = d3 ushr 26; h3 = d3 and MASK
+        d4 += c; c = d4 ushr 26; h4 = d4 and MASK
+        h0 += c * 5; c = h0 ushr 26; h0 = h0 and MASK
+        h1 += c
+    }
+
+    private companion object {
+        const val BLOCK = 16
+        const val MASK = 0x3ffffffL
+        const val FULL_BLOCK_BIT = 1L shl 24
+    }
+}
@@ -0,0 +1,566 @@
+package com.fiatlife.app.data.nostr
+
+import android.util.Log
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ClosedSendChannelException
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.flow.*
+import kotlinx.serialization.json.*
+import okhttp3.*
+import java.util.concurrent.ConcurrentHashMap
+
+private const val TAG = "RelayConnection"
+
+/**
+ * Rolling round-trip latency and error rate for one relay, used by [NostrClient] to
+ * rank relays for reads. Both are exponentially weighted so recent behaviour dominates.
+ */
+class RelayStats {
+    @Volatile var latencyMs: Double = INITIAL_LATENCY_MS
+        private set
+    @Volatile var errorRate: Double = 0.0
+        private set
+
+    /** Lower is better: latency inflated by recent failures. */
+    val score: Double get() = latencyMs * (1 + ERROR_PENALTY * errorRate)
+
+    fun recordSuccess(elapsedMs: Long) {
+        latencyMs = latencyMs * (1 - WEIGHT) + elapsedMs * WEIGHT
+        errorRate *= (1 - WEIGHT)
+    }
+
+    fun recordError() {
+        errorRate = errorRate * (1 - WEIGHT) + WEIGHT
+    }
+
+    override fun toString(): String =
+        "latency=${latencyMs.toInt()}ms errors=${"%.2f".format(errorRate)}"
+
+    private companion object {
+        const val INITIAL_LATENCY_MS = 1_000.0
+        const val WEIGHT = 0.2
+        const val ERROR_PENALTY = 4.0
+    }
+}
+
+/**
+ * One WebSocket to one relay, with its own NIP-42 auth, subscription channels,
+ * pending-ack table and send queue. [NostrClient] pools these.
+ */
+class RelayConnection(
+    val url: String,
+    private val okHttpClient: OkHttpClient,
+    private val scope: CoroutineScope,
+    private val signerProvider: () -> NostrSigner?,
+    private val messageSink: MutableSharedFlow<NostrMessage>
+) {
+    val stats = RelayStats()
+
+    /**
+     * Every connection-state transition and every touch of the fields below runs on this
+     * single-threaded view of the IO pool. OkHttp callbacks hop onto it and are ignored
+     * if they come from a socket that has since been replaced.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private val connectionDispatcher = Dispatchers.IO.limitedParallelism(1)
+    private var webSocket: WebSocket? = null
+
+    /** Frames of the current socket, in arrival order, waiting for its reader coroutine. */
+    private var frames: Channel<String>? = null
+    private var probeSubscriptionId: String? = null
+    private var challengeSeen = false
+    private var authEventId: String? = null
+
+    /** REQ and CLOSE frames sent before READY. Dropped on disconnect along with their subscriptions. */
+    private val pendingFrames = ArrayDeque<String>()
+
+    /**
+     * EVENT frames sent before READY, by event id, so a publish the outbox retries while the
+     * relay is down replaces its queued frame instead of adding another. Kept across
+     * reconnects (an OK may still be awaited) but capped at [MAX_PENDING_EVENTS], oldest first
+     * out; the outbox retries whatever is dropped.
+     */
+    private val pendingEvents = LinkedHashMap<String, String>()
+
+    /**
+     * Open REQ subscriptions by id. EVENT, EOSE and CLOSED frames go straight to the
+     * owning channel; [messageSink] only carries connection-level traffic.
+     */
+    private val subscriptions = ConcurrentHashMap<String, SendChannel<NostrMessage>>()
+
+    /**
+     * Publishers waiting for the relay's `OK`, by event id. One id can have several waiters
+     * when the same event is published again before its first OK; the relay's single
+     * answer completes them all.
+     */
+    private val pendingOks = ConcurrentHashMap<String, Set<CompletableDeferred<NostrMessage.Ok>>>()
+
+    private val _state = MutableStateFlow(RelayConnectionState.DISCONNECTED)
+    val state: StateFlow<RelayConnectionState> = _state.asStateFlow()
+
+    fun connect() {
+        scope.launch(connectionDispatcher) { openSocket() }
+    }
+
+    fun disconnect() {
+        scope.launch(connectionDispatcher) { closeSocket() }
+    }
+
+    /** Suspend until this relay is [RelayConnectionState.READY] or [timeoutMs] elapses. */
+    suspend fun awaitReady(timeoutMs: Long): Boolean =
+        withTimeoutOrNull(timeoutMs) { _state.first { it == RelayConnectionState.READY } } != null
+
+    /** Send a REQ or CLOSE frame now if ready, otherwise queue it until the connection becomes ready. */
+    private suspend fun send(message: String): Boolean = withContext(connectionDispatcher) {
+        val socket = webSocket
+        if (_state.value == RelayConnectionState.READY && socket != null) {
+            val sent = socket.send(message)
+            if (!sent) Log.w(TAG, "[$url] WebSocket send returned false")
+            sent
+        } else {
+            Log.d(TAG, "[$url] Queueing message (state=${_state.value})")
+            pendingFrames.addLast(message)
+            true
+        }
+    }
+
+    /** Send [events] back to back in one hop, or queue them all if not yet ready. */
+    suspend fun sendEvents(events: List<SignedEvent>): Boolean = withContext(connectionDispatcher) {
+        val socket = webSocket
+        if (_state.value == RelayConnectionState.READY && socket != null) {
+            events.all { event ->
+                socket.send(event.frame).also { sent ->
+                    if (!sent) Log.w(TAG, "[$url] WebSocket send returned false")
+                }
+            }
+        } else {
+            Log.d(TAG, "[$url] Queueing ${events.size} events (state=${_state.value})")
+            for (event in events) {
+                pendingEvents.remove(event.id)
+                pendingEvents[event.id] = event.frame
+            }
+            val overflow = pendingEvents.size - MAX_PENDING_EVENTS
+            if (overflow > 0) {
+                val oldest = pendingEvents.keys.iterator()
+                repeat(overflow) {
+                    oldest.next()
+                    oldest.remove()
+                }
+                Log.w(TAG, "[$url] Dropped $overflow queued events over the $MAX_PENDING_EVENTS cap")
+            }
+            true
+        }
+    }
+
+    /**
+     * Send every event in [events] without waiting between them, then suspend until this
+     * relay has answered all of them or [timeoutMs] elapses. The result maps each event id
+     * to its `OK`, or to null if none arrived.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    suspend fun publishBatch(events: List<SignedEvent>, timeoutMs: Long): Map<String, NostrMessage.Ok?> {
+        val acks = events.associate { it.id to CompletableDeferred<NostrMessage.Ok>() }
+        acks.forEach { (id, ack) -> pendingOks.compute(id) { _, waiters -> waiters.orEmpty() + ack } }
+        try {
+            val startedAt = System.currentTimeMillis()
+            if (!sendEvents(events)) return acks.mapValues { null }
+            withTimeoutOrNull(timeoutMs) { acks.values.awaitAll() }
+            val result = acks.mapValues { (_, ack) -> if (ack.isCompleted) ack.getCompleted() else null }
+            if (result.values.any { it == null }) {
+                stats.recordError()
+            } else {
+                stats.recordSuccess(System.currentTimeMillis() - startedAt)
+            }
+            return result
+        } finally {
+            acks.forEach { (id, ack) ->
+                pendingOks.computeIfPresent(id) { _, waiters -> (waiters - ack).ifEmpty { null } }
+            }
+        }
+    }
+
+    /**
+     * One-shot fetch: send a single REQ with [filters], emit every stored event the
+     * relay returns, then close the subscription when the relay sends EOSE.
+     * Fails if the relay closes the subscription first.
+     */
+    fun fetchUntilEose(filters: List<NostrFilter>): Flow<NostrEvent> = flow {
+        val subId = java.util.UUID.randomUUID().toString().take(8)
+        // Register before the REQ goes out so no frame can arrive unrouted. Bounded: a slow
+        // consumer holds up this connection's reader (see [deliver]) instead of buffering
+        // the relay's whole result set.
+        val inbox = Channel<NostrMessage>(SUBSCRIPTION_BUFFER)
+        subscriptions[subId] = inbox
+        val startedAt = System.currentTimeMillis()
+        var reachedEose = false
+        try {
+            subscribe(filters, subId)
+            Log.d(TAG, "[$url] Subscribed for one-shot fetch: subId=$subId, filters=${filters.size}")
+            for (msg in inbox) {
+                when (msg) {
+                    is NostrMessage.EventReceived -> emit(msg.event)
+                    is NostrMessage.Eose -> {
+                        Log.d(TAG, "[$url] EOSE received for $subId, closing subscription")
+                        reachedEose = true
+                        break
+                    }
+                    is NostrMessage.Closed -> {
+                        throw IllegalStateException("Relay $url closed $subId before EOSE: ${msg.message}")
+                    }
+                    else -> {}
+                }
+            }
+        } finally {
+            subscriptions.remove(subId)
+            // cancel, not close: drops anything still buffered for this subscription.
+            inbox.cancel()
+            if (reachedEose) stats.recordSuccess(System.currentTimeMillis() - startedAt) else stats.recordError()
+            withContext(NonCancellable) { closeSubscription(subId) }
+        }
+    }
+
+    private suspend fun subscribe(filters: List<NostrFilter>, subscriptionId: String) {
+        val message = buildJsonArray {
+            add("REQ")
+            add(subscriptionId)
+            filters.forEach { filter -> filter.toJsonArray().forEach { add(it) } }
+        }.toString()
+        send(message)
+    }
+
+    private suspend fun closeSubscription(subscriptionId: String) {
+        val message = buildJsonArray {
+            add("CLOSE")
+            add(subscriptionId)
+        }.toString()
+        send(message)
+    }
+
+    /**
+     * [frames] is the socket's bounded frame queue. Frames are handed over without blocking
+     * while it has room; once it is full the OkHttp reader thread waits for space, which
+     * stops reading the socket so TCP flow control pushes back on the relay. OkHttp has no
+     * other way to pause a WebSocket's reads. Closing the queue when the socket ends lets
+     * the reader handle every frame before the disconnect drops the subscriptions.
+     */
+    private inner class RelayListener(private val frames: SendChannel<String>) : WebSocketListener() {
+        override fun onOpen(webSocket: WebSocket, response: Response) {
+            onSocketEvent(webSocket) { handleOpen(webSocket) }
+        }
+
+        override fun onMessage(webSocket: WebSocket, text: String) {
+            val offered = frames.trySend(text)
+            if (offered.isSuccess || offered.isClosed) return
+            runBlocking {
+                try {
+                    frames.send(text)
+                } catch (_: ClosedSendChannelException) {
+                    // The socket was replaced while waiting; its frames no longer matter.
+                }
+            }
+        }
+
+        override fun onClosing(webSocket: WebSocket, code: Int, reason: String) {
+            webSocket.close(1000, null)
+            frames.close()
+        }
+
+        override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
+            Log.w(TAG, "[$url] WebSocket failure: ${t.message}")
+            stats.recordError()
+            onSocketEvent(webSocket) { messageSink.tryEmit(NostrMessage.Error(t)) }
+            frames.close()
+        }
+    }
+
+    /** Run [block] on the connection dispatcher, unless [socket] is no longer the current one. */
+    private fun onSocketEvent(socket: WebSocket, block: () -> Unit) {
+        scope.launch(connectionDispatcher) {
+            if (socket === webSocket) block()
+        }
+    }
+
+    private fun transition(to: RelayConnectionState) {
+        val from = _state.value
+        if (from == to) return
+        Log.d(TAG, "[$url] Relay state $from -> $to")
+        _state.value = to
+    }
+
+    private fun openSocket() {
+        val active = _state.value == RelayConnectionState.CONNECTING ||
+            _state.value == RelayConnectionState.AWAITING_AUTH ||
+            _state.value == RelayConnectionState.READY
+        if (active && webSocket != null) return
+
+        closeSocket()
+        transition(RelayConnectionState.CONNECTING)
+
+        val request = Request.Builder()
+            .url(url)
+            .build()
+        val queue = Channel<String>(FRAME_BUFFER)
+        val socket = okHttpClient.newWebSocket(request, RelayListener(queue))
+        webSocket = socket
+        frames = queue
+        // One reader per socket keeps frames in order; it suspends while a subscription's
+        // inbox is full, and the listener then stops reading once [queue] fills up too.
+        scope.launch {
+            for (text in queue) handleMessage(socket, text)
+            onSocketEvent(socket) { handleSocketClosed() }
+        }
+    }
+
+    private fun closeSocket() {
+        val socket = webSocket ?: return
+        transition(RelayConnectionState.CLOSING)
+        webSocket = null
+        socket.close(1000, "Client closing")
+        closeFrames()
+        resetSession()
+        dropSubscriptions()
+        transition(RelayConnectionState.DISCONNECTED)
+    }
+
+    private fun handleSocketClosed() {
+        webSocket = null
+        closeFrames()
+        resetSession()
+        dropSubscriptions()
+        transition(RelayConnectionState.DISCONNECTED)
+        messageSink.tryEmit(NostrMessage.Disconnected)
+    }
+
+    /**
+     * The relay forgets a socket's subscriptions when it closes, so fail every open one (its
+     * caller retries with a new REQ) and drop the REQ and CLOSE frames still queued for it.
+     */
+    private fun dropSubscriptions() {
+        pendingFrames.clear()
+        for (subId in subscriptions.keys.toList()) {
+            subscriptions.remove(subId)?.close(IllegalStateException("Relay $url disconnected"))
+        }
+    }
+
+    /** The reader still handles frames already queued (OKs among them), then ends. */
+    private fun closeFrames() {
+        frames?.close()
+        frames = null
+    }
+
+    private fun resetSession() {
+        probeSubscriptionId = null
+        challengeSeen = false
+        authEventId = null
+    }
+
+    /**
+     * Socket is open. Send a `limit: 0` probe REQ: an open relay answers it with EOSE
+     * straight away, while an auth-required relay answers with `CLOSED auth-required`
+     * and/or an AUTH challenge. The timer only covers relays that answer neither.
+     */
+    private fun handleOpen(socket: WebSocket) {
+        Log.d(TAG, "WebSocket open to $url")
+        transition(RelayConnectionState.AWAITING_AUTH)
+        messageSink.tryEmit(NostrMessage.Connected)
+
+        val probeId = PROBE_PREFIX + java.util.UUID.randomUUID().toString().take(8)
+        probeSubscriptionId = probeId
+        val probe = NostrFilter(
+            authors = signerProvider()?.let { listOf(it.pubkeyHex) },
+            kinds = listOf(NostrEvent.KIND_APP_SPECIFIC_DATA),
+            limit = 0
+        )
+        socket.send(buildJsonArray {
+            add("REQ")
+            add(probeId)
+            probe.toJsonArray().forEach { add(it) }
+        }.toString())
+
+        scope.launch(connectionDispatcher) {
+            delay(PROBE_FALLBACK_MS)
+            if (socket === webSocket && _state.value == RelayConnectionState.AWAITING_AUTH &&
+                !challengeSeen
+            ) {
+                Log.d(TAG, "[$url] No probe reply or AUTH challenge, assuming open relay")
+                markReady()
+            }
+        }
+    }
+
+    private fun handleProbeReply(socket: WebSocket, subscriptionId: String, authRequired: Boolean) {
+        if (subscriptionId != probeSubscriptionId) return
+        probeSubscriptionId = null
+        if (!authRequired) {
+            socket.send("""["CLOSE","$subscriptionId"]""")
+        }
+        if (authRequired || challengeSeen) {
+            Log.d(TAG, "[$url] Probe says auth required, waiting for AUTH")
+            return
+        }
+        if (_state.value == RelayConnectionState.AWAITING_AUTH) {
+            Log.d(TAG, "[$url] Probe answered without auth, relay is open")
+            markReady()
+        }
+    }
+
+    private fun markReady() {
+        transition(RelayConnectionState.READY)
+        drainPendingQueue()
+    }
+
+    private suspend fun handleMessage(socket: WebSocket, text: String) {
+        try {
+            // EVENT frames for subscriptions we no longer hold are dropped before their body is parsed.
+            val message = RelayFrameParser.parse(text) { subId -> subscriptions.containsKey(subId) } ?: return
+            when (message) {
+                is NostrMessage.EventReceived -> {
+                    deliver(message.subscriptionId, message)
+                }
+                is NostrMessage.Ok -> {
+                    Log.d(TAG, "[$url] OK: eventId=${message.eventId.take(8)}… success=${message.success} msg=${message.message}")
+                    pendingOks[message.eventId]?.forEach { it.complete(message) }
+                    onSocketEvent(socket) { handleAuthOk(message.eventId, message.success, message.message) }
+                    messageSink.tryEmit(message)
+                }
+                is NostrMessage.Eose -> {
+                    val subId = message.subscriptionId
+                    Log.d(TAG, "[$url] EOSE from relay for sub: $subId")
+                    if (subId.startsWith(PROBE_PREFIX)) {
+                        onSocketEvent(socket) { handleProbeReply(socket, subId, authRequired = false) }
+                    } else {
+                        deliver(subId, message)
+                    }
+                }
+                is NostrMessage.Closed -> {
+                    val subId = message.subscriptionId
+                    Log.d(TAG, "[$url] CLOSED from relay for sub: $subId msg=${message.message}")
+                    val authRequired = message.message.startsWith("auth-required")
+                    if (subId.startsWith(PROBE_PREFIX)) {
+                        onSocketEvent(socket) { handleProbeReply(socket, subId, authRequired) }
+                    } else {
+                        deliver(subId, message)
+                    }
+                }
+                is NostrMessage.Notice -> {
+                    Log.d(TAG, "[$url] NOTICE: ${message.message}")
+                    messageSink.tryEmit(message)
+                }
+                is NostrMessage.AuthChallenge -> {
+                    Log.d(TAG, "[$url] AUTH challenge received")
+                    messageSink.tryEmit(message)
+                    onSocketEvent(socket) { handleAuthChallenge(socket, message.challenge) }
+                }
+                else -> {}
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "[$url] Error parsing message: ${e.message}")
+            messageSink.tryEmit(NostrMessage.Error(e))
+        }
+    }
+
+    /**
+     * Hand a subscription frame to its bounded channel, suspending this connection's reader
+     * while the channel is full, so a slow consumer slows the socket rather than being
+     * dropped or buffered without limit. Frames for a subscription whose consumer has gone
+     * away are dropped.
+     */
+    private suspend fun deliver(subscriptionId: String, message: NostrMessage) {
+        val inbox = subscriptions[subscriptionId] ?: return
+        try {
+            inbox.send(message)
+        } catch (_: Exception) {
+            // Closed or cancelled by its consumer; only rethrow if the reader itself is cancelled.
+            currentCoroutineContext().ensureActive()
+        }
+    }
+
+    /**
+     * Sign the kind 22242 auth event off the connection dispatcher (a remote signer may
+     * take a while), then send it and stay in AWAITING_AUTH until the relay's OK.
+     */
+    private fun handleAuthChallenge(socket: WebSocket, challenge: String) {
+        challengeSeen = true
+        if (_state.value == RelayConnectionState.READY) {
+            transition(RelayConnectionState.AWAITING_AUTH)
+        }
+        val s = signerProvider() ?: return
+        scope.launch {
+            try {
+                val signed = s.sign(
+                    UnsignedEvent(
+                        pubkey = s.pubkeyHex,
+                        kind = 22242,
+                        content = "",
+                        tags = listOf(
+                            listOf("relay", url),
+                            listOf("challenge", challenge)
+                        )
+                    )
+                )
+                if (signed == null) {
+                    Log.w(TAG, "[$url] Auth signing failed/rejected")
+                    return@launch
+                }
+                val eventId = signed.id
+                onSocketEvent(socket) {
+                    authEventId = eventId
+                    socket.send("""["AUTH",${signed.json}]""")
+                    Log.d(TAG, "[$url] AUTH sent, waiting for OK")
+                    scope.launch(connectionDispatcher) {
+                        delay(AUTH_OK_FALLBACK_MS)
+                        if (socket === webSocket && authEventId == eventId &&
+                            _state.value == RelayConnectionState.AWAITING_AUTH
+                        ) {
+                            Log.d(TAG, "[$url] No OK for AUTH, assuming accepted")
+                            authEventId = null
+                            markReady()
+                        }
+                    }
+                }
+            } catch (e: Exception) {
+                Log.e(TAG, "[$url] Auth challenge handling failed: ${e.message}")
+            }
+        }
+    }
+
+    private fun handleAuthOk(eventId: String, success: Boolean, message: String) {
+        if (eventId != authEventId) return
+        authEventId = null
+        if (success) {
+            Log.d(TAG, "[$url] Auth complete, draining pending queue")
+            markReady()
+        } else {
+            Log.w(TAG, "[$url] Relay rejected AUTH: $message")
+        }
+    }
+
+    private fun drainPendingQueue() {
+        val socket = webSocket ?: return
+        val count = pendingFrames.size + pendingEvents.size
+        while (pendingFrames.isNotEmpty()) socket.send(pendingFrames.removeFirst())
+        pendingEvents.values.forEach { socket.send(it) }
+        pendingEvents.clear()
+        if (count > 0) Log.d(TAG, "[$url] Drained $count messages from pending queue")
+    }
+
+    private companion object {
+        const val PROBE_PREFIX = "probe-"
+
+        /** Only reached by relays that answer the probe with neither EOSE, CLOSED nor AUTH. */
+        const val PROBE_FALLBACK_MS = 3_000L
+
+        /** NIP-42 relays must answer AUTH with OK; this covers older ones that don't. */
+        const val AUTH_OK_FALLBACK_MS = 3_000L
+
+        /** EVENT frames queued while not READY; see [pendingEvents]. */
+        const val MAX_PENDING_EVENTS = 500
+
+        /** Frames buffered per subscription before the reader waits for its consumer. */
+        const val SUBSCRIPTION_BUFFER = 256
+
+        /** Frames buffered per socket before the OkHttp reader stops reading. */
+        const val FRAME_BUFFER = 256
+    }
+}
@@ -0,0 +1,255 @@
+package com.fiatlife.app.data.nostr
+
+/**
+ * Single-pass decoder for relay-to-client NIP-01 frames.
+ *
+ * Reads the frame type and subscription id first and decodes an EVENT straight into
+ * [NostrEvent] without building a JSON tree. [wantsSubscription] is asked before the
+ * event body is touched, so frames for unknown or closed subscriptions cost only a scan
+ * of their first few bytes. Unknown fields inside the event are skipped.
+ *
+ * Returns null for dropped EVENT frames and unknown frame types; throws
+ * [IllegalArgumentException] on malformed input.
+ */
+object RelayFrameParser {
+
+    fun parse(frame: String, wantsSubscription: (String) -> Boolean = { true }): NostrMessage? {
+        val reader = Reader(frame)
+        reader.expect('[')
+        return when (reader.readString()) {
+            "EVENT" -> {
+                reader.expect(',')
+                val subId = reader.readString()
+                if (!wantsSubscription(subId)) return null
+                reader.expect(',')
+                NostrMessage.EventReceived(subId, reader.readEvent())
+            }
+            "OK" -> {
+                reader.expect(',')
+                val eventId = reader.readString()
+                reader.expect(',')
+                val success = reader.readBoolean()
+                val message = if (reader.consume(',')) reader.readString() else ""
+                NostrMessage.Ok(eventId, success, message)
+            }
+            "EOSE" -> {
+                reader.expect(',')
+                NostrMessage.Eose(reader.readString())
+            }
+            "CLOSED" -> {
+                reader.expect(',')
+                val subId = reader.readString()
+                val message = if (reader.consume(',')) reader.readString() else ""
+                NostrMessage.Closed(subId, message)
+            }
+            "NOTICE" -> {
+                reader.expect(',')
+                NostrMessage.Notice(reader.readString())
+            }
+            "AUTH" -> {
+                reader.expect(',')
+                NostrMessage.AuthChallenge(reader.readString())
+            }
+            else -> null
+        }
+    }
+
+    private class Reader(private val s: String) {
+        private var pos = 0
+
+        fun expect(c: Char) {
+            if (peek() != c) fail("expected '$c'")
+            pos++
+        }
+
+        /** Consume [c] if it is the next non-whitespace character. */
+        fun consume(c: Char): Boolean {
+            skipWhitespace()
+            if (pos < s.length && s[pos] == c) {
+                pos++
+                return true
+            }
+            return false
+        }
+
+        fun readString(): String {
+            expect('"')
+            val start = pos
+            while (pos < s.length) {
+                when (s[pos]) {
+                    '"' -> return s.substring(start, pos).also { pos++ }
+                    '\\' -> return readEscapedString(start)
+                    else -> pos++
+                }
+            }
+            fail("unterminated string")
+        }
+
+        /** Slow path for strings with escapes; [start] is just after the opening quote. */
+        private fun readEscapedString(start: Int): String {
+            val sb = StringBuilder(pos - start + 16).append(s, start, pos)
+            while (pos < s.length) {
+                val c = s[pos++]
+                when (c) {
+                    '"' -> return sb.toString()
+                    '\\' -> {
+                        if (pos >= s.length) break
+                        when (val e = s[pos++]) {
+                            '"', '\\', '/' -> sb.append(e)
+                            'b' -> sb.append('\b')
+                            'f' -> sb.append('\u000C')
+                            'n' -> sb.append('\n')
+                            'r' -> sb.append('\r')
+                            't' -> sb.append('\t')
+                            'u' -> {
+                                if (pos + 4 > s.length) fail("truncated \\u escape")
+                                sb.append(s.substring(pos, pos + 4).toInt(16).toChar())
+                                pos += 4
+                            }
+                            else -> fail("bad escape '\\$e'")
+                        }
+                    }
+                    else -> sb.append(c)
+                }
+            }
+            fail("unterminated string")
+        }
+
+        fun readBoolean(): Boolean = when {
+            peek() == 't' && s.startsWith("true", pos) -> { pos += 4; true }
+            peek() == 'f' && s.startsWith("false", pos) -> { pos += 5; false }
+            else -> fail("expected boolean")
+        }
+
+        fun readLong(): Long {
+            skipWhitespace()
+            val start = pos
+            if (pos < s.length && s[pos] == '-') pos++
+            var integral = true
+            while (pos < s.length) {
+                val c = s[pos]
+                if (c in '0'..'9') pos++
+                else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') { integral = false; pos++ }
+                else break
+            }
+            if (pos == start) fail("expected number")
+            val text = s.substring(start, pos)
+            return if (integral) text.toLong() else text.toDouble().toLong()
+        }
+
+        fun readEvent(): NostrEvent {
+            var id = ""
+            var pubkey = ""
+            var createdAt = 0L
+            var kind = 0
+            var tags: List<List<String>> = emptyList()
+            var content = ""
+            var sig = ""
+            expect('{')
+            if (!consume('}')) {
+                do {
+                    val key = readString()
+                    expect(':')
+                    when (key) {
+                        "id" -> id = readString()
+                        "pubkey" -> pubkey = readString()
+                        "created_at" -> createdAt = readLong()
+                        "kind" -> kind = readLong().toInt()
+                        "tags" -> tags = readTags()
+                        "content" -> content = readString()
+                        "sig" -> sig = readString()
+                        else -> skipValue()
+                    }
+                } while (consume(','))
+                expect('}')
+            }
+            return NostrEvent(id, pubkey, createdAt, kind, tags, content, sig)
+        }
+
+        private fun readTags(): List<List<String>> {
+            expect('[')
+            if (consume(']')) return emptyList()
+            val tags = ArrayList<List<String>>()
+            do {
+                expect('[')
+                if (consume(']')) {
+                    tags.add(emptyList())
+                    continue
+                }
+                val tag = ArrayList<String>(4)
+                do {
+                    tag.add(readString())
+                } while (consume(','))
+                expect(']')
+                tags.add(tag)
+            } while (consume(','))
+            expect(']')
+            return tags
+        }
+
+        private fun skipValue() {
+            when (peek()) {
+                '"' -> skipString()
+                '{', '[' -> skipContainer()
+                't' -> skipLiteral("true")
+                'f' -> skipLiteral("false")
+                'n' -> skipLiteral("null")
+                else -> readLong()
+            }
+        }
+
+        private fun skipString() {
+            expect('"')
+            while (pos < s.length) {
+                when (s[pos++]) {
+                    '"' -> return
+                    '\\' -> pos++
+                }
+            }
+            fail("unterminated string")
+        }
+
+        /** Skip a whole object or array by bracket depth, stepping over strings. */
+        private fun skipContainer() {
+            var depth = 0
+            while (pos < s.length) {
+                when (s[pos]) {
+                    '"' -> {
+                        skipString()
+                        continue
+                    }
+                    '{', '[' -> depth++
+                    '}', ']' -> {
+                        depth--
+                        if (depth == 0) {
+                            pos++
+                            return
+                        }
+                    }
+                }
+                pos++
+            }
+            fail("unterminated container")
+        }
+
+        private fun skipLiteral(literal: String) {
+            if (!s.startsWith(literal, pos)) fail("expected $literal")
+            pos += literal.length
+        }
+
+        private fun peek(): Char {
+            skipWhitespace()
+            if (pos >= s.length) fail("unexpected end of frame")
+            return s[pos]
+        }
+
+        private fun skipWhitespace() {
+            while (pos < s.length && s[pos].isJsonWhitespace()) pos++
+        }
+
+        private fun Char.isJsonWhitespace() = this == ' ' || this == '\n' || this == '\r' || this == '\t'
+
+        private fun fail(reason: String): Nothing =
+            throw IllegalArgumentException("Malformed relay frame at $pos: $reason")
+    }
+}
@@ -8,16 +8,13 @@ import androidx.datastore.preferences.preferencesDataStore
 import androidx.hilt.work.HiltWorker
 import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
-import com.fiatlife.app.data.local.dao.BillDao
-import com.fiatlife.app.data.local.dao.CreditAccountDao
-import com.fiatlife.app.domain.model.Bill
-import com.fiatlife.app.domain.model.BillFrequency
-import com.fiatlife.app.domain.model.CreditAccount
+import com.fiatlife.app.data.repository.BillRepository
+import com.fiatlife.app.data.repository.CreditAccountRepository
 import dagger.assisted.Assisted
 import dagger.assisted.AssistedInject
 import kotlinx.coroutines.flow.first
-import kotlinx.serialization.json.Json
 import java.time.LocalDate
+import java.time.temporal.ChronoUnit
 
 private val Context.notifPrefsStore by preferencesDataStore(name = "bill_notif_prefs")
 
@@ -31,10 +28,9 @@ enum class NotifDetailLevel { PRIVATE, DETAILED }
 class BillReminderWorker @AssistedInject constructor(
     @Assisted appContext: Context,
     @Assisted workerParams: WorkerParameters,
-    private val billDao: BillDao,
-    private val creditAccountDao: CreditAccountDao,
-    private val notificationManager: BillNotificationManager,
-    private val json: Json
+    private val billRepository: BillRepository,
+    private val creditAccountRepository: CreditAccountRepository,
+    private val notificationManager: BillNotificationManager
 ) : CoroutineWorker(appContext, workerParams) {
 
     override suspend fun doWork(): Result {
@@ -46,83 +42,26 @@ class BillReminderWorker @AssistedInject constructor(
         val detailed = detailStr == NotifDetailLevel.DETAILED.name
         val daysBefore = prefs[KEY_NOTIF_DAYS_BEFORE] ?: 3
 
-        val bills = billDao.getAll().first()
         val today = LocalDate.now()
+        billRepository.rollDueDatesForward(today)
+        creditAccountRepository.rollDueDatesForward(today)
 
-        for (entity in bills) {
-            val bill = try {
-                json.decodeFromString<Bill>(entity.jsonData)
-            } catch (_: Exception) { continue }
-
-            val nextDueDates = computeNextDueDates(bill, today)
-            for (dueDate in nextDueDates) {
-                val daysUntil = java.time.temporal.ChronoUnit.DAYS.between(today, dueDate).toInt()
-                if (daysUntil in 0..daysBefore) {
-                    notificationManager.showBillReminder(bill, daysUntil, detailed)
-                }
-            }
+        for (bill in billRepository.getBillsDueWithin(daysBefore, today)) {
+            val daysUntil = ChronoUnit.DAYS.between(today, bill.nextDueDate(today)).toInt()
+            notificationManager.showBillReminder(bill, daysUntil, detailed)
         }
 
         // Debt/credit accounts not linked to a bill: payment due reminders
-        val creditAccounts = creditAccountDao.getAll().first()
-        for (entity in creditAccounts) {
-            val account = try {
-                json.decodeFromString<CreditAccount>(entity.jsonData)
-            } catch (_: Exception) { continue }
-            if (account.linkedBillId != null) continue
-            if (account.effectiveMonthlyPayment() <= 0) continue
-            val dueDay = account.dueDay.coerceIn(1, 28)
-            val thisMonth = today.withDayOfMonth(dueDay)
-            val nextDue = if (thisMonth.isBefore(today)) thisMonth.plusMonths(1) else thisMonth
-            val daysUntil = java.time.temporal.ChronoUnit.DAYS.between(today, nextDue).toInt()
-            if (daysUntil in 0..daysBefore) {
-                notificationManager.showDebtReminder(
-                    account.name,
-                    account.effectiveMonthlyPayment(),
-                    daysUntil,
-                    account.id,
-                    detailed
-                )
-            }
+        for (account in creditAccountRepository.getUnlinkedAccountsDueWithin(daysBefore, today)) {
+            val daysUntil = ChronoUnit.DAYS.between(today, account.nextDueDate(today)).toInt()
+            notificationManager.showDebtReminder(
+                account.name,
+                account.effectiveMonthlyPayment(),
+                daysUntil,
+                account.id,
+                detailed
+            )
         }
         return Result.success()
     }
-
-    private fun computeNextDueDates(bill: Bill, today: LocalDate): List<LocalDate> {
-        val dueDay = bill.dueDay.coerceIn(1, 28)
-        return when (bill.frequency) {
-            BillFrequency.MONTHLY -> {
-                val thisMonth = today.withDayOfMonth(dueDay)
-                if (thisMonth.isBefore(today)) listOf(thisMonth.plusMonths(1)) else listOf(thisMonth)
-            }
-            BillFrequency.WEEKLY -> {
-                (0L..6L).map { today.plusDays(it) }.filter { it.dayOfWeek.value == dueDay.coerceIn(1, 7) }
-            }
-            BillFrequency.BIWEEKLY -> {
-                val thisMonth = today.withDayOfMonth(dueDay)
-                val dates = mutableListOf<LocalDate>()
-                if (!thisMonth.isBefore(today)) dates.add(thisMonth)
-                val plus14 = thisMonth.plusDays(14)
-                if (!plus14.isBefore(today)) dates.add(plus14)
-                if (dates.isEmpty()) dates.add(thisMonth.plusMonths(1))
-                dates
-            }
-            BillFrequency.BIMONTHLY -> {
-                val thisMonth = today.withDayOfMonth(dueDay)
-                if (thisMonth.isBefore(today)) listOf(thisMonth.plusMonths(2)) else listOf(thisMonth)
-            }
-            BillFrequency.QUARTERLY -> {
-                val thisMonth = today.withDayOfMonth(dueDay)
-                if (thisMonth.isBefore(today)) listOf(thisMonth.plusMonths(3)) else listOf(thisMonth)
-            }
-            BillFrequency.SEMIANNUALLY -> {
-                val thisMonth = today.withDayOfMonth(dueDay)
-                if (thisMonth.isBefore(today)) listOf(thisMonth.plusMonths(6)) else listOf(thisMonth)
-            }
-            BillFrequency.ANNUALLY -> {
-                val thisYear = today.withDayOfMonth(dueDay).withMonth(today.monthValue)
-                if (thisYear.isBefore(today)) listOf(thisYear.plusYears(1)) else listOf(thisYear)
-            }
-        }
-    }
 }
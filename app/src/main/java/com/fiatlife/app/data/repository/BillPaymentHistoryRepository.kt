@@ -0,0 +1,62 @@
+package com.fiatlife.app.data.repository
+
+import android.util.Log
+import com.fiatlife.app.data.local.LocalCodec
+import com.fiatlife.app.data.local.dao.BillPaymentPeriodDao
+import com.fiatlife.app.data.local.entity.BillPaymentPeriodEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
+import com.fiatlife.app.data.sync.AppDataSyncHandler
+import com.fiatlife.app.data.sync.SyncedRecord
+import com.fiatlife.app.domain.model.BillPaymentPeriod
+import kotlinx.serialization.json.Json
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "BillPaymentHistoryRepo"
+
+/**
+ * Sync handler for per-year bill payment records (`fiatlife/payments/<billId>/<year>`).
+ * Publishing happens in [BillRepository.saveBill]; applying a period, or its tombstone, stores
+ * or deletes it and re-merges the owning bill's history.
+ */
+@Singleton
+class BillPaymentHistoryRepository @Inject constructor(
+    private val paymentPeriodDao: BillPaymentPeriodDao,
+    private val billRepository: BillRepository,
+    private val json: Json
+) : AppDataSyncHandler<BillPaymentPeriod> {
+
+    override val syncName: String = "payments"
+
+    override fun ownsDTag(dTag: String): Boolean = dTag.startsWith(BillRepository.NOSTR_PAYMENTS_D_TAG_PREFIX)
+
+    override suspend fun sourceVersions(): Map<String, SourceVersion> =
+        paymentPeriodDao.getSourceVersions().associateBy { "${BillRepository.NOSTR_PAYMENTS_D_TAG_PREFIX}${it.id}" }
+
+    override fun decodeSyncedRecord(dTag: String, plaintext: String): BillPaymentPeriod? =
+        json.decodeFromString<BillPaymentPeriod>(plaintext)
+            .takeIf { it.billId.isNotEmpty() && BillRepository.paymentsDTag(it.billId, it.period) == dTag }
+
+    override suspend fun applySyncedRecords(records: List<SyncedRecord<BillPaymentPeriod>>): Int {
+        val deleted = records.filterIsInstance<SyncedRecord.Tombstone>().map { record ->
+            val key = record.dTag.removePrefix(BillRepository.NOSTR_PAYMENTS_D_TAG_PREFIX)
+            key.substringBeforeLast('/') to key.substringAfterLast('/')
+        }
+        val upserts = records.filterIsInstance<SyncedRecord.Upsert<BillPaymentPeriod>>().map { record ->
+            BillPaymentPeriodEntity(
+                billId = record.value.billId,
+                period = record.value.period,
+                data = LocalCodec.encode(BillPaymentPeriod.serializer(), record.value),
+                sourceEventId = record.eventId,
+                sourceCreatedAt = record.createdAt
+            )
+        }
+        paymentPeriodDao.applySyncBatch(upserts, deleted)
+        // A period can arrive before its bill; the bill picks it up when it is applied.
+        val removed = deleted.groupBy({ it.first }) { it.second }.mapValues { (_, periods) -> periods.toSet() }
+        val touched = upserts.mapTo(mutableSetOf()) { it.billId } + removed.keys
+        billRepository.refreshPaymentHistory(touched, removed)
+        Log.d(TAG, "Applied ${records.size} payment period(s) for ${touched.size} bill(s)")
+        return records.size
+    }
+}
@@ -2,51 +2,114 @@ package com.fiatlife.app.data.repository
 
 import android.util.Log
 import com.fiatlife.app.data.blossom.BlossomClient
+import com.fiatlife.app.data.local.LocalCodec
 import com.fiatlife.app.data.local.dao.BillDao
+import com.fiatlife.app.data.local.dao.BillPaymentPeriodDao
+import com.fiatlife.app.data.local.entity.BillCategoryTotal
 import com.fiatlife.app.data.local.entity.BillEntity
-import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.local.entity.BillPaymentPeriodEntity
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.sync.AppDataSyncHandler
+import com.fiatlife.app.data.sync.NostrOutbox
+import com.fiatlife.app.data.sync.SyncedRecord
 import com.fiatlife.app.domain.model.Bill
 import com.fiatlife.app.domain.model.BillCategory
+import com.fiatlife.app.domain.model.BillGeneralCategory
+import com.fiatlife.app.domain.model.BillPaymentPeriod
+import com.fiatlife.app.domain.model.SearchResultType
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.booleanOrNull
-import kotlinx.serialization.json.jsonObject
-import kotlinx.serialization.json.jsonPrimitive
+import java.time.LocalDate
 import java.util.UUID
 import javax.inject.Inject
 import javax.inject.Singleton
 
 private const val TAG = "BillRepo"
 
+/**
+ * Bills are published without their payment history; each year of payments is its own
+ * `fiatlife/payments/<billId>/<year>` record (see [BillPaymentHistoryRepository]), so a payment
+ * only republishes the bill and the current year. The local row keeps the merged history.
+ */
 @Singleton
 class BillRepository @Inject constructor(
     private val billDao: BillDao,
-    private val nostrClient: NostrClient,
+    private val paymentPeriodDao: BillPaymentPeriodDao,
+    private val outbox: NostrOutbox,
     private val blossomClient: BlossomClient,
+    private val searchRepository: SearchRepository,
     private val json: Json
-) {
+) : AppDataSyncHandler<Bill> {
     companion object {
         private const val NOSTR_D_TAG_PREFIX = "fiatlife/bill/"
+        const val NOSTR_PAYMENTS_D_TAG_PREFIX = "fiatlife/payments/"
+
+        fun paymentsDTag(billId: String, period: String) = "$NOSTR_PAYMENTS_D_TAG_PREFIX$billId/$period"
     }
 
-    fun getAllBills(): Flow<List<Bill>> {
-        return billDao.getAll().map { entities ->
-            entities.map { json.decodeFromString<Bill>(it.jsonData) }
-        }
+    private val decoded = DecodedRowCache<BillEntity, Bill>("bills", { it.id }, { it.updatedAt }) {
+        LocalCodec.decode(Bill.serializer(), it.data)
     }
 
+    private val scope = sharedFlowScope()
+
+    /** Every bill, decoded off the main thread and shared by all collectors; null until loaded. */
+    val bills: StateFlow<List<Bill>?> = billDao.getAll()
+        .map { entities -> decoded.list(entities, complete = true) }
+        .shareDecoded(scope)
+
+    fun getAllBills(): Flow<List<Bill>> = bills.filterNotNull()
+
     fun getBillsByCategory(category: BillCategory): Flow<List<Bill>> {
-        return billDao.getByCategory(category.name).map { entities ->
-            entities.map { json.decodeFromString<Bill>(it.jsonData) }
-        }
+        return billDao.getByCategory(category.name).map { entities -> decoded.list(entities) }
+            .flowOn(Dispatchers.Default)
     }
 
     fun getBillById(id: String): Flow<Bill?> {
-        return billDao.getByIdAsFlow(id).map { entity ->
-            entity?.let { json.decodeFromString<Bill>(it.jsonData) }
+        return billDao.getByIdAsFlow(id).map { entity -> entity?.let { decoded.single(it) } }
+            .flowOn(Dispatchers.Default)
+    }
+
+    /**
+     * Bills due from [today] through [days] days ahead, answered from the indexed due-date column.
+     * Only as current as the last [rollDueDatesForward].
+     */
+    suspend fun getBillsDueWithin(days: Int, today: LocalDate = LocalDate.now()): List<Bill> {
+        return billDao.getDueBetween(today.toEpochDay(), today.toEpochDay() + days).mapNotNull { entity ->
+            runCatching { LocalCodec.decode(Bill.serializer(), entity.data) }.getOrNull()
+        }
+    }
+
+    /** Unpaid bills, soonest due first. */
+    fun getUpcomingUnpaidBills(limit: Int): Flow<List<Bill>> {
+        return billDao.getUpcomingUnpaid(limit).map { entities -> decoded.list(entities) }
+            .flowOn(Dispatchers.Default)
+    }
+
+    /** Count, unpaid count and monthly-normalized total per general category, summed in SQL. */
+    fun getCategoryTotals(): Flow<Map<BillGeneralCategory, BillCategoryTotal>> {
+        return billDao.getCategoryTotals().map { rows ->
+            rows.mapNotNull { row ->
+                runCatching { BillGeneralCategory.valueOf(row.generalCategory) }.getOrNull()?.let { it to row }
+            }.toMap()
+        }.flowOn(Dispatchers.Default)
+    }
+
+    /**
+     * Recompute the stored next due date of every bill whose date has passed, in one write.
+     * Run at app start and before each reminder check, not on every read.
+     */
+    suspend fun rollDueDatesForward(today: LocalDate = LocalDate.now()) {
+        billDao.rollDueDatesForward(today.toEpochDay()) { entity ->
+            runCatching { LocalCodec.decode(Bill.serializer(), entity.data) }.getOrNull()
+                ?.nextDueDate(today)?.toEpochDay()
         }
     }
 
@@ -61,54 +124,91 @@ class BillRepository @Inject constructor(
             bill.copy(updatedAt = System.currentTimeMillis())
         }
 
-        val jsonStr = json.encodeToString(Bill.serializer(), billWithId)
+        billDao.upsert(BillEntity.of(billWithId, sourceCreatedAt = billWithId.updatedAt / 1000))
+        searchRepository.index(listOf(SearchEntryEntity.forBill(billWithId)))
 
-        billDao.upsert(
-            BillEntity(
-                id = billWithId.id,
-                jsonData = jsonStr,
-                category = billWithId.effectiveSubcategory.name,
-                updatedAt = billWithId.updatedAt
-            )
-        )
+        savePaymentPeriods(billWithId)
+        val publishedJson = json.encodeToString(Bill.serializer(), billWithId.copy(paymentHistory = emptyList()))
+        if (outbox.enqueueAppData("$NOSTR_D_TAG_PREFIX${billWithId.id}", publishedJson)) {
+            Log.d(TAG, "Queued bill ${billWithId.id.take(8)}… for relay")
+        }
+        return billWithId
+    }
 
-        if (nostrClient.hasSigner) {
-            try {
-                val published = nostrClient.publishEncryptedAppData(
-                    "$NOSTR_D_TAG_PREFIX${billWithId.id}",
-                    jsonStr
+    /** Store and queue each payment period of [bill] that differs from the stored one. */
+    private suspend fun savePaymentPeriods(bill: Bill) {
+        val stored = paymentPeriodDao.getForBill(bill.id).associate {
+            it.period to LocalCodec.decode(BillPaymentPeriod.serializer(), it.data).payments
+        }
+        val current = bill.paymentHistory.groupBy { BillPaymentPeriod.periodOf(it.date) }
+        for (period in current.keys + stored.keys) {
+            val payments = current[period].orEmpty()
+            if (payments == stored[period]) continue
+            val paymentPeriod = BillPaymentPeriod(billId = bill.id, period = period, payments = payments)
+            paymentPeriodDao.upsert(
+                BillPaymentPeriodEntity(
+                    billId = bill.id,
+                    period = period,
+                    data = LocalCodec.encode(BillPaymentPeriod.serializer(), paymentPeriod),
+                    sourceCreatedAt = bill.updatedAt / 1000
                 )
-                Log.d(TAG, "Published bill ${billWithId.id.take(8)}… to relay: $published")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish bill: ${e.message}")
-            }
+            )
+            outbox.enqueueAppData(
+                paymentsDTag(bill.id, period),
+                json.encodeToString(BillPaymentPeriod.serializer(), paymentPeriod)
+            )
         }
-        return billWithId
     }
 
-    suspend fun deleteBill(bill: Bill) {
-        billDao.delete(
-            BillEntity(
-                id = bill.id,
-                jsonData = "",
-                category = bill.effectiveSubcategory.name
+    /**
+     * Re-merge each bill's local history with its synced payment periods, writing only changed
+     * bills. Payments in [removedPeriods] (bill id to periods deleted by sync) are dropped first,
+     * as the merge would otherwise keep them as unsynced inline history.
+     */
+    suspend fun refreshPaymentHistory(
+        billIds: Collection<String>,
+        removedPeriods: Map<String, Set<String>> = emptyMap()
+    ) {
+        if (billIds.isEmpty()) return
+        val ids = billIds.toList()
+        val periodsByBill = paymentPeriods(ids)
+        val now = System.currentTimeMillis()
+        val changed = billDao.getByIds(ids).mapNotNull { entity ->
+            val bill = LocalCodec.decode(Bill.serializer(), entity.data)
+            val removed = removedPeriods[entity.id].orEmpty()
+            val kept = bill.paymentHistory.filter { BillPaymentPeriod.periodOf(it.date) !in removed }
+            val merged = bill.copy(
+                paymentHistory = BillPaymentPeriod.merge(kept, periodsByBill[entity.id].orEmpty())
+            )
+            // New updatedAt so cached decodes of the old history are not reused.
+            if (merged == bill) null else BillEntity.of(
+                merged,
+                sourceEventId = entity.sourceEventId,
+                sourceCreatedAt = entity.sourceCreatedAt,
+                updatedAt = maxOf(entity.updatedAt + 1, now)
             )
-        )
-
-        if (nostrClient.hasSigner) {
-            val dTag = "$NOSTR_D_TAG_PREFIX${bill.id}"
-            try {
-                nostrClient.publishEncryptedAppData(dTag, """{"deleted":true}""")
-                Log.d(TAG, "Published delete tombstone for bill ${bill.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish bill tombstone: ${e.message}")
-            }
-            try {
-                nostrClient.publishDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, dTag)
-                Log.d(TAG, "Published NIP-09 deletion for bill ${bill.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish bill NIP-09 deletion: ${e.message}")
-            }
+        }
+        if (changed.isNotEmpty()) billDao.upsertAll(changed)
+    }
+
+    /** Synced payment periods for several bills in one query, keyed by bill id. */
+    private suspend fun paymentPeriods(billIds: List<String>): Map<String, List<BillPaymentPeriod>> {
+        if (billIds.isEmpty()) return emptyMap()
+        return paymentPeriodDao.getForBills(billIds)
+            .groupBy({ it.billId }) { LocalCodec.decode(BillPaymentPeriod.serializer(), it.data) }
+    }
+
+    suspend fun deleteBill(bill: Bill) {
+        billDao.deleteById(bill.id)
+        searchRepository.remove(SearchResultType.BILL, listOf(bill.id))
+
+        val periods = paymentPeriodDao.getForBill(bill.id).map { it.period }
+        paymentPeriodDao.deleteForBill(bill.id)
+
+        val dTags = listOf("$NOSTR_D_TAG_PREFIX${bill.id}") + periods.map { paymentsDTag(bill.id, it) }
+        if (dTags.all { outbox.enqueueAppData(it, SyncedRecord.TOMBSTONE_JSON) }) {
+            dTags.forEach { outbox.enqueueDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, it) }
+            Log.d(TAG, "Queued tombstones and NIP-09 deletions for bill ${bill.id.take(8)}…")
         }
     }
 
@@ -124,40 +224,40 @@ class BillRepository @Inject constructor(
         return blossomClient.getBlob(sha256)
     }
 
-    suspend fun syncFromNostr() {
-        if (!nostrClient.hasSigner) return
-        try {
-            withTimeout(30_000) {
-                var count = 0
-                nostrClient.subscribeToAppData(dTagPrefix = NOSTR_D_TAG_PREFIX).collect { (dTag, decrypted) ->
-                    try {
-                        val obj = json.parseToJsonElement(decrypted).jsonObject
-                        if (obj["deleted"]?.jsonPrimitive?.booleanOrNull == true) {
-                            val billId = dTag.removePrefix(NOSTR_D_TAG_PREFIX)
-                            billDao.deleteById(billId)
-                            Log.d(TAG, "Deleted tombstoned bill $billId")
-                            return@collect
-                        }
-                        val bill = json.decodeFromString<Bill>(decrypted)
-                        if (bill.id.isNotEmpty()) {
-                            billDao.upsert(
-                                BillEntity(
-                                    id = bill.id,
-                                    jsonData = decrypted,
-                                    category = bill.effectiveSubcategory.name,
-                                    updatedAt = bill.updatedAt
-                                )
-                            )
-                            count++
-                        }
-                    } catch (e: Exception) {
-                        Log.w(TAG, "Failed to parse bill event: ${e.message}")
-                    }
-                }
-                Log.d(TAG, "Synced $count bill(s) from relay")
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "Sync failed: ${e.message}")
+    override val syncName: String = "bill"
+
+    override fun ownsDTag(dTag: String): Boolean = dTag.startsWith(NOSTR_D_TAG_PREFIX)
+
+    override suspend fun sourceVersions(): Map<String, SourceVersion> =
+        billDao.getSourceVersions().associateBy { "$NOSTR_D_TAG_PREFIX${it.id}" }
+
+    override fun decodeSyncedRecord(dTag: String, plaintext: String): Bill? =
+        json.decodeFromString<Bill>(plaintext).takeIf { it.id.isNotEmpty() }
+
+    override suspend fun applySyncedRecords(records: List<SyncedRecord<Bill>>): Int {
+        val deletedIds = records.filterIsInstance<SyncedRecord.Tombstone>()
+            .map { it.dTag.removePrefix(NOSTR_D_TAG_PREFIX) }
+        val incoming = records.filterIsInstance<SyncedRecord.Upsert<Bill>>()
+        // Bills from this version carry no inline history; fill it from the synced periods.
+        val periodsByBill = paymentPeriods(incoming.map { it.value.id })
+        val today = LocalDate.now()
+        val upserts = incoming.map { record ->
+            val periods = periodsByBill[record.value.id].orEmpty()
+            val bill = record.value.copy(
+                paymentHistory = BillPaymentPeriod.merge(record.value.paymentHistory, periods)
+            )
+            BillEntity.of(
+                bill,
+                sourceEventId = record.eventId,
+                sourceCreatedAt = record.createdAt,
+                today = today
+            )
         }
+        billDao.applySyncBatch(upserts, deletedIds)
+        if (deletedIds.isNotEmpty()) paymentPeriodDao.deleteForBills(deletedIds)
+        searchRepository.remove(SearchResultType.BILL, deletedIds)
+        searchRepository.index(incoming.map { SearchEntryEntity.forBill(it.value) })
+        Log.d(TAG, "Applied ${upserts.size} bill(s), deleted ${deletedIds.size} tombstoned")
+        return records.size
     }
 }
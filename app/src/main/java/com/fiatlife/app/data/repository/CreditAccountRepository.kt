@@ -2,18 +2,25 @@ package com.fiatlife.app.data.repository
 
 import android.util.Log
 import com.fiatlife.app.data.blossom.BlossomClient
+import com.fiatlife.app.data.local.LocalCodec
 import com.fiatlife.app.data.local.dao.CreditAccountDao
 import com.fiatlife.app.data.local.entity.CreditAccountEntity
-import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.sync.AppDataSyncHandler
+import com.fiatlife.app.data.sync.NostrOutbox
+import com.fiatlife.app.data.sync.SyncedRecord
 import com.fiatlife.app.domain.model.CreditAccount
+import com.fiatlife.app.domain.model.SearchResultType
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.booleanOrNull
-import kotlinx.serialization.json.jsonObject
-import kotlinx.serialization.json.jsonPrimitive
+import java.time.LocalDate
 import java.util.UUID
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -23,26 +30,50 @@ private const val TAG = "CreditAccountRepo"
 @Singleton
 class CreditAccountRepository @Inject constructor(
     private val creditAccountDao: CreditAccountDao,
-    private val nostrClient: NostrClient,
+    private val outbox: NostrOutbox,
     private val blossomClient: BlossomClient,
+    private val searchRepository: SearchRepository,
     private val json: Json
-) {
+) : AppDataSyncHandler<CreditAccount> {
     companion object {
         private const val NOSTR_D_TAG_PREFIX = "fiatlife/credit/"
     }
 
-    fun getAllCreditAccounts(): Flow<List<CreditAccount>> {
-        return creditAccountDao.getAll().map { entities ->
-            entities.map { json.decodeFromString<CreditAccount>(it.jsonData) }
-        }
+    private val decoded = DecodedRowCache<CreditAccountEntity, CreditAccount>("credit_accounts", { it.id }, { it.updatedAt }) {
+        LocalCodec.decode(CreditAccount.serializer(), it.data)
     }
 
+    private val scope = sharedFlowScope()
+
+    /** Every account, decoded off the main thread and shared by all collectors; null until loaded. */
+    val creditAccounts: StateFlow<List<CreditAccount>?> = creditAccountDao.getAll()
+        .map { entities -> decoded.list(entities, complete = true) }
+        .shareDecoded(scope)
+
+    fun getAllCreditAccounts(): Flow<List<CreditAccount>> = creditAccounts.filterNotNull()
+
     fun getCreditAccountById(id: String): Flow<CreditAccount?> {
-        return creditAccountDao.getByIdAsFlow(id).map { entity ->
-            entity?.let { json.decodeFromString<CreditAccount>(it.jsonData) }
+        return creditAccountDao.getByIdAsFlow(id).map { entity -> entity?.let { decoded.single(it) } }
+            .flowOn(Dispatchers.Default)
+    }
+
+    /** Recompute the stored next due date of every account whose date has passed, in one write. */
+    suspend fun rollDueDatesForward(today: LocalDate = LocalDate.now()) {
+        creditAccountDao.rollDueDatesForward(today.toEpochDay()) { entity ->
+            runCatching { LocalCodec.decode(CreditAccount.serializer(), entity.data) }.getOrNull()
+                ?.nextDueDate(today)?.toEpochDay()
         }
     }
 
+    /**
+     * Accounts without a linked bill whose payment is due from [today] through [days] days ahead.
+     * Only as current as the last [rollDueDatesForward].
+     */
+    suspend fun getUnlinkedAccountsDueWithin(days: Int, today: LocalDate = LocalDate.now()): List<CreditAccount> {
+        return creditAccountDao.getUnlinkedDueBetween(today.toEpochDay(), today.toEpochDay() + days)
+            .mapNotNull { entity -> runCatching { LocalCodec.decode(CreditAccount.serializer(), entity.data) }.getOrNull() }
+    }
+
     suspend fun saveCreditAccount(account: CreditAccount): CreditAccount {
         val withId = if (account.id.isEmpty()) {
             account.copy(
@@ -53,22 +84,11 @@ class CreditAccountRepository @Inject constructor(
         } else {
             account.copy(updatedAt = System.currentTimeMillis())
         }
+        creditAccountDao.upsert(CreditAccountEntity.of(withId, sourceCreatedAt = withId.updatedAt / 1000))
+        searchRepository.index(listOf(SearchEntryEntity.forCreditAccount(withId)))
         val jsonStr = json.encodeToString(CreditAccount.serializer(), withId)
-        creditAccountDao.upsert(
-            CreditAccountEntity(
-                id = withId.id,
-                jsonData = jsonStr,
-                type = withId.type.name,
-                updatedAt = withId.updatedAt
-            )
-        )
-        if (nostrClient.hasSigner) {
-            try {
-                nostrClient.publishEncryptedAppData("$NOSTR_D_TAG_PREFIX${withId.id}", jsonStr)
-                Log.d(TAG, "Published credit account ${withId.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish credit account: ${e.message}")
-            }
+        if (outbox.enqueueAppData("$NOSTR_D_TAG_PREFIX${withId.id}", jsonStr)) {
+            Log.d(TAG, "Queued credit account ${withId.id.take(8)}…")
         }
         return withId
     }
@@ -86,55 +106,42 @@ class CreditAccountRepository @Inject constructor(
     }
 
     suspend fun deleteCreditAccount(account: CreditAccount) {
-        creditAccountDao.delete(
-            CreditAccountEntity(id = account.id, jsonData = "", type = account.type.name)
-        )
-        if (nostrClient.hasSigner) {
-            val dTag = "$NOSTR_D_TAG_PREFIX${account.id}"
-            try {
-                nostrClient.publishEncryptedAppData(dTag, """{"deleted":true}""")
-                nostrClient.publishDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, dTag)
-                Log.d(TAG, "Published delete for credit account ${account.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish credit account deletion: ${e.message}")
-            }
+        creditAccountDao.deleteById(account.id)
+        searchRepository.remove(SearchResultType.CREDIT_ACCOUNT, listOf(account.id))
+        val dTag = "$NOSTR_D_TAG_PREFIX${account.id}"
+        if (outbox.enqueueAppData(dTag, SyncedRecord.TOMBSTONE_JSON)) {
+            outbox.enqueueDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, dTag)
+            Log.d(TAG, "Queued delete for credit account ${account.id.take(8)}…")
         }
     }
 
-    suspend fun syncFromNostr() {
-        if (!nostrClient.hasSigner) return
-        try {
-            withTimeout(30_000) {
-                var count = 0
-                nostrClient.subscribeToAppData(dTagPrefix = NOSTR_D_TAG_PREFIX).collect { (dTag, decrypted) ->
-                    try {
-                        val obj = json.parseToJsonElement(decrypted).jsonObject
-                        if (obj["deleted"]?.jsonPrimitive?.booleanOrNull == true) {
-                            val id = dTag.removePrefix(NOSTR_D_TAG_PREFIX)
-                            creditAccountDao.deleteById(id)
-                            Log.d(TAG, "Deleted tombstoned credit account $id")
-                            return@collect
-                        }
-                        val account = json.decodeFromString<CreditAccount>(decrypted)
-                        if (account.id.isNotEmpty()) {
-                            creditAccountDao.upsert(
-                                CreditAccountEntity(
-                                    id = account.id,
-                                    jsonData = decrypted,
-                                    type = account.type.name,
-                                    updatedAt = account.updatedAt
-                                )
-                            )
-                            count++
-                        }
-                    } catch (e: Exception) {
-                        Log.w(TAG, "Failed to parse credit account event: ${e.message}")
-                    }
-                }
-                Log.d(TAG, "Synced $count credit account(s) from relay")
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "Credit account sync failed: ${e.message}")
+    override val syncName: String = "credit"
+
+    override fun ownsDTag(dTag: String): Boolean = dTag.startsWith(NOSTR_D_TAG_PREFIX)
+
+    override suspend fun sourceVersions(): Map<String, SourceVersion> =
+        creditAccountDao.getSourceVersions().associateBy { "$NOSTR_D_TAG_PREFIX${it.id}" }
+
+    override fun decodeSyncedRecord(dTag: String, plaintext: String): CreditAccount? =
+        json.decodeFromString<CreditAccount>(plaintext).takeIf { it.id.isNotEmpty() }
+
+    override suspend fun applySyncedRecords(records: List<SyncedRecord<CreditAccount>>): Int {
+        val deletedIds = records.filterIsInstance<SyncedRecord.Tombstone>()
+            .map { it.dTag.removePrefix(NOSTR_D_TAG_PREFIX) }
+        val today = LocalDate.now()
+        val incoming = records.filterIsInstance<SyncedRecord.Upsert<CreditAccount>>()
+        val upserts = incoming.map { record ->
+            CreditAccountEntity.of(
+                record.value,
+                sourceEventId = record.eventId,
+                sourceCreatedAt = record.createdAt,
+                today = today
+            )
         }
+        creditAccountDao.applySyncBatch(upserts, deletedIds)
+        searchRepository.remove(SearchResultType.CREDIT_ACCOUNT, deletedIds)
+        searchRepository.index(incoming.map { SearchEntryEntity.forCreditAccount(it.value) })
+        Log.d(TAG, "Applied ${upserts.size} credit account(s), deleted ${deletedIds.size} tombstoned")
+        return records.size
     }
 }
@@ -3,17 +3,24 @@ package com.fiatlife.app.data.repository
 import android.util.Log
 import com.fiatlife.app.data.local.dao.CypherLogSubscriptionDao
 import com.fiatlife.app.data.local.entity.CypherLogSubscriptionEntity
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import com.fiatlife.app.data.nostr.NostrClient
 import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.sync.NostrOutbox
 import com.fiatlife.app.domain.model.Bill
 import com.fiatlife.app.domain.model.BillCategory
 import com.fiatlife.app.domain.model.BillFrequency
 import com.fiatlife.app.domain.model.BillSource
 import com.fiatlife.app.domain.model.BillSubcategory
 import com.fiatlife.app.domain.model.BillWithSource
+import com.fiatlife.app.domain.model.SearchResultType
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.buildJsonArray
 import kotlinx.serialization.json.JsonArray
@@ -46,48 +53,86 @@ private fun nameFromAltTag(tagMap: Map<String, List<String>>): String {
 class CypherLogSubscriptionRepository @Inject constructor(
     private val dao: CypherLogSubscriptionDao,
     private val nostrClient: NostrClient,
+    private val outbox: NostrOutbox,
+    private val searchRepository: SearchRepository,
     private val json: Json
 ) {
-    fun getAllAsBills(): Flow<List<BillWithSource>> {
-        return dao.getAll().map { entities ->
-            entities.map { entity -> entityToBillWithSource(entity) }
-        }
-    }
+    // Rows carry no updatedAt and local saves reuse a second-resolution createdAt, so the
+    // whole row is the version stamp; comparing it is still far cheaper than re-parsing tags.
+    private val decoded = DecodedRowCache<CypherLogSubscriptionEntity, BillWithSource>(
+        "cypherlog", { it.dTag }, { it }, ::entityToBillWithSource
+    )
+
+    private val scope = sharedFlowScope()
+
+    /** Every subscription as a bill, decoded off the main thread and shared; null until loaded. */
+    val bills: StateFlow<List<BillWithSource>?> = dao.getAll()
+        .map { entities -> decoded.list(entities, complete = true) }
+        .shareDecoded(scope)
+
+    fun getAllAsBills(): Flow<List<BillWithSource>> = bills.filterNotNull()
 
     fun getByDTag(dTag: String): Flow<BillWithSource?> {
-        return dao.getByDTagAsFlow(dTag).map { entity ->
-            entity?.let { entityToBillWithSource(it) }
-        }
+        return dao.getByDTagAsFlow(dTag).map { entity -> entity?.let { decoded.single(it) } }
+            .flowOn(Dispatchers.Default)
+    }
+
+    /**
+     * Decrypt a 37004 event's content, trying the author's key and then our own.
+     * Returns null for empty content, no signer, or a failed decrypt.
+     */
+    suspend fun decryptContent(event: NostrEvent): String? {
+        if (event.content.isBlank()) return null
+        val signer = nostrClient.currentSigner ?: return null
+        return (signer.nip44Decrypt(event.content, event.pubkey)
+            ?: signer.nip44Decrypt(event.content, signer.pubkeyHex))
+            .also {
+                if (it == null) {
+                    Log.w(TAG, "Failed to decrypt 37004 content for d=${event.dTag} (author=${event.pubkey.take(8)}…)")
+                }
+            }
+    }
+
+    /** Stored version of each subscription, keyed by `d` tag; see [AppDataSyncHandler.sourceVersions]. */
+    suspend fun sourceVersions(): Map<String, SourceVersion> =
+        dao.getSourceVersions().associateBy { it.id }
+
+    /** Store a 37004 event with content already decrypted by [decryptContent]. */
+    suspend fun upsertFromEvent(event: NostrEvent, contentDecryptedJson: String?) {
+        val entity = toEntity(event, contentDecryptedJson) ?: return
+        dao.upsert(entity)
+        index(listOf(entity))
+        Log.d(TAG, "Upserted 37004 d=${entity.dTag}")
+    }
+
+    /** Store several 37004 events, paired with their decrypted content, in one transaction. */
+    suspend fun upsertAllFromEvents(events: List<Pair<NostrEvent, String?>>) {
+        val entities = events.mapNotNull { (event, content) -> toEntity(event, content) }
+        if (entities.isEmpty()) return
+        dao.upsertAll(entities)
+        index(entities)
+        Log.d(TAG, "Upserted ${entities.size} 37004 event(s)")
+    }
+
+    /** Index the subscriptions as the list shows them; decoding here also warms [decoded]. */
+    private suspend fun index(entities: List<CypherLogSubscriptionEntity>) {
+        searchRepository.index(entities.mapNotNull { decoded.single(it)?.let { s -> SearchEntryEntity.forSubscription(s.bill) } })
     }
 
-    suspend fun upsertFromEvent(event: NostrEvent) {
-        val dTag = event.tags.firstOrNull { it.size >= 2 && it[0] == "d" }?.getOrNull(1) ?: return
+    private fun toEntity(event: NostrEvent, contentDecryptedJson: String?): CypherLogSubscriptionEntity? {
+        val dTag = event.dTag ?: return null
         val tagsJson = buildJsonArray {
             event.tags.forEach { tag ->
                 add(buildJsonArray { tag.forEach { add(JsonPrimitive(it)) } })
             }
         }.toString()
-        var contentDecryptedJson: String? = null
-        if (event.content.isNotBlank()) {
-            val signer = nostrClient.currentSigner
-            if (signer != null) {
-                contentDecryptedJson = signer.nip44Decrypt(event.content, event.pubkey)
-                    ?: signer.nip44Decrypt(event.content, signer.pubkeyHex)
-                if (contentDecryptedJson == null) {
-                    Log.w(TAG, "Failed to decrypt 37004 content for d=$dTag (author=${event.pubkey.take(8)}…)")
-                }
-            }
-        }
-        dao.upsert(
-            CypherLogSubscriptionEntity(
-                dTag = dTag,
-                eventId = event.id,
-                tagsJson = tagsJson,
-                createdAt = event.created_at,
-                contentDecryptedJson = contentDecryptedJson
-            )
+        return CypherLogSubscriptionEntity(
+            dTag = dTag,
+            eventId = event.id,
+            tagsJson = tagsJson,
+            createdAt = event.created_at,
+            contentDecryptedJson = contentDecryptedJson
         )
-        Log.d(TAG, "Upserted 37004 d=$dTag")
     }
 
     /**
@@ -100,50 +145,28 @@ class CypherLogSubscriptionRepository @Inject constructor(
     ): Boolean {
         val dTag = bill.id.ifEmpty { UUID.randomUUID().toString() }
         val tags = billTo37004Tags(bill, preservedTags, dTag)
-        val sent = nostrClient.publishReplaceable37004(dTag, tags)
-        if (sent) {
-            val tagsJson = buildJsonArray {
-                tags.forEach { tag ->
-                    add(buildJsonArray { tag.forEach { add(JsonPrimitive(it)) } })
-                }
-            }.toString()
-            dao.upsert(
-                CypherLogSubscriptionEntity(
-                    dTag = dTag,
-                    eventId = "",
-                    tagsJson = tagsJson,
-                    createdAt = System.currentTimeMillis() / 1000
-                )
-            )
-        }
-        return sent
+        if (!nostrClient.hasSigner) return false
+        val tagsJson = buildJsonArray {
+            tags.forEach { tag ->
+                add(buildJsonArray { tag.forEach { add(JsonPrimitive(it)) } })
+            }
+        }.toString()
+        val entity = CypherLogSubscriptionEntity(
+            dTag = dTag,
+            eventId = "",
+            tagsJson = tagsJson,
+            createdAt = System.currentTimeMillis() / 1000
+        )
+        dao.upsert(entity)
+        index(listOf(entity))
+        return outbox.enqueueReplaceable37004(dTag, tags)
     }
 
     suspend fun deleteSubscription(dTag: String) {
-        if (nostrClient.hasSigner) {
-            try {
-                nostrClient.publishDeletion(NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION, dTag)
-                Log.d(TAG, "Published NIP-09 deletion for 37004 d=$dTag")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish 37004 deletion: ${e.message}")
-            }
-        }
         dao.deleteByDTag(dTag)
-    }
-
-    suspend fun syncFromRelay() {
-        if (!nostrClient.hasSigner) return
-        try {
-            withTimeout(30_000) {
-                var count = 0
-                nostrClient.subscribeToKind37004().collect { event ->
-                    upsertFromEvent(event)
-                    count++
-                }
-                Log.d(TAG, "Synced $count 37004 subscription(s) from relay")
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "37004 sync failed: ${e.message}")
+        searchRepository.remove(SearchResultType.SUBSCRIPTION, listOf(dTag))
+        if (outbox.enqueueDeletion(NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION, dTag)) {
+            Log.d(TAG, "Queued NIP-09 deletion for 37004 d=$dTag")
         }
     }
 
@@ -0,0 +1,76 @@
+package com.fiatlife.app.data.repository
+
+import android.util.Log
+
+/**
+ * Decoded objects for Room rows, keyed by row id and a version [stamp] (usually `updatedAt`).
+ * Each emission of a repository flow decodes only the rows whose stamp changed and reuses
+ * the objects decoded last time for the rest, so editing one bill costs one decode instead
+ * of one per bill. Hit and miss counts are kept in [stats] and logged per emission.
+ *
+ * A row that fails to decode is logged and left out, and is not retried until its stamp
+ * changes, so one bad row cannot fail the flow every other row is read through.
+ */
+class DecodedRowCache<E, T : Any>(
+    private val name: String,
+    private val id: (E) -> String,
+    private val stamp: (E) -> Any,
+    private val decode: (E) -> T
+) {
+    data class Stats(val hits: Long, val misses: Long) {
+        val hitRate: Double get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    /** [value] is null for a row that failed to decode at [stamp]. */
+    private class Entry<T>(val stamp: Any, val value: T?)
+
+    private val entries = HashMap<String, Entry<T>>()
+    private var hits = 0L
+    private var misses = 0L
+
+    /**
+     * Decode [rows] in order, skipping any that cannot be decoded. Pass [complete] = true
+     * when [rows] is the whole table, so entries for deleted rows are dropped.
+     */
+    @Synchronized
+    fun list(rows: List<E>, complete: Boolean = false): List<T> {
+        val missesBefore = misses
+        val values = rows.mapNotNull(::lookup)
+        if (complete) {
+            val ids = rows.mapTo(HashSet(rows.size * 2)) { id(it) }
+            entries.keys.retainAll(ids)
+        }
+        Log.d(TAG, "$name: decoded ${misses - missesBefore} of ${rows.size} rows (hit rate ${"%.1f".format(stats().hitRate * 100)}%)")
+        return values
+    }
+
+    /** The decoded row, or null if it cannot be decoded. */
+    @Synchronized
+    fun single(row: E): T? = lookup(row)
+
+    @Synchronized
+    fun stats(): Stats = Stats(hits, misses)
+
+    private fun lookup(row: E): T? {
+        val key = id(row)
+        val version = stamp(row)
+        val cached = entries[key]
+        if (cached != null && cached.stamp == version) {
+            hits++
+            return cached.value
+        }
+        misses++
+        val value = try {
+            decode(row)
+        } catch (e: Exception) {
+            Log.w(TAG, "$name: skipping row $key that cannot be decoded", e)
+            null
+        }
+        entries[key] = Entry(version, value)
+        return value
+    }
+
+    private companion object {
+        const val TAG = "DecodedRowCache"
+    }
+}
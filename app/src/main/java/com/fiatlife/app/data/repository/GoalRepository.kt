@@ -1,18 +1,22 @@
 package com.fiatlife.app.data.repository
 
 import android.util.Log
+import com.fiatlife.app.data.local.LocalCodec
 import com.fiatlife.app.data.local.dao.GoalDao
 import com.fiatlife.app.data.local.entity.GoalEntity
-import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
 import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.sync.AppDataSyncHandler
+import com.fiatlife.app.data.sync.NostrOutbox
+import com.fiatlife.app.data.sync.SyncedRecord
 import com.fiatlife.app.domain.model.FinancialGoal
+import com.fiatlife.app.domain.model.SearchResultType
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.booleanOrNull
-import kotlinx.serialization.json.jsonObject
-import kotlinx.serialization.json.jsonPrimitive
 import java.util.UUID
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -22,19 +26,27 @@ private const val TAG = "GoalRepo"
 @Singleton
 class GoalRepository @Inject constructor(
     private val goalDao: GoalDao,
-    private val nostrClient: NostrClient,
+    private val outbox: NostrOutbox,
+    private val searchRepository: SearchRepository,
     private val json: Json
-) {
+) : AppDataSyncHandler<FinancialGoal> {
     companion object {
         private const val NOSTR_D_TAG_PREFIX = "fiatlife/goal/"
     }
 
-    fun getAllGoals(): Flow<List<FinancialGoal>> {
-        return goalDao.getAll().map { entities ->
-            entities.map { json.decodeFromString<FinancialGoal>(it.jsonData) }
-        }
+    private val decoded = DecodedRowCache<GoalEntity, FinancialGoal>("goals", { it.id }, { it.updatedAt }) {
+        LocalCodec.decode(FinancialGoal.serializer(), it.data)
     }
 
+    private val scope = sharedFlowScope()
+
+    /** Every goal, decoded off the main thread and shared by all collectors; null until loaded. */
+    val goals: StateFlow<List<FinancialGoal>?> = goalDao.getAll()
+        .map { entities -> decoded.list(entities, complete = true) }
+        .shareDecoded(scope)
+
+    fun getAllGoals(): Flow<List<FinancialGoal>> = goals.filterNotNull()
+
     suspend fun saveGoal(goal: FinancialGoal) {
         val goalWithId = if (goal.id.isEmpty()) {
             goal.copy(
@@ -46,27 +58,20 @@ class GoalRepository @Inject constructor(
             goal.copy(updatedAt = System.currentTimeMillis())
         }
 
-        val jsonStr = json.encodeToString(FinancialGoal.serializer(), goalWithId)
-
         goalDao.upsert(
             GoalEntity(
                 id = goalWithId.id,
-                jsonData = jsonStr,
+                data = LocalCodec.encode(FinancialGoal.serializer(), goalWithId),
                 category = goalWithId.category.name,
-                updatedAt = goalWithId.updatedAt
+                updatedAt = goalWithId.updatedAt,
+                sourceCreatedAt = goalWithId.updatedAt / 1000
             )
         )
+        searchRepository.index(listOf(SearchEntryEntity.forGoal(goalWithId)))
 
-        if (nostrClient.hasSigner) {
-            try {
-                val published = nostrClient.publishEncryptedAppData(
-                    "$NOSTR_D_TAG_PREFIX${goalWithId.id}",
-                    jsonStr
-                )
-                Log.d(TAG, "Published goal ${goalWithId.id.take(8)}… to relay: $published")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish goal: ${e.message}")
-            }
+        val jsonStr = json.encodeToString(FinancialGoal.serializer(), goalWithId)
+        if (outbox.enqueueAppData("$NOSTR_D_TAG_PREFIX${goalWithId.id}", jsonStr)) {
+            Log.d(TAG, "Queued goal ${goalWithId.id.take(8)}… for relay")
         }
     }
 
@@ -75,71 +80,51 @@ class GoalRepository @Inject constructor(
         newAmount: Double
     ) {
         val entity = goalDao.getById(goalId) ?: return
-        val goal = json.decodeFromString<FinancialGoal>(entity.jsonData)
+        val goal = LocalCodec.decode(FinancialGoal.serializer(), entity.data)
         val updated = goal.copy(currentAmount = newAmount)
         saveGoal(updated)
     }
 
     suspend fun deleteGoal(goal: FinancialGoal) {
-        goalDao.delete(
-            GoalEntity(
-                id = goal.id,
-                jsonData = "",
-                category = goal.category.name
-            )
-        )
+        goalDao.deleteById(goal.id)
+        searchRepository.remove(SearchResultType.GOAL, listOf(goal.id))
 
-        if (nostrClient.hasSigner) {
-            val dTag = "$NOSTR_D_TAG_PREFIX${goal.id}"
-            try {
-                nostrClient.publishEncryptedAppData(dTag, """{"deleted":true}""")
-                Log.d(TAG, "Published delete tombstone for goal ${goal.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish goal tombstone: ${e.message}")
-            }
-            try {
-                nostrClient.publishDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, dTag)
-                Log.d(TAG, "Published NIP-09 deletion for goal ${goal.id.take(8)}…")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish goal NIP-09 deletion: ${e.message}")
-            }
+        val dTag = "$NOSTR_D_TAG_PREFIX${goal.id}"
+        if (outbox.enqueueAppData(dTag, SyncedRecord.TOMBSTONE_JSON)) {
+            outbox.enqueueDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, dTag)
+            Log.d(TAG, "Queued tombstone and NIP-09 deletion for goal ${goal.id.take(8)}…")
         }
     }
 
-    suspend fun syncFromNostr() {
-        if (!nostrClient.hasSigner) return
-        try {
-            withTimeout(30_000) {
-                var count = 0
-                nostrClient.subscribeToAppData(dTagPrefix = NOSTR_D_TAG_PREFIX).collect { (dTag, decrypted) ->
-                    try {
-                        val obj = json.parseToJsonElement(decrypted).jsonObject
-                        if (obj["deleted"]?.jsonPrimitive?.booleanOrNull == true) {
-                            val goalId = dTag.removePrefix(NOSTR_D_TAG_PREFIX)
-                            goalDao.deleteById(goalId)
-                            Log.d(TAG, "Deleted tombstoned goal $goalId")
-                            return@collect
-                        }
-                        val goal = json.decodeFromString<FinancialGoal>(decrypted)
-                        if (goal.id.isNotEmpty()) {
-                            goalDao.upsert(
-                                GoalEntity(
-                                    id = goal.id,
-                                    jsonData = decrypted,
-                                    category = goal.category.name,
-                                    updatedAt = goal.updatedAt
-                                )
-                            )
-                            count++
-                        }
-                    } catch (e: Exception) {
-                        Log.w(TAG, "Failed to parse goal event: ${e.message}")
-                    }
-                }
-                Log.d(TAG, "Synced $count goal(s) from relay")
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "Sync failed: ${e.message}")
+    override val syncName: String = "goal"
+
+    override fun ownsDTag(dTag: String): Boolean = dTag.startsWith(NOSTR_D_TAG_PREFIX)
+
+    override suspend fun sourceVersions(): Map<String, SourceVersion> =
+        goalDao.getSourceVersions().associateBy { "$NOSTR_D_TAG_PREFIX${it.id}" }
+
+    override fun decodeSyncedRecord(dTag: String, plaintext: String): FinancialGoal? =
+        json.decodeFromString<FinancialGoal>(plaintext).takeIf { it.id.isNotEmpty() }
+
+    override suspend fun applySyncedRecords(records: List<SyncedRecord<FinancialGoal>>): Int {
+        val deletedIds = records.filterIsInstance<SyncedRecord.Tombstone>()
+            .map { it.dTag.removePrefix(NOSTR_D_TAG_PREFIX) }
+        val incoming = records.filterIsInstance<SyncedRecord.Upsert<FinancialGoal>>()
+        val upserts = incoming.map { record ->
+            val goal = record.value
+            GoalEntity(
+                id = goal.id,
+                data = LocalCodec.encode(FinancialGoal.serializer(), goal),
+                category = goal.category.name,
+                updatedAt = goal.updatedAt,
+                sourceEventId = record.eventId,
+                sourceCreatedAt = record.createdAt
+            )
         }
+        goalDao.applySyncBatch(upserts, deletedIds)
+        searchRepository.remove(SearchResultType.GOAL, deletedIds)
+        searchRepository.index(incoming.map { SearchEntryEntity.forGoal(it.value) })
+        Log.d(TAG, "Applied ${upserts.size} goal(s), deleted ${deletedIds.size} tombstoned")
+        return records.size
     }
 }
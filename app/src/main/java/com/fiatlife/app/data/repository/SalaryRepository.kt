@@ -1,13 +1,18 @@
 package com.fiatlife.app.data.repository
 
 import android.util.Log
+import com.fiatlife.app.data.local.LocalCodec
 import com.fiatlife.app.data.local.dao.SalaryDao
 import com.fiatlife.app.data.local.entity.SalaryEntity
-import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.local.entity.SourceVersion
+import com.fiatlife.app.data.sync.AppDataSyncHandler
+import com.fiatlife.app.data.sync.NostrOutbox
+import com.fiatlife.app.data.sync.SyncedRecord
 import com.fiatlife.app.domain.model.SalaryConfig
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.flow.map
-import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.json.Json
 import java.util.UUID
 import javax.inject.Inject
@@ -18,17 +23,17 @@ private const val TAG = "SalaryRepo"
 @Singleton
 class SalaryRepository @Inject constructor(
     private val salaryDao: SalaryDao,
-    private val nostrClient: NostrClient,
+    private val outbox: NostrOutbox,
     private val json: Json
-) {
+) : AppDataSyncHandler<SalaryConfig> {
     companion object {
         private const val NOSTR_D_TAG = "fiatlife/salary"
     }
 
     fun getSalaryConfig(): Flow<SalaryConfig?> {
         return salaryDao.getLatestConfig().map { entity ->
-            entity?.let { json.decodeFromString<SalaryConfig>(it.jsonData) }
-        }
+            entity?.let { LocalCodec.decode(SalaryConfig.serializer(), it.data) }
+        }.flowOn(Dispatchers.Default)
     }
 
     suspend fun saveSalaryConfig(config: SalaryConfig) {
@@ -38,48 +43,48 @@ class SalaryRepository @Inject constructor(
             config.copy(updatedAt = System.currentTimeMillis())
         }
 
-        val jsonStr = json.encodeToString(SalaryConfig.serializer(), configWithId)
-
         salaryDao.upsert(
             SalaryEntity(
                 id = configWithId.id,
-                jsonData = jsonStr,
-                updatedAt = configWithId.updatedAt
+                data = LocalCodec.encode(SalaryConfig.serializer(), configWithId),
+                updatedAt = configWithId.updatedAt,
+                sourceCreatedAt = configWithId.updatedAt / 1000
             )
         )
 
-        if (nostrClient.hasSigner) {
-            try {
-                val published = nostrClient.publishEncryptedAppData(NOSTR_D_TAG, jsonStr)
-                Log.d(TAG, "Published salary to relay: $published")
-            } catch (e: Exception) {
-                Log.e(TAG, "Failed to publish salary: ${e.message}")
-            }
+        val jsonStr = json.encodeToString(SalaryConfig.serializer(), configWithId)
+        if (outbox.enqueueAppData(NOSTR_D_TAG, jsonStr)) {
+            Log.d(TAG, "Queued salary for relay")
         } else {
             Log.d(TAG, "No signer, salary saved locally only")
         }
     }
 
-    suspend fun syncFromNostr() {
-        if (!nostrClient.hasSigner) return
-        try {
-            withTimeout(30_000) {
-                var count = 0
-                nostrClient.subscribeToAppData(dTag = NOSTR_D_TAG).collect { (_, decrypted) ->
-                    val config = json.decodeFromString<SalaryConfig>(decrypted)
-                    salaryDao.upsert(
-                        SalaryEntity(
-                            id = config.id,
-                            jsonData = decrypted,
-                            updatedAt = config.updatedAt
-                        )
-                    )
-                    count++
-                }
-                Log.d(TAG, "Synced $count salary config(s) from relay")
+    override val syncName: String = "salary"
+
+    override fun ownsDTag(dTag: String): Boolean = dTag == NOSTR_D_TAG
+
+    override suspend fun sourceVersions(): Map<String, SourceVersion> =
+        salaryDao.getLatestSourceVersion()?.let { mapOf(NOSTR_D_TAG to it) }.orEmpty()
+
+    override fun decodeSyncedRecord(dTag: String, plaintext: String): SalaryConfig? =
+        json.decodeFromString<SalaryConfig>(plaintext)
+
+    /** The salary config is never deleted, so tombstones are ignored. */
+    override suspend fun applySyncedRecords(records: List<SyncedRecord<SalaryConfig>>): Int {
+        val upserts = records.filterIsInstance<SyncedRecord.Upsert<SalaryConfig>>()
+        if (upserts.isEmpty()) return 0
+        salaryDao.upsertAll(
+            upserts.map { record ->
+                SalaryEntity(
+                    id = record.value.id,
+                    data = LocalCodec.encode(SalaryConfig.serializer(), record.value),
+                    updatedAt = record.value.updatedAt,
+                    sourceEventId = record.eventId,
+                    sourceCreatedAt = record.createdAt
+                )
             }
-        } catch (e: Exception) {
-            Log.e(TAG, "Sync failed: ${e.message}")
-        }
+        )
+        return upserts.size
     }
 }
@@ -0,0 +1,119 @@
+package com.fiatlife.app.data.repository
+
+import com.fiatlife.app.data.local.dao.SearchDao
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SearchMatch
+import com.fiatlife.app.domain.model.SearchHit
+import com.fiatlife.app.domain.model.SearchResultType
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import javax.inject.Inject
+import javax.inject.Singleton
+import kotlin.math.ln
+
+/**
+ * Full-text search over bills, credit accounts, goals and CypherLog subscriptions, answered
+ * from the `search_index` FTS4 table. The record repositories keep the index current through
+ * [index] and [remove]; [search] never touches the records themselves.
+ */
+@Singleton
+class SearchRepository @Inject constructor(
+    private val searchDao: SearchDao
+) {
+    companion object {
+        const val DEFAULT_LIMIT = 20
+
+        /** Weights of the FTS columns in matchinfo order: type, recordId, title, subtitle, body. */
+        private val COLUMN_WEIGHTS = doubleArrayOf(0.0, 0.0, 4.0, 2.0, 1.0)
+        private const val K1 = 1.2
+
+        private const val MARK_START = '\u0002'
+        private const val MARK_END = '\u0003'
+        private val TERM_SEPARATORS = Regex("[^\\p{L}\\p{N}]+")
+
+        /**
+         * FTS4 query requiring every word of [query] as a prefix, or null if it has none.
+         * Splitting on anything but letters and digits drops quotes, `*`, `-` and column
+         * filters, and lowercasing turns `OR`, `AND`, `NOT` and `NEAR` into plain words.
+         */
+        internal fun matchQuery(query: String): String? {
+            val terms = query.lowercase().split(TERM_SEPARATORS).filter { it.isNotEmpty() }
+            if (terms.isEmpty()) return null
+            return terms.joinToString(" ") { "$it*" }
+        }
+
+        /**
+         * BM25-style score from `matchinfo(…, 'pcnx')`: phrase and column counts, the row count,
+         * then per phrase and column the hits in this row, in all rows, and the rows with a hit.
+         * Rows are short, so there is no length normalization.
+         */
+        internal fun score(matchInfo: ByteArray): Double {
+            val ints = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer()
+            if (ints.limit() < 3) return 0.0
+            val phrases = ints[0]
+            val columns = ints[1]
+            val rows = ints[2]
+            if (ints.limit() < 3 + 3 * phrases * columns) return 0.0
+            var score = 0.0
+            for (p in 0 until phrases) {
+                for (c in 0 until columns) {
+                    val base = 3 + 3 * (p * columns + c)
+                    val hits = ints[base]
+                    if (hits == 0) continue
+                    val rowsWithHit = ints[base + 2]
+                    val idf = ln(1.0 + (rows - rowsWithHit + 0.5) / (rowsWithHit + 0.5))
+                    score += COLUMN_WEIGHTS.getOrElse(c) { 1.0 } * idf * hits * (K1 + 1) / (hits + K1)
+                }
+            }
+            return score
+        }
+    }
+
+    /** Add or replace the index rows of [entries]' records. */
+    suspend fun index(entries: List<SearchEntryEntity>) {
+        if (entries.isNotEmpty()) searchDao.replace(entries)
+    }
+
+    suspend fun remove(type: SearchResultType, ids: List<String>) {
+        if (ids.isNotEmpty()) searchDao.delete(type.name, ids)
+    }
+
+    /**
+     * Records whose name, account name, institution, notes or statement labels contain every
+     * word of [query] as a prefix, best first. Title matches outrank subtitle matches, which
+     * outrank notes and labels; rarer words count for more. Every match is scored, so the
+     * best [limit] are exact however many records match.
+     */
+    suspend fun search(query: String, limit: Int = DEFAULT_LIMIT): List<SearchHit> {
+        val match = matchQuery(query) ?: return emptyList()
+        return searchDao.match(match)
+            .mapNotNull(::toHit)
+            .sortedByDescending { it.score }
+            .take(limit)
+    }
+
+    private fun toHit(match: SearchMatch): SearchHit? {
+        val type = runCatching { SearchResultType.valueOf(match.type) }.getOrNull() ?: return null
+        val highlights = mutableListOf<IntRange>()
+        val snippet = StringBuilder(match.snippet.length)
+        var start = -1
+        for (ch in match.snippet) {
+            when (ch) {
+                MARK_START -> start = snippet.length
+                MARK_END -> if (start >= 0) {
+                    highlights += start until snippet.length
+                    start = -1
+                }
+                else -> snippet.append(ch)
+            }
+        }
+        return SearchHit(
+            type = type,
+            id = match.recordId,
+            title = match.title,
+            snippet = snippet.toString(),
+            highlights = highlights,
+            score = score(match.matchInfo)
+        )
+    }
+}
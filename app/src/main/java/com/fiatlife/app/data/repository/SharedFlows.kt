@@ -0,0 +1,46 @@
+package com.fiatlife.app.data.repository
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.SharingStarted
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.retryWhen
+import kotlinx.coroutines.flow.stateIn
+
+private const val TAG = "SharedFlows"
+
+/**
+ * How long a shared repository flow keeps its Room query alive after the last collector
+ * leaves, so switching between screens (or rotating) reuses the decoded list.
+ */
+private const val STOP_TIMEOUT_MS = 5_000L
+
+/** First and longest wait before a failed shared flow re-runs its query. */
+private const val RETRY_BASE_MS = 1_000L
+private const val RETRY_MAX_MS = 60_000L
+
+/** Process-wide scope for a repository's shared flows. */
+internal fun sharedFlowScope(): CoroutineScope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+
+/**
+ * Run this decoding flow on [Dispatchers.Default] and share it as one hot [StateFlow] for
+ * every collector. The value is null until the first query returns.
+ *
+ * A failure upstream (a bad row is already skipped by [DecodedRowCache]; this covers the
+ * query itself) is logged and the flow restarted with backoff, keeping the last value,
+ * instead of ending the shared flow for the rest of the process.
+ */
+internal fun <T : Any> Flow<T>.shareDecoded(scope: CoroutineScope): StateFlow<T?> =
+    retryWhen { cause, attempt ->
+        val wait = (RETRY_BASE_MS shl attempt.coerceAtMost(6L).toInt()).coerceAtMost(RETRY_MAX_MS)
+        Log.w(TAG, "shared flow failed, retrying in ${wait}ms", cause)
+        delay(wait)
+        true
+    }
+        .flowOn(Dispatchers.Default)
+        .stateIn(scope, SharingStarted.WhileSubscribed(STOP_TIMEOUT_MS), null)
@@ -0,0 +1,113 @@
+package com.fiatlife.app.data.security
+
+import android.security.keystore.KeyGenParameterSpec
+import android.security.keystore.KeyProperties
+import android.util.Log
+import com.fiatlife.app.data.local.dao.DecryptCacheDao
+import com.fiatlife.app.data.local.entity.DecryptCacheEntity
+import java.security.KeyStore
+import javax.crypto.Cipher
+import javax.crypto.KeyGenerator
+import javax.crypto.SecretKey
+import javax.crypto.spec.GCMParameterSpec
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "DecryptCache"
+private const val KEYSTORE = "AndroidKeyStore"
+private const val KEY_ALIAS = "fiatlife_decrypt_cache"
+private const val TRANSFORMATION = "AES/GCM/NoPadding"
+private const val IV_SIZE = 12
+private const val TAG_BITS = 128
+private const val RETENTION_MS = 30L * 24 * 60 * 60 * 1000
+
+/** SQLite caps bound parameters at 999; stay well below it. */
+private const val QUERY_CHUNK = 500
+
+/**
+ * Plaintexts of events decrypted by a remote signer, keyed by (pubkey, event id), so an event
+ * that has not changed since the last sync never costs another IPC call or approval. An event
+ * id commits to the ciphertext, so a hit is never stale.
+ *
+ * Plaintexts are sealed with AES-GCM under a non-exportable Android Keystore key before they
+ * reach the database, with the pubkey and event id as associated data. If the Keystore is
+ * unavailable the cache is disabled rather than storing anything in the clear. Entries unused
+ * for [RETENTION_MS] are pruned, and [clear] wipes everything on logout.
+ */
+@Singleton
+class DecryptCache @Inject constructor(private val dao: DecryptCacheDao) {
+
+    private val key: SecretKey? by lazy {
+        try {
+            loadOrCreateKey()
+        } catch (e: Exception) {
+            Log.w(TAG, "Keystore unavailable, decrypt cache disabled: ${e.message}")
+            null
+        }
+    }
+
+    /** Cached plaintexts for whichever of [eventIds] are present; hits are marked as used. */
+    suspend fun getAll(pubkey: String, eventIds: Collection<String>): Map<String, String> {
+        val key = key ?: return emptyMap()
+        val hits = mutableMapOf<String, String>()
+        val now = System.currentTimeMillis()
+        for (chunk in eventIds.distinct().chunked(QUERY_CHUNK)) {
+            for (row in dao.get(pubkey, chunk)) {
+                open(key, row)?.let { hits[row.eventId] = it }
+            }
+        }
+        for (chunk in hits.keys.chunked(QUERY_CHUNK)) dao.touch(pubkey, chunk, now)
+        return hits
+    }
+
+    suspend fun putAll(pubkey: String, plaintexts: Map<String, String>) {
+        val key = key ?: return
+        val now = System.currentTimeMillis()
+        val rows = plaintexts.mapNotNull { (eventId, plaintext) ->
+            seal(key, pubkey, eventId, plaintext)?.let { DecryptCacheEntity(pubkey, eventId, it, now) }
+        }
+        if (rows.isNotEmpty()) dao.upsertAll(rows)
+        dao.deleteUnusedSince(now - RETENTION_MS)
+    }
+
+    suspend fun clear() {
+        dao.deleteAll()
+    }
+
+    private fun seal(key: SecretKey, pubkey: String, eventId: String, plaintext: String): ByteArray? = try {
+        val cipher = Cipher.getInstance(TRANSFORMATION)
+        cipher.init(Cipher.ENCRYPT_MODE, key)
+        cipher.updateAAD(associatedData(pubkey, eventId))
+        cipher.iv + cipher.doFinal(plaintext.toByteArray(Charsets.UTF_8))
+    } catch (e: Exception) {
+        Log.w(TAG, "Failed to seal ${eventId.take(8)}…: ${e.message}")
+        null
+    }
+
+    /** Null if the row was sealed under a different key (e.g. after a restore) or was altered. */
+    private fun open(key: SecretKey, row: DecryptCacheEntity): String? = try {
+        val cipher = Cipher.getInstance(TRANSFORMATION)
+        cipher.init(Cipher.DECRYPT_MODE, key, GCMParameterSpec(TAG_BITS, row.sealed, 0, IV_SIZE))
+        cipher.updateAAD(associatedData(row.pubkey, row.eventId))
+        String(cipher.doFinal(row.sealed, IV_SIZE, row.sealed.size - IV_SIZE), Charsets.UTF_8)
+    } catch (_: Exception) {
+        null
+    }
+
+    private fun associatedData(pubkey: String, eventId: String): ByteArray =
+        "$pubkey/$eventId".toByteArray(Charsets.UTF_8)
+
+    private fun loadOrCreateKey(): SecretKey {
+        val keyStore = KeyStore.getInstance(KEYSTORE).apply { load(null) }
+        (keyStore.getKey(KEY_ALIAS, null) as? SecretKey)?.let { return it }
+        val generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE)
+        generator.init(
+            KeyGenParameterSpec.Builder(KEY_ALIAS, KeyProperties.PURPOSE_ENCRYPT or KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build()
+        )
+        return generator.generateKey()
+    }
+}
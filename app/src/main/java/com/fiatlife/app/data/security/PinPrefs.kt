@@ -4,6 +4,7 @@ import android.content.Context
 import android.content.SharedPreferences
 import androidx.security.crypto.EncryptedSharedPreferences
 import androidx.security.crypto.MasterKey
+import com.fiatlife.app.data.nostr.Hex
 import java.security.MessageDigest
 import java.security.SecureRandom
 import javax.inject.Inject
@@ -70,8 +71,8 @@ class PinPrefs @Inject constructor(context: Context) {
         if (cleaned.length !in PIN_LENGTH_MIN..PIN_LENGTH_MAX) return false
         val salt = ByteArray(16).also { SecureRandom().nextBytes(it) }
         val hash = pinHash(cleaned, salt)
-        val saltHex = salt.joinToString("") { "%02x".format(it) }
-        val hashHex = hash.joinToString("") { "%02x".format(it) }
+        val saltHex = Hex.encode(salt)
+        val hashHex = Hex.encode(hash)
         return try {
             prefs?.edit()?.apply {
                 putString(KEY_PIN_SALT, saltHex)
@@ -86,8 +87,8 @@ class PinPrefs @Inject constructor(context: Context) {
     fun verifyPin(pin: String): Boolean {
         val saltHex = withPrefs(null) { it.getString(KEY_PIN_SALT, null) } ?: return false
         val storedHashHex = withPrefs(null) { it.getString(KEY_PIN_HASH, null) } ?: return false
-        val salt = hexToBytes(saltHex) ?: return false
-        val storedHash = hexToBytes(storedHashHex) ?: return false
+        val salt = Hex.decodeOrNull(saltHex) ?: return false
+        val storedHash = Hex.decodeOrNull(storedHashHex) ?: return false
         val computed = pinHash(pin.filter { it.isDigit() }, salt)
         return computed.size == storedHash.size && computed.indices.all { computed[it] == storedHash[it] }
     }
@@ -98,11 +99,4 @@ class PinPrefs @Inject constructor(context: Context) {
         md.update(pin.toByteArray(Charsets.UTF_8))
         return md.digest()
     }
-
-    private fun hexToBytes(hex: String): ByteArray? {
-        if (hex.length % 2 != 0) return null
-        return ByteArray(hex.length / 2) { i ->
-            hex.substring(i * 2, i * 2 + 2).toInt(16).toByte()
-        }
-    }
 }
@@ -0,0 +1,78 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.local.entity.SourceVersion
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.booleanOrNull
+
+/**
+ * A repository that owns one `d`-tag namespace of kind 30078 app data.
+ * [RelaySyncCoordinator] fetches all app data in a single REQ, decrypts and decodes each
+ * event off the main sync loop, and hands the typed records to the handler whose
+ * namespace matches their `d` tag in batches.
+ */
+interface AppDataSyncHandler<T : Any> {
+    /** Short name used in sync logs (e.g. "bill"). */
+    val syncName: String
+
+    /** True if events with this `d` tag belong to this handler. */
+    fun ownsDTag(dTag: String): Boolean
+
+    /**
+     * The stored version of each local record, keyed by `d` tag. Sync drops events these
+     * versions already cover before decrypting them.
+     */
+    suspend fun sourceVersions(): Map<String, SourceVersion>
+
+    /**
+     * Decode one decrypted, non-tombstone record. Pure CPU work: called concurrently
+     * from [kotlinx.coroutines.Dispatchers.Default]. Returns null to skip the record.
+     */
+    fun decodeSyncedRecord(dTag: String, plaintext: String): T?
+
+    /**
+     * Apply one batch of decoded records (upsert, or delete for a tombstone). Sync keeps only
+     * the newest event per `d` tag, so each tag appears at most once per call; implementations
+     * write the batch in one Room transaction. Returns how many records changed local state.
+     */
+    suspend fun applySyncedRecords(records: List<SyncedRecord<T>>): Int
+}
+
+/** One decrypted kind 30078 record, decoded by its [AppDataSyncHandler]. */
+sealed class SyncedRecord<out T : Any> {
+    abstract val dTag: String
+
+    /** [eventId] and [createdAt] identify the event [value] came from. */
+    data class Upsert<T : Any>(
+        override val dTag: String,
+        val value: T,
+        val eventId: String,
+        val createdAt: Long
+    ) : SyncedRecord<T>()
+
+    /**
+     * Deletion of [dTag] by the tombstone event [eventId] from [createdAt]. Sync keeps that
+     * version once the handler has deleted the record, so older copies stay deleted.
+     */
+    data class Tombstone(
+        override val dTag: String,
+        val eventId: String,
+        val createdAt: Long
+    ) : SyncedRecord<Nothing>()
+
+    companion object {
+        /** Payload published in place of a deleted record. */
+        const val TOMBSTONE_JSON = """{"deleted":true}"""
+
+        /**
+         * True for a `{"deleted":true}` payload. Records without a `"deleted"` key are
+         * rejected by a substring scan, so only candidates are parsed.
+         */
+        fun isTombstone(plaintext: String): Boolean {
+            if (!plaintext.contains("\"deleted\"")) return false
+            val obj = runCatching { Json.parseToJsonElement(plaintext) }.getOrNull() as? JsonObject ?: return false
+            return (obj["deleted"] as? JsonPrimitive)?.booleanOrNull == true
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.fiatlife.app.data.sync
+
+import android.util.Log
+import com.fiatlife.app.data.local.dao.ChunkSetDao
+import com.fiatlife.app.data.local.dao.OutboxDao
+import com.fiatlife.app.data.local.entity.OutboxEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
+import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.nostr.NostrMessage
+import com.fiatlife.app.data.nostr.NostrSigner
+import com.fiatlife.app.data.nostr.RelayConnectionState
+import com.fiatlife.app.data.nostr.SignedEvent
+import com.fiatlife.app.data.nostr.UnsignedEvent
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
+import java.util.UUID
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "NostrOutbox"
+
+/**
+ * Durable publish queue. Repositories enqueue right after their Room write and return;
+ * a background drainer encrypts and signs the due rows concurrently, publishes them as one
+ * [NostrClient.publishBatch], and deletes each row only once the relays answer `OK` for
+ * that exact event. Bulk edits therefore share one readiness check and one round of sends.
+ * Unacknowledged rows are retried with exponential backoff and survive process death. A
+ * signed event is resent unchanged on short retries but signed again once it is older than
+ * half the sync overlap, so a late delivery still lands inside other devices' `since` window.
+ *
+ * Rows are keyed by (author, kind, `d` tag), so saving the same record again while an
+ * older version is pending replaces it: only the latest version is ever published.
+ *
+ * A chunked record's chunks and manifest share one revision. The manifest is signed alongside
+ * its chunks but held until every chunk of its revision has its `OK`, and is dropped with any
+ * chunk the relays block, so relays never hold a manifest whose chunks did not land.
+ */
+@Singleton
+class NostrOutbox @Inject constructor(
+    private val nostrClient: NostrClient,
+    private val outboxDao: OutboxDao,
+    private val chunkSetDao: ChunkSetDao
+) {
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val wake = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        scope.launch { drainLoop() }
+        scope.launch {
+            nostrClient.state.collect { state ->
+                if (state == RelayConnectionState.READY) wake.trySend(Unit)
+            }
+        }
+    }
+
+    /**
+     * Queue kind 30078 app data. [plaintextJson] is wrapped in a [SyncEnvelope] (compressed,
+     * and split into chunk events if still too large) and NIP-44 encrypted to self when published.
+     * Chunks the previous version of [dTag] used and this one does not (all of them for a
+     * tombstone) are tombstoned and queued for NIP-09 deletion.
+     * Returns false if there is no signer (the record stays local only).
+     */
+    suspend fun enqueueAppData(dTag: String, plaintextJson: String): Boolean {
+        val pubkey = nostrClient.currentSigner?.pubkeyHex ?: return false
+        val parts = try {
+            SyncEnvelope.seal(dTag, plaintextJson)
+        } catch (e: IllegalArgumentException) {
+            Log.e(TAG, "Not publishing d=$dTag: ${e.message}")
+            return false
+        }
+        // Chunks are queued before the record that references them, under the record's revision.
+        val revision = UUID.randomUUID().toString()
+        val queued = parts.all { part ->
+            enqueue(NostrEvent.KIND_APP_SPECIFIC_DATA, part.dTag, part.content, listOf(listOf("d", part.dTag)), revision)
+        }
+        if (!queued) return false
+
+        val chunks = parts.size - 1
+        val previous = chunkSetDao.getCount(pubkey, dTag) ?: 0
+        for (i in chunks until previous) {
+            val chunkDTag = SyncEnvelope.chunkDTag(dTag, i)
+            enqueue(NostrEvent.KIND_APP_SPECIFIC_DATA, chunkDTag, SyncedRecord.TOMBSTONE_JSON, listOf(listOf("d", chunkDTag)))
+            enqueueDeletion(NostrEvent.KIND_APP_SPECIFIC_DATA, chunkDTag)
+        }
+        if (previous > chunks) Log.d(TAG, "Queued tombstones for ${previous - chunks} unused chunk(s) of d=$dTag")
+        chunkSetDao.setCount(pubkey, dTag, chunks)
+        return true
+    }
+
+    /**
+     * Note the chunk counts of records applied from sync, keyed by `d` tag, so a later local
+     * save or delete also cleans up chunks another device published.
+     */
+    suspend fun recordSyncedChunks(counts: Map<String, Int>) {
+        val pubkey = nostrClient.currentSigner?.pubkeyHex ?: return
+        if (counts.isNotEmpty()) chunkSetDao.raiseCounts(pubkey, counts)
+    }
+
+    /** Queue a NIP-09 deletion (kind 5) of the replaceable event `targetKind:pubkey:dTag`. */
+    suspend fun enqueueDeletion(targetKind: Int, dTag: String): Boolean {
+        val pubkey = nostrClient.currentSigner?.pubkeyHex ?: return false
+        return enqueue(
+            NostrEvent.KIND_DELETION,
+            "$targetKind:$dTag",
+            "",
+            listOf(listOf("a", "$targetKind:$pubkey:$dTag"))
+        )
+    }
+
+    /** Queue a tags-only CypherLog subscription (kind 37004); a `d` tag is added if missing. */
+    suspend fun enqueueReplaceable37004(dTag: String, tags: List<List<String>>): Boolean {
+        val tagsWithD = if (tags.any { it.isNotEmpty() && it[0] == "d" }) tags else listOf(listOf("d", dTag)) + tags
+        return enqueue(NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION, dTag, "", tagsWithD)
+    }
+
+    /**
+     * Local tombstone versions, by kind and `d` tag, of records deleted here whose tombstone
+     * or NIP-09 deletion is still queued. Sync treats them like stored versions, so refetching
+     * the deleted event before the relays acknowledge the deletion cannot bring it back.
+     * A version lasts until every row for its record is acknowledged or dropped.
+     */
+    suspend fun pendingDeletions(): Map<Int, Map<String, SourceVersion>> {
+        val pubkey = nostrClient.currentSigner?.pubkeyHex ?: return emptyMap()
+        val versions = HashMap<Int, HashMap<String, SourceVersion>>()
+        for (row in outboxDao.getDeletions(pubkey, NostrEvent.KIND_DELETION, SyncedRecord.TOMBSTONE_JSON)) {
+            val kind = if (row.kind == NostrEvent.KIND_DELETION) {
+                row.dTag.substringBefore(':').toIntOrNull() ?: continue
+            } else {
+                row.kind
+            }
+            val dTag = if (row.kind == NostrEvent.KIND_DELETION) row.dTag.substringAfter(':') else row.dTag
+            versions.getOrPut(kind) { HashMap() }.merge(dTag, SourceVersion.deletedAt(dTag, row.enqueuedAt)) { a, b ->
+                if (b.sourceCreatedAt > a.sourceCreatedAt) b else a
+            }
+        }
+        return versions
+    }
+
+    private suspend fun enqueue(
+        kind: Int,
+        dTag: String,
+        content: String,
+        tags: List<List<String>>,
+        revision: String = UUID.randomUUID().toString()
+    ): Boolean {
+        val pubkey = nostrClient.currentSigner?.pubkeyHex ?: return false
+        val tagsJson = buildJsonArray {
+            tags.forEach { tag -> add(buildJsonArray { tag.forEach { add(it) } }) }
+        }.toString()
+        outboxDao.upsert(
+            OutboxEntity(
+                pubkey = pubkey,
+                kind = kind,
+                dTag = dTag,
+                content = content,
+                tagsJson = tagsJson,
+                revision = revision
+            )
+        )
+        wake.trySend(Unit)
+        return true
+    }
+
+    private suspend fun drainLoop() {
+        while (true) {
+            val waitMs = try {
+                drainOnce()
+            } catch (e: Exception) {
+                Log.e(TAG, "Outbox drain failed: ${e.message}")
+                RECONNECT_WAIT_MS
+            }
+            // Sleep until the next retry is due, or until an enqueue or reconnect wakes us.
+            withTimeoutOrNull(waitMs) { wake.receive() }
+        }
+    }
+
+    /** Publish every row that is due; returns how long to wait before the next pass. */
+    private suspend fun drainOnce(): Long {
+        val signer = nostrClient.currentSigner ?: return IDLE_WAIT_MS
+        val now = System.currentTimeMillis()
+        val due = outboxDao.getDue(signer.pubkeyHex, now, BATCH_SIZE)
+        if (due.isEmpty()) {
+            val next = outboxDao.nextAttemptAt(signer.pubkeyHex) ?: return IDLE_WAIT_MS
+            return (next - now).coerceIn(0, IDLE_WAIT_MS)
+        }
+        if (!nostrClient.ensureConnected()) return RECONNECT_WAIT_MS
+
+        // Manifests are signed in the same pass as their chunks, so they carry the same
+        // created_at, but only published in a second round once those chunks are acknowledged.
+        val (manifests, rows) = due.partition { it.isManifest() }
+        val signedManifests = prepareAll(signer, manifests)
+        publish(prepareAll(signer, rows))
+        publish(signedManifests.filter { (row, _) -> chunksLanded(row, now) })
+        return 0
+    }
+
+    /** Each row that could be encrypted and signed, with its event. */
+    private suspend fun prepareAll(signer: NostrSigner, rows: List<OutboxEntity>): List<Pair<OutboxEntity, SignedEvent>> {
+        if (rows.isEmpty()) return emptyList()
+        val prepared = coroutineScope {
+            rows.map { row -> async(Dispatchers.Default) { row to prepare(signer, row) } }.awaitAll()
+        }
+        return prepared.mapNotNull { (row, event) -> event?.let { row to it } }
+    }
+
+    private suspend fun publish(ready: List<Pair<OutboxEntity, SignedEvent>>) {
+        if (ready.isEmpty()) return
+        val result = nostrClient.publishBatch(ready.map { it.second })
+        for ((row, event) in ready) handleOk(row, result.oks[event.id])
+    }
+
+    private fun OutboxEntity.isManifest(): Boolean =
+        kind == NostrEvent.KIND_APP_SPECIFIC_DATA && SyncEnvelope.isManifest(content)
+
+    /**
+     * True if [manifest] may be published: it is still queued (not dropped with a blocked
+     * chunk) and no chunk of its revision awaits an `OK`. Otherwise it is put off until
+     * those chunks are next retried, without counting as a failed attempt.
+     */
+    internal suspend fun chunksLanded(manifest: OutboxEntity, now: Long): Boolean {
+        val (pubkey, kind, dTag) = Triple(manifest.pubkey, manifest.kind, manifest.dTag)
+        if (outboxDao.countRevision(pubkey, kind, dTag, manifest.revision) == 0) return false
+        val retryAt = outboxDao.pendingChunksRetryAt(pubkey, kind, SyncEnvelope.chunkPrefix(dTag), manifest.revision)
+            ?: return true
+        outboxDao.scheduleRetry(
+            pubkey, kind, dTag, manifest.revision,
+            attempts = manifest.attempts,
+            nextAttemptAt = maxOf(retryAt, now),
+            lastError = "waiting for chunks"
+        )
+        return false
+    }
+
+    /**
+     * Reuse the row's signed event unless it is stale (see [isStale]), or encrypt and sign
+     * it now. Null means retry later.
+     */
+    private suspend fun prepare(signer: NostrSigner, row: OutboxEntity): SignedEvent? {
+        val signedJson = row.signedEventJson
+        val eventId = row.eventId
+        if (signedJson != null && eventId != null && !isStale(signedJson, System.currentTimeMillis() / 1000)) {
+            return SignedEvent(eventId, signedJson)
+        }
+
+        val signed = sign(signer, row)
+        if (signed == null) {
+            retryLater(row, "encryption or signing failed")
+            return null
+        }
+        outboxDao.setSigned(row.pubkey, row.kind, row.dTag, row.revision, signed.json, signed.id)
+        return signed
+    }
+
+    private suspend fun handleOk(row: OutboxEntity, ok: NostrMessage.Ok?) {
+        when {
+            ok == null -> retryLater(row, "no OK from relay")
+            ok.success || ok.message.startsWith("duplicate:") -> {
+                outboxDao.deleteRevision(row.pubkey, row.kind, row.dTag, row.revision)
+                Log.d(TAG, "Published kind ${row.kind} d=${row.dTag}")
+            }
+            ok.message.startsWith("blocked:") -> {
+                Log.e(TAG, "Relay blocked kind ${row.kind} d=${row.dTag}, dropping: ${ok.message}")
+                outboxDao.deleteRevision(row.pubkey, row.kind, row.dTag, row.revision)
+                if (SyncEnvelope.isChunk(row.dTag)) {
+                    // The manifest queued with this chunk could never be opened.
+                    outboxDao.deleteRevision(row.pubkey, row.kind, SyncEnvelope.parentOf(row.dTag), row.revision)
+                }
+            }
+            else -> {
+                // Re-sign on the next attempt so a fresh created_at is used, together with
+                // the manifest of a chunk so it is not older than the chunk.
+                outboxDao.setSigned(row.pubkey, row.kind, row.dTag, row.revision, null, null)
+                if (SyncEnvelope.isChunk(row.dTag)) {
+                    outboxDao.setSigned(row.pubkey, row.kind, SyncEnvelope.parentOf(row.dTag), row.revision, null, null)
+                }
+                retryLater(row, ok.message)
+            }
+        }
+    }
+
+    private suspend fun sign(signer: NostrSigner, row: OutboxEntity): SignedEvent? {
+        return try {
+            val content = if (row.kind == NostrEvent.KIND_APP_SPECIFIC_DATA) {
+                signer.nip44Encrypt(row.content, signer.pubkeyHex) ?: return null
+            } else {
+                row.content
+            }
+            val tags = Json.parseToJsonElement(row.tagsJson).jsonArray.map { tag ->
+                tag.jsonArray.map { it.jsonPrimitive.content }
+            }
+            signer.sign(
+                UnsignedEvent(
+                    pubkey = signer.pubkeyHex,
+                    kind = row.kind,
+                    content = content,
+                    tags = tags
+                )
+            )
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to prepare kind ${row.kind} d=${row.dTag}: ${e.message}")
+            null
+        }
+    }
+
+    private suspend fun retryLater(row: OutboxEntity, reason: String) {
+        val attempts = row.attempts + 1
+        val backoff = backoffMs(attempts)
+        Log.w(TAG, "Retrying kind ${row.kind} d=${row.dTag} in ${backoff / 1000}s ($reason)")
+        outboxDao.scheduleRetry(
+            row.pubkey, row.kind, row.dTag, row.revision,
+            attempts = attempts,
+            nextAttemptAt = System.currentTimeMillis() + backoff,
+            lastError = reason
+        )
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 50
+        private const val BASE_BACKOFF_MS = 5_000L
+        private const val MAX_BACKOFF_MS = 15 * 60_000L
+        private const val RECONNECT_WAIT_MS = 30_000L
+        private const val IDLE_WAIT_MS = 60_000L
+
+        /**
+         * Age after which a signed event is signed again rather than retried as is. Other
+         * devices only fetch events newer than their mark minus
+         * [RelaySyncCoordinator.SINCE_OVERLAP_SECONDS], so an edit delivered late must not
+         * keep the created_at of its first signing.
+         */
+        private const val RESIGN_AFTER_SECONDS = RelaySyncCoordinator.SINCE_OVERLAP_SECONDS / 2
+
+        /** Delay before retry number [attempts]: doubling from [BASE_BACKOFF_MS], capped at [MAX_BACKOFF_MS]. */
+        internal fun backoffMs(attempts: Int): Long =
+            (BASE_BACKOFF_MS shl (attempts - 1).coerceIn(0, 10)).coerceAtMost(MAX_BACKOFF_MS)
+
+        /**
+         * True if [signedEventJson] was signed more than [RESIGN_AFTER_SECONDS] before
+         * [nowSeconds]. JSON without a readable `created_at` counts as stale.
+         */
+        internal fun isStale(signedEventJson: String, nowSeconds: Long): Boolean {
+            val createdAt = try {
+                Json.parseToJsonElement(signedEventJson).jsonObject["created_at"]?.jsonPrimitive?.longOrNull
+            } catch (e: Exception) {
+                null
+            } ?: return true
+            return nowSeconds - createdAt > RESIGN_AFTER_SECONDS
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package com.fiatlife.app.data.sync
+
+import android.util.Log
+import com.fiatlife.app.data.local.dao.DeletedRecordDao
+import com.fiatlife.app.data.local.dao.RelaySyncStateDao
+import com.fiatlife.app.data.local.entity.DeletedRecordEntity
+import com.fiatlife.app.data.local.entity.RelaySyncStateEntity
+import com.fiatlife.app.data.local.entity.SourceVersion
+import com.fiatlife.app.data.nostr.DecryptRequest
+import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.nostr.NostrFilter
+import com.fiatlife.app.data.nostr.NostrSigner
+import com.fiatlife.app.data.nostr.PoolFetchItem
+import com.fiatlife.app.data.repository.BillPaymentHistoryRepository
+import com.fiatlife.app.data.repository.BillRepository
+import com.fiatlife.app.data.repository.CreditAccountRepository
+import com.fiatlife.app.data.repository.CypherLogSubscriptionRepository
+import com.fiatlife.app.data.repository.GoalRepository
+import com.fiatlife.app.data.repository.SalaryRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.withTimeout
+import javax.inject.Inject
+import javax.inject.Singleton
+
+private const val TAG = "RelaySync"
+
+/**
+ * Outcome of one sync cycle. [applied] is keyed by handler name ("cypherlog" for kind 37004);
+ * [skipped] counts events dropped before decryption because local state already reflects them
+ * or a newer version of the same `d` tag arrived in the same cycle. [failed] events are retried
+ * next cycle; [unrecoverable] ones (see [DecodedEvent.Unrecoverable]) are not.
+ */
+data class SyncReport(
+    val received: Int = 0,
+    val applied: Map<String, Int> = emptyMap(),
+    val skipped: Int = 0,
+    val unrouted: Int = 0,
+    val failed: Int = 0,
+    val fullResync: Boolean = false,
+    val unrecoverable: Int = 0
+)
+
+/**
+ * Single entry point for pulling app data from the relay.
+ *
+ * One sync cycle sends one REQ per read relay covering kind 30078 (FiatLife app data) and
+ * kind 37004 (CypherLog subscriptions), then routes every event by kind and `d` prefix to
+ * the owning repository. Events are buffered until EOSE and only the newest per `d` tag is kept
+ * (NIP-01 order), so superseded versions cost no decryption or writes whatever order they
+ * arrive in. Events no handler owns are dropped, as are events the stored record already
+ * reflects (see [SourceVersion]), events older than a deletion still in the [NostrOutbox]
+ * or than a tombstone already applied, and copies already delivered by another relay. Decryption and
+ * decoding of the winners run in parallel on a [SyncDecodePipeline]; repositories receive the
+ * typed records in batches. A manifest can be newer than its chunks, so when an incremental
+ * REQ returns it without them, or with chunks that do not match it, the chunks are fetched by
+ * `d` tag, ignoring the marks, and the record is decoded again in the same cycle.
+ * For signers where each decrypt is an IPC or UI round trip ([NostrSigner.prefersBatchDecrypt]),
+ * the winners are decrypted in one [NostrSigner.nip44DecryptBatch] call, so the user approves
+ * at most once per sync.
+ *
+ * Each (relay, kind) keeps a durable high-water mark of the newest `created_at` applied;
+ * later cycles only ask that relay for events since its mark minus [SINCE_OVERLAP_SECONDS],
+ * which absorbs clock skew between devices. [syncAll] with `fullResync = true` ignores the marks
+ * and the stored versions, so every fetched event is decoded and applied again.
+ *
+ * Concurrent callers (resume, connect, settings) share the cycle already in flight
+ * instead of starting another one.
+ */
+@Singleton
+class RelaySyncCoordinator @Inject constructor(
+    private val nostrClient: NostrClient,
+    private val relaySyncStateDao: RelaySyncStateDao,
+    private val deletedRecordDao: DeletedRecordDao,
+    private val outbox: NostrOutbox,
+    salaryRepository: SalaryRepository,
+    billRepository: BillRepository,
+    billPaymentHistoryRepository: BillPaymentHistoryRepository,
+    goalRepository: GoalRepository,
+    creditAccountRepository: CreditAccountRepository,
+    private val cypherLogSubscriptionRepository: CypherLogSubscriptionRepository
+) {
+    private val handlers: List<AppDataSyncHandler<*>> = listOf(
+        salaryRepository,
+        billRepository,
+        billPaymentHistoryRepository,
+        goalRepository,
+        creditAccountRepository
+    )
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private var inFlight: Deferred<SyncReport>? = null
+
+    /**
+     * Run one sync cycle, or join the one already running.
+     * A full resync waits for any incremental cycle in flight and then refetches everything.
+     * Never throws; failures are logged and reflected in the report.
+     */
+    suspend fun syncAll(fullResync: Boolean = false): SyncReport {
+        if (!nostrClient.hasSigner) return SyncReport()
+        if (fullResync) {
+            synchronized(this) { inFlight?.takeIf { it.isActive } }?.await()
+        }
+        val cycle = synchronized(this) {
+            inFlight?.takeIf { it.isActive && !fullResync }
+                ?: scope.async { runCycle(fullResync) }.also { inFlight = it }
+        }
+        return cycle.await()
+    }
+
+    private suspend fun runCycle(fullResync: Boolean): SyncReport {
+        val signer = nostrClient.currentSigner ?: return SyncReport()
+        val pubkey = signer.pubkeyHex
+        val relayUrls = nostrClient.currentRelayUrls
+
+        val marks: Map<String, Map<Int, Long>> = relayUrls.associateWith { relayUrl ->
+            if (fullResync) emptyMap() else {
+                relaySyncStateDao.getForRelay(pubkey, relayUrl).associate { it.kind to it.newestCreatedAt }
+            }
+        }
+        val filtersFor = { relayUrl: String ->
+            SYNCED_KINDS.map { kind ->
+                NostrFilter(
+                    authors = listOf(pubkey),
+                    kinds = listOf(kind),
+                    since = marks[relayUrl]?.get(kind)?.let(::sinceFor)
+                )
+            }
+        }
+
+        // Deleted records have no row left: a queued deletion (deleted here) or the applied
+        // tombstone (deleted by sync) stands in for one.
+        val deletions = outbox.pendingDeletions()
+        val tombstones = deletedRecordDao.getSourceVersions().associateBy { it.id }
+        val stored: Map<Int, Map<String, SourceVersion>> = mapOf(
+            NostrEvent.KIND_APP_SPECIFIC_DATA to newerOf(
+                newerOf(handlers.fold(emptyMap()) { acc, h -> acc + h.sourceVersions() }, tombstones),
+                deletions[NostrEvent.KIND_APP_SPECIFIC_DATA].orEmpty()
+            ),
+            NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION to newerOf(
+                cypherLogSubscriptionRepository.sourceVersions(),
+                deletions[NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION].orEmpty()
+            )
+        )
+
+        var received = 0
+        var skipped = 0
+        var unrouted = 0
+        var failed = 0
+        var unrecoverable = 0
+        val applied = mutableMapOf<String, Int>()
+        // Per relay, so each relay's mark only reflects what that relay actually returned.
+        val newestSeen = mutableMapOf<String, MutableMap<Int, Long>>()
+        val oldestFailed = mutableMapOf<Int, Long>()
+        val completedRelays = mutableSetOf<String>()
+
+        // Relays don't always collapse replaceable events, and copies arrive in any order, so
+        // everything is buffered until EOSE and only the winner per (kind, d tag) is decrypted.
+        val newest = LinkedHashMap<Pair<Int, String>, NostrEvent>()
+        // EOSE is recorded before the buffered events are applied, so marks only move once
+        // every winning event has been through the apply step.
+        var drained = false
+
+        try {
+            withTimeout(SYNC_TIMEOUT_MS) {
+                nostrClient.fetchUntilEose(filtersFor).collect { item ->
+                    if (item is PoolFetchItem.Eose) {
+                        completedRelays += item.relayUrl
+                        return@collect
+                    }
+                    val (relayUrl, event, duplicate) = item as PoolFetchItem.Event
+                    newestSeen.getOrPut(relayUrl) { mutableMapOf() }
+                        .merge(event.kind, event.created_at) { a, b -> maxOf(a, b) }
+                    if (duplicate) return@collect
+                    received++
+                    val dTag = event.dTag ?: ""
+                    if (event.kind == NostrEvent.KIND_APP_SPECIFIC_DATA &&
+                        handlerFor(event) == null && !SyncEnvelope.isChunk(dTag)
+                    ) {
+                        unrouted++
+                        return@collect
+                    }
+                    // A full resync re-applies everything, repairing rows stored from a bad decode.
+                    if (!fullResync && stored[event.kind]?.get(dTag)?.covers(event.id, event.created_at) == true) {
+                        skipped++
+                        return@collect
+                    }
+                    newest.merge(event.kind to dTag, event) { current, incoming ->
+                        skipped++
+                        if (supersedes(incoming, current)) incoming else current
+                    }
+                }
+            }
+            // Chunks are only decrypted when a record's manifest asks for them.
+            val (chunkEvents, events) = newest.values.partition {
+                it.kind == NostrEvent.KIND_APP_SPECIFIC_DATA && SyncEnvelope.isChunk(it.dTag ?: "")
+            }
+            val chunks = HashMap(chunkEvents.associateBy { it.dTag ?: "" })
+
+            val decrypt: suspend (NostrEvent) -> String?
+            val plaintexts = HashMap<String, String>()
+            if (signer.prefersBatchDecrypt) {
+                // No sync timeout: the signer may wait on the user's approval and bounds that itself.
+                val recordDTags = events.mapTo(HashSet()) { it.dTag ?: "" }
+                plaintexts += decryptBatch(
+                    signer,
+                    events + chunkEvents.filter { SyncEnvelope.parentOf(it.dTag ?: "") in recordDTags }
+                )
+                decrypt = { event -> plaintexts[event.id] }
+            } else {
+                decrypt = { event ->
+                    if (event.kind == NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION) {
+                        cypherLogSubscriptionRepository.decryptContent(event)
+                    } else {
+                        signer.nip44Decrypt(event.content, signer.pubkeyHex)
+                    }
+                }
+            }
+
+            // Manifests whose chunks were missing or did not match, for a second pass.
+            val refetch = mutableListOf<DecodedEvent.Failed>()
+
+            suspend fun applyDecoded(batch: List<DecodedEvent>, chunksRefetched: Boolean) {
+                for (decoded in batch.filterIsInstance<DecodedEvent.Failed>()) {
+                    if (!chunksRefetched && decoded.refetchChunks.isNotEmpty()) {
+                        refetch += decoded
+                        continue
+                    }
+                    Log.w(TAG, "Failed to decode event ${decoded.event.id.take(8)}…: ${decoded.reason}")
+                    failed++
+                    oldestFailed.merge(decoded.event.kind, decoded.event.created_at) { a, b -> minOf(a, b) }
+                }
+                for (decoded in batch.filterIsInstance<DecodedEvent.Unrecoverable>()) {
+                    Log.w(TAG, "Dropping event ${decoded.event.id.take(8)}…: ${decoded.reason}")
+                    unrecoverable++
+                }
+                // Each handler writes its share of the batch in one transaction, so Room
+                // observers see one invalidation per batch rather than one per event.
+                val cypherLogs = batch.filterIsInstance<DecodedEvent.CypherLog>()
+                if (cypherLogs.isNotEmpty()) {
+                    try {
+                        cypherLogSubscriptionRepository.upsertAllFromEvents(
+                            cypherLogs.map { it.event to it.contentDecryptedJson }
+                        )
+                        applied.merge(CYPHERLOG_NAME, cypherLogs.size, Int::plus)
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Failed to apply ${cypherLogs.size} $CYPHERLOG_NAME events: ${e.message}")
+                        failed += cypherLogs.size
+                        cypherLogs.forEach {
+                            oldestFailed.merge(it.event.kind, it.event.created_at) { a, b -> minOf(a, b) }
+                        }
+                    }
+                }
+                batch.filterIsInstance<DecodedEvent.AppData<*>>()
+                    .groupBy { it.handler }
+                    .forEach { (handler, items) ->
+                        try {
+                            val changed = applyBatch(handler, items)
+                            if (changed > 0) applied.merge(handler.syncName, changed, Int::plus)
+                            deletedRecordDao.upsertAll(
+                                items.mapNotNull { it.record as? SyncedRecord.Tombstone }
+                                    .map { DeletedRecordEntity(it.dTag, it.eventId, it.createdAt) }
+                            )
+                            outbox.recordSyncedChunks(
+                                items.filter { it.chunkCount > 0 }.associate { it.record.dTag to it.chunkCount }
+                            )
+                        } catch (e: Exception) {
+                            Log.w(TAG, "Failed to apply ${items.size} ${handler.syncName} records: ${e.message}")
+                            failed += items.size
+                            items.forEach {
+                                oldestFailed.merge(it.event.kind, it.event.created_at) { a, b -> minOf(a, b) }
+                            }
+                        }
+                    }
+            }
+
+            withTimeout(SYNC_TIMEOUT_MS) {
+                SyncDecodePipeline { event -> decode(event, chunks, decrypt, chunksRefetched = false) }
+                    .process(events.asFlow())
+                    .collect { batch -> applyDecoded(batch, chunksRefetched = false) }
+            }
+
+            // Fetch the chunks those manifests name by `d` tag, without `since`, and decode again.
+            if (refetch.isNotEmpty()) {
+                val wanted = refetch.flatMap { it.refetchChunks }.distinct()
+                Log.d(TAG, "Fetching ${wanted.size} chunks for ${refetch.size} records by d tag")
+                val fetched = mutableListOf<NostrEvent>()
+                try {
+                    withTimeout(SYNC_TIMEOUT_MS) {
+                        nostrClient.fetchUntilEose {
+                            listOf(
+                                NostrFilter(
+                                    authors = listOf(pubkey),
+                                    kinds = listOf(NostrEvent.KIND_APP_SPECIFIC_DATA),
+                                    tagFilters = mapOf("d" to wanted)
+                                )
+                            )
+                        }.collect { item ->
+                            val chunk = (item as? PoolFetchItem.Event)?.takeUnless { it.duplicate }?.event
+                                ?: return@collect
+                            val dTag = chunk.dTag ?: return@collect
+                            val current = chunks[dTag]
+                            if (current == null || supersedes(chunk, current)) {
+                                chunks[dTag] = chunk
+                                fetched += chunk
+                            }
+                        }
+                    }
+                } catch (e: Exception) {
+                    Log.w(TAG, "Chunk fetch failed: ${e.message}")
+                }
+                if (signer.prefersBatchDecrypt && fetched.isNotEmpty()) {
+                    plaintexts += decryptBatch(signer, fetched)
+                }
+                withTimeout(SYNC_TIMEOUT_MS) {
+                    SyncDecodePipeline { event -> decode(event, chunks, decrypt, chunksRefetched = true) }
+                        .process(refetch.map { it.event }.asFlow())
+                        .collect { batch -> applyDecoded(batch, chunksRefetched = true) }
+                }
+            }
+            drained = true
+        } catch (e: Exception) {
+            Log.e(TAG, "Sync failed: ${e.message}")
+        }
+        if (!drained) completedRelays.clear()
+
+        for ((relayUrl, kinds) in advancedMarks(marks, newestSeen, oldestFailed, completedRelays)) {
+            for ((kind, mark) in kinds) {
+                relaySyncStateDao.upsert(
+                    RelaySyncStateEntity(
+                        pubkey = pubkey,
+                        relayUrl = relayUrl,
+                        kind = kind,
+                        newestCreatedAt = mark
+                    )
+                )
+            }
+        }
+
+        val report = SyncReport(received, applied, skipped, unrouted, failed, fullResync, unrecoverable)
+        Log.d(TAG, "Sync complete from ${completedRelays.size}/${relayUrls.size} relays: $report")
+        return report
+    }
+
+    /** NIP-01 replaceable-event order: newer `created_at` wins, then the lowest id. */
+    private fun supersedes(incoming: NostrEvent, current: NostrEvent): Boolean =
+        !SourceVersion(current.dTag ?: "", current.id, current.created_at).covers(incoming.id, incoming.created_at)
+
+    /** Per `d` tag, the later of a stored version and a deletion. */
+    private fun newerOf(
+        stored: Map<String, SourceVersion>,
+        deleted: Map<String, SourceVersion>
+    ): Map<String, SourceVersion> {
+        if (deleted.isEmpty()) return stored
+        val merged = HashMap(stored)
+        for ((dTag, version) in deleted) {
+            merged.merge(dTag, version) { a, b -> if (b.sourceCreatedAt > a.sourceCreatedAt) b else a }
+        }
+        return merged
+    }
+
+    private fun handlerFor(event: NostrEvent): AppDataSyncHandler<*>? {
+        val dTag = event.dTag ?: ""
+        return handlers.firstOrNull { it.ownsDTag(dTag) }
+    }
+
+    /**
+     * Decrypt every event in [events] that will be decoded with one batch call. App data is
+     * self-encrypted; 37004 content is encrypted to its author, which is us for our own events.
+     */
+    private suspend fun decryptBatch(signer: NostrSigner, events: List<NostrEvent>): Map<String, String> {
+        val requests = events.mapNotNull { event ->
+            when {
+                event.kind == NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION ->
+                    event.content.takeIf { it.isNotBlank() }?.let { DecryptRequest(event.id, it, event.pubkey) }
+                else -> DecryptRequest(event.id, event.content, signer.pubkeyHex)
+            }
+        }
+        if (requests.isEmpty()) return emptyMap()
+        val plaintexts = signer.nip44DecryptBatch(requests)
+        return buildMap {
+            requests.forEachIndexed { i, request -> plaintexts[i]?.let { put(request.eventId, it) } }
+        }
+    }
+
+    /** Decode stage; runs on [SyncDecodePipeline] workers, so it must not touch cycle state. */
+    private suspend fun decode(
+        event: NostrEvent,
+        chunks: Map<String, NostrEvent>,
+        decrypt: suspend (NostrEvent) -> String?,
+        chunksRefetched: Boolean
+    ): DecodedEvent = try {
+        if (event.kind == NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION) {
+            // Storing a failed decrypt would record the event's version, and later cycles would
+            // skip it instead of retrying; only events without content are stored tag-only.
+            val content = decrypt(event)
+            if (content == null && event.content.isNotBlank()) {
+                DecodedEvent.Failed(event, "decryption failed (37004 d=${event.dTag})")
+            } else {
+                DecodedEvent.CypherLog(event, content)
+            }
+        } else {
+            val handler = handlerFor(event)
+            val dTag = event.dTag ?: ""
+            val plaintext = handler?.let { decrypt(event) }
+            val chunkDTags = plaintext?.let { SyncEnvelope.chunkDTags(dTag, it) }.orEmpty()
+            // A chunk that fails to decrypt may succeed next cycle, so it keeps the event pending.
+            var chunkDecryptFailed = false
+            val json = plaintext?.let { payload ->
+                SyncEnvelope.open(dTag, payload) { chunkDTag ->
+                    chunks[chunkDTag]?.let { chunk -> decrypt(chunk).also { if (it == null) chunkDecryptFailed = true } }
+                }
+            }
+            when {
+                handler == null -> DecodedEvent.Skipped(event)
+                plaintext == null -> DecodedEvent.Failed(event, "decryption failed (d=$dTag)")
+                json != null -> decodeAppData(handler, event, json, chunkDTags.size)
+                chunkDecryptFailed -> DecodedEvent.Failed(event, "chunk decryption failed (d=$dTag)")
+                chunkDTags.isEmpty() -> DecodedEvent.Unrecoverable(event, "corrupt payload (d=$dTag)")
+                // Missing, or out of step with the manifest: a relay may hold other versions.
+                !chunksRefetched -> DecodedEvent.Failed(event, "missing or mismatched chunks (d=$dTag)", chunkDTags)
+                chunkDTags.any { it !in chunks } -> DecodedEvent.Failed(event, "chunks not found on any relay (d=$dTag)")
+                else -> DecodedEvent.Unrecoverable(event, "chunks do not match the manifest (d=$dTag)")
+            }
+        }
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        DecodedEvent.Failed(event, e.message ?: e.toString())
+    }
+
+    private fun <T : Any> decodeAppData(
+        handler: AppDataSyncHandler<T>,
+        event: NostrEvent,
+        plaintext: String,
+        chunkCount: Int
+    ): DecodedEvent {
+        val dTag = event.dTag ?: ""
+        val record = if (SyncedRecord.isTombstone(plaintext)) {
+            SyncedRecord.Tombstone(dTag, event.id, event.created_at)
+        } else {
+            val value = handler.decodeSyncedRecord(dTag, plaintext) ?: return DecodedEvent.Skipped(event)
+            SyncedRecord.Upsert(dTag, value, event.id, event.created_at)
+        }
+        return DecodedEvent.AppData(event, handler, record, chunkCount)
+    }
+
+    /** Every item in [items] was decoded by [handler], so the record type matches. */
+    @Suppress("UNCHECKED_CAST")
+    private suspend fun <T : Any> applyBatch(
+        handler: AppDataSyncHandler<T>,
+        items: List<DecodedEvent.AppData<*>>
+    ): Int = handler.applySyncedRecords(items.map { it.record as SyncedRecord<T> })
+
+    companion object {
+        private const val SYNC_TIMEOUT_MS = 30_000L
+        private const val CYPHERLOG_NAME = "cypherlog"
+
+        /** Re-fetch window below each mark; covers clock skew between publishing devices. */
+        internal const val SINCE_OVERLAP_SECONDS = 3_600L
+
+        private val SYNCED_KINDS = listOf(
+            NostrEvent.KIND_APP_SPECIFIC_DATA,
+            NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION
+        )
+
+        /** REQ `since` for a stored [mark]: [SINCE_OVERLAP_SECONDS] earlier, never negative. */
+        internal fun sinceFor(mark: Long): Long = (mark - SINCE_OVERLAP_SECONDS).coerceAtLeast(0)
+
+        /**
+         * The marks to store after a cycle, per relay and kind. Only relays in [completedRelays]
+         * (EOSE reached and every event applied) move, to the newest `created_at` they returned
+         * but never past an event of that kind that failed to apply, so the next cycle retries
+         * it. Marks never move backwards.
+         */
+        internal fun advancedMarks(
+            marks: Map<String, Map<Int, Long>>,
+            newestSeen: Map<String, Map<Int, Long>>,
+            oldestFailed: Map<Int, Long>,
+            completedRelays: Set<String>
+        ): Map<String, Map<Int, Long>> = completedRelays.associateWith { relayUrl ->
+            newestSeen[relayUrl].orEmpty().mapNotNull { (kind, newest) ->
+                val failedAt = oldestFailed[kind]
+                val safeMark = if (failedAt != null) minOf(newest, failedAt - 1) else newest
+                (kind to safeMark).takeIf { safeMark > (marks[relayUrl]?.get(kind) ?: 0L) }
+            }.toMap()
+        }.filterValues { it.isNotEmpty() }
+    }
+}
@@ -0,0 +1,97 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.nostr.NostrEvent
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+
+/** An event after the decode stage, ready for the single-threaded apply step. */
+sealed class DecodedEvent {
+    abstract val event: NostrEvent
+
+    /** [chunkCount] is how many chunk events the record was assembled from (0 if none). */
+    class AppData<T : Any>(
+        override val event: NostrEvent,
+        val handler: AppDataSyncHandler<T>,
+        val record: SyncedRecord<T>,
+        val chunkCount: Int = 0
+    ) : DecodedEvent()
+
+    class CypherLog(override val event: NostrEvent, val contentDecryptedJson: String?) : DecodedEvent()
+
+    /** The handler declined the record; counts as neither applied nor failed. */
+    class Skipped(override val event: NostrEvent) : DecodedEvent()
+
+    /**
+     * Retried next cycle, so it holds back the relay's since-mark. A manifest whose chunks were
+     * missing or did not match it lists them in [refetchChunks], to be fetched by `d` tag and
+     * decoded again in the same cycle.
+     */
+    class Failed(
+        override val event: NostrEvent,
+        val reason: String,
+        val refetchChunks: List<String> = emptyList()
+    ) : DecodedEvent()
+
+    /**
+     * The event can never be decoded, e.g. a manifest whose chunks, fetched by `d` tag, still
+     * fail its hash. Counted, but unlike [Failed] it does not hold back the relay's since-mark.
+     */
+    class Unrecoverable(override val event: NostrEvent, val reason: String) : DecodedEvent()
+}
+
+/**
+ * Sync stage that decrypts and decodes events with bounded parallelism.
+ *
+ * Events are spread over [workers] lanes by kind and `d` tag, and each lane runs [decode]
+ * on [Dispatchers.Default] one event at a time. Events for the same address therefore keep
+ * their relay order while different addresses decode in parallel. Results are emitted in
+ * batches of up to [BATCH_SIZE], taking whatever is ready rather than waiting to fill a batch.
+ */
+class SyncDecodePipeline(
+    private val workers: Int = Runtime.getRuntime().availableProcessors().coerceIn(1, MAX_WORKERS),
+    private val decode: suspend (NostrEvent) -> DecodedEvent
+) {
+    fun process(events: Flow<NostrEvent>): Flow<List<DecodedEvent>> = channelFlow {
+        val results = Channel<DecodedEvent>(RESULT_BUFFER)
+        val lanes = List(workers) { Channel<NostrEvent>(LANE_BUFFER) }
+        val decoders = lanes.map { lane ->
+            launch(Dispatchers.Default) {
+                for (event in lane) results.send(decode(event))
+            }
+        }
+        launch {
+            try {
+                events.collect { event -> lanes[laneOf(event)].send(event) }
+            } finally {
+                lanes.forEach { it.close() }
+            }
+            decoders.joinAll()
+            results.close()
+        }
+        val batch = ArrayList<DecodedEvent>(BATCH_SIZE)
+        for (first in results) {
+            batch += first
+            while (batch.size < BATCH_SIZE) {
+                batch += results.tryReceive().getOrNull() ?: break
+            }
+            send(batch.toList())
+            batch.clear()
+        }
+    }
+
+    private fun laneOf(event: NostrEvent): Int {
+        val key = 31 * event.kind + (event.dTag ?: event.id).hashCode()
+        return (key and Int.MAX_VALUE) % workers
+    }
+
+    companion object {
+        const val BATCH_SIZE = 64
+        private const val MAX_WORKERS = 8
+        private const val LANE_BUFFER = 16
+        private const val RESULT_BUFFER = 128
+    }
+}
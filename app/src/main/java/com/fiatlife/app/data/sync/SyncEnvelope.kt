@@ -0,0 +1,150 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.nostr.Hex
+import java.io.ByteArrayOutputStream
+import java.security.MessageDigest
+import java.util.Base64
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * Plaintext envelope for kind 30078 records, applied before NIP-44 encryption.
+ *
+ * NIP-44 caps a plaintext at 65535 bytes and bills carry their whole payment history, so
+ * records of at least [COMPRESS_MIN_BYTES] are zlib-compressed and base64 encoded behind a
+ * version prefix. Smaller records stay plain JSON, which every client reads. A compressed
+ * record still longer than [CHUNK_CHARS] is split across chunk events with `d` tags
+ * `fiatlife/chunk/<record d tag>/<index>`. The record's own event then carries a manifest
+ * with the chunk count and the SHA-256 of the joined payload:
+ *
+ * ```
+ * fl:z1:<base64 zlib of the JSON>
+ * fl:c1:<chunk count>:<sha256 hex of the joined fl:z1 payload>
+ * ```
+ *
+ * Anything without a known prefix is plain JSON, so records written by older clients open
+ * unchanged. Chunks a later, smaller version or a deletion no longer references are
+ * tombstoned by [NostrOutbox.enqueueAppData].
+ */
+object SyncEnvelope {
+    const val CHUNK_PREFIX = "fiatlife/chunk/"
+
+    private const val COMPRESSED = "fl:z1:"
+    private const val CHUNKED = "fl:c1:"
+    private const val COMPRESS_MIN_BYTES = 2048
+
+    /** Chunk size in characters; envelope payloads are ASCII, so also bytes. */
+    private const val CHUNK_CHARS = 32_000
+    private const val MAX_CHUNKS = 256
+    private const val MAX_INFLATED_BYTES = 16 shl 20
+
+    /** One event to publish: its `d` tag and plaintext content. */
+    data class Part(val dTag: String, val content: String)
+
+    fun isChunk(dTag: String): Boolean = dTag.startsWith(CHUNK_PREFIX)
+
+    /** The record a chunk `d` tag belongs to. */
+    fun parentOf(chunkDTag: String): String =
+        chunkDTag.substring(CHUNK_PREFIX.length).substringBeforeLast('/')
+
+    /** `d` tag of chunk [index] of the record [dTag]. */
+    fun chunkDTag(dTag: String, index: Int) = "${chunkPrefix(dTag)}$index"
+
+    /** Common prefix of every chunk `d` tag of the record [dTag]. */
+    fun chunkPrefix(dTag: String) = "$CHUNK_PREFIX$dTag/"
+
+    fun isManifest(payload: String): Boolean = payload.startsWith(CHUNKED)
+
+    /** How many chunk events [payload] references: its manifest count, or 0 if it is not a manifest. */
+    fun chunkCount(payload: String): Int =
+        if (isManifest(payload)) {
+            payload.substring(CHUNKED.length).substringBefore(':').toIntOrNull()?.takeIf { it in 1..MAX_CHUNKS } ?: 0
+        } else {
+            0
+        }
+
+    /** `d` tags of the chunk events [payload] references; empty unless it is a manifest. */
+    fun chunkDTags(dTag: String, payload: String): List<String> =
+        List(chunkCount(payload)) { i -> chunkDTag(dTag, i) }
+
+    /** Events to publish for [json] under [dTag]: chunks first, the record's own event last. */
+    fun seal(dTag: String, json: String): List<Part> {
+        val bytes = json.toByteArray(Charsets.UTF_8)
+        if (bytes.size < COMPRESS_MIN_BYTES) return listOf(Part(dTag, json))
+        val compressed = COMPRESSED + Base64.getEncoder().encodeToString(deflate(bytes))
+        if (compressed.length >= bytes.size && bytes.size <= CHUNK_CHARS) return listOf(Part(dTag, json))
+        if (compressed.length <= CHUNK_CHARS) return listOf(Part(dTag, compressed))
+
+        val chunks = compressed.chunked(CHUNK_CHARS)
+        require(chunks.size <= MAX_CHUNKS) { "Record $dTag is too large to sync (${bytes.size} bytes)" }
+        val manifest = "$CHUNKED${chunks.size}:${sha256Hex(compressed)}"
+        return chunks.mapIndexed { i, chunk -> Part(chunkDTag(dTag, i), chunk) } + Part(dTag, manifest)
+    }
+
+    /**
+     * The JSON inside [payload], the decrypted content of [dTag]'s event. For a manifest,
+     * [chunk] supplies each chunk's plaintext by `d` tag. Returns null if a chunk is missing,
+     * the joined chunks do not match the manifest, or the compressed data is corrupt.
+     */
+    suspend fun open(dTag: String, payload: String, chunk: suspend (String) -> String?): String? {
+        if (payload.startsWith(COMPRESSED)) return inflateEnvelope(payload)
+        if (!isManifest(payload)) return payload
+
+        val count = chunkCount(payload)
+        val hash = payload.substringAfterLast(':')
+        if (count == 0) return null
+        val joined = StringBuilder(count * CHUNK_CHARS)
+        for (i in 0 until count) joined.append(chunk(chunkDTag(dTag, i)) ?: return null)
+        val compressed = joined.toString()
+        if (!compressed.startsWith(COMPRESSED) || sha256Hex(compressed) != hash) return null
+        return inflateEnvelope(compressed)
+    }
+
+    private fun inflateEnvelope(envelope: String): String? {
+        val data = try {
+            Base64.getDecoder().decode(envelope.substring(COMPRESSED.length))
+        } catch (e: IllegalArgumentException) {
+            return null
+        }
+        return inflate(data)?.toString(Charsets.UTF_8)
+    }
+
+    private fun deflate(input: ByteArray): ByteArray {
+        val deflater = Deflater(Deflater.BEST_COMPRESSION)
+        try {
+            deflater.setInput(input)
+            deflater.finish()
+            val out = ByteArrayOutputStream(input.size / 4 + 64)
+            val buf = ByteArray(8192)
+            while (!deflater.finished()) out.write(buf, 0, deflater.deflate(buf))
+            return out.toByteArray()
+        } finally {
+            deflater.end()
+        }
+    }
+
+    /** Null on corrupt or truncated input, or output over [MAX_INFLATED_BYTES]. */
+    private fun inflate(input: ByteArray): ByteArray? {
+        val inflater = Inflater()
+        try {
+            inflater.setInput(input)
+            val out = ByteArrayOutputStream(input.size * 4)
+            val buf = ByteArray(8192)
+            while (!inflater.finished()) {
+                val n = inflater.inflate(buf)
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null
+                out.write(buf, 0, n)
+                if (out.size() > MAX_INFLATED_BYTES) return null
+            }
+            return out.toByteArray()
+        } catch (e: DataFormatException) {
+            return null
+        } finally {
+            inflater.end()
+        }
+    }
+
+    private fun sha256Hex(s: String): String =
+        Hex.encode(MessageDigest.getInstance("SHA-256").digest(s.toByteArray(Charsets.US_ASCII)))
+}
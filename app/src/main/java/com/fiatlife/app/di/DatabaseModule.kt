@@ -1,22 +1,44 @@
 package com.fiatlife.app.di
 
 import android.content.Context
+import android.util.Log
 import androidx.room.Room
 import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import com.fiatlife.app.data.local.FiatLifeDatabase
+import com.fiatlife.app.data.local.LocalCodec
 import com.fiatlife.app.data.local.dao.BillDao
+import com.fiatlife.app.data.local.dao.BillPaymentPeriodDao
+import com.fiatlife.app.data.local.dao.ChunkSetDao
 import com.fiatlife.app.data.local.dao.CreditAccountDao
 import com.fiatlife.app.data.local.dao.CypherLogSubscriptionDao
+import com.fiatlife.app.data.local.dao.DecryptCacheDao
+import com.fiatlife.app.data.local.dao.DeletedRecordDao
 import com.fiatlife.app.data.local.dao.GoalDao
+import com.fiatlife.app.data.local.dao.OutboxDao
+import com.fiatlife.app.data.local.dao.RelaySyncStateDao
 import com.fiatlife.app.data.local.dao.SalaryDao
+import com.fiatlife.app.data.local.dao.SearchDao
+import com.fiatlife.app.data.local.entity.BillEntity
+import com.fiatlife.app.data.local.entity.CreditAccountEntity
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.domain.model.Bill
+import com.fiatlife.app.domain.model.BillPaymentPeriod
+import com.fiatlife.app.domain.model.CreditAccount
+import com.fiatlife.app.domain.model.FinancialGoal
+import com.fiatlife.app.domain.model.SalaryConfig
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
 import dagger.hilt.android.qualifiers.ApplicationContext
 import dagger.hilt.components.SingletonComponent
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.json.Json
 import javax.inject.Singleton
 
+private const val TAG = "DatabaseMigration"
+
 private val MIGRATION_1_2 = object : Migration(1, 2) {
     override fun migrate(db: SupportSQLiteDatabase) {
         db.execSQL("""
@@ -49,6 +71,321 @@ private val MIGRATION_3_4 = object : Migration(3, 4) {
     }
 }
 
+private val MIGRATION_4_5 = object : Migration(4, 5) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS relay_sync_state (
+                pubkey TEXT NOT NULL,
+                relayUrl TEXT NOT NULL,
+                kind INTEGER NOT NULL,
+                newestCreatedAt INTEGER NOT NULL,
+                updatedAt INTEGER NOT NULL,
+                PRIMARY KEY(pubkey, relayUrl, kind)
+            )
+        """.trimIndent())
+    }
+}
+
+private val MIGRATION_5_6 = object : Migration(5, 6) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS outbox (
+                pubkey TEXT NOT NULL,
+                kind INTEGER NOT NULL,
+                dTag TEXT NOT NULL,
+                content TEXT NOT NULL,
+                tagsJson TEXT NOT NULL,
+                revision TEXT NOT NULL,
+                enqueuedAt INTEGER NOT NULL,
+                signedEventJson TEXT,
+                eventId TEXT,
+                attempts INTEGER NOT NULL,
+                nextAttemptAt INTEGER NOT NULL,
+                lastError TEXT,
+                PRIMARY KEY(pubkey, kind, dTag)
+            )
+        """.trimIndent())
+    }
+}
+
+private val MIGRATION_6_7 = object : Migration(6, 7) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS decrypt_cache (
+                pubkey TEXT NOT NULL,
+                eventId TEXT NOT NULL,
+                sealed BLOB NOT NULL,
+                lastUsedAt INTEGER NOT NULL,
+                PRIMARY KEY(pubkey, eventId)
+            )
+        """.trimIndent())
+    }
+}
+
+private val MIGRATION_7_8 = object : Migration(7, 8) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        for (table in listOf("bills", "goals", "credit_accounts", "salary_configs")) {
+            db.execSQL("ALTER TABLE $table ADD COLUMN sourceEventId TEXT NOT NULL DEFAULT ''")
+            db.execSQL("ALTER TABLE $table ADD COLUMN sourceCreatedAt INTEGER NOT NULL DEFAULT 0")
+        }
+    }
+}
+
+private val MIGRATION_8_9 = object : Migration(8, 9) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS bill_payment_periods (
+                billId TEXT NOT NULL,
+                period TEXT NOT NULL,
+                jsonData TEXT NOT NULL,
+                sourceEventId TEXT NOT NULL,
+                sourceCreatedAt INTEGER NOT NULL,
+                PRIMARY KEY(billId, period)
+            )
+        """.trimIndent())
+    }
+}
+
+/** Typed, indexed copies of bill and credit account fields, backfilled from each row's JSON. */
+private val MIGRATION_9_10 = object : Migration(9, 10) {
+    private val json = Json { ignoreUnknownKeys = true; isLenient = true }
+
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("ALTER TABLE bills ADD COLUMN isPaid INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE bills ADD COLUMN nextDueEpochDay INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE bills ADD COLUMN monthlyNormalizedCents INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE bills ADD COLUMN frequency TEXT NOT NULL DEFAULT ''")
+        db.execSQL("ALTER TABLE bills ADD COLUMN generalCategory TEXT NOT NULL DEFAULT ''")
+        db.execSQL("ALTER TABLE bills ADD COLUMN linkedCreditAccountId TEXT")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_isPaid_nextDueEpochDay ON bills (isPaid, nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_nextDueEpochDay ON bills (nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_generalCategory ON bills (generalCategory)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_linkedCreditAccountId ON bills (linkedCreditAccountId)")
+
+        db.execSQL("ALTER TABLE credit_accounts ADD COLUMN nextDueEpochDay INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE credit_accounts ADD COLUMN monthlyNormalizedCents INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE credit_accounts ADD COLUMN linkedBillId TEXT")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_credit_accounts_nextDueEpochDay ON credit_accounts (nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_credit_accounts_linkedBillId ON credit_accounts (linkedBillId)")
+
+        db.query("SELECT id, jsonData FROM bills").use { c ->
+            while (c.moveToNext()) {
+                val bill = runCatching { json.decodeFromString<Bill>(c.getString(1)) }.getOrNull() ?: continue
+                val e = BillEntity.of(bill)
+                db.execSQL(
+                    """UPDATE bills SET isPaid = ?, nextDueEpochDay = ?, monthlyNormalizedCents = ?,
+                       frequency = ?, generalCategory = ?, linkedCreditAccountId = ? WHERE id = ?""",
+                    arrayOf<Any?>(
+                        if (e.isPaid) 1 else 0, e.nextDueEpochDay, e.monthlyNormalizedCents,
+                        e.frequency, e.generalCategory, e.linkedCreditAccountId, c.getString(0)
+                    )
+                )
+            }
+        }
+        db.query("SELECT id, jsonData FROM credit_accounts").use { c ->
+            while (c.moveToNext()) {
+                val account = runCatching { json.decodeFromString<CreditAccount>(c.getString(1)) }.getOrNull() ?: continue
+                val e = CreditAccountEntity.of(account)
+                db.execSQL(
+                    "UPDATE credit_accounts SET nextDueEpochDay = ?, monthlyNormalizedCents = ?, linkedBillId = ? WHERE id = ?",
+                    arrayOf<Any?>(e.nextDueEpochDay, e.monthlyNormalizedCents, e.linkedBillId, c.getString(0))
+                )
+            }
+        }
+    }
+}
+
+/**
+ * Replace the JSON `jsonData` column of the five record tables with `data`, the record encoded
+ * with [LocalCodec]. SQLite before 3.35 cannot drop a column, so each table is rebuilt.
+ */
+private val MIGRATION_10_11 = object : Migration(10, 11) {
+    private val json = Json { ignoreUnknownKeys = true; isLenient = true }
+
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.reencodeJsonColumn(
+            table = "bills",
+            columns = """id TEXT NOT NULL, category TEXT NOT NULL, updatedAt INTEGER NOT NULL,
+                sourceEventId TEXT NOT NULL, sourceCreatedAt INTEGER NOT NULL, isPaid INTEGER NOT NULL,
+                nextDueEpochDay INTEGER NOT NULL, monthlyNormalizedCents INTEGER NOT NULL,
+                frequency TEXT NOT NULL, generalCategory TEXT NOT NULL, linkedCreditAccountId TEXT""",
+            primaryKey = "id",
+            serializer = Bill.serializer()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_isPaid_nextDueEpochDay ON bills (isPaid, nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_nextDueEpochDay ON bills (nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_generalCategory ON bills (generalCategory)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_bills_linkedCreditAccountId ON bills (linkedCreditAccountId)")
+
+        db.reencodeJsonColumn(
+            table = "credit_accounts",
+            columns = """id TEXT NOT NULL, type TEXT NOT NULL, updatedAt INTEGER NOT NULL,
+                sourceEventId TEXT NOT NULL, sourceCreatedAt INTEGER NOT NULL,
+                nextDueEpochDay INTEGER NOT NULL, monthlyNormalizedCents INTEGER NOT NULL, linkedBillId TEXT""",
+            primaryKey = "id",
+            serializer = CreditAccount.serializer()
+        )
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_credit_accounts_nextDueEpochDay ON credit_accounts (nextDueEpochDay)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS index_credit_accounts_linkedBillId ON credit_accounts (linkedBillId)")
+
+        db.reencodeJsonColumn(
+            table = "goals",
+            columns = """id TEXT NOT NULL, category TEXT NOT NULL, updatedAt INTEGER NOT NULL,
+                sourceEventId TEXT NOT NULL, sourceCreatedAt INTEGER NOT NULL""",
+            primaryKey = "id",
+            serializer = FinancialGoal.serializer()
+        )
+        db.reencodeJsonColumn(
+            table = "salary_configs",
+            columns = """id TEXT NOT NULL, updatedAt INTEGER NOT NULL,
+                sourceEventId TEXT NOT NULL, sourceCreatedAt INTEGER NOT NULL""",
+            primaryKey = "id",
+            serializer = SalaryConfig.serializer()
+        )
+        db.reencodeJsonColumn(
+            table = "bill_payment_periods",
+            columns = """billId TEXT NOT NULL, period TEXT NOT NULL,
+                sourceEventId TEXT NOT NULL, sourceCreatedAt INTEGER NOT NULL""",
+            primaryKey = "billId, period",
+            serializer = BillPaymentPeriod.serializer()
+        )
+    }
+
+    /**
+     * Rebuild [table] as [columns] plus `data BLOB`, copying the other columns unchanged and
+     * re-encoding each row's JSON. Rows whose JSON cannot be read are kept as
+     * [LocalCodec.wrapJson] rather than lost. Indices go with the old table and must be recreated.
+     */
+    private fun <T> SupportSQLiteDatabase.reencodeJsonColumn(
+        table: String,
+        columns: String,
+        primaryKey: String,
+        serializer: KSerializer<T>
+    ) {
+        val names = columns.split(',').joinToString(", ") { it.trim().substringBefore(' ') }
+        execSQL("ALTER TABLE $table RENAME TO ${table}_json")
+        execSQL("CREATE TABLE $table ($columns, data BLOB NOT NULL, PRIMARY KEY($primaryKey))")
+        execSQL("INSERT INTO $table ($names, data) SELECT $names, jsonData FROM ${table}_json")
+        execSQL("DROP TABLE ${table}_json")
+
+        val encoded = mutableListOf<Pair<Long, ByteArray>>()
+        var unreadable = 0
+        query("SELECT rowid, data FROM $table").use { c ->
+            while (c.moveToNext()) {
+                val text = c.getString(1)
+                val value = runCatching { json.decodeFromString(serializer, text) }.getOrNull()
+                if (value == null) unreadable++
+                encoded += c.getLong(0) to (value?.let { LocalCodec.encode(serializer, it) } ?: LocalCodec.wrapJson(text))
+            }
+        }
+        for ((rowId, data) in encoded) {
+            execSQL("UPDATE $table SET data = ? WHERE rowid = ?", arrayOf<Any?>(data, rowId))
+        }
+        if (unreadable > 0) Log.w(TAG, "$table: kept $unreadable rows with unreadable JSON as raw JSON")
+    }
+}
+
+/**
+ * The `search_index` FTS4 table, filled from the stored bills, credit accounts and goals.
+ * CypherLog subscriptions are only mapped to searchable text by their repository, so their
+ * source versions and relay marks are cleared and the next sync re-applies and indexes them.
+ */
+private val MIGRATION_11_12 = object : Migration(11, 12) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE VIRTUAL TABLE IF NOT EXISTS `search_index` USING FTS4(`type` TEXT NOT NULL, `recordId` TEXT NOT NULL, `title` TEXT NOT NULL, `subtitle` TEXT NOT NULL, `body` TEXT NOT NULL, tokenize=unicode61, notindexed=`type`, notindexed=`recordId`)
+        """.trimIndent())
+        val entries = mutableListOf<SearchEntryEntity>()
+        db.query("SELECT data FROM bills").use { c ->
+            while (c.moveToNext()) {
+                runCatching { LocalCodec.decode(Bill.serializer(), c.getBlob(0)) }.getOrNull()
+                    ?.let { entries += SearchEntryEntity.forBill(it) }
+            }
+        }
+        db.query("SELECT data FROM credit_accounts").use { c ->
+            while (c.moveToNext()) {
+                runCatching { LocalCodec.decode(CreditAccount.serializer(), c.getBlob(0)) }.getOrNull()
+                    ?.let { entries += SearchEntryEntity.forCreditAccount(it) }
+            }
+        }
+        db.query("SELECT data FROM goals").use { c ->
+            while (c.moveToNext()) {
+                runCatching { LocalCodec.decode(FinancialGoal.serializer(), c.getBlob(0)) }.getOrNull()
+                    ?.let { entries += SearchEntryEntity.forGoal(it) }
+            }
+        }
+        for (e in entries) {
+            db.execSQL(
+                "INSERT INTO search_index (type, recordId, title, subtitle, body) VALUES (?, ?, ?, ?, ?)",
+                arrayOf<Any?>(e.type, e.recordId, e.title, e.subtitle, e.body)
+            )
+        }
+
+        db.execSQL("UPDATE cypherlog_subscriptions SET eventId = ''")
+        db.execSQL("DELETE FROM relay_sync_state WHERE kind = ${NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION}")
+    }
+}
+
+private val MIGRATION_12_13 = object : Migration(12, 13) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS chunk_sets (
+                pubkey TEXT NOT NULL,
+                dTag TEXT NOT NULL,
+                count INTEGER NOT NULL,
+                PRIMARY KEY(pubkey, dTag)
+            )
+        """.trimIndent())
+    }
+}
+
+private val MIGRATION_13_14 = object : Migration(13, 14) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS deleted_records (
+                dTag TEXT NOT NULL,
+                sourceEventId TEXT NOT NULL,
+                sourceCreatedAt INTEGER NOT NULL,
+                PRIMARY KEY(dTag)
+            )
+        """.trimIndent())
+    }
+}
+
+/**
+ * Switch the `data` rows of the five record tables to [LocalCodec]'s tagged CBOR header, which
+ * decodes without copying the row. Only the version byte changes; raw JSON rows stay as they are.
+ */
+private val MIGRATION_14_15 = object : Migration(14, 15) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        for (table in listOf("bills", "credit_accounts", "goals", "salary_configs", "bill_payment_periods")) {
+            val upgraded = mutableListOf<Pair<Long, ByteArray>>()
+            db.query("SELECT rowid, data FROM $table").use { c ->
+                while (c.moveToNext()) {
+                    val data = c.getBlob(1)
+                    if (LocalCodec.upgradeInPlace(data)) upgraded += c.getLong(0) to data
+                }
+            }
+            for ((rowId, data) in upgraded) {
+                db.execSQL("UPDATE $table SET data = ? WHERE rowid = ?", arrayOf<Any?>(data, rowId))
+            }
+        }
+    }
+}
+
+/** Every schema migration, oldest first; shared with the migration tests. */
+internal val ALL_MIGRATIONS: Array<Migration> = arrayOf(
+    MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7,
+    MIGRATION_7_8,
+    MIGRATION_8_9,
+    MIGRATION_9_10,
+    MIGRATION_10_11,
+    MIGRATION_11_12,
+    MIGRATION_12_13,
+    MIGRATION_13_14,
+    MIGRATION_14_15
+)
+
 @Module
 @InstallIn(SingletonComponent::class)
 object DatabaseModule {
@@ -60,7 +397,7 @@ object DatabaseModule {
             context,
             FiatLifeDatabase::class.java,
             FiatLifeDatabase.DATABASE_NAME
-        ).addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4).build()
+        ).addMigrations(*ALL_MIGRATIONS).build()
     }
 
     @Provides
@@ -79,4 +416,27 @@ object DatabaseModule {
     @Provides
     fun provideCreditAccountDao(database: FiatLifeDatabase): CreditAccountDao =
         database.creditAccountDao()
+
+    @Provides
+    fun provideRelaySyncStateDao(database: FiatLifeDatabase): RelaySyncStateDao =
+        database.relaySyncStateDao()
+
+    @Provides
+    fun provideOutboxDao(database: FiatLifeDatabase): OutboxDao = database.outboxDao()
+
+    @Provides
+    fun provideDecryptCacheDao(database: FiatLifeDatabase): DecryptCacheDao = database.decryptCacheDao()
+
+    @Provides
+    fun provideBillPaymentPeriodDao(database: FiatLifeDatabase): BillPaymentPeriodDao =
+        database.billPaymentPeriodDao()
+
+    @Provides
+    fun provideSearchDao(database: FiatLifeDatabase): SearchDao = database.searchDao()
+
+    @Provides
+    fun provideChunkSetDao(database: FiatLifeDatabase): ChunkSetDao = database.chunkSetDao()
+
+    @Provides
+    fun provideDeletedRecordDao(database: FiatLifeDatabase): DeletedRecordDao = database.deletedRecordDao()
 }
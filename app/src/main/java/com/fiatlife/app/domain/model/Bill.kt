@@ -8,6 +8,34 @@ data class BillPayment(
     val amount: Double = 0.0
 )
 
+/**
+ * One calendar year (UTC) of a bill's payments. Synced as its own record so that recording a
+ * payment republishes only the current year instead of the bill's whole history.
+ */
+@Serializable
+data class BillPaymentPeriod(
+    val billId: String = "",
+    val period: String = "",
+    val payments: List<BillPayment> = emptyList()
+) {
+    companion object {
+        /** Period key for a payment date: its UTC year, e.g. "2026". */
+        fun periodOf(date: Long): String =
+            java.time.Instant.ofEpochMilli(date).atZone(java.time.ZoneOffset.UTC).year.toString()
+
+        /**
+         * [history] with every period present in [periods] replaced by that period's synced
+         * payments; periods not synced separately (older records) keep their inline payments.
+         */
+        fun merge(history: List<BillPayment>, periods: List<BillPaymentPeriod>): List<BillPayment> {
+            if (periods.isEmpty()) return history
+            val synced = periods.mapTo(HashSet()) { it.period }
+            return (history.filter { periodOf(it.date) !in synced } + periods.flatMap { it.payments })
+                .sortedBy { it.date }
+        }
+    }
+}
+
 @Serializable
 data class StatementEntry(
     val hash: String = "",
@@ -336,6 +364,32 @@ data class Bill(
         return if (lastDue <= System.currentTimeMillis()) lastDue else null
     }
 
+    /** [effectiveAmountDue] spread over a month according to [frequency]. */
+    fun monthlyNormalizedAmount(): Double = effectiveAmountDue() * frequency.timesPerYear / 12.0
+
+    /**
+     * First due date on or after [from], as reminders count it: the due day is capped at 28,
+     * weekly bills use it as a day of week, and biweekly bills are due on it and 14 days later.
+     */
+    fun nextDueDate(from: java.time.LocalDate): java.time.LocalDate {
+        val dueDay = dueDay.coerceIn(1, 28)
+        val thisMonth = from.withDayOfMonth(dueDay)
+        return when (frequency) {
+            BillFrequency.WEEKLY ->
+                (0L..6L).map { from.plusDays(it) }.first { it.dayOfWeek.value == dueDay.coerceIn(1, 7) }
+            BillFrequency.BIWEEKLY -> when {
+                !thisMonth.isBefore(from) -> thisMonth
+                !thisMonth.plusDays(14).isBefore(from) -> thisMonth.plusDays(14)
+                else -> thisMonth.plusMonths(1)
+            }
+            BillFrequency.MONTHLY -> if (thisMonth.isBefore(from)) thisMonth.plusMonths(1) else thisMonth
+            BillFrequency.BIMONTHLY -> if (thisMonth.isBefore(from)) thisMonth.plusMonths(2) else thisMonth
+            BillFrequency.QUARTERLY -> if (thisMonth.isBefore(from)) thisMonth.plusMonths(3) else thisMonth
+            BillFrequency.SEMIANNUALLY -> if (thisMonth.isBefore(from)) thisMonth.plusMonths(6) else thisMonth
+            BillFrequency.ANNUALLY -> if (thisMonth.isBefore(from)) thisMonth.plusYears(1) else thisMonth
+        }
+    }
+
     /** True if this bill is not paid and the due date (end of due day) has passed. */
     fun isPastDue(): Boolean {
         if (isPaid) return false
@@ -80,4 +80,10 @@ data class CreditAccount(
         type.isAmortizing -> monthlyPaymentAmount ?: 0.0
         else -> 0.0
     }
+
+    /** First payment due date on or after [from]; the due day is capped at 28. */
+    fun nextDueDate(from: java.time.LocalDate): java.time.LocalDate {
+        val thisMonth = from.withDayOfMonth(dueDay.coerceIn(1, 28))
+        return if (thisMonth.isBefore(from)) thisMonth.plusMonths(1) else thisMonth
+    }
 }
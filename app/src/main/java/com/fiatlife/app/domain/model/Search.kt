@@ -0,0 +1,23 @@
+package com.fiatlife.app.domain.model
+
+/** Kind of record a [SearchHit] points at. */
+enum class SearchResultType {
+    BILL,
+    CREDIT_ACCOUNT,
+    GOAL,
+    /** A CypherLog (37004) subscription, shown as a bill. */
+    SUBSCRIPTION
+}
+
+/**
+ * One full-text search result. [snippet] is an excerpt of the best-matching text with each
+ * matched term at one of [highlights]; higher [score] ranks first.
+ */
+data class SearchHit(
+    val type: SearchResultType,
+    val id: String,
+    val title: String,
+    val snippet: String,
+    val highlights: List<IntRange>,
+    val score: Double
+)
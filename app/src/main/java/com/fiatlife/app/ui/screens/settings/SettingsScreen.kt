@@ -159,8 +159,8 @@ fun SettingsScreen(
                 OutlinedTextField(
                     value = state.relayUrl,
                     onValueChange = { viewModel.updateRelayUrl(it) },
-                    label = { Text("Relay URL") },
-                    placeholder = { Text("wss://your-relay.example.com") },
+                    label = { Text("Relay URLs") },
+                    placeholder = { Text("wss://relay-one.example.com, wss://relay-two.example.com") },
                     modifier = Modifier.fillMaxWidth(),
                     singleLine = true,
                     shape = MaterialTheme.shapes.medium,
@@ -170,7 +170,7 @@ fun SettingsScreen(
                 )
                 Spacer(modifier = Modifier.height(4.dp))
                 Text(
-                    text = "NIP-42 authentication is handled automatically",
+                    text = "Separate several relays with commas. NIP-42 authentication is handled automatically",
                     style = MaterialTheme.typography.labelSmall,
                     color = MaterialTheme.colorScheme.onSurfaceVariant
                 )
@@ -424,6 +424,20 @@ fun SettingsScreen(
             }
         }
 
+        if (state.isConnected) {
+            item {
+                OutlinedButton(
+                    onClick = { viewModel.fullResync() },
+                    modifier = Modifier.fillMaxWidth(),
+                    shape = MaterialTheme.shapes.large
+                ) {
+                    Icon(Icons.Filled.Sync, contentDescription = null)
+                    Spacer(modifier = Modifier.width(8.dp))
+                    Text("Full Resync")
+                }
+            }
+        }
+
         if (state.statusMessage.isNotEmpty()) {
             item {
                 Card(
@@ -6,6 +6,7 @@ import com.fiatlife.app.data.nostr.NostrClient
 import com.fiatlife.app.data.repository.BillRepository
 import com.fiatlife.app.data.repository.CreditAccountRepository
 import com.fiatlife.app.data.repository.CypherLogSubscriptionRepository
+import com.fiatlife.app.data.sync.RelaySyncCoordinator
 import com.fiatlife.app.domain.model.Bill
 import com.fiatlife.app.domain.model.CreditAccount
 import com.fiatlife.app.domain.model.BillGeneralCategory
@@ -49,7 +50,8 @@ class BillsViewModel @Inject constructor(
     private val repository: BillRepository,
     private val cypherLogSubscriptionRepository: CypherLogSubscriptionRepository,
     private val creditAccountRepository: CreditAccountRepository,
-    private val nostrClient: NostrClient
+    private val nostrClient: NostrClient,
+    private val relaySyncCoordinator: RelaySyncCoordinator
 ) : ViewModel() {
 
     private val _state = MutableStateFlow(BillsState())
@@ -71,13 +73,9 @@ class BillsViewModel @Inject constructor(
                 merged.sortedBy { it.bill.name.lowercase() }
             }.collect { bills ->
                 val allBills = bills.map { it.bill }
-                val monthlyTotal = allBills.sumOf { b ->
-                    b.effectiveAmountDue() * b.frequency.timesPerYear / 12.0
-                }
+                val monthlyTotal = allBills.sumOf { it.monthlyNormalizedAmount() }
                 val categoryTotals = allBills.groupBy { it.effectiveGeneralCategory }
-                    .mapValues { (_, list) ->
-                        list.sumOf { b -> b.effectiveAmountDue() * b.frequency.timesPerYear / 12.0 }
-                    }
+                    .mapValues { (_, list) -> list.sumOf { it.monthlyNormalizedAmount() } }
 
                 val now = System.currentTimeMillis()
                 val sevenDaysMs = 7L * 24 * 60 * 60 * 1000
@@ -124,12 +122,7 @@ class BillsViewModel @Inject constructor(
             nostrClient.connectionState
                 .filter { it }
                 .distinctUntilChanged()
-                .collect {
-                    try {
-                        repository.syncFromNostr()
-                        cypherLogSubscriptionRepository.syncFromRelay()
-                    } catch (_: Exception) { }
-                }
+                .collect { relaySyncCoordinator.syncAll() }
         }
     }
 
@@ -48,23 +48,28 @@ class DashboardViewModel @Inject constructor(
 
     init {
         viewModelScope.launch {
+            // Native bill totals and the upcoming list come from indexed columns; only the five
+            // upcoming bills are decoded. CypherLog subscriptions live elsewhere and are added in.
+            val nativeBills = combine(
+                billRepository.getCategoryTotals(),
+                billRepository.getUpcomingUnpaidBills(UPCOMING_LIMIT)
+            ) { totals, upcoming -> totals to upcoming }
             combine(
                 salaryRepository.getSalaryConfig(),
-                billRepository.getAllBills(),
+                nativeBills,
                 cypherLogSubscriptionRepository.getAllAsBills(),
                 goalRepository.getAllGoals(),
                 nostrClient.connectionState
-            ) { salary, nativeBills, cypherLogBills, goals, connected ->
-                val bills = nativeBills + cypherLogBills.map { it.bill }
+            ) { salary, (nativeTotals, nativeUpcoming), cypherLogBills, goals, connected ->
+                val cypherBills = cypherLogBills.map { it.bill }
                 val calculation = salary?.let { PaycheckCalculator.calculate(it) }
-                val monthlyBills = bills.sumOf { b ->
-                    b.effectiveAmountDue() * b.frequency.timesPerYear / 12.0
+                val billCategoryTotals = nativeTotals.mapValues { (_, t) -> t.monthlyCents / 100.0 }.toMutableMap()
+                cypherBills.groupBy { it.effectiveGeneralCategory }.forEach { (category, list) ->
+                    billCategoryTotals.merge(category, list.sumOf { it.monthlyNormalizedAmount() }, Double::plus)
                 }
-                val billCategoryTotals = bills.groupBy { it.effectiveGeneralCategory }
-                    .mapValues { (_, list) ->
-                        list.sumOf { b -> b.effectiveAmountDue() * b.frequency.timesPerYear / 12.0 }
-                    }
-                val unpaidCount = bills.count { !it.isPaid }
+                val monthlyBills = billCategoryTotals.values.sum()
+                val nativeCount = nativeTotals.values.sumOf { it.billCount }
+                val unpaidCount = nativeTotals.values.sumOf { it.unpaidCount } + cypherBills.count { !it.isPaid }
                 val totalSaved = goals.sumOf { it.currentAmount }
                 val totalTarget = goals.sumOf { it.targetAmount }
                 val goalsProgress = if (totalTarget > 0) totalSaved / totalTarget * 100 else 0.0
@@ -80,7 +85,7 @@ class DashboardViewModel @Inject constructor(
                             (calculation?.totalPostTaxDeductions ?: 0.0),
                     effectiveTaxRate = calculation?.effectiveTaxRate ?: 0.0,
                     monthlyBills = monthlyBills,
-                    billCount = bills.size,
+                    billCount = nativeCount + cypherBills.size,
                     unpaidBillCount = unpaidCount,
                     billCategoryTotals = billCategoryTotals,
                     goalCount = goals.size,
@@ -89,9 +94,9 @@ class DashboardViewModel @Inject constructor(
                     totalGoalTarget = totalTarget,
                     monthlyDisposable = monthlyDisposable,
                     isConnected = connected,
-                    hasData = salary != null || nativeBills.isNotEmpty() || cypherLogBills.isNotEmpty() || goals.isNotEmpty(),
+                    hasData = salary != null || nativeCount > 0 || cypherLogBills.isNotEmpty() || goals.isNotEmpty(),
                     topGoals = goals.sortedByDescending { it.progressPercent }.take(3),
-                    upcomingBills = bills.filter { !it.isPaid }.take(5)
+                    upcomingBills = (nativeUpcoming + cypherBills.filter { !it.isPaid }).take(UPCOMING_LIMIT)
                 )
             }.collect { state ->
                 _state.value = state
@@ -99,4 +104,8 @@ class DashboardViewModel @Inject constructor(
         }
 
     }
+
+    private companion object {
+        const val UPCOMING_LIMIT = 5
+    }
 }
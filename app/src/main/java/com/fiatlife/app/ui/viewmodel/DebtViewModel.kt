@@ -5,6 +5,7 @@ import androidx.lifecycle.viewModelScope
 import com.fiatlife.app.data.nostr.NostrClient
 import com.fiatlife.app.data.repository.BillRepository
 import com.fiatlife.app.data.repository.CreditAccountRepository
+import com.fiatlife.app.data.sync.RelaySyncCoordinator
 import com.fiatlife.app.domain.model.Bill
 import com.fiatlife.app.domain.model.BillFrequency
 import com.fiatlife.app.domain.model.BillSubcategory
@@ -40,7 +41,8 @@ data class DebtState(
 class DebtViewModel @Inject constructor(
     private val repository: CreditAccountRepository,
     private val billRepository: BillRepository,
-    private val nostrClient: NostrClient
+    private val nostrClient: NostrClient,
+    private val relaySyncCoordinator: RelaySyncCoordinator
 ) : ViewModel() {
 
     private val _state = MutableStateFlow(DebtState())
@@ -78,11 +80,7 @@ class DebtViewModel @Inject constructor(
             nostrClient.connectionState
                 .filter { it }
                 .distinctUntilChanged()
-                .collect {
-                    try {
-                        repository.syncFromNostr()
-                    } catch (_: Exception) { }
-                }
+                .collect { relaySyncCoordinator.syncAll() }
         }
     }
 
@@ -21,10 +21,9 @@ import com.fiatlife.app.data.notification.NotifDetailLevel
 import com.fiatlife.app.data.nostr.NostrClient
 import com.fiatlife.app.data.nostr.hexToByteArray
 import com.fiatlife.app.data.nostr.toHex
-import com.fiatlife.app.data.repository.BillRepository
-import com.fiatlife.app.data.repository.GoalRepository
-import com.fiatlife.app.data.repository.SalaryRepository
+import com.fiatlife.app.data.security.DecryptCache
 import com.fiatlife.app.data.security.PinPrefs
+import com.fiatlife.app.data.sync.RelaySyncCoordinator
 import dagger.hilt.android.lifecycle.HiltViewModel
 import dagger.hilt.android.qualifiers.ApplicationContext
 import fr.acinq.secp256k1.Secp256k1
@@ -57,9 +56,8 @@ class SettingsViewModel @Inject constructor(
     private val dataStore: DataStore<Preferences>,
     private val nostrClient: NostrClient,
     private val blossomClient: BlossomClient,
-    private val salaryRepository: SalaryRepository,
-    private val billRepository: BillRepository,
-    private val goalRepository: GoalRepository,
+    private val relaySyncCoordinator: RelaySyncCoordinator,
+    private val decryptCache: DecryptCache,
     val pinPrefs: PinPrefs
 ) : ViewModel() {
 
@@ -183,15 +181,20 @@ class SettingsViewModel @Inject constructor(
         }
     }
 
+    /** Ignore incremental sync marks and refetch every record from the relay. */
+    fun fullResync() {
+        viewModelScope.launch {
+            if (!nostrClient.hasSigner || _state.value.relayUrl.isEmpty()) return@launch
+            _state.update { it.copy(statusMessage = "Resyncing all data from relay...") }
+            val report = relaySyncCoordinator.syncAll(fullResync = true)
+            _state.update { it.copy(statusMessage = "Full resync complete: ${report.received} record(s) received") }
+        }
+    }
+
     private suspend fun syncAllFromRelay() {
         Log.d(TAG, "Syncing all data from relay")
-        val jobs = listOf(
-            viewModelScope.launch { try { salaryRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Salary sync: ${e.message}") } },
-            viewModelScope.launch { try { billRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Bill sync: ${e.message}") } },
-            viewModelScope.launch { try { goalRepository.syncFromNostr() } catch (e: Exception) { Log.w(TAG, "Goal sync: ${e.message}") } }
-        )
-        jobs.forEach { it.join() }
-        Log.d(TAG, "Sync complete")
+        val report = relaySyncCoordinator.syncAll()
+        Log.d(TAG, "Sync complete: ${report.received} event(s) received")
     }
 
     fun setPinLockEnabled(enabled: Boolean) {
@@ -246,15 +249,16 @@ class SettingsViewModel @Inject constructor(
     fun logout() {
         viewModelScope.launch {
             nostrClient.clearSigner()
+            decryptCache.clear()
             dataStore.edit { it.clear() }
         }
     }
 
+    /** Normalize each relay in a comma/whitespace separated list and rejoin with ", ". */
     private fun normalizeRelayUrl(url: String): String {
-        val trimmed = url.trim()
-        if (trimmed.isEmpty()) return trimmed
-        if (trimmed.startsWith("wss://") || trimmed.startsWith("ws://")) return trimmed
-        return "wss://$trimmed"
+        return NostrClient.parseRelayUrls(url).joinToString(", ") { relay ->
+            if (relay.startsWith("wss://") || relay.startsWith("ws://")) relay else "wss://$relay"
+        }
     }
 
     private fun normalizeBlossomUrl(url: String): String {
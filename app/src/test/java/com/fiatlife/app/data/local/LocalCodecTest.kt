@@ -0,0 +1,60 @@
+package com.fiatlife.app.data.local
+
+import com.fiatlife.app.domain.model.Bill
+import com.fiatlife.app.domain.model.BillFrequency
+import com.fiatlife.app.domain.model.FinancialGoal
+import kotlinx.serialization.SerializationException
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LocalCodecTest {
+
+    @Test
+    fun recordsRoundTrip() {
+        val bill = Bill(id = "b1", name = "Rent", amount = 1200.0, frequency = BillFrequency.QUARTERLY, notes = "landlord")
+        assertEquals(bill, LocalCodec.decode(Bill.serializer(), LocalCodec.encode(Bill.serializer(), bill)))
+
+        val goal = FinancialGoal(id = "g1", name = "Holiday", targetAmount = 900.0)
+        assertEquals(goal, LocalCodec.decode(FinancialGoal.serializer(), LocalCodec.encode(FinancialGoal.serializer(), goal)))
+    }
+
+    @Test
+    fun defaultsAreLeftOut() {
+        val data = LocalCodec.encode(Bill.serializer(), Bill(id = "b1"))
+        assertEquals(0xC6.toByte(), data[0])
+        assertTrue(data.size < 16)
+    }
+
+    @Test
+    fun versionOneRowsUpgradeInPlace() {
+        val bill = Bill(id = "b1", name = "Rent")
+        val data = LocalCodec.encode(Bill.serializer(), bill).also { it[0] = 1 }
+        assertTrue(LocalCodec.upgradeInPlace(data))
+        assertEquals(bill, LocalCodec.decode(Bill.serializer(), data))
+        assertFalse(LocalCodec.upgradeInPlace(data))
+        assertFalse(LocalCodec.upgradeInPlace(LocalCodec.wrapJson("{}")))
+    }
+
+    @Test
+    fun rawJsonRowsStillDecode() {
+        val data = LocalCodec.wrapJson("""{"id":"b1","name":"Rent","unknownField":true}""")
+        assertEquals(0.toByte(), data[0])
+        assertEquals(Bill(id = "b1", name = "Rent"), LocalCodec.decode(Bill.serializer(), data))
+    }
+
+    @Test
+    fun unreadableDataThrowsSerializationException() {
+        assertThrows(SerializationException::class.java) {
+            LocalCodec.decode(Bill.serializer(), LocalCodec.wrapJson("{not json"))
+        }
+        assertThrows(SerializationException::class.java) {
+            LocalCodec.decode(Bill.serializer(), byteArrayOf(9, 1, 2))
+        }
+        assertThrows(SerializationException::class.java) {
+            LocalCodec.decode(Bill.serializer(), ByteArray(0))
+        }
+    }
+}
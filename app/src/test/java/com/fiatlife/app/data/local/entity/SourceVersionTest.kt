@@ -0,0 +1,45 @@
+package com.fiatlife.app.data.local.entity
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SourceVersionTest {
+
+    private val synced = SourceVersion("bill", "5".repeat(64), 1_000)
+    private val localEdit = SourceVersion("bill", "", 1_000)
+
+    @Test
+    fun coversTheEventItWasWrittenFrom() {
+        assertTrue(synced.covers(synced.sourceEventId, 1_000))
+    }
+
+    @Test
+    fun coversOlderEventsOnly() {
+        assertTrue(synced.covers("f".repeat(64), 999))
+        assertFalse(synced.covers("0".repeat(64), 1_001))
+        assertTrue(localEdit.covers("0".repeat(64), 999))
+        assertFalse(localEdit.covers("f".repeat(64), 1_001))
+    }
+
+    @Test
+    fun sameSecondGoesToTheLowerId() {
+        assertTrue(synced.covers("6".repeat(64), 1_000))
+        assertFalse(synced.covers("4".repeat(64), 1_000))
+    }
+
+    @Test
+    fun localEditDoesNotCoverSameSecondEvents() {
+        assertFalse(localEdit.covers("0".repeat(64), 1_000))
+        assertFalse(localEdit.covers("f".repeat(64), 1_000))
+    }
+
+    @Test
+    fun deletionCoversEverythingUpToItsSecond() {
+        val deleted = SourceVersion.deletedAt("fiatlife/bill/1", 1_000_400)
+        assertTrue(deleted.covers("0".repeat(64), 999))
+        assertTrue(deleted.covers("0".repeat(64), 1_000))
+        assertFalse(deleted.covers("f".repeat(64), 1_001))
+        assertTrue(SourceVersion.deletedAt("x", 1_000_000).covers("0".repeat(64), 1_000))
+    }
+}
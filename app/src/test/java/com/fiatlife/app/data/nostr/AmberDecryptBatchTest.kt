@@ -0,0 +1,77 @@
+package com.fiatlife.app.data.nostr
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Test
+
+class AmberDecryptBatchTest {
+
+    private val ids = listOf("decrypt_batch_1_0", "decrypt_batch_1_1", "decrypt_batch_1_2")
+
+    @Test
+    fun oneResultForTheWholeBatch() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        assertEquals(3, batch.offer(mapOf(ids[2] to "c", ids[0] to "a", ids[1] to "b")))
+        assertEquals(listOf("a", "b", "c"), batch.await(stragglerTimeoutMs = 0, answerTimeoutMs = 60_000))
+    }
+
+    @Test
+    fun waitsForEveryIdWhenAnsweredOneByOne() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        val results = async { batch.await(stragglerTimeoutMs = 60_000, answerTimeoutMs = 60_000) }
+        batch.offer(mapOf(ids[0] to "a"))
+        yield()
+        assertFalse(results.isCompleted)
+        batch.offer(mapOf(ids[1] to null))
+        yield()
+        assertFalse(results.isCompleted)
+        batch.offer(mapOf(ids[2] to "c"))
+        assertEquals(listOf("a", null, "c"), results.await())
+    }
+
+    @Test
+    fun unknownIdsAreDropped() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        assertEquals(0, batch.offer(mapOf("decrypt_batch_0_0" to "stale", "decrypt_123" to "single")))
+        assertEquals(1, batch.offer(mapOf(ids[1] to "b", "decrypt_batch_0_1" to "stale")))
+        assertEquals(listOf(null, "b", null), batch.await(stragglerTimeoutMs = 10, answerTimeoutMs = 60_000))
+    }
+
+    @Test
+    fun answeredIdsAreNotOverwritten() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        batch.offer(mapOf(ids[0] to "a"))
+        assertEquals(0, batch.offer(mapOf(ids[0] to "other")))
+        // A rejection can still be followed by a real answer for the same id.
+        batch.offer(mapOf(ids[1] to null))
+        assertEquals(1, batch.offer(mapOf(ids[1] to "b")))
+        assertEquals(listOf("a", "b", null), batch.await(stragglerTimeoutMs = 10, answerTimeoutMs = 60_000))
+    }
+
+    @Test
+    fun resultWithoutIdsStartsTheStragglerTimeout() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        batch.offer(emptyMap())
+        assertEquals(listOf(null, null, null), batch.await(stragglerTimeoutMs = 10, answerTimeoutMs = 60_000))
+    }
+
+    @Test
+    fun noAnswerAtAllTimesOut() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        assertEquals(listOf(null, null, null), batch.await(stragglerTimeoutMs = 60_000, answerTimeoutMs = 10))
+    }
+
+    @Test
+    fun cancelReturnsWhatWasAnswered() = runBlocking {
+        val batch = AmberDecryptBatch(ids)
+        val results = async { batch.await(stragglerTimeoutMs = 60_000, answerTimeoutMs = 60_000) }
+        yield()
+        assertFalse(results.isCompleted)
+        batch.offer(mapOf(ids[0] to "a"))
+        batch.cancel()
+        assertEquals(listOf("a", null, null), results.await())
+    }
+}
@@ -0,0 +1,40 @@
+package com.fiatlife.app.data.nostr
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class HexTest {
+
+    @Test
+    fun encodesEveryByteAsLowercasePair() {
+        val all = ByteArray(256) { it.toByte() }
+        val expected = (0 until 256).joinToString("") { "%02x".format(it) }
+        assertEquals(expected, Hex.encode(all))
+        assertEquals("", Hex.encode(ByteArray(0)))
+    }
+
+    @Test
+    fun decodesEitherCase() {
+        val bytes = byteArrayOf(0x00, 0x7f, 0x80.toByte(), 0xab.toByte(), 0xff.toByte())
+        assertArrayEquals(bytes, Hex.decode("007f80abff"))
+        assertArrayEquals(bytes, Hex.decode("007F80ABFF"))
+        assertArrayEquals(ByteArray(0), Hex.decode(""))
+    }
+
+    @Test
+    fun roundTrips() {
+        val bytes = ByteArray(1_000) { (it * 31 + 7).toByte() }
+        assertArrayEquals(bytes, Hex.decode(Hex.encode(bytes)))
+    }
+
+    @Test
+    fun rejectsOddLengthAndNonHexCharacters() {
+        for (invalid in listOf("0", "abc", "0g", "g0", "zz", "0x00", " 00", "é0", "٠٠")) {
+            assertNull(invalid, Hex.decodeOrNull(invalid))
+            assertThrows(invalid, IllegalArgumentException::class.java) { Hex.decode(invalid) }
+        }
+    }
+}
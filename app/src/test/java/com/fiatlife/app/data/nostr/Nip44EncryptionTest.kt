@@ -0,0 +1,407 @@
+package com.fiatlife.app.data.nostr
+
+import fr.acinq.secp256k1.Secp256k1
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Test
+import java.util.Base64
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.ChaCha20ParameterSpec
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+class Nip44EncryptionTest {
+
+    private class Vector(
+        val sec1: String,
+        val pub2: String,
+        val conversationKey: String,
+        val nonce: String,
+        val plaintext: String,
+        val payload: String
+    )
+
+    private class LegacyVector(val sec1: String, val pub2: String, val plaintext: String, val payload: String)
+
+    private val secp256k1 = Secp256k1.get()
+
+    @Test
+    fun conversationKeyMatchesSpecVectors() {
+        assertEquals(
+            "c41c775356fd92eadc63ff5a0dc1da211b268cbea22316767095b2871ea1412d",
+            Hex.encode(Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2))))
+        )
+        assertEquals(
+            "3dfef0ce2a4d80a25e7a328accf73448ef67096f65f79588e358d9a0eb9013f1",
+            Hex.encode(
+                Nip44Encryption.getConversationKey(
+                    Hex.decode("315e59ff51cb9209768cf7da80791ddcaae56ac9775eb25b6dee1234bc5d2268"),
+                    Hex.decode("c2f9d9948dc8c7c38321e4b85c8558872eafa0641cd269db76848a6073e69133")
+                )
+            )
+        )
+    }
+
+    @Test
+    fun conversationKeyRejectsInvalidKeys() {
+        val pub2 = xOnlyPubKey(key(2))
+        val invalid = listOf(
+            "sec1 is 0" to (key(0) to pub2),
+            "sec1 is the curve order" to
+                (Hex.decode("fffffffffffffffffffffffffffffffebaaedce6af48a03bbfd25e8cd0364141") to pub2),
+            "sec1 is above the curve order" to
+                (Hex.decode("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff") to pub2),
+            "pub2 x = 0 has no curve point" to (key(1) to key(0)),
+            "pub2 x = 5 has no curve point" to (key(1) to key(5)),
+            "pub2 is above the field prime" to
+                (key(1) to Hex.decode("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"))
+        )
+        for ((reason, keys) in invalid) {
+            assertThrows(reason, Exception::class.java) { Nip44Encryption.getConversationKey(keys.first, keys.second) }
+        }
+    }
+
+    @Test
+    fun calcPaddedLenMatchesSpecVectors() {
+        val expected = listOf(
+            16 to 32, 32 to 32, 33 to 64, 37 to 64, 45 to 64, 49 to 64, 64 to 64, 65 to 96,
+            100 to 128, 111 to 128, 200 to 224, 250 to 256, 320 to 320, 383 to 384, 384 to 384,
+            400 to 448, 500 to 512, 512 to 512, 515 to 640, 700 to 768, 800 to 896, 900 to 1024,
+            1020 to 1024, 65536 to 65536
+        )
+        for ((unpadded, padded) in expected) {
+            assertEquals("calcPaddedLen($unpadded)", padded, Nip44Encryption.calcPaddedLen(unpadded))
+        }
+    }
+
+    @Test
+    fun encryptMatchesSpecVector() {
+        val conversationKey = Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2)))
+        val payload = "AgAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAABee0G5VSK0/9YypIObAtDKfYEAjD35uVkHyB0F4DwrcNaCXl" +
+            "CWZKaArsGrY6M9wnuTMxWfp1RTN9Xga8no+kF5Vsb"
+        assertEquals(payload, Nip44Encryption.encryptWithKey("a", conversationKey, key(1)))
+        assertEquals("a", Nip44Encryption.decryptWithKey(payload, conversationKey))
+    }
+
+    @Test
+    fun encryptDecryptVectors() {
+        for (v in VECTORS) {
+            val sec1 = Hex.decode(v.sec1)
+            val pub2 = Hex.decode(v.pub2)
+            val conversationKey = Nip44Encryption.getConversationKey(sec1, pub2)
+            assertEquals(v.conversationKey, Hex.encode(conversationKey))
+            assertEquals(v.payload, Nip44Encryption.encryptWithKey(v.plaintext, conversationKey, Hex.decode(v.nonce)))
+            assertEquals(v.plaintext, Nip44Encryption.decryptWithKey(v.payload, conversationKey))
+            assertEquals(v.plaintext, Nip44Encryption.decrypt(v.payload, sec1, pub2))
+        }
+    }
+
+    @Test
+    fun encryptMatchesJdkChaCha20AndHmac() {
+        val conversationKey = Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2)))
+        for (size in listOf(1, 32, 33, 257, 4_000, 65_535)) {
+            val plaintext = "p".repeat(size)
+            val nonce = ByteArray(32) { (it * 7 + size).toByte() }
+            assertEquals(
+                referenceEncrypt(conversationKey, nonce, padded(size, Nip44Encryption.calcPaddedLen(size))),
+                Nip44Encryption.encryptWithKey(plaintext, conversationKey, nonce)
+            )
+        }
+    }
+
+    @Test
+    fun roundTripsWithRandomNonces() {
+        val sec1 = key(3)
+        val sec2 = key(4)
+        for (plaintext in listOf("a", "{\"deleted\":true}", "€".repeat(1_000), "x".repeat(65_535))) {
+            val payload = Nip44Encryption.encrypt(plaintext, sec1, xOnlyPubKey(sec2))
+            assertEquals(plaintext, Nip44Encryption.decrypt(payload, sec2, xOnlyPubKey(sec1)))
+            assertEquals(plaintext, Nip44Encryption.decryptFromSelf(Nip44Encryption.encryptToSelf(plaintext, sec1), sec1))
+        }
+    }
+
+    @Test
+    fun rejectsPlaintextOutsideSpecLimits() {
+        val conversationKey = Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2)))
+        assertThrows(IllegalArgumentException::class.java) {
+            Nip44Encryption.encryptWithKey("", conversationKey, key(1))
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            Nip44Encryption.encryptWithKey("x".repeat(65_536), conversationKey, key(1))
+        }
+    }
+
+    @Test
+    fun rejectsInvalidPayloads() {
+        val conversationKey = Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2)))
+        val valid = Nip44Encryption.encryptWithKey("hello", conversationKey, key(9))
+        val bytes = Base64.getDecoder().decode(valid)
+        fun modified(change: (ByteArray) -> Unit) = Base64.getEncoder().encodeToString(bytes.copyOf().also(change))
+        val invalid = listOf(
+            "unknown encoding" to "#" + valid.drop(1),
+            "unknown version" to modified { it[0] = 1 },
+            "invalid base64" to valid.replaceRange(10, 11, "%"),
+            "too short" to Base64.getEncoder().encodeToString(bytes.copyOf(98)),
+            "invalid MAC" to modified { it[it.size - 1] = (it[it.size - 1] + 1).toByte() },
+            "tampered ciphertext" to modified { it[40] = (it[40] + 1).toByte() }
+        )
+        for ((reason, payload) in invalid) {
+            assertThrows(reason, IllegalArgumentException::class.java) {
+                Nip44Encryption.decryptWithKey(payload, conversationKey)
+            }
+        }
+    }
+
+    @Test
+    fun rejectsInvalidPaddingBehindValidMac() {
+        val conversationKey = Nip44Encryption.getConversationKey(key(1), xOnlyPubKey(key(2)))
+        val invalid = listOf(
+            "zero length" to padded(0, 32),
+            "length beyond padding" to padded(40, 32),
+            "padding longer than the spec's" to padded(1, 64),
+            "padding shorter than the spec's" to padded(33, 33)
+        )
+        for ((reason, data) in invalid) {
+            assertThrows(reason, IllegalArgumentException::class.java) {
+                Nip44Encryption.decryptWithKey(referenceEncrypt(conversationKey, key(7), data), conversationKey)
+            }
+        }
+    }
+
+    @Test
+    fun decryptsLegacyVectors() {
+        for (v in LEGACY_VECTORS) {
+            val sec1 = Hex.decode(v.sec1)
+            val pub2 = Hex.decode(v.pub2)
+            assertEquals(v.plaintext, Nip44Encryption.decrypt(v.payload, sec1, pub2))
+            val tampered = Base64.getDecoder().decode(v.payload).also { it[30] = (it[30] + 1).toByte() }
+            assertThrows(IllegalArgumentException::class.java) {
+                Nip44Encryption.decrypt(Base64.getEncoder().encodeToString(tampered), sec1, pub2)
+            }
+        }
+        val self = LEGACY_VECTORS.last()
+        assertEquals(self.plaintext, Nip44Encryption.decryptFromSelf(self.payload, Hex.decode(self.sec1)))
+    }
+
+    @Test
+    fun decryptsLegacyPayloadsThroughFallback() {
+        // Older versions only ever encrypted to the signer's own key.
+        val sec = key(5)
+        val pub = xOnlyPubKey(sec)
+        for (plaintext in listOf("a", "{\"deleted\":true}", "€".repeat(300))) {
+            val nonce = ByteArray(24) { (it + plaintext.length).toByte() }
+            val payload = legacyEncrypt(plaintext, sec, pub, nonce)
+            assertEquals(plaintext, Nip44Encryption.decrypt(payload, sec, pub))
+            assertEquals(plaintext, Nip44Encryption.decryptFromSelf(payload, sec))
+            // The explicit-key entry point has no fallback.
+            assertThrows(IllegalArgumentException::class.java) {
+                Nip44Encryption.decryptWithKey(payload, Nip44Encryption.getConversationKey(sec, pub))
+            }
+        }
+    }
+
+    @Test
+    fun primitivesMatchReferenceVectors() {
+        // draft-irtf-cfrg-xchacha-03, section 2.2.1
+        val subkey = ByteArray(32)
+        ChaCha20.hChaCha20(ByteArray(32) { it.toByte() }, 0, Hex.decode("000000090000004a0000000031415927"), 0, subkey)
+        assertEquals("82413b4227b27bfed30e42508a877d73a0f9e4d58a74a853c12ec41326d3ecdc", Hex.encode(subkey))
+
+        // RFC 8439, section 2.5.2
+        val tag = ByteArray(16)
+        val message = "Cryptographic Forum Research Group".toByteArray()
+        Poly1305(Hex.decode("85d6be7857556d337f4452fe42d506a80103808afb0db2fd4abff6af4149f51b")).apply {
+            update(message, 0, message.size)
+            finish(tag, 0)
+        }
+        assertEquals("a8061dc1305136c6c22b8baf0c0127a9", Hex.encode(tag))
+
+        for (len in listOf(0, 1, 63, 64, 65, 1_000)) {
+            val key = ByteArray(32) { (it * 3 + len).toByte() }
+            val nonce = ByteArray(12) { (it + len).toByte() }
+            val data = ByteArray(len) { it.toByte() }
+            val expected = Cipher.getInstance("ChaCha20").run {
+                init(Cipher.ENCRYPT_MODE, SecretKeySpec(key, "ChaCha20"), ChaCha20ParameterSpec(nonce, 5))
+                doFinal(data)
+            }
+            ChaCha20.xor(key, 0, nonce, 0, 5, data, 0, len)
+            assertArrayEquals("ChaCha20 over $len bytes", expected, data)
+        }
+    }
+
+    /** u16 length [declaredLen], then that many bytes of text, zero-filled to [paddedLen]. */
+    private fun padded(declaredLen: Int, paddedLen: Int) = ByteArray(2 + paddedLen).also {
+        it[0] = (declaredLen ushr 8).toByte()
+        it[1] = declaredLen.toByte()
+        for (i in 2 until 2 + minOf(declaredLen, paddedLen)) it[i] = 'p'.code.toByte()
+    }
+
+    /** Spec encryption of an already padded plaintext, built from the JDK's ChaCha20 and HMAC. */
+    private fun referenceEncrypt(conversationKey: ByteArray, nonce: ByteArray, padded: ByteArray): String {
+        val keys = hkdfExpand(conversationKey, nonce, 76)
+        val ciphertext = Cipher.getInstance("ChaCha20").run {
+            init(Cipher.ENCRYPT_MODE, SecretKeySpec(keys, 0, 32, "ChaCha20"), ChaCha20ParameterSpec(keys.copyOfRange(32, 44), 0))
+            doFinal(padded)
+        }
+        val mac = hmac(keys.copyOfRange(44, 76), nonce + ciphertext)
+        return Base64.getEncoder().encodeToString(byteArrayOf(2) + nonce + ciphertext + mac)
+    }
+
+    /**
+     * The encoding FiatLife wrote before following the spec: a hashed-ECDH conversation key,
+     * padding to 1/8 of the next power of two, XChaCha20-Poly1305 (HChaCha20, then the JDK's
+     * ChaCha20-Poly1305) and an HMAC with a 20-byte key over the whole payload.
+     */
+    private fun legacyEncrypt(plaintext: String, sec1: ByteArray, pub2: ByteArray, nonce: ByteArray): String {
+        val conversationKey = hmac("nip44-v2".toByteArray(), secp256k1.ecdh(sec1, byteArrayOf(2) + pub2))
+        val keys = hkdfExpand(conversationKey, nonce, 76)
+        val plain = plaintext.toByteArray()
+        val paddedLen = if (plain.size <= 32) 32 else {
+            val chunk = Integer.highestOneBit(plain.size - 1) * 2 / 8
+            (plain.size + chunk - 1) / chunk * chunk
+        }
+        val padded = ByteArray(2 + paddedLen)
+        padded[0] = (plain.size ushr 8).toByte()
+        padded[1] = plain.size.toByte()
+        plain.copyInto(padded, 2)
+
+        val subkey = ByteArray(32)
+        ChaCha20.hChaCha20(keys, 0, keys, 32, subkey)
+        val sealed = Cipher.getInstance("ChaCha20-Poly1305").run {
+            init(Cipher.ENCRYPT_MODE, SecretKeySpec(subkey, "ChaCha20"), IvParameterSpec(ByteArray(4) + keys.copyOfRange(48, 56)))
+            doFinal(padded)
+        }
+        val payload = byteArrayOf(2) + nonce + sealed
+        return Base64.getEncoder().encodeToString(payload + hmac(keys.copyOfRange(56, 76), payload))
+    }
+
+    private fun hkdfExpand(prk: ByteArray, info: ByteArray, length: Int): ByteArray {
+        var out = ByteArray(0)
+        var t = ByteArray(0)
+        var round = 1
+        while (out.size < length) {
+            t = hmac(prk, t + info + byteArrayOf(round++.toByte()))
+            out += t
+        }
+        return out.copyOf(length)
+    }
+
+    private fun hmac(key: ByteArray, data: ByteArray): ByteArray =
+        Mac.getInstance("HmacSHA256").run {
+            init(SecretKeySpec(key, "HmacSHA256"))
+            doFinal(data)
+        }
+
+    private fun key(last: Int) = ByteArray(32).also { it[31] = last.toByte() }
+
+    private fun xOnlyPubKey(secretKey: ByteArray) =
+        secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(secretKey)).copyOfRange(1, 33)
+
+    private companion object {
+        /** From an independent Python implementation on pyca/cryptography primitives. */
+        val VECTORS = listOf(
+        Vector(
+            sec1 = "52f22665a60c12d289185d950ee8813609166f6b113d178d6c0fd3901ff239a1",
+            pub2 = "2802b60e62878df05b804a75a55e0df946b928469b99c342c6949a7b3c0ee0d8",
+            conversationKey = "9c130bbe423d68d0df8e66bb664ea198a0d1828218a45873aa429e895e89fb13",
+            nonce = "8cb610900f9e347fae886dc6507795ec745c4c3fcb2eb2c73e14934c867ee057",
+            plaintext = "a",
+            payload = "Aoy2EJAPnjR/rohtxlB3lex0XEw/yy6yxz4Uk0yGfuBXpSAJRhkDsQZ/Ts2sHVQWVfLh0ItxUvSVHq2O6O4t71enxt2nM5GA4EGJfYjON5XJFtLlJR3lou3Msq1C3QxlnBcb"
+        ),
+        Vector(
+            sec1 = "e0d15057b159987f94cc7411d717f14579b2aa100fbbb34fa593feaed27248b7",
+            pub2 = "890b108f1a57159d2e5175ce2e7d62fd67a267bc2e2ac60be91f172ceba59a29",
+            conversationKey = "024dffb8b8d1793234b0f68b8fbf37a50d34ad1813eb4983f79949b555e1739f",
+            nonce = "d16edd8c47b46afc5baee261f53b26152d263ba83b037cd4962e434801256b88",
+            plaintext = "hi 🍕🫄",
+            payload = "AtFu3YxHtGr8W67iYfU7JhUtJjuoOwN81JYuQ0gBJWuIcG02bKy72QA5iyxOZkwsuOUsNPKAHLq7rZsKT+eh7B9JI94bEgrn1RQydlTDTzzIO7Zhft5g7f9kFU19pcRyPJEm"
+        ),
+        Vector(
+            sec1 = "646566641a7ba2660f3011fc3570291c57990d1a0091268919f25d9d0612df35",
+            pub2 = "1ed4fd9cf0b25994aff95e5479131e87d63d9e3ac6e4ffe634e37a1056a1c9ea",
+            conversationKey = "63e1d7a6fcfac770dea671a26fe2de79e34461264bdfcd0bbb67b534be0441bb",
+            nonce = "0534f3f3875c25b08bea06c2874cfaa4dd17b2d842845de82a5bc539888ac780",
+            plaintext = "x".repeat(31),
+            payload = "AgU08/OHXCWwi+oGwodM+qTdF7LYQoRd6CpbxTmIiseAhjJGCyXmu7t3GL/4UkBZFLYdQFd/gQry7FR1EbwE+yENpA+ZSEbef3ZXIxlVCNsCC19QGWRmaTKQchMujsiRXAYg"
+        ),
+        Vector(
+            sec1 = "07ca47784231b19af45872ceefb9fc59f4f95d14381a3a783256347b9ffce69c",
+            pub2 = "7095325b0e5e0d86622a46a74980d5314d95b81d61b27f79907f19179c69b688",
+            conversationKey = "63d4b1333cb6090585199f45fb1193d1c5bd55414ecb8d9f969560873e605fea",
+            nonce = "66bef215b9282bfe20072697e777cea7259cd398fa79a8ef59278c8c210503cc",
+            plaintext = "y".repeat(32),
+            payload = "Ama+8hW5KCv+IAcml+d3zqclnNOY+nmo71knjIwhBQPMYoGeyz0b43LGnaBldqdedcydtReDuKnL7+TriJ3TPFdv40DOXuT4UF2gBfqfSr2ACS9ZonJL7TwobXR9c9Yvy+m0"
+        ),
+        Vector(
+            sec1 = "428b6bd5210fe8bd5ae575a995d0e7846bd3eae080218826868204df70c62e9b",
+            pub2 = "d7c14279598757443418dbfda13cac87f526d01cfa1525977d23b4936061ae21",
+            conversationKey = "40f1593e42536203a02361d0769ba2357c7539f1fbe8728ffc8f41281212351f",
+            nonce = "8f07c2e4e91071539cf9819b8333b146738288ce7a81f13fb285e0e0f1ed42ec",
+            plaintext = "z".repeat(33),
+            payload = "Ao8HwuTpEHFTnPmBm4MzsUZzgojOeoHxP7KF4ODx7ULskXFaL7TEPfYJ/lK/Nu65/g9GWo6dXBmrfdTK2LpLag+eKiKMAkMrVxUfROxo7EVVnyJylKWPESxOPJXgMA5INMRrsTuCu1ksMvvDrHK8s79WvpMd2MfxU3a+9YeU8ncgTjw="
+        ),
+        Vector(
+            sec1 = "27f0b7a4a95d2440e223f77738bff31865e27c29fdaad53929b46efe8367566b",
+            pub2 = "f0a6a11e44a08086394a3ff088df4f541ec65af81690fc79c9dfe29dddd9ad33",
+            conversationKey = "4dc8ad8fe874823bb00ac5bbf42fd3dcaaefd00672fb0c02d996ff03983b9152",
+            nonce = "0ae7c72e45c121d16cd9e9add1f242672689eb83927eb35316470eccb02e6ce5",
+            plaintext = "€".repeat(40),
+            payload = "Agrnxy5FwSHRbNnprdHyQmcmieuDkn6zUxZHDsywLmzlwDMW1NaQYhmPo5xNCvoS8oigmxKPvhqe0dcff/MDaL8JEYi30rMOpS2o7O3GMIXrnCFvSu5462CaV+lDPrlRC/DyBlyC4ofn2utvC82HlDipfsqiqxJPNuAh/b5m8JWc/dyjv4cFtpUrE2DluW4JJlSk5YEtWKNzAhg9UjVjeJe1yBVfIEbsrz8oQxbUy3kf9jXpxWGHOLVYOXf/v9LmBquE"
+        ),
+        Vector(
+            sec1 = "449f210b86b53df01cf829430c2e33ee4fa04e87c2344a7280ac2d4558cd04fe",
+            pub2 = "a566ff22b271d229753c1a188966175826ab22f9d9127abf155ea8a6f6295f64",
+            conversationKey = "f2e0c199e78368b5f9fb676b88471526dadbf0ebda44fd090c67f4a0ea16385c",
+            nonce = "5732d5e1b4baa22367fd58fb0dd6210312a0bde1416e290e15aad761de81abf8",
+            plaintext = "q".repeat(100),
+            payload = "Alcy1eG0uqIjZ/1Y+w3WIQMSoL3hQW4pDhWq12Hegav4KCaWhrBDSwjTh1yj1Xq2u67nI06ozjMkni4Mpu1qjA3CaBOncL8qDw8/NYNuBGgBTiJ94AAgToXYnMeDQa4RpmoWOLA2rC4c4IbzGPvfTDjH2P/KtZ7xMK7p7ulJttqtXz/8AhnrHc3yglccx9FOtGoDxnTo5wfN2yLa4QqkSOe9Cdn2Hizjc1Azy5sz/uYO1wMgAiOAr5H4EWUnwk3FR7pD"
+        ),
+        Vector(
+            sec1 = "a88610bebc7940cf13d8433cbac1343bbda6f9757ed861137ae9af49c40b9da1",
+            pub2 = "3d2720b668d05967229b1ca4aaa66ca06a3909253ab7f90f70e6e0f26ca2b15a",
+            conversationKey = "bfccf1ceaea02610674c18c9487f0ab576ede1afdaf140f828b5a530873efde9",
+            nonce = "77c41efee48c334ffa15ef79044a7513d181f7fe73fe446335eaf2ee35139417",
+            plaintext = "e".repeat(256),
+            payload = "AnfEHv7kjDNP+hXveQRKdRPRgff+c/5EYzXq8u41E5QXrGywzidIUZjSlbe0/GqLF4sJ+OVXzs+rgbQks3j931BmFiBBsjhvT+DFexdJMsbHRR/psrayJNNiPJWUGY0mjf6vrDMKhlxXlFeT46AL4ciLxLCh7hcSqUXdr1zJQEgrolKeFCqMwqL0HqQvO8WQvCGG7G9kmxL2G/laM9eemrKr78xlSW1vfrZSUTkAcze74Rehz1+rE01mEGcheFJA3mZIKaSfGjrOqdS9gHxGe+VlzoeqWzYREN/Wi+l5pqCiD09zQOGkKwWStkY5MB9kY5jd2w0X7P11bTH2k0uo3PvaT0rMrr9fDiA1XUN0/eNXNNeqIUBti6JDh8HLcuf70AbPwb3IRN3gUPj78vCqrBSqj5C51WISqn4ZiKxeQW9OREI="
+        ),
+        Vector(
+            sec1 = "00f37dae73674dba246a5860501ed7540053c056d6651ef0ed32b603e6bd4a40",
+            pub2 = "81046ede7438df9fe499c387f2914cbabf5cdfec5047309ccedad8285cec888d",
+            conversationKey = "ea9d54d63f963065097ccbc0fff68d378a51efdffe9fd169d4c07713e4a36a27",
+            nonce = "5fc8f46de207cfc2a166e9e0f08d8c34b8140ceebb69739dc023a4de497c0ce9",
+            plaintext = "r".repeat(257),
+            payload = "Al/I9G3iB8/CoWbp4PCNjDS4FAzuu2lzncAjpN5JfAzprhVJEkl7sU0wTr0gnGavjJ3SO3qUonxhxzm7O+1B42ogGxmGkQu92IIGbUNlYY8LPB61Z1Sgl9RR8FMrICRXlPzxwgyfljfMnkDhLPedTKTDE/qhv/FoQvjq9qT92d4ynOnSrgoT97estdEcpEAHK5C/fRRRdKlEuCcCftIN5DcvMeTn3CxuCeY0BlHglovi25RE/cDHkljEeSu6emvi+aGHJVLPWFeg11RelfgJ1HGCaYGJsjU+rvqhQGSJQqsAKJhxGYKMIKHUoHGBaDi68PO9en/aitYP3h2M0ROIxnNjfjJOQ2xjJou7eqSTgPasSa7SiiAtwrqnZv7bs0hEYeqF3V25FQ+7Mt5biQq7AS+38LTRsV2IQZfuSBngbbBT6DDpiXS7qTtIVW8thYP6yMnNC28c4stxZu5oEJ+OdHsznmeSv51LxPwbZvXs9eMPkmpczmQVXyjDcg8U3B7KMrGM"
+        )
+        )
+
+        /** Pre-spec FiatLife payloads from the same script; the last one is addressed to self. */
+        val LEGACY_VECTORS = listOf(
+        LegacyVector(
+            sec1 = "52f22665a60c12d289185d950ee8813609166f6b113d178d6c0fd3901ff239a1",
+            pub2 = "2802b60e62878df05b804a75a55e0df946b928469b99c342c6949a7b3c0ee0d8",
+            plaintext = "a",
+            payload = "ArpySZv6Eh6DayrBVybufWsK9qsTw46Syqj3bFUHJ1iAy+ipfuyDLfiSfFI+sbYqzA7xomToc7k+pPGcmdK1IAk4vQtdhRE3m8gLWlK1pNBpaJcL6VIVgrF8tAA2R5cQpKzMHGNDw27DhMQ="
+        ),
+        LegacyVector(
+            sec1 = "e0d15057b159987f94cc7411d717f14579b2aa100fbbb34fa593feaed27248b7",
+            pub2 = "890b108f1a57159d2e5175ce2e7d62fd67a267bc2e2ac60be91f172ceba59a29",
+            plaintext = "hi 🍕🫄",
+            payload = "Al6ckFHzILDbg/Oep629DXTm3sfz367Mj0DqYxroJBxcYrZmC+s6RFZcboHQN4nLoibs83pWucFvy+iqX6kxg1xe0CRYiYlLe6e/8TTJ+InoplmRtEU8/d/CzXKoJZGjxLW5AyydPvPWhjI="
+        ),
+        LegacyVector(
+            sec1 = "27f0b7a4a95d2440e223f77738bff31865e27c29fdaad53929b46efe8367566b",
+            pub2 = "f0a6a11e44a08086394a3ff088df4f541ec65af81690fc79c9dfe29dddd9ad33",
+            plaintext = "€".repeat(40),
+            payload = "AhJE8ASiFs1CFZvbOBFD3B90Alb+jWrt6uM5knc1LkcQUpBTiQ4wldUSIM/izASlNmm7ULrsiFAkI7SvZ83u0zqAtXSk6Vf7uYxydvDGWRl3GW5gsFiRm18oisCt8oB1DaOjqSJV+LJYiQE6juWOqoaiOlrslWJttoNMZZHZkT6MWCBWVUn+v2EoOraHgrErzFjlVvIJyZRRN4KHpH9XaAVi768e80C9EcQbkKL42K40Uo8Fca5VscifqhU3pq1Z8UyCALmBUpgh0Ko="
+        ),
+        LegacyVector(
+            sec1 = "2748e2e8943053106540fe3e81863ba6ce19a776fd091a0179e2d13bd772ea5f",
+            pub2 = "a38b5a35c96e570a56300a828f827ec6a29aa50339906865febc9cc0e7cf5610",
+            plaintext = "{\"deleted\":true}",
+            payload = "AgrgSzseDDCZ+dOVMe4TX4PdLXKaQsbHqmXx8CBbI8WNjZBz6OBiZmL9W2TRYRyfWI+rHA3+ZRvhqmgX9H9LPM3KfSzcvlGJH+Qau6a2lBrmUmlObS9GhmV7v9oSRtp36Y+i2J2bk2acGnM="
+        )
+        )
+    }
+}
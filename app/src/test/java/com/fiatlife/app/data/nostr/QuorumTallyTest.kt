@@ -0,0 +1,57 @@
+package com.fiatlife.app.data.nostr
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class QuorumTallyTest {
+
+    private fun ok(id: String) = NostrMessage.Ok(id, true, "")
+    private fun rejected(id: String, message: String = "blocked: no") = NostrMessage.Ok(id, false, message)
+
+    @Test
+    fun acceptedOnceTheQuorumIsMet() {
+        val tally = QuorumTally(listOf("e1"), quorum = 2, poolSize = 3)
+        tally.add(mapOf("e1" to ok("e1")))
+        assertFalse(tally.allSettled())
+        tally.add(mapOf("e1" to NostrMessage.Ok("e1", false, "duplicate: already have it")))
+        assertTrue(tally.allSettled())
+        assertEquals(true, tally.result().oks["e1"]?.success)
+        assertEquals(1, tally.result().accepted)
+    }
+
+    @Test
+    fun rejectedOnlyWhenEveryRelayAnswered() {
+        val tally = QuorumTally(listOf("e1"), quorum = 2, poolSize = 2)
+        tally.add(mapOf("e1" to ok("e1")))
+        tally.add(mapOf("e1" to rejected("e1")))
+        assertTrue(tally.allSettled())
+        assertEquals(rejected("e1"), tally.result().oks["e1"])
+        assertEquals(1, tally.result().rejected)
+    }
+
+    @Test
+    fun unansweredWhenTooFewRelaysAnswer() {
+        val tally = QuorumTally(listOf("e1", "e2"), quorum = 2, poolSize = 3)
+        tally.add(mapOf("e1" to ok("e1"), "e2" to null))
+        tally.add(mapOf("e1" to ok("e1"), "e2" to rejected("e2")))
+        assertFalse(tally.allSettled())
+        val result = tally.result()
+        assertEquals(true, result.oks["e1"]?.success)
+        assertNull(result.oks["e2"])
+        assertEquals(1, result.unanswered)
+    }
+
+    @Test
+    fun settlesWhenEveryEventIsDecided() {
+        val tally = QuorumTally(listOf("e1", "e2"), quorum = 1, poolSize = 2)
+        tally.add(mapOf("e1" to ok("e1"), "e2" to rejected("e2")))
+        assertFalse(tally.allSettled())
+        tally.add(mapOf("e1" to rejected("e1"), "e2" to rejected("e2", "invalid: bad sig")))
+        assertTrue(tally.allSettled())
+        assertEquals(1, tally.result().accepted)
+        assertEquals(1, tally.result().rejected)
+    }
+}
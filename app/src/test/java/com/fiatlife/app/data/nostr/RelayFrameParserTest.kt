@@ -0,0 +1,96 @@
+package com.fiatlife.app.data.nostr
+
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.encodeToJsonElement
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertThrows
+import org.junit.Test
+
+class RelayFrameParserTest {
+
+    private val event = NostrEvent(
+        id = "a".repeat(64),
+        pubkey = "b".repeat(64),
+        created_at = 1_700_000_000,
+        kind = NostrEvent.KIND_APP_SPECIFIC_DATA,
+        tags = listOf(listOf("d", "fiatlife/bill/1"), emptyList(), listOf("e", "x", "wss://r", "root")),
+        content = "line \"one\"\nline\ttwo \\ é \u0001 🍕",
+        sig = "c".repeat(128)
+    )
+
+    @Test
+    fun parsesEventAsKotlinxSerializationEncodesIt() {
+        val frame = buildJsonArray {
+            add("EVENT")
+            add("sub1")
+            add(Json.encodeToJsonElement(event))
+        }.toString()
+        assertEquals(NostrMessage.EventReceived("sub1", event), RelayFrameParser.parse(frame))
+    }
+
+    @Test
+    fun parsesEventWithWhitespaceUnknownFieldsAndAnyFieldOrder() {
+        val frame = """ [ "EVENT" , "s" , {
+            "sig": "${event.sig}", "extra": {"nested": [1, "]}", {"a": null}], "b": true},
+            "kind": 30078, "created_at": 1.7E9, "content": "é\/", "tags": [ ["d","x"] ],
+            "relays": ["wss://r"], "score": -2.5, "flag": false, "none": null,
+            "pubkey": "${event.pubkey}", "id": "${event.id}" } ] """
+        val parsed = RelayFrameParser.parse(frame) as NostrMessage.EventReceived
+        assertEquals(
+            NostrEvent(event.id, event.pubkey, 1_700_000_000, 30078, listOf(listOf("d", "x")), "é/", event.sig),
+            parsed.event
+        )
+    }
+
+    @Test
+    fun dropsEventsForUnwantedSubscriptionsBeforeReadingTheBody() {
+        // The body is malformed, so only skipping it lets this return null rather than throw.
+        assertNull(RelayFrameParser.parse("""["EVENT","gone",{"id": ]""") { it != "gone" })
+    }
+
+    @Test
+    fun parsesControlFrames() {
+        assertEquals(NostrMessage.Ok("e1", true, ""), RelayFrameParser.parse("""["OK","e1",true]"""))
+        assertEquals(
+            NostrMessage.Ok("e1", false, "blocked: no"),
+            RelayFrameParser.parse("""["OK", "e1", false, "blocked: no"]""")
+        )
+        assertEquals(NostrMessage.Eose("s"), RelayFrameParser.parse("""["EOSE","s"]"""))
+        assertEquals(NostrMessage.Closed("s", ""), RelayFrameParser.parse("""["CLOSED","s"]"""))
+        assertEquals(
+            NostrMessage.Closed("s", "auth-required: sign in"),
+            RelayFrameParser.parse("""["CLOSED","s","auth-required: sign in"]""")
+        )
+        assertEquals(NostrMessage.Notice("hi \"there\""), RelayFrameParser.parse("""["NOTICE","hi \"there\""]"""))
+        assertEquals(NostrMessage.AuthChallenge("chal"), RelayFrameParser.parse("""["AUTH","chal"]"""))
+    }
+
+    @Test
+    fun ignoresUnknownFrameTypes() {
+        assertNull(RelayFrameParser.parse("""["COUNT","s",{"count":3}]"""))
+    }
+
+    @Test
+    fun rejectsMalformedFrames() {
+        val malformed = listOf(
+            "",
+            "{}",
+            "[",
+            """["EOSE"]""",
+            """["EOSE","s""",
+            """["OK","e1","yes"]""",
+            """["NOTICE","bad \q escape"]""",
+            """["NOTICE","\u12"]""",
+            """["EVENT","s",{"id":"x""",
+            """["EVENT","s",{"kind":}]""",
+            """["EVENT","s",{"tags":[["d",1]]}]""",
+            """["EVENT","s",{"extra":[1,2}"""
+        )
+        for (frame in malformed) {
+            assertThrows(frame, IllegalArgumentException::class.java) { RelayFrameParser.parse(frame) }
+        }
+    }
+}
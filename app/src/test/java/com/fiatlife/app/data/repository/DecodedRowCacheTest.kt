@@ -0,0 +1,47 @@
+package com.fiatlife.app.data.repository
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class DecodedRowCacheTest {
+
+    private class Row(val id: String, val updatedAt: Long, val json: String)
+
+    private var decodes = 0
+
+    private val cache = DecodedRowCache<Row, String>("rows", { it.id }, { it.updatedAt }) {
+        decodes++
+        require(it.json.startsWith("{")) { "bad row" }
+        it.json
+    }
+
+    @Test
+    fun unchangedRowsAreNotDecodedAgain() {
+        val rows = listOf(Row("a", 1, "{a}"), Row("b", 1, "{b}"))
+        assertEquals(listOf("{a}", "{b}"), cache.list(rows))
+        assertEquals(listOf("{a}", "{b2}"), cache.list(listOf(rows[0], Row("b", 2, "{b2}"))))
+        assertEquals(3, decodes)
+        assertEquals(DecodedRowCache.Stats(hits = 1, misses = 3), cache.stats())
+    }
+
+    @Test
+    fun undecodableRowsAreSkippedUntilTheyChange() {
+        val rows = listOf(Row("a", 1, "{a}"), Row("b", 1, "corrupt"), Row("c", 1, "{c}"))
+        assertEquals(listOf("{a}", "{c}"), cache.list(rows))
+        assertEquals(listOf("{a}", "{c}"), cache.list(rows))
+        assertNull(cache.single(rows[1]))
+        assertEquals(3, decodes)
+
+        assertEquals("{b}", cache.single(Row("b", 2, "{b}")))
+        assertEquals(4, decodes)
+    }
+
+    @Test
+    fun completeListsDropDeletedRows() {
+        cache.list(listOf(Row("a", 1, "{a}"), Row("b", 1, "{b}")), complete = true)
+        cache.list(listOf(Row("a", 1, "{a}")), complete = true)
+        cache.list(listOf(Row("a", 1, "{a}"), Row("b", 1, "{b}")))
+        assertEquals(3, decodes)
+    }
+}
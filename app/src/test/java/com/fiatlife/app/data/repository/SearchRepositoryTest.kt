@@ -0,0 +1,112 @@
+package com.fiatlife.app.data.repository
+
+import com.fiatlife.app.data.local.dao.SearchDao
+import com.fiatlife.app.data.local.entity.SearchEntryEntity
+import com.fiatlife.app.data.local.entity.SearchMatch
+import com.fiatlife.app.domain.model.SearchResultType
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+class SearchRepositoryTest {
+
+    /** matchinfo('pcnx') for one phrase: per column (type, recordId, title, subtitle, body) hits here, hits everywhere, rows with a hit. */
+    private fun matchInfo(rows: Int, vararg columns: Triple<Int, Int, Int>): ByteArray {
+        val ints = intArrayOf(1, columns.size, rows) + columns.flatMap { listOf(it.first, it.second, it.third) }
+        val buffer = ByteBuffer.allocate(ints.size * 4).order(ByteOrder.nativeOrder())
+        ints.forEach { buffer.putInt(it) }
+        return buffer.array()
+    }
+
+    private val none = Triple(0, 0, 0)
+
+    @Test
+    fun queriesBecomePrefixTerms() {
+        assertEquals("rent*", SearchRepository.matchQuery("Rent"))
+        assertEquals("car* insurance*", SearchRepository.matchQuery("  car   insurance "))
+        assertEquals("café* 2024*", SearchRepository.matchQuery("Café, 2024!"))
+    }
+
+    @Test
+    fun queriesAreSanitised() {
+        assertEquals("a* or* b*", SearchRepository.matchQuery("a OR b"))
+        assertEquals("rent* not* water*", SearchRepository.matchQuery("\"rent\" NOT -water*"))
+        assertEquals("title* x*", SearchRepository.matchQuery("title:x"))
+        assertEquals("near* a*", SearchRepository.matchQuery("NEAR(a)"))
+        assertNull(SearchRepository.matchQuery(""))
+        assertNull(SearchRepository.matchQuery("*\"-():"))
+    }
+
+    @Test
+    fun titleHitsOutrankBodyHits() {
+        val inTitle = SearchRepository.score(matchInfo(10, none, none, Triple(1, 2, 2), none, none))
+        val inSubtitle = SearchRepository.score(matchInfo(10, none, none, none, Triple(1, 2, 2), none))
+        val inBody = SearchRepository.score(matchInfo(10, none, none, none, none, Triple(1, 2, 2)))
+        assertTrue(inTitle > inSubtitle)
+        assertTrue(inSubtitle > inBody)
+        assertTrue(inBody > 0.0)
+    }
+
+    @Test
+    fun rarerTermsAndMoreHitsScoreHigher() {
+        val rare = SearchRepository.score(matchInfo(100, none, none, Triple(1, 1, 1), none, none))
+        val common = SearchRepository.score(matchInfo(100, none, none, Triple(1, 90, 80), none, none))
+        assertTrue(rare > common)
+
+        val once = SearchRepository.score(matchInfo(100, none, none, none, none, Triple(1, 5, 5)))
+        val twice = SearchRepository.score(matchInfo(100, none, none, none, none, Triple(2, 5, 5)))
+        assertTrue(twice > once)
+        // Hits saturate: a second hit adds less than the first.
+        assertTrue(twice < 2 * once)
+    }
+
+    @Test
+    fun truncatedMatchInfoScoresZero() {
+        assertEquals(0.0, SearchRepository.score(ByteArray(0)), 0.0)
+        assertEquals(0.0, SearchRepository.score(matchInfo(10, none).copyOf(16)), 0.0)
+    }
+
+    @Test
+    fun searchRanksAndMarksHits() = runBlocking {
+        val dao = FakeSearchDao(
+            listOf(
+                SearchMatch("BILL", "b1", "Water", "\u0002rent\u0003al deposit", matchInfo(10, none, none, none, none, Triple(1, 2, 2))),
+                SearchMatch("UNKNOWN", "x", "?", "rent", matchInfo(10, none, none, Triple(1, 1, 1), none, none)),
+                SearchMatch("GOAL", "g1", "Rent", "\u0002Rent\u0003", matchInfo(10, none, none, Triple(1, 2, 2), none, none))
+            )
+        )
+        val hits = SearchRepository(dao).search("rent")
+        assertEquals("rent*", dao.lastQuery)
+        assertEquals(listOf("g1", "b1"), hits.map { it.id })
+        assertEquals(SearchResultType.BILL, hits[1].type)
+        assertEquals("rental deposit", hits[1].snippet)
+        assertEquals(listOf(0 until 4), hits[1].highlights)
+    }
+
+    @Test
+    fun searchRanksEveryMatchNotJustTheFirstRows() = runBlocking {
+        val weak = (1..500).map {
+            SearchMatch("BILL", "b$it", "Bill $it", "rent", matchInfo(600, none, none, none, none, Triple(1, 501, 501)))
+        }
+        val best = SearchMatch("GOAL", "g1", "Rent", "Rent", matchInfo(600, none, none, Triple(1, 1, 1), none, none))
+        val hits = SearchRepository(FakeSearchDao(weak + best)).search("rent", limit = 1)
+        assertEquals(listOf("g1"), hits.map { it.id })
+    }
+
+    private class FakeSearchDao(private val matches: List<SearchMatch>) : SearchDao {
+        var lastQuery: String? = null
+
+        override suspend fun match(query: String): List<SearchMatch> {
+            lastQuery = query
+            return matches
+        }
+
+        override suspend fun insertAll(entries: List<SearchEntryEntity>) = Unit
+
+        override suspend fun delete(type: String, recordIds: List<String>) = Unit
+    }
+}
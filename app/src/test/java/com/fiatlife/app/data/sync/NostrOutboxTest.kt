@@ -0,0 +1,213 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.local.dao.ChunkSetDao
+import com.fiatlife.app.data.local.dao.OutboxDao
+import com.fiatlife.app.data.local.entity.ChunkSetEntity
+import com.fiatlife.app.data.local.entity.OutboxDeletion
+import com.fiatlife.app.data.local.entity.OutboxEntity
+import com.fiatlife.app.data.nostr.NostrClient
+import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.nostr.NostrSigner
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Base64
+import java.util.Random
+
+class NostrOutboxTest {
+
+    private val pubkey = "a".repeat(64)
+    private val outboxDao = FakeOutboxDao()
+    private val chunkSetDao = FakeChunkSetDao()
+
+    // No relays are configured, so the background drainer never gets past ensureConnected.
+    private val outbox = NostrOutbox(
+        NostrClient(OkHttpClient()).apply { setSigner(FakeSigner(pubkey)) },
+        outboxDao,
+        chunkSetDao
+    )
+
+    private val dTag = "fiatlife/bill/1"
+
+    private fun noisyJson(bytes: Int): String {
+        val noise = ByteArray(bytes).also { Random(7).nextBytes(it) }
+        return """{"id":"1","notes":"${Base64.getEncoder().encodeToString(noise)}"}"""
+    }
+
+    @Test
+    fun backoffDoublesUpToTheCap() {
+        assertEquals(5_000L, NostrOutbox.backoffMs(1))
+        assertEquals(10_000L, NostrOutbox.backoffMs(2))
+        assertEquals(640_000L, NostrOutbox.backoffMs(8))
+        assertEquals(900_000L, NostrOutbox.backoffMs(9))
+        assertEquals(900_000L, NostrOutbox.backoffMs(500))
+    }
+
+    @Test
+    fun signedEventsGoStaleAfterHalfTheSyncOverlap() {
+        val now = 1_700_000_000L
+        val half = RelaySyncCoordinator.SINCE_OVERLAP_SECONDS / 2
+        assertFalse(NostrOutbox.isStale("""{"id":"x","created_at":${now - 60}}""", now))
+        assertFalse(NostrOutbox.isStale("""{"id":"x","created_at":${now - half}}""", now))
+        assertTrue(NostrOutbox.isStale("""{"id":"x","created_at":${now - half - 1}}""", now))
+        assertTrue(NostrOutbox.isStale("""{"id":"x"}""", now))
+        assertTrue(NostrOutbox.isStale("not json", now))
+    }
+
+    @Test
+    fun chunksAndManifestShareOneRevision() = runBlocking {
+        assertTrue(outbox.enqueueAppData(dTag, noisyJson(120_000)))
+        val rows = outboxDao.rows()
+        val manifest = rows.single { it.dTag == dTag }
+        val chunks = rows.filter { SyncEnvelope.isChunk(it.dTag) }
+        assertTrue(SyncEnvelope.isManifest(manifest.content))
+        assertEquals(SyncEnvelope.chunkCount(manifest.content), chunks.size)
+        assertTrue(chunks.all { it.revision == manifest.revision })
+        assertEquals(chunks.size, chunkSetDao.getCount(pubkey, dTag))
+    }
+
+    @Test
+    fun chunksNoLongerUsedAreTombstonedAndDeleted() = runBlocking {
+        outbox.enqueueAppData(dTag, noisyJson(120_000))
+        val chunkCount = chunkSetDao.getCount(pubkey, dTag)!!
+        outbox.enqueueAppData(dTag, """{"id":"1"}""")
+
+        val rows = outboxDao.rows()
+        for (i in 0 until chunkCount) {
+            val chunkDTag = SyncEnvelope.chunkDTag(dTag, i)
+            assertEquals(SyncedRecord.TOMBSTONE_JSON, rows.single { it.dTag == chunkDTag }.content)
+            assertTrue(rows.any { it.kind == NostrEvent.KIND_DELETION && it.dTag == "30078:$chunkDTag" })
+        }
+        assertEquals("""{"id":"1"}""", rows.single { it.dTag == dTag }.content)
+        assertNull(chunkSetDao.getCount(pubkey, dTag))
+
+        val deleted = outbox.pendingDeletions()[NostrEvent.KIND_APP_SPECIFIC_DATA].orEmpty()
+        assertEquals(chunkCount, deleted.keys.count { SyncEnvelope.isChunk(it) })
+    }
+
+    @Test
+    fun syncedChunkCountsOnlyRise() = runBlocking {
+        outbox.recordSyncedChunks(mapOf(dTag to 4))
+        outbox.recordSyncedChunks(mapOf(dTag to 2))
+        assertEquals(4, chunkSetDao.getCount(pubkey, dTag))
+    }
+
+    @Test
+    fun manifestWaitsUntilEveryChunkIsAcknowledged() = runBlocking {
+        outbox.enqueueAppData(dTag, noisyJson(120_000))
+        val manifest = outboxDao.rows().single { it.dTag == dTag }
+        val chunks = outboxDao.rows().filter { SyncEnvelope.isChunk(it.dTag) }
+        val retryAt = 1_700_000_000_000L
+        chunks.forEach { outboxDao.scheduleRetry(it.pubkey, it.kind, it.dTag, it.revision, 1, retryAt, "no OK") }
+
+        assertFalse(outbox.chunksLanded(manifest, now = 0))
+        val held = outboxDao.rows().single { it.dTag == dTag }
+        assertEquals(retryAt, held.nextAttemptAt)
+        assertEquals(manifest.attempts, held.attempts)
+
+        chunks.forEach { outboxDao.deleteRevision(it.pubkey, it.kind, it.dTag, it.revision) }
+        assertTrue(outbox.chunksLanded(manifest, now = 0))
+    }
+
+    @Test
+    fun replacedOrDroppedManifestIsNotPublished() = runBlocking {
+        outbox.enqueueAppData(dTag, noisyJson(120_000))
+        val manifest = outboxDao.rows().single { it.dTag == dTag }
+        outboxDao.rows().filter { SyncEnvelope.isChunk(it.dTag) }
+            .forEach { outboxDao.deleteRevision(it.pubkey, it.kind, it.dTag, it.revision) }
+
+        outbox.enqueueAppData(dTag, noisyJson(120_000))
+        assertFalse(outbox.chunksLanded(manifest, now = 0))
+    }
+
+    private class FakeSigner(override val pubkeyHex: String) : NostrSigner {
+        override suspend fun signEvent(unsignedEventJson: String): String? = null
+        override suspend fun nip44Encrypt(plaintext: String, peerPubkeyHex: String): String = plaintext
+        override suspend fun nip44Decrypt(ciphertext: String, peerPubkeyHex: String): String = ciphertext
+    }
+
+    private class FakeChunkSetDao : ChunkSetDao {
+        private val counts = HashMap<Pair<String, String>, Int>()
+
+        override suspend fun getCount(pubkey: String, dTag: String): Int? =
+            synchronized(counts) { counts[pubkey to dTag] }
+
+        override suspend fun upsert(entity: ChunkSetEntity) {
+            synchronized(counts) { counts[entity.pubkey to entity.dTag] = entity.count }
+        }
+
+        override suspend fun delete(pubkey: String, dTag: String) {
+            synchronized(counts) { counts.remove(pubkey to dTag) }
+        }
+    }
+
+    /** In-memory [OutboxDao] with the same keying and revision matching as the Room queries. */
+    private class FakeOutboxDao : OutboxDao {
+        private val rows = LinkedHashMap<Triple<String, Int, String>, OutboxEntity>()
+
+        fun rows(): List<OutboxEntity> = synchronized(rows) { rows.values.toList() }
+
+        private fun update(pubkey: String, kind: Int, dTag: String, revision: String, change: (OutboxEntity) -> OutboxEntity?) {
+            synchronized(rows) {
+                val key = Triple(pubkey, kind, dTag)
+                val row = rows[key]?.takeIf { it.revision == revision } ?: return
+                val changed = change(row)
+                if (changed == null) rows.remove(key) else rows[key] = changed
+            }
+        }
+
+        override suspend fun getDue(pubkey: String, now: Long, limit: Int): List<OutboxEntity> =
+            rows().filter { it.pubkey == pubkey && it.nextAttemptAt <= now }.sortedBy { it.enqueuedAt }.take(limit)
+
+        override suspend fun nextAttemptAt(pubkey: String): Long? =
+            rows().filter { it.pubkey == pubkey }.minOfOrNull { it.nextAttemptAt }
+
+        override suspend fun getDeletions(pubkey: String, deletionKind: Int, tombstoneJson: String): List<OutboxDeletion> =
+            rows().filter { it.pubkey == pubkey && (it.kind == deletionKind || it.content == tombstoneJson) }
+                .map { OutboxDeletion(it.kind, it.dTag, it.enqueuedAt) }
+
+        override suspend fun upsert(entity: OutboxEntity) {
+            synchronized(rows) { rows[Triple(entity.pubkey, entity.kind, entity.dTag)] = entity }
+        }
+
+        override suspend fun setSigned(
+            pubkey: String,
+            kind: Int,
+            dTag: String,
+            revision: String,
+            signedEventJson: String?,
+            eventId: String?
+        ) = update(pubkey, kind, dTag, revision) { it.copy(signedEventJson = signedEventJson, eventId = eventId) }
+
+        override suspend fun scheduleRetry(
+            pubkey: String,
+            kind: Int,
+            dTag: String,
+            revision: String,
+            attempts: Int,
+            nextAttemptAt: Long,
+            lastError: String?
+        ) = update(pubkey, kind, dTag, revision) {
+            it.copy(attempts = attempts, nextAttemptAt = nextAttemptAt, lastError = lastError)
+        }
+
+        override suspend fun countRevision(pubkey: String, kind: Int, dTag: String, revision: String): Int =
+            rows().count { it.pubkey == pubkey && it.kind == kind && it.dTag == dTag && it.revision == revision }
+
+        override suspend fun pendingChunksRetryAt(pubkey: String, kind: Int, chunkPrefix: String, revision: String): Long? =
+            rows().filter {
+                it.pubkey == pubkey && it.kind == kind && it.revision == revision && it.dTag.startsWith(chunkPrefix)
+            }.maxOfOrNull { it.nextAttemptAt }
+
+        override suspend fun deleteRevision(pubkey: String, kind: Int, dTag: String, revision: String) =
+            update(pubkey, kind, dTag, revision) { null }
+
+        override suspend fun deleteAll() {
+            synchronized(rows) { rows.clear() }
+        }
+    }
+}
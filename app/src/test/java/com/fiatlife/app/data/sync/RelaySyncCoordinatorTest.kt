@@ -0,0 +1,63 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.nostr.NostrEvent
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class RelaySyncCoordinatorTest {
+
+    private val appData = NostrEvent.KIND_APP_SPECIFIC_DATA
+    private val cypherLog = NostrEvent.KIND_CYPHERLOG_SUBSCRIPTION
+    private val relayA = "wss://a.example"
+    private val relayB = "wss://b.example"
+
+    @Test
+    fun sinceOverlapsTheMark() {
+        assertEquals(1_700_000_000L - RelaySyncCoordinator.SINCE_OVERLAP_SECONDS, RelaySyncCoordinator.sinceFor(1_700_000_000L))
+        assertEquals(0L, RelaySyncCoordinator.sinceFor(60L))
+    }
+
+    @Test
+    fun onlyRelaysThatReachedEoseAdvance() {
+        val marks = RelaySyncCoordinator.advancedMarks(
+            marks = emptyMap(),
+            newestSeen = mapOf(relayA to mapOf(appData to 200L), relayB to mapOf(appData to 300L)),
+            oldestFailed = emptyMap(),
+            completedRelays = setOf(relayA)
+        )
+        assertEquals(mapOf(relayA to mapOf(appData to 200L)), marks)
+    }
+
+    @Test
+    fun marksStopBeforeTheOldestFailedEvent() {
+        val marks = RelaySyncCoordinator.advancedMarks(
+            marks = emptyMap(),
+            newestSeen = mapOf(relayA to mapOf(appData to 500L, cypherLog to 500L)),
+            oldestFailed = mapOf(appData to 300L),
+            completedRelays = setOf(relayA)
+        )
+        assertEquals(mapOf(relayA to mapOf(appData to 299L, cypherLog to 500L)), marks)
+    }
+
+    @Test
+    fun marksNeverMoveBackwards() {
+        val marks = RelaySyncCoordinator.advancedMarks(
+            marks = mapOf(relayA to mapOf(appData to 400L, cypherLog to 100L)),
+            newestSeen = mapOf(relayA to mapOf(appData to 500L, cypherLog to 100L)),
+            oldestFailed = mapOf(appData to 200L),
+            completedRelays = setOf(relayA)
+        )
+        assertEquals(emptyMap<String, Map<Int, Long>>(), marks)
+    }
+
+    @Test
+    fun eachRelayKeepsItsOwnMark() {
+        val marks = RelaySyncCoordinator.advancedMarks(
+            marks = mapOf(relayB to mapOf(appData to 250L)),
+            newestSeen = mapOf(relayA to mapOf(appData to 200L), relayB to mapOf(appData to 300L)),
+            oldestFailed = emptyMap(),
+            completedRelays = setOf(relayA, relayB)
+        )
+        assertEquals(mapOf(relayA to mapOf(appData to 200L), relayB to mapOf(appData to 300L)), marks)
+    }
+}
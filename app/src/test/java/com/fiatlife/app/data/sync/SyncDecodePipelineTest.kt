@@ -0,0 +1,60 @@
+package com.fiatlife.app.data.sync
+
+import com.fiatlife.app.data.nostr.NostrEvent
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SyncDecodePipelineTest {
+
+    private fun event(dTag: String, n: Int) = NostrEvent(
+        id = "$dTag#$n",
+        created_at = n.toLong(),
+        kind = NostrEvent.KIND_APP_SPECIFIC_DATA,
+        tags = listOf(listOf("d", dTag))
+    )
+
+    @Test
+    fun everyEventIsDecodedOnceInBoundedBatches() = runBlocking {
+        val events = (0 until 500).map { event("fiatlife/bill/${it % 37}", it) }
+        val batches = SyncDecodePipeline(workers = 4) { DecodedEvent.Skipped(it) }
+            .process(events.asFlow())
+            .toList()
+        assertTrue(batches.all { it.size in 1..SyncDecodePipeline.BATCH_SIZE })
+        assertEquals(events.map { it.id }.sorted(), batches.flatten().map { it.event.id }.sorted())
+    }
+
+    @Test
+    fun eventsForOneAddressKeepTheirOrder() = runBlocking {
+        val events = (0 until 200).map { event("fiatlife/goal/${it % 5}", it) }
+        // Earlier events decode slower, so only per-lane ordering keeps them first.
+        val decoded = SyncDecodePipeline(workers = 4) { e ->
+            delay((200 - e.created_at) % 7)
+            DecodedEvent.Skipped(e)
+        }.process(events.asFlow()).toList().flatten().map { it.event }
+
+        for ((dTag, group) in decoded.groupBy { it.dTag }) {
+            assertEquals(events.filter { it.dTag == dTag }.map { it.id }, group.map { it.id })
+        }
+    }
+
+    @Test
+    fun differentAddressesDecodeInParallel() = runBlocking {
+        val otherDecoded = CompletableDeferred<Unit>()
+        val events = listOf(event("fiatlife/bill/slow", 0)) + (1..7).map { event("fiatlife/bill/$it", it) }
+        val decoded = withTimeout(5_000) {
+            SyncDecodePipeline(workers = 4) { e ->
+                // Blocks its lane until another lane has decoded something.
+                if (e.created_at == 0L) otherDecoded.await() else otherDecoded.complete(Unit)
+                DecodedEvent.Skipped(e)
+            }.process(events.asFlow()).toList().flatten()
+        }
+        assertEquals(events.size, decoded.size)
+    }
+}
@@ -0,0 +1,88 @@
+package com.fiatlife.app.data.sync
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Base64
+import java.util.Random
+
+class SyncEnvelopeTest {
+
+    private val dTag = "fiatlife/bill/1"
+
+    /** JSON that barely compresses, so [bytes] of it needs several chunks. */
+    private fun noisyJson(bytes: Int): String {
+        val noise = ByteArray(bytes).also { Random(42).nextBytes(it) }
+        return """{"id":"1","notes":"${Base64.getEncoder().encodeToString(noise)}"}"""
+    }
+
+    private fun open(parts: List<SyncEnvelope.Part>): String? = runBlocking {
+        val byDTag = parts.associate { it.dTag to it.content }
+        SyncEnvelope.open(dTag, parts.last().content) { byDTag[it] }
+    }
+
+    @Test
+    fun smallRecordsStayPlainJson() {
+        val json = """{"id":"1","name":"Rent"}"""
+        assertEquals(listOf(SyncEnvelope.Part(dTag, json)), SyncEnvelope.seal(dTag, json))
+        assertEquals(json, open(SyncEnvelope.seal(dTag, json)))
+    }
+
+    @Test
+    fun compressibleRecordsAreOneCompressedEvent() {
+        val json = """{"payments":[${List(500) { """{"amount":12.5,"paid":true}""" }.joinToString(",")}]}"""
+        val parts = SyncEnvelope.seal(dTag, json)
+        assertEquals(1, parts.size)
+        assertTrue(parts[0].content.startsWith("fl:z1:"))
+        assertTrue(parts[0].content.length < json.length)
+        assertEquals(json, open(parts))
+    }
+
+    @Test
+    fun largeRecordsSplitIntoChunksBeforeTheirManifest() {
+        val json = noisyJson(120_000)
+        val parts = SyncEnvelope.seal(dTag, json)
+        val manifest = parts.last()
+        assertEquals(dTag, manifest.dTag)
+        assertTrue(SyncEnvelope.isManifest(manifest.content))
+        assertEquals(parts.size - 1, SyncEnvelope.chunkCount(manifest.content))
+        assertEquals(parts.dropLast(1).map { it.dTag }, SyncEnvelope.chunkDTags(dTag, manifest.content))
+        parts.dropLast(1).forEach {
+            assertTrue(SyncEnvelope.isChunk(it.dTag))
+            assertEquals(dTag, SyncEnvelope.parentOf(it.dTag))
+        }
+        assertEquals(json, open(parts))
+    }
+
+    @Test
+    fun missingOrAlteredChunksDoNotOpen() {
+        val parts = SyncEnvelope.seal(dTag, noisyJson(120_000))
+        assertNull(open(parts.drop(1)))
+
+        val altered = parts.toMutableList()
+        altered[1] = altered[1].copy(content = altered[1].content.reversed())
+        assertNull(open(altered))
+
+        // Chunks of another version of the record fail the manifest's hash.
+        val other = SyncEnvelope.seal(dTag, noisyJson(120_001))
+        assertNull(open(other.dropLast(1) + parts.last()))
+    }
+
+    @Test
+    fun corruptPayloadsDoNotOpen() = runBlocking {
+        assertNull(SyncEnvelope.open(dTag, "fl:z1:not base64!") { null })
+        assertNull(SyncEnvelope.open(dTag, "fl:z1:AAAA") { null })
+        assertNull(SyncEnvelope.open(dTag, "fl:c1:0:abcd") { "" })
+        assertNull(SyncEnvelope.open(dTag, "fl:c1:x:abcd") { "" })
+        assertEquals(0, SyncEnvelope.chunkCount("fl:c1:100000:abcd"))
+        assertEquals(emptyList<String>(), SyncEnvelope.chunkDTags(dTag, """{"id":"1"}"""))
+    }
+
+    @Test
+    fun unprefixedPayloadsAreReadAsJson() = runBlocking {
+        val legacy = """{"id":"1","notes":"${"x".repeat(5_000)}"}"""
+        assertEquals(legacy, SyncEnvelope.open(dTag, legacy) { null })
+    }
+}
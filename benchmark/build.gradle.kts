@@ -0,0 +1,57 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    alias(libs.plugins.kotlin.serialization)
+    alias(libs.plugins.jmh)
+}
+
+// The Nostr protocol and crypto code, the domain models and LocalCodec have no Android
+// dependencies, so they are compiled straight from the app sources instead of being split
+// into a library module.
+val appSources = listOf(
+    "Bech32.kt",
+    "ChaCha20.kt",
+    "ConversationKeyCache.kt",
+    "EventWriter.kt",
+    "Hex.kt",
+    "LocalSigner.kt",
+    "Nip44Encryption.kt",
+    "NostrEvent.kt",
+    "NostrMessage.kt",
+    "NostrSigner.kt",
+    "Poly1305.kt",
+    "RelayFrameParser.kt"
+).map { "com/fiatlife/app/data/nostr/$it" } + listOf(
+    "com/fiatlife/app/data/local/LocalCodec.kt",
+    "com/fiatlife/app/domain/model/*.kt"
+)
+
+kotlin {
+    jvmToolchain(17)
+    sourceSets.named("main") {
+        kotlin.srcDir("../app/src/main/java")
+        kotlin.include(appSources)
+    }
+}
+
+dependencies {
+    implementation(libs.kotlinx.serialization.json)
+    implementation(libs.kotlinx.serialization.cbor)
+    implementation(libs.secp256k1.kmp.jvm)
+    implementation(libs.secp256k1.kmp.jni.jvm)
+}
+
+jmh {
+    jmhVersion = libs.versions.jmh.asProvider()
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    timeOnIteration = "2s"
+    warmup = "2s"
+    benchmarkMode = listOf("thrpt")
+    timeUnit = "ms"
+    // Adds gc.alloc.rate and gc.alloc.rate.norm (bytes per op) next to each score.
+    profilers = listOf("gc")
+    resultFormat = "JSON"
+    // ./gradlew :benchmark:jmh -Pjmh.includes=Nip44 runs a subset.
+    providers.gradleProperty("jmh.includes").orNull?.let { includes = listOf(it) }
+}
@@ -0,0 +1,27 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.Bech32
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/** Decoding NIP-19 keys, as done on login and for every Amber pubkey. */
+@State(Scope.Benchmark)
+open class Bech32Benchmark {
+
+    private val npub = "npub10elfcs4fr0l0r8af98jlmgdh9c8tcxjvz9qkw038js35mp4dma8qzvjptg"
+    private val nsec = "nsec1vl029mgpspedva04g90vltkh6fvh240zqtv9k0t9af8935ke9laqsnlfe5"
+
+    @Setup
+    fun setup() {
+        checkNotNull(Bech32.decode(npub)) { "npub fixture does not decode" }
+        checkNotNull(Bech32.decode(nsec)) { "nsec fixture does not decode" }
+    }
+
+    @Benchmark
+    fun decodeNpub(): Pair<String, ByteArray>? = Bech32.decode(npub)
+
+    @Benchmark
+    fun decodeNsec(): Pair<String, ByteArray>? = Bech32.decode(nsec)
+}
@@ -0,0 +1,78 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.Hex
+import com.fiatlife.app.domain.model.Bill
+import com.fiatlife.app.domain.model.BillPayment
+import com.fiatlife.app.domain.model.BillSubcategory
+import fr.acinq.secp256k1.Secp256k1
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlin.coroutines.intrinsics.COROUTINE_SUSPENDED
+import kotlin.coroutines.intrinsics.startCoroutineUninterceptedOrReturn
+
+/** Deterministic inputs shared by the benchmarks. */
+object Fixtures {
+
+    /** A valid secp256k1 private key derived from [seed]. */
+    fun privateKey(seed: Int): ByteArray = ByteArray(32) { (it * 31 + seed * 7 + 1).toByte() }
+
+    fun xOnlyPubkey(privateKey: ByteArray): ByteArray {
+        val secp256k1 = Secp256k1.get()
+        return secp256k1.pubKeyCompress(secp256k1.pubkeyCreate(privateKey)).copyOfRange(1, 33)
+    }
+
+    /**
+     * A bill record as synced in kind 30078 content, padded out with payment history
+     * entries until it is at least [minBytes] long.
+     */
+    fun billJson(minBytes: Int): String = buildString {
+        append("""{"id":"3f1c9a2e-5b7d-4c61-9e0a-8d2f4b6c1a7e","name":"Electric – City Power & Light",""")
+        append(""""amount":142.37,"category":"UTILITIES","frequency":"MONTHLY","dueDay":14,""")
+        append(""""autoPay":true,"notes":"Budget billing plan; reviewed every spring.","payments":[""")
+        var i = 0
+        while (length < minBytes - 2) {
+            if (i > 0) append(',')
+            append("""{"date":"2024-${(i % 12 + 1).toString().padStart(2, '0')}-14",""")
+            append(""""amount":${130 + i % 25}.${(i * 37 % 100).toString().padStart(2, '0')},""")
+            append(""""method":"ACH","confirmation":"CPL${100000 + i * 7919}","note":"paid on time"}""")
+            i++
+        }
+        append("]}")
+    }
+
+    /** A monthly bill as the app stores it, with [payments] entries of payment history. */
+    fun bill(payments: Int): Bill = Bill(
+        id = "3f1c9a2e-5b7d-4c61-9e0a-8d2f4b6c1a7e",
+        name = "Electric – City Power & Light",
+        amount = 142.37,
+        subcategory = BillSubcategory.ELECTRIC,
+        dueDay = 14,
+        autoPay = true,
+        notes = "Budget billing plan; reviewed every spring.",
+        paymentHistory = List(payments) { i ->
+            BillPayment(date = 1_704_067_200_000L + i * 2_629_746_000L, amount = 130.0 + i % 25)
+        },
+        isPaid = true,
+        createdAt = 1_704_067_200_000L,
+        updatedAt = 1_760_000_000_000L
+    )
+
+    fun hex(seed: Int, bytes: Int): String = Hex.encode(ByteArray(bytes) { (it * 13 + seed).toByte() })
+
+    /** A relay EVENT frame carrying a kind 30078 event with [content]. */
+    fun eventFrame(subscriptionId: String, content: String): String =
+        """["EVENT","$subscriptionId",{"id":"${hex(1, 32)}","pubkey":"${hex(2, 32)}",""" +
+            """"created_at":1718000000,"kind":30078,"tags":[["d","fiatlife/bill/3f1c9a2e"]],""" +
+            """"content":"$content","sig":"${hex(3, 64)}"}]"""
+}
+
+/**
+ * Run a suspend function that never actually suspends (such as [LocalSigner] calls) without
+ * the dispatcher and event-loop allocations of runBlocking skewing the allocation numbers.
+ */
+@Suppress("UNCHECKED_CAST")
+fun <T> runNonSuspending(block: suspend () -> T): T {
+    val result = block.startCoroutineUninterceptedOrReturn(Continuation(EmptyCoroutineContext) {})
+    check(result !== COROUTINE_SUSPENDED) { "Benchmarked call suspended" }
+    return result as T
+}
@@ -0,0 +1,68 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.Nip44Encryption
+import com.fiatlife.app.data.nostr.NostrEvent
+import com.fiatlife.app.data.nostr.NostrMessage
+import com.fiatlife.app.data.nostr.RelayFrameParser
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.boolean
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonPrimitive
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Decoding relay-to-client NIP-01 frames: EVENTs carrying encrypted bills, EVENTs for a
+ * subscription that is no longer open, and OKs. [treeBaseline] is the JSON-tree decoding
+ * RelayConnection used before [RelayFrameParser].
+ */
+@State(Scope.Benchmark)
+open class FrameParserBenchmark {
+
+    @Param("2048", "40960")
+    var payloadBytes = 0
+
+    private lateinit var eventFrame: String
+    private lateinit var staleEventFrame: String
+    private val okFrame = """["OK","${Fixtures.hex(4, 32)}",true,""]"""
+    private val openSubscription: (String) -> Boolean = { it == "sync" }
+
+    @Setup
+    fun setup() {
+        val privateKey = Fixtures.privateKey(3)
+        val content = Nip44Encryption.encryptToSelf(Fixtures.billJson(payloadBytes), privateKey)
+        eventFrame = Fixtures.eventFrame("sync", content)
+        staleEventFrame = Fixtures.eventFrame("closed", content)
+        check(parseEvent() == treeBaseline())
+    }
+
+    @Benchmark
+    fun parseEvent(): NostrMessage? = RelayFrameParser.parse(eventFrame, openSubscription)
+
+    @Benchmark
+    fun dropStaleEvent(): NostrMessage? = RelayFrameParser.parse(staleEventFrame, openSubscription)
+
+    @Benchmark
+    fun parseOk(): NostrMessage? = RelayFrameParser.parse(okFrame, openSubscription)
+
+    @Benchmark
+    fun treeBaseline(): NostrMessage? {
+        val array = Json.parseToJsonElement(eventFrame).jsonArray
+        return when (array[0].jsonPrimitive.content) {
+            "EVENT" -> {
+                val subId = array[1].jsonPrimitive.content
+                if (!openSubscription(subId)) return null
+                NostrMessage.EventReceived(subId, Json.decodeFromJsonElement(NostrEvent.serializer(), array[2]))
+            }
+            "OK" -> NostrMessage.Ok(
+                array[1].jsonPrimitive.content,
+                array[2].jsonPrimitive.boolean,
+                if (array.size > 3) array[3].jsonPrimitive.content else ""
+            )
+            else -> null
+        }
+    }
+}
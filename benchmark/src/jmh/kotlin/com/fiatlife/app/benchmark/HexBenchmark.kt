@@ -0,0 +1,29 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.Hex
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Hex round trips of a 64-byte signature. The baselines are the `joinToString`/`chunked`
+ * helpers that [Hex] replaced.
+ */
+@State(Scope.Benchmark)
+open class HexBenchmark {
+
+    private val sigHex = Fixtures.hex(5, 64)
+    private val sigBytes = Hex.decode(sigHex)
+
+    @Benchmark
+    fun encode(): String = Hex.encode(sigBytes)
+
+    @Benchmark
+    fun decode(): ByteArray = Hex.decode(sigHex)
+
+    @Benchmark
+    fun encodeBaseline(): String = sigBytes.joinToString("") { "%02x".format(it) }
+
+    @Benchmark
+    fun decodeBaseline(): ByteArray = sigHex.chunked(2).map { it.toInt(16).toByte() }.toByteArray()
+}
@@ -0,0 +1,48 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.local.LocalCodec
+import com.fiatlife.app.domain.model.Bill
+import kotlinx.serialization.json.Json
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Decoding one [Bill] row from Room: [LocalCodec] against the JSON the `jsonData` column held
+ * before, written with the app's `encodeDefaults = true` configuration. Stored bytes per bill
+ * for both encodings are printed at setup.
+ */
+@State(Scope.Benchmark)
+open class LocalCodecBenchmark {
+
+    @Param("0", "24", "240")
+    var payments = 0
+
+    private val json = Json {
+        ignoreUnknownKeys = true
+        encodeDefaults = true
+        isLenient = true
+    }
+    private lateinit var jsonData: String
+    private lateinit var data: ByteArray
+
+    @Setup
+    fun setup() {
+        val bill = Fixtures.bill(payments)
+        jsonData = json.encodeToString(Bill.serializer(), bill)
+        data = LocalCodec.encode(Bill.serializer(), bill)
+        check(decodeJson() == bill && decodeLocal() == bill)
+        println("Bill with $payments payments: JSON ${jsonData.toByteArray().size} bytes, LocalCodec ${data.size} bytes")
+    }
+
+    @Benchmark
+    fun decodeJson(): Bill = json.decodeFromString(Bill.serializer(), jsonData)
+
+    @Benchmark
+    fun decodeLocal(): Bill = LocalCodec.decode(Bill.serializer(), data)
+
+    @Benchmark
+    fun encodeLocal(): ByteArray = LocalCodec.encode(Bill.serializer(), Fixtures.bill(payments))
+}
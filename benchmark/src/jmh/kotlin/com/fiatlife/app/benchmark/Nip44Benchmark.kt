@@ -0,0 +1,39 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.Nip44Encryption
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * NIP-44 v2 self-encryption of bill records: a typical 2 KB bill and a 40 KB bill with a
+ * long payment history. The conversation key is cached after the first call, as in the app.
+ */
+@State(Scope.Benchmark)
+open class Nip44Benchmark {
+
+    @Param("2048", "40960")
+    var payloadBytes = 0
+
+    private lateinit var privateKey: ByteArray
+    private lateinit var pubkey: ByteArray
+    private lateinit var plaintext: String
+    private lateinit var payload: String
+
+    @Setup
+    fun setup() {
+        privateKey = Fixtures.privateKey(1)
+        pubkey = Fixtures.xOnlyPubkey(privateKey)
+        plaintext = Fixtures.billJson(payloadBytes)
+        payload = Nip44Encryption.encrypt(plaintext, privateKey, pubkey)
+        check(Nip44Encryption.decrypt(payload, privateKey, pubkey) == plaintext)
+    }
+
+    @Benchmark
+    fun encrypt(): String = Nip44Encryption.encrypt(plaintext, privateKey, pubkey)
+
+    @Benchmark
+    fun decrypt(): String = Nip44Encryption.decrypt(payload, privateKey, pubkey)
+}
@@ -0,0 +1,77 @@
+package com.fiatlife.app.benchmark
+
+import com.fiatlife.app.data.nostr.LocalSigner
+import com.fiatlife.app.data.nostr.Nip44Encryption
+import com.fiatlife.app.data.nostr.SignedEvent
+import com.fiatlife.app.data.nostr.UnsignedEvent
+import com.fiatlife.app.data.nostr.toHex
+import fr.acinq.secp256k1.Secp256k1
+import kotlinx.serialization.json.add
+import kotlinx.serialization.json.buildJsonArray
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.security.MessageDigest
+
+/**
+ * Signing a kind 30078 event whose content is an encrypted 2 KB bill.
+ * [treeBaseline] is the JSON-tree serialization LocalSigner used before the streaming writer.
+ */
+@State(Scope.Benchmark)
+open class SigningBenchmark {
+
+    private lateinit var privateKey: ByteArray
+    private lateinit var signer: LocalSigner
+    private lateinit var event: UnsignedEvent
+    private lateinit var unsignedJson: String
+
+    @Setup
+    fun setup() {
+        privateKey = Fixtures.privateKey(2)
+        signer = LocalSigner(privateKey)
+        val content = Nip44Encryption.encryptToSelf(Fixtures.billJson(2048), privateKey)
+        event = UnsignedEvent(
+            pubkey = signer.pubkeyHex,
+            kind = 30078,
+            content = content,
+            tags = listOf(listOf("d", "fiatlife/bill/3f1c9a2e")),
+            createdAt = 1_718_000_000
+        )
+        unsignedJson = event.toJson()
+        check(sign().id == treeBaseline().id)
+    }
+
+    @Benchmark
+    fun sign(): SignedEvent = runNonSuspending { signer.sign(event) }!!
+
+    @Benchmark
+    fun signEventJson(): String = runNonSuspending { signer.signEvent(unsignedJson) }!!
+
+    @Benchmark
+    fun treeBaseline(): SignedEvent {
+        val tags = buildJsonArray { event.tags.forEach { tag -> add(buildJsonArray { tag.forEach { add(it) } }) } }
+        val preimage = buildJsonArray {
+            add(0)
+            add(event.pubkey)
+            add(event.createdAt)
+            add(event.kind)
+            add(tags)
+            add(event.content)
+        }.toString()
+        val idBytes = MessageDigest.getInstance("SHA-256").digest(preimage.toByteArray())
+        val sig = Secp256k1.get().signSchnorr(idBytes, privateKey, null).toHex()
+        val json = buildJsonObject {
+            put("id", idBytes.toHex())
+            put("pubkey", event.pubkey)
+            put("created_at", event.createdAt)
+            put("kind", event.kind)
+            put("tags", tags)
+            put("content", event.content)
+            put("sig", sig)
+        }.toString()
+        return SignedEvent(idBytes.toHex(), json)
+    }
+}
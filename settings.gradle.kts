@@ -23,3 +23,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "FiatLife"
 include(":app")
+include(":benchmark")